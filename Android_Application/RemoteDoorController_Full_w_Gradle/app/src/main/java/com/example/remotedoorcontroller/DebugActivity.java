@@ -0,0 +1,124 @@
+package com.example.remotedoorcontroller;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Debug screen showing link statistics gathered while talking to door controllers,
+ * such as the round-trip latency of each command (button press to confirmed door
+ * state), how long lost links took to reconnect, and where the time to connect
+ * to each door went, link-level counters such as bytes and reads per door, followed by
+ * the last hour of the audit journal. The report can be saved to the application's files
+ * directory so it can be pulled off the device, along with a CSV row of link metrics per door.
+ * Reading the journal and writing the files take a while, so the report is built
+ * and saved on a background thread and only shown on the GUI thread.
+ *
+ * @author Colby Bratton
+ */
+public class DebugActivity extends AppCompatActivity {
+
+    // Name of the file the report is saved to
+    private final static String REPORT_FILE = "link_report.txt";
+    // Name of the CSV file link metrics are appended to, one row per door per save
+    private final static String METRICS_FILE = "link_metrics.csv";
+    // Age of the oldest audit journal records shown
+    private final static long JOURNAL_SHOWN_MILLIS = 60 * 60 * 1000L;
+    // Thread reports are built and saved on, one at a time (shared by every debug screen)
+    private final static ExecutorService REPORTER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DebugReport");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Handler of the GUI thread, where built reports are shown
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Generates the debug screen and establishes the save button
+     *
+     * @param savedInstanceState state of the previous activity (such as MainActivity)
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+
+        final Button buttonSaveReport = findViewById(R.id.buttonSaveReport);
+        buttonSaveReport.setOnClickListener(view -> {
+            buttonSaveReport.setEnabled(false);
+            final File reportFile = new File(getFilesDir(), REPORT_FILE);
+            final File metricsFile = new File(getFilesDir(), METRICS_FILE);
+            REPORTER.execute(() -> {
+                String message;
+                try (Writer writer = new FileWriter(reportFile)) {
+                    writer.write(buildReport());
+                    // Rows from every phone can be put together to compare doors across the fleet
+                    MainActivity.DOORS.getMetrics().exportTo(metricsFile, Build.MODEL);
+                    message = "Report saved to " + reportFile.getPath();
+                } catch (IOException e) {
+                    Log.e("Debug", "Unable to save report", e);
+                    message = "Unable to save report";
+                }
+                final String result = message;
+                handler.post(() -> {
+                    buttonSaveReport.setEnabled(true);
+                    Snackbar.make(view, result, Snackbar.LENGTH_LONG).show();
+                });
+            });
+        });
+    }
+
+    /**
+     * Refreshes the report every time the screen is shown
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        final TextView textReport = findViewById(R.id.textViewReport);
+        REPORTER.execute(() -> {
+            final String report = buildReport();
+            handler.post(() -> textReport.setText(report));
+        });
+    }
+
+    /**
+     * Drops reports built for this screen that have not been shown yet
+     */
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacksAndMessages(null);
+        super.onDestroy();
+    }
+
+    /**
+     * Builds the text report of every statistic gathered so far. Scans the
+     * audit journal, so runs on REPORTER, never on the GUI thread.
+     *
+     * @return text report
+     */
+    private String buildReport() {
+        long now = System.currentTimeMillis();
+        return "Command round-trip latency\n" + MainActivity.LATENCY.report()
+                + "\nLink metrics\n" + MainActivity.DOORS.getMetrics().report()
+                + "\nRound-trip time\n" + MainActivity.DOORS.rttReport()
+                + "\nReconnects\n" + MainActivity.DOORS.reconnectReport()
+                + "\nStartup traces\n" + MainActivity.DOORS.traceReport()
+                + "\nAudit journal (last hour)\n" + MainActivity.JOURNAL.report(now - JOURNAL_SHOWN_MILLIS, now);
+    }
+}
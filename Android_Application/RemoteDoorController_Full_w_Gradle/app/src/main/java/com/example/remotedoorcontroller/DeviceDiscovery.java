@@ -0,0 +1,283 @@
+package com.example.remotedoorcontroller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finds Bluetooth devices for SelectDeviceActivity without blocking the GUI thread.
+ * Paired devices are read on a background thread and handed over in batches, and
+ * unpaired devices found by active discovery are added as they are found. The
+ * listener is given a fresh snapshot of every device found so far at most once per
+ * PUBLISH_INTERVAL_MILLIS, so a tablet paired with hundreds of door controllers
+ * fills its list gradually instead of freezing while it is built.
+ *
+ * @author Colby Bratton
+ */
+public class DeviceDiscovery {
+
+    /**
+     * Receives the devices found so far. Called on the GUI thread.
+     */
+    public interface Listener {
+        /**
+         * Called when devices have been found since the last call
+         *
+         * @param devices snapshot of every device found so far, in the order found
+         */
+        void onDevicesChanged(List<DeviceInfoModel> devices);
+
+        /**
+         * Called once paired devices have been read and active discovery has ended
+         *
+         * @param count number of devices found
+         */
+        void onDiscoveryFinished(int count);
+    }
+
+    // Number of paired devices read before they are handed over
+    private final static int BATCH_SIZE = 32;
+    // Shortest time between two snapshots handed to the listener
+    private final static long PUBLISH_INTERVAL_MILLIS = 250;
+
+    // Context the discovery receiver is registered with
+    private final Context context;
+    // Receiver of the devices found
+    private final Listener listener;
+    // Bluetooth adapter of local device, or null if the device has none
+    private final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    // Handler of the GUI thread, where devices are collected and handed over
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Thread the paired devices are read on
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DeviceDiscovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Devices found so far, keyed by address, in the order found (GUI thread only)
+    private final Map<String, DeviceInfoModel> devices = new LinkedHashMap<>();
+    // Whether a snapshot is waiting to be handed over (GUI thread only)
+    private boolean publishPending = false;
+    // Whether the paired devices have all been read (GUI thread only)
+    private boolean pairedDone = false;
+    // Whether active discovery is running (GUI thread only)
+    private boolean discovering = false;
+    // Whether the discovery receiver is registered (GUI thread only)
+    private boolean receiverRegistered = false;
+    // Whether stop() has been called
+    private volatile boolean stopped = false;
+
+    // Hands the devices found so far to the listener
+    private final Runnable publish = this::publishSnapshot;
+
+    // Receives devices found by active discovery, and its end
+    private final BroadcastReceiver discoveryReceiver = new BroadcastReceiver() {
+        /**
+         * Adds a device found by active discovery, or notes that discovery ended
+         *
+         * @param context context the receiver is registered with
+         * @param intent  broadcast that was received
+         */
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (BluetoothDevice.ACTION_FOUND.equals(intent.getAction())) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device == null) {
+                    return;
+                }
+                String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                add(new DeviceInfoModel(name != null ? name : device.getAddress(),
+                        device.getAddress(), false, rssi));
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(intent.getAction())) {
+                discovering = false;
+                finishIfDone();
+            }
+        }
+    };
+
+    /**
+     * Constructor for a discovery that has not been started yet
+     *
+     * @param context  context the discovery receiver is registered with
+     * @param listener receiver of the devices found, called on the GUI thread
+     */
+    public DeviceDiscovery(Context context, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    /**
+     * States whether devices can be found at all
+     *
+     * @return true if the local device has a Bluetooth adapter that is turned on
+     */
+    public boolean isBluetoothAvailable() {
+        return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
+    }
+
+    /**
+     * Starts reading paired devices in the background and, if allowed, searching
+     * for unpaired ones. Returns straight away. Must be called on the GUI thread.
+     *
+     * @param activeDiscovery whether to also search for unpaired devices
+     */
+    public void start(boolean activeDiscovery) {
+        if (!isBluetoothAvailable()) {
+            pairedDone = true;
+            finishIfDone();
+            return;
+        }
+        executor.execute(this::readPairedDevices);
+        if (activeDiscovery) {
+            startActiveDiscovery();
+        }
+    }
+
+    /**
+     * Starts searching for unpaired devices, such as once the location permission
+     * it needs has been granted. Must be called on the GUI thread.
+     */
+    public void startActiveDiscovery() {
+        if (stopped || discovering || !isBluetoothAvailable()) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        if (!receiverRegistered) {
+            context.registerReceiver(discoveryReceiver, filter);
+            receiverRegistered = true;
+        }
+        discovering = bluetoothAdapter.startDiscovery();
+        if (!discovering) {
+            Log.i("Status", "Active discovery could not be started");
+        }
+    }
+
+    /**
+     * Stops searching and stops handing devices to the listener. Must be called
+     * on the GUI thread.
+     */
+    public void stop() {
+        stopped = true;
+        executor.shutdownNow();
+        handler.removeCallbacks(publish);
+        if (discovering) {
+            // Discovery slows down connecting, so never leave it running
+            bluetoothAdapter.cancelDiscovery();
+            discovering = false;
+        }
+        if (receiverRegistered) {
+            context.unregisterReceiver(discoveryReceiver);
+            receiverRegistered = false;
+        }
+    }
+
+    /**
+     * Reads the paired devices, handing them to the GUI thread in batches. Runs
+     * on the background thread, as reading each device's name is a call into
+     * the Bluetooth service.
+     */
+    private void readPairedDevices() {
+        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
+        List<DeviceInfoModel> batch = new ArrayList<>(BATCH_SIZE);
+        if (pairedDevices != null) {
+            Iterator<BluetoothDevice> iterator = pairedDevices.iterator();
+            while (iterator.hasNext() && !stopped) {
+                BluetoothDevice device = iterator.next();
+                String name = device.getName();
+                batch.add(new DeviceInfoModel(name != null ? name : device.getAddress(),
+                        device.getAddress(), true));
+                if (batch.size() == BATCH_SIZE) {
+                    handOver(batch, false);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        }
+        handOver(batch, true);
+    }
+
+    /**
+     * Passes a batch of paired devices from the background thread to the GUI thread
+     *
+     * @param batch devices read since the last batch
+     * @param last  whether every paired device has been read
+     */
+    private void handOver(final List<DeviceInfoModel> batch, final boolean last) {
+        handler.post(() -> {
+            for (DeviceInfoModel device : batch) {
+                add(device);
+            }
+            if (last) {
+                pairedDone = true;
+                finishIfDone();
+            }
+        });
+    }
+
+    /**
+     * Records a device found on the GUI thread and schedules a snapshot if it is
+     * new or its entry changed. Paired devices replace the same device found by
+     * active discovery, keeping the signal strength it was found with.
+     *
+     * @param device device that was found
+     */
+    private void add(DeviceInfoModel device) {
+        DeviceInfoModel known = devices.get(device.getDeviceHardwareAddress());
+        if (known != null) {
+            DeviceInfoModel merged = device.isPaired() || !known.isPaired() ? device : known;
+            int rssi = device.getRssi() != DeviceInfoModel.NO_RSSI ? device.getRssi() : known.getRssi();
+            if (merged.getRssi() != rssi) {
+                merged = merged.withRssi(rssi);
+            }
+            if (merged.hasSameContents(known)) {
+                return;
+            }
+            device = merged;
+        }
+        devices.put(device.getDeviceHardwareAddress(), device);
+        if (!publishPending) {
+            publishPending = true;
+            handler.postDelayed(publish, PUBLISH_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Hands a snapshot of the devices found so far to the listener
+     */
+    private void publishSnapshot() {
+        publishPending = false;
+        if (!stopped) {
+            listener.onDevicesChanged(new ArrayList<>(devices.values()));
+        }
+    }
+
+    /**
+     * Hands over the final snapshot and reports the end of discovery once paired
+     * devices have been read and active discovery has ended
+     */
+    private void finishIfDone() {
+        if (!pairedDone || discovering || stopped) {
+            return;
+        }
+        handler.removeCallbacks(publish);
+        publishSnapshot();
+        listener.onDiscoveryFinished(devices.size());
+    }
+}
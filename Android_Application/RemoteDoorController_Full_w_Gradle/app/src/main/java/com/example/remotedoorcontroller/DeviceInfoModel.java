@@ -2,28 +2,70 @@ package com.example.remotedoorcontroller;
 
 /**
  * Represents the Model Information of different devices that are paired
- * via Bluetooth to the local device. Provides information such as
- * device name and the MAC address to SelectDeviceActivity for list generation.
+ * via Bluetooth to the local device, or were found by active discovery.
+ * Provides information such as device name and the MAC address to
+ * SelectDeviceActivity for list generation. Instances are immutable, so a
+ * list of them can be compared with DiffUtil on a background thread. Each
+ * model has an ID derived from its MAC address (see DeviceId, the same as in
+ * the audit journal), which the device list uses as the stable ID of its entry.
  *
  * @author Colby Bratton
  */
 public class DeviceInfoModel {
 
+    // Signal strength of a device that has not been heard by active discovery
+    public final static int NO_RSSI = Short.MIN_VALUE;
+
     // Name of Bluetooth device candidate
     private final String deviceName;
     // MAC of Bluetooth device candidate
     private final String deviceHardwareAddress;
+    // Whether the device is paired, rather than only found by active discovery
+    private final boolean paired;
+    // Signal strength in dBm when last found by active discovery, or NO_RSSI
+    private final int rssi;
+    // Stable ID of the device, derived from its MAC address
+    private final long id;
 
     /**
-     * Constructor to take the information for an external device and
+     * Constructor to take the information for a paired external device and
      * store it as an object to be referenced later
      *
      * @param deviceName            name of external Bluetooth device
      * @param deviceHardwareAddress MAC address of external Bluetooth device
      */
     public DeviceInfoModel(String deviceName, String deviceHardwareAddress) {
+        this(deviceName, deviceHardwareAddress, true);
+    }
+
+    /**
+     * Constructor to take the information for an external device and
+     * store it as an object to be referenced later
+     *
+     * @param deviceName            name of external Bluetooth device
+     * @param deviceHardwareAddress MAC address of external Bluetooth device
+     * @param paired                whether the device is paired with the local device
+     */
+    public DeviceInfoModel(String deviceName, String deviceHardwareAddress, boolean paired) {
+        this(deviceName, deviceHardwareAddress, paired, NO_RSSI);
+    }
+
+    /**
+     * Constructor to take the information for an external device, including
+     * the signal strength it was found with, and store it as an object to be
+     * referenced later
+     *
+     * @param deviceName            name of external Bluetooth device
+     * @param deviceHardwareAddress MAC address of external Bluetooth device
+     * @param paired                whether the device is paired with the local device
+     * @param rssi                  signal strength in dBm, or NO_RSSI if unknown
+     */
+    public DeviceInfoModel(String deviceName, String deviceHardwareAddress, boolean paired, int rssi) {
         this.deviceName = deviceName;
         this.deviceHardwareAddress = deviceHardwareAddress;
+        this.paired = paired;
+        this.rssi = rssi;
+        this.id = DeviceId.fromAddress(deviceHardwareAddress);
     }
 
     /**
@@ -44,4 +86,75 @@ public class DeviceInfoModel {
         return deviceHardwareAddress;
     }
 
+    /**
+     * Getter for paired
+     *
+     * @return true if the device is paired, false if only found by active discovery
+     */
+    public boolean isPaired() {
+        return paired;
+    }
+
+    /**
+     * Getter for rssi
+     *
+     * @return signal strength in dBm when last found, or NO_RSSI if unknown
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Getter for id
+     *
+     * @return stable ID of the device, derived from its MAC address
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Copies the model with a new signal strength, such as when a paired device
+     * is also found by active discovery
+     *
+     * @param rssi signal strength in dBm, or NO_RSSI if unknown
+     * @return model with the same name, address, and pairing
+     */
+    public DeviceInfoModel withRssi(int rssi) {
+        return new DeviceInfoModel(deviceName, deviceHardwareAddress, paired, rssi);
+    }
+
+    /**
+     * States whether another model shows the same information, so its list
+     * entry does not need to be bound again
+     *
+     * @param other model to compare with
+     * @return true if name, address, pairing, and signal strength are the same
+     */
+    public boolean hasSameContents(DeviceInfoModel other) {
+        return hasSameStatus(other) && hasSameName(other);
+    }
+
+    /**
+     * States whether another model has the same pairing and signal strength, the
+     * parts of a list entry that can be rebound on their own
+     *
+     * @param other model to compare with
+     * @return true if pairing and signal strength are the same
+     */
+    public boolean hasSameStatus(DeviceInfoModel other) {
+        return paired == other.paired && rssi == other.rssi;
+    }
+
+    /**
+     * States whether another model has the same name and address
+     *
+     * @param other model to compare with
+     * @return true if name and address are the same
+     */
+    public boolean hasSameName(DeviceInfoModel other) {
+        return deviceHardwareAddress.equals(other.deviceHardwareAddress)
+                && (deviceName == null ? other.deviceName == null : deviceName.equals(other.deviceName));
+    }
+
 }
\ No newline at end of file
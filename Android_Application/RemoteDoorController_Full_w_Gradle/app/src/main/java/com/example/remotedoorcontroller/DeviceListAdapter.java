@@ -9,51 +9,169 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
 /**
- * RecyclerView based adapter for generating a list of paired Bluetooth devices
- * for SelectDeviceActivity. Used by user to select which external Bluetooth device
- * they want to communicate with using MainActivity
+ * RecyclerView based adapter for generating a list of Bluetooth devices for
+ * SelectDeviceActivity. Used by user to select which external Bluetooth device
+ * they want to communicate with using MainActivity. The list is replaced with
+ * submitList() as devices are found; the old and new lists are compared on a
+ * background thread, so only entries that were added or changed are bound, and
+ * an entry whose pairing or signal strength changed only has its status line
+ * rebound. Entries have stable IDs derived from the MAC address, and binding
+ * allocates nothing: each ViewHolder gets its click listener and status text
+ * buffer once, when it is created.
  *
  * @author Colby Bratton
  */
-public class DeviceListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class DeviceListAdapter extends ListAdapter<DeviceInfoModel, DeviceListAdapter.ViewHolder> {
+
+    // View type of a device entry (the only type in the list)
+    public final static int TYPE_DEVICE = 0;
+    // Payload of an entry whose only change is its pairing or signal strength
+    private final static Object PAYLOAD_STATUS = new Object();
+
+    // Compares list entries by address, and their contents field by field
+    private final static DiffUtil.ItemCallback<DeviceInfoModel> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<DeviceInfoModel>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull DeviceInfoModel oldItem,
+                                               @NonNull DeviceInfoModel newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull DeviceInfoModel oldItem,
+                                                  @NonNull DeviceInfoModel newItem) {
+                    return oldItem.hasSameContents(newItem);
+                }
+
+                @Override
+                public Object getChangePayload(@NonNull DeviceInfoModel oldItem,
+                                               @NonNull DeviceInfoModel newItem) {
+                    // Only the status changed if the name is the same
+                    return oldItem.hasSameName(newItem) ? PAYLOAD_STATUS : null;
+                }
+            };
 
     // Current application context/state in which list will be displayed
     private final Context context;
-    // List of paired external Bluetooth devices
-    private final List<Object> deviceList;
 
     /**
-     * Describes item view for current device being displayed.
+     * Describes item view for current device being displayed. Listens for its
+     * own clicks and looks up the device it shows when clicked, so binding it
+     * to another device only sets its text.
      */
-    public static class ViewHolder extends RecyclerView.ViewHolder {
-        TextView textName;
-        TextView textAddress;
-        LinearLayout linearLayout;
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView textName;
+        final TextView textAddress;
+        final TextView textStatus;
+        final LinearLayout linearLayout;
+        // Reused to build the status line without allocating
+        private final StringBuilder status = new StringBuilder(24);
+        // Status labels, looked up once
+        private final String pairedLabel;
+        private final String nearbyLabel;
 
+        /**
+         * Constructor that finds the views of an entry and attaches its click listener
+         *
+         * @param v view of the entry
+         */
         public ViewHolder(View v) {
             super(v);
             textName = v.findViewById(R.id.textViewDeviceName);
             textAddress = v.findViewById(R.id.textViewDeviceAddress);
+            textStatus = v.findViewById(R.id.textViewDeviceStatus);
             linearLayout = v.findViewById(R.id.linearLayoutDeviceInfo);
+            pairedLabel = v.getContext().getString(R.string.device_paired);
+            nearbyLabel = v.getContext().getString(R.string.device_nearby);
+            linearLayout.setOnClickListener(this);
+        }
+
+        /**
+         * Shows every field of a device
+         *
+         * @param device device to show
+         */
+        void bind(DeviceInfoModel device) {
+            textName.setText(device.getDeviceName());
+            textAddress.setText(device.getDeviceHardwareAddress());
+            bindStatus(device);
+        }
+
+        /**
+         * Shows the pairing and signal strength of a device
+         *
+         * @param device device to show
+         */
+        void bindStatus(DeviceInfoModel device) {
+            status.setLength(0);
+            status.append(device.isPaired() ? pairedLabel : nearbyLabel);
+            if (device.getRssi() != DeviceInfoModel.NO_RSSI) {
+                status.append(", ").append(device.getRssi()).append(" dBm");
+            }
+            textStatus.setText(status);
+        }
+
+        /**
+         * Takes the user selected device entry from device list and sends the
+         * selected devices information back to MainActivity
+         *
+         * @param view view of the entry that was clicked
+         */
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                // Entry is being removed
+                return;
+            }
+            DeviceInfoModel deviceInfoModel = getItem(position);
+            Intent intent = new Intent(context, MainActivity.class);
+            // Send device details to the MainActivity
+            intent.putExtra("deviceName", deviceInfoModel.getDeviceName());
+            intent.putExtra("deviceAddress", deviceInfoModel.getDeviceHardwareAddress());
+            // Call MainActivity
+            context.startActivity(intent);
         }
     }
 
     /**
-     * Constructor for current device list
+     * Constructor for an empty device list, filled in with submitList()
      *
-     * @param context    context of current activity (such as SelectDeviceActivity)
-     * @param deviceList list of currently paired Bluetooth devices stored as
-     *                   DeviceInfoModel objects
+     * @param context context of current activity (such as SelectDeviceActivity)
      */
-    public DeviceListAdapter(Context context, List<Object> deviceList) {
+    public DeviceListAdapter(Context context) {
+        super(DIFF_CALLBACK);
         this.context = context;
-        this.deviceList = deviceList;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Getter for the stable ID of an entry
+     *
+     * @param position position of device in the device list
+     * @return ID derived from the device's MAC address
+     */
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
 
+    /**
+     * Getter for the view type of an entry
+     *
+     * @param position position of device in the device list
+     * @return TYPE_DEVICE
+     */
+    @Override
+    public int getItemViewType(int position) {
+        return TYPE_DEVICE;
     }
 
     /**
@@ -65,44 +183,38 @@ public class DeviceListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
      * @return ViewHolder representing new entry in the device list
      */
     @NonNull
-    public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.device_info_layout, parent, false);
         return new ViewHolder(v);
     }
 
     /**
-     * Takes the user selected device entry from device list and sends the selected
-     * devices information back to MainActivity
+     * Shows a device in an entry
      *
      * @param holder   ViewHolder container for current device
      * @param position position of device in the device list
      */
     @Override
-    public void onBindViewHolder(@NonNull final RecyclerView.ViewHolder holder, final int position) {
-        ViewHolder itemHolder = (ViewHolder) holder;
-        final DeviceInfoModel deviceInfoModel = (DeviceInfoModel) deviceList.get(position);
-        itemHolder.textName.setText(deviceInfoModel.getDeviceName());
-        itemHolder.textAddress.setText(deviceInfoModel.getDeviceHardwareAddress());
-
-        // When a device is selected
-        itemHolder.linearLayout.setOnClickListener(view -> {
-            Intent intent = new Intent(context, MainActivity.class);
-            // Send device details to the MainActivity
-            intent.putExtra("deviceName", deviceInfoModel.getDeviceName());
-            intent.putExtra("deviceAddress", deviceInfoModel.getDeviceHardwareAddress());
-            // Call MainActivity
-            context.startActivity(intent);
-
-        });
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bind(getItem(position));
     }
 
     /**
-     * Getter for size of device list
+     * Shows a device in an entry, only rebinding its status line if that is all
+     * that changed
      *
-     * @return size of device list as integer
+     * @param holder   ViewHolder container for current device
+     * @param position position of device in the device list
+     * @param payloads changes since the entry was last bound, empty for a full bind
      */
     @Override
-    public int getItemCount() {
-        return deviceList.size();
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else {
+            holder.bindStatus(getItem(position));
+        }
     }
-}
\ No newline at end of file
+}
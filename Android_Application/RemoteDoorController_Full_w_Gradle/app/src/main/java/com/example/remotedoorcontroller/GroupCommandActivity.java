@@ -0,0 +1,156 @@
+package com.example.remotedoorcontroller;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Screen sending LOCK or CLOSE to a group of door controllers at once (such as
+ * every door shown in SelectDeviceActivity) and showing the live result: how
+ * many doors are confirmed, failed, and pending, and each door's outcome. The
+ * doors are worked on in parallel by a GroupCommand, as many at once as
+ * MainActivity.DOORS has links, so the group takes about as long as its
+ * slowest door. The group outlives the screen: a screen recreated after a
+ * configuration change (such as a rotation) shows the running group instead
+ * of sending the command again.
+ *
+ * @author Colby Bratton
+ */
+public class GroupCommandActivity extends AppCompatActivity implements GroupCommand.Listener {
+
+    // Names of the extras the group is passed in
+    public final static String EXTRA_COMMAND = "command";
+    public final static String EXTRA_ADDRESSES = "addresses";
+    // Shortest time between refreshes of the report, so a large group settling
+    // at once does not redraw it for every door
+    private final static long REFRESH_MILLIS = 100;
+
+    // Group started by the latest screen, kept for the screens recreated from it (GUI thread only)
+    private static GroupCommand running;
+    // Screen showing the running group, told of its progress
+    private static volatile GroupCommandActivity shownOn;
+    // Forwards the running group's progress to the screen showing it, if any
+    private final static GroupCommand.Listener RELAY = new GroupCommand.Listener() {
+        @Override
+        public void onDoorSettled(GroupCommand group, String address, int outcome) {
+            GroupCommandActivity activity = shownOn;
+            if (activity != null) {
+                activity.onDoorSettled(group, address, outcome);
+            }
+        }
+
+        @Override
+        public void onFinished(GroupCommand group) {
+            GroupCommandActivity activity = shownOn;
+            if (activity != null) {
+                activity.onFinished(group);
+            }
+        }
+    };
+
+    // Posts refreshes of the report to the GUI thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Whether a refresh is already posted
+    private final AtomicBoolean refreshPosted = new AtomicBoolean(false);
+    // Redraws the report
+    private final Runnable refresh = () -> {
+        refreshPosted.set(false);
+        showReport();
+    };
+    // Group shown on this screen
+    private GroupCommand group;
+    // Shows the report of the group
+    private TextView textReport;
+
+    /**
+     * Generates the report screen and starts the group command, or shows the
+     * running one if the screen is being recreated
+     *
+     * @param savedInstanceState state of the previous activity (such as SelectDeviceActivity),
+     *                           or of this screen before it was recreated
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_group_command);
+        textReport = findViewById(R.id.textViewGroupReport);
+
+        if (savedInstanceState != null) {
+            if (running == null) {
+                // The process was restarted, the command is never sent twice
+                finish();
+                return;
+            }
+            group = running;
+        } else {
+            // As many doors at once as there are links, each given its own timeout
+            byte command = getIntent().getByteExtra(EXTRA_COMMAND, DoorProtocol.LOCK);
+            String[] addresses = getIntent().getStringArrayExtra(EXTRA_ADDRESSES);
+            group = new GroupCommand(MainActivity.DOORS, command,
+                    Arrays.asList(addresses != null ? addresses : new String[0]),
+                    MainActivity.DOORS.getMaxLinks(), GroupCommand.DEFAULT_DOOR_TIMEOUT_MILLIS, RELAY);
+            running = group;
+            group.start();
+        }
+        shownOn = this;
+        showReport();
+    }
+
+    /**
+     * Stops refreshing the report, the group carries on in the background
+     */
+    @Override
+    protected void onDestroy() {
+        if (shownOn == this) {
+            shownOn = null;
+        }
+        handler.removeCallbacks(refresh);
+        super.onDestroy();
+    }
+
+    /**
+     * Schedules a refresh of the report. Called on one of the group's threads,
+     * through RELAY while this screen shows the group.
+     *
+     * @param group   group command the door belongs to
+     * @param address address of the door controller
+     * @param outcome CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+     */
+    @Override
+    public void onDoorSettled(GroupCommand group, String address, int outcome) {
+        if (outcome != GroupCommand.CONFIRMED) {
+            Log.e("Status", address + ": group command not confirmed (outcome " + outcome + ")");
+        }
+        // A refresh already posted will show this door too
+        if (refreshPosted.compareAndSet(false, true)) {
+            handler.postDelayed(refresh, REFRESH_MILLIS);
+        }
+    }
+
+    /**
+     * Shows the final report. Called on one of the group's threads.
+     *
+     * @param group group command that finished
+     */
+    @Override
+    public void onFinished(GroupCommand group) {
+        Log.i("Status", "Group command finished in " + group.getElapsedMillis() + " ms");
+        handler.removeCallbacks(refresh);
+        refreshPosted.set(true);
+        handler.post(refresh);
+    }
+
+    /**
+     * Shows the current report of the group
+     */
+    private void showReport() {
+        textReport.setText(group.report());
+    }
+}
@@ -4,9 +4,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import android.annotation.SuppressLint;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
@@ -16,20 +14,37 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
+import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.UUID;
+import java.util.List;
 
-import static android.content.ContentValues.TAG;
+import static com.example.remotedoorcontroller.DoorProtocol.NULL_OP;
+import static com.example.remotedoorcontroller.DoorStateMachine.BUTTON_COUNT;
+import static com.example.remotedoorcontroller.DoorStateMachine.ROLLED_BACK;
+import static com.example.remotedoorcontroller.DoorStateMachine.UNCHANGED;
 
 /**
  * Handles to sending and receiving of bit commands and responses between the local
  * device and the external Bluetooth device. Utilizes Threads to enable
  * seamless sending and receiving of data. Additionally, in tandem with the data
  * transfer, this activity handles different GUI changes and functions, such as the
- * availability and functionality of the door control buttons.
+ * availability and functionality of the door control buttons. Links to previously
+ * selected external devices stay open (see DoorConnectionManager), so switching
+ * back to one of them does not require reconnecting. The last state of every
+ * device is kept in a DoorRegistry, so a device's state is shown as soon as it
+ * is selected, and replaced by the live state once the device reports. A
+ * button press shows the state it is expected to lead to straight away, with
+ * the progress bar as a pending indicator, and is rolled back with an error
+ * if the door refuses it, reports another state, or does not answer in time.
+ * A press whose answer is later than the door's measured round trip is sent
+ * again, with the wait doubled each time, and only given up on after
+ * PRESS_ATTEMPTS such waits.
+ * Doors can also be sent commands at set times by the DoorScheduler (see
+ * ScheduleActivity), which runs for as long as the app's process does, and
+ * has a system alarm bring the process back for its next rule once Android
+ * has killed it (see ScheduleAlarmReceiver).
  *
  * @author Colby Bratton
  */
@@ -42,35 +57,180 @@ public class MainActivity extends AppCompatActivity {
 
     public static Handler handlerGUI;
 
-    public static BluetoothSocket BTSocket;
-
-    // Separate thread to handle connecting to the HC-05 via Bluetooth
-    // as well as to handle reading and writing from/to the HC-05
-    public static ConnectedThread BTTransmissionThread;
-    public static CreateConnectThread createBTTransmissionThread;
+    // Number of external devices that may be connected at the same time
+    private final static int MAX_DOOR_LINKS = DoorConnectionManager.DEFAULT_MAX_LINKS;
 
     // used in bluetooth handler to identify connection status
     private final static int CONNECTION_STATUS = 1;
     // used in bluetooth handler to identify response message
     private final static int RESPONSE = 2;
+    // used in bluetooth handler to identify the answer to a framed command
+    private final static int COMMAND_RESULT = 3;
+    // used in bluetooth handler to identify the door registry being read
+    private final static int CACHED_STATE = 4;
+    // used in bluetooth handler to identify a predicted state that was not answered in time
+    private final static int PENDING_TIMEOUT = 5;
+    // Number of round-trip timeouts a press is waited for before it is rolled back
+    private final static int PRESS_ATTEMPTS = 3;
+
+    // State of the door currently shown, deciding what each button does. Presses
+    // show their expected state at once instead of waiting (GUI thread only)
+    private final static DoorStateMachine DOOR_MACHINE = new DoorStateMachine(true);
+    // Label of the button sending each bit command, indexed by command
+    private final static int[] COMMAND_LABELS = {0, R.string.open_door_timed,
+            R.string.open_door_hold, R.string.close_door, R.string.lock_door, R.string.unlock_door};
+    // Shown while connecting for the last known state, indexed by state
+    private final static String[] STATE_NAMES = {"", "timed open", "held open", "closed",
+            "locked", "unlocked"};
+    // Shown when a command is rolled back, indexed by command
+    private final static String[] COMMAND_NAMES = {"", "open", "hold open", "close", "lock",
+            "unlock"};
+    // MAC address of the external device currently shown (and commanded)
+    private static volatile String shownAddress;
+    // Whether the shown device is connected (GUI thread only)
+    private boolean connected = false;
+
+    // Round-trip latencies of commands sent to every external device (see DebugActivity)
+    public final static LatencyRecorder LATENCY = new LatencyRecorder();
+
+    // Forwards events from every reading thread to handlerGUI, tagged with the device's address
+    // (dropped while no screen has been shown, such as when an alarm started the process)
+    private final static DoorConnectionManager.Listener GUI_LISTENER = new DoorConnectionManager.Listener() {
+        @Override
+        public void onConnected(DoorSession session) {
+            Log.e("Status", "Device connected (" + DOORS.getSessionCount() + " of "
+                    + DOORS.getMaxLinks() + " links open)");
+            REGISTRY.recordConnected(session.getAddress());
+            postToGui(CONNECTION_STATUS, 1, -1, session.getAddress());
+            // A reused connection may already hold a response that was not shown yet
+            postToGui(RESPONSE, 0, 0, session.getAddress());
+        }
+
+        @Override
+        public void onConnectFailed(String address, IOException cause) {
+            Log.e("Status", "Cannot connect to device", cause);
+            postToGui(CONNECTION_STATUS, -1, -1, address);
+        }
+
+        @Override
+        public void onConnectTraced(DoorSession session, ConnectTrace trace) {
+            Log.i("Startup", trace.toString());
+        }
+
+        @Override
+        public void onStateAvailable(DoorSession session) {
+            REGISTRY.recordState(session.getAddress(), session.getLastKnownState());
+            postToGui(RESPONSE, 0, 0, session.getAddress());
+        }
+
+        @Override
+        public void onCommandAnswered(DoorSession session, int sequence, boolean accepted, int state) {
+            REGISTRY.recordState(session.getAddress(), state);
+            // The sequence id tells the answer to a button press from the others
+            postToGui(COMMAND_RESULT, sequence << 1 | (accepted ? 1 : 0), state,
+                    session.getAddress());
+        }
+
+        @Override
+        public void onLinkLost(DoorSession session, IOException cause) {
+            Log.e("Status", "Connection to " + session.getAddress() + " lost, reconnecting", cause);
+            REGISTRY.recordLinkLost(session.getAddress());
+            postToGui(CONNECTION_STATUS, 0, -1, session.getAddress());
+        }
 
-    // Arduino Bit Commands
-    private final static byte NULL_OP = 0b0000;
-    private final static byte TIMED_OPEN = 0b0001;
-    private final static byte HOLD_OPEN = 0b0010;
-    private final static byte CLOSE = 0b0011;
-    private final static byte LOCK = 0b0100;
-    private final static byte UNLOCK = 0b0101;
+        @Override
+        public void onReconnected(DoorSession session) {
+            Log.i("Status", "Reconnected to " + session.getAddress());
+            REGISTRY.recordConnected(session.getAddress());
+            postToGui(CONNECTION_STATUS, 1, -1, session.getAddress());
+            postToGui(RESPONSE, 0, 0, session.getAddress());
+        }
+
+        @Override
+        public void onDisconnected(DoorSession session, IOException cause) {
+            ConnectedThread connection = session.getConnection();
+            Log.i("Status", session.getAddress() + ": received " + connection.getBytesReceived()
+                    + " bytes in " + connection.getReadCount() + " reads ("
+                    + connection.getBytesPerRead() + " bytes per read)");
+            if (cause != null) {
+                Log.e("Status", "Connection to " + session.getAddress() + " lost", cause);
+            }
+        }
+    };
+
+    // Name of the file the connection parameters of known devices are kept in
+    private final static String CONNECTION_PARAMS_FILE = "connection_params";
+    // Service UUIDs and socket types of devices connected to before (see connectionParams())
+    private static ConnectionParamsCache connectionParams;
+    // Application context, only used to find the files directory (outlives every activity)
+    @SuppressLint("StaticFieldLeak")
+    private static Context applicationContext;
+
+    // Name of the file the last known state of every device is kept in
+    private final static String REGISTRY_FILE = "door_registry";
+    // Last known state and link statistics of every device, read and written
+    // on its own thread (also tells SelectDeviceActivity which doors are known)
+    public final static DoorRegistry REGISTRY = new DoorRegistry(
+            () -> new File(applicationContext.getFilesDir(), REGISTRY_FILE));
+    // Whether the registry has been asked to read its file (GUI thread only)
+    private static boolean registryRequested = false;
+
+    // Live links to every connected external device, keyed by MAC address. Transports
+    // are created on a connecting thread, so nothing here runs on the GUI thread
+    public final static DoorConnectionManager DOORS = new DoorConnectionManager(MAX_DOOR_LINKS,
+            address -> new RfcommTransport(address, connectionParams()),
+            GUI_LISTENER, LATENCY);
+
+    // Sends the commands of due scheduled rules, over one link per door for rules due together
+    public final static ScheduledCommandSender SCHEDULED_SENDER = new ScheduledCommandSender(DOORS,
+            ScheduledCommandSender.DEFAULT_DOOR_TIMEOUT_MILLIS, (action, outcome) -> {
+                if (outcome != GroupCommand.CONFIRMED) {
+                    Log.e("Status", action.getAddress() + ": scheduled rule " + action.getId()
+                            + " not confirmed (outcome " + outcome + ")");
+                }
+            });
+    // Name of the file the scheduled rules are kept in
+    private final static String SCHEDULE_FILE = "door_schedule";
+    // Handler of the screen listing the rules, told when they change, or null
+    public static volatile Handler handlerSchedule;
+    // Rules sending commands to doors at set times, read, fired, and written on
+    // the scheduler's own thread. A system alarm for the next fire brings the
+    // process back for it (see ScheduleAlarmReceiver)
+    public final static DoorScheduler SCHEDULER = new DoorScheduler(
+            () -> new File(applicationContext.getFilesDir(), SCHEDULE_FILE),
+            new DoorScheduler.Listener() {
+                @Override
+                public void onActionsDue(String address, List<ScheduledAction> actions) {
+                    Log.i("Status", address + ": " + actions.size() + " scheduled rules due");
+                    SCHEDULED_SENDER.send(address, actions);
+                }
 
-    // Arduino Bit Responses
-    private final static int DOOR_IS_TIMED = 0b0001;
-    private final static int DOOR_IS_OPEN = 0b0010;
-    private final static int DOOR_IS_CLOSED = 0b0011;
-    private final static int DOOR_IS_LOCKED = 0b0100;
-    private final static int DOOR_IS_UNLOCKED = 0b0101;
+                @Override
+                public void onActionsChanged(DoorScheduler scheduler) {
+                    Handler handler = handlerSchedule;
+                    if (handler != null) {
+                        handler.sendEmptyMessage(0);
+                    }
+                }
 
-    // Last response sent by Arduino
-    private static int lastResponse = 0;
+                @Override
+                public void onNextFireChanged(DoorScheduler scheduler, long fireAt) {
+                    ScheduleAlarmReceiver.arm(applicationContext, fireAt);
+                }
+            });
+    // Whether the scheduler has been started (GUI thread only, see startBackgroundWork())
+    private static boolean schedulerStarted = false;
+
+    // Name of the directory the audit journal's segments are kept in
+    private final static String JOURNAL_DIRECTORY = "audit";
+    // Age after which records are dropped from the audit journal
+    private final static long JOURNAL_RETENTION_MILLIS = 90 * 24 * 60 * 60 * 1000L;
+    // Every command sent, answer, change of door state, and link event, written
+    // on the journal's own thread
+    public final static AuditJournal JOURNAL = new AuditJournal(
+            () -> new File(applicationContext.getFilesDir(), JOURNAL_DIRECTORY));
+    // Whether the journal has been started (GUI thread only)
+    private static boolean journalStarted = false;
 
     /**
      * Generates on-screen GUI, establishes buttons and their abilities,
@@ -86,16 +246,21 @@ public class MainActivity extends AppCompatActivity {
         // "Start" application, set it as current view
         setContentView(R.layout.activity_main);
 
+        // Files are only touched by the connecting threads, never by this one
+        applicationContext = getApplicationContext();
+
         // UI Initialization---------------------------------------------------------
         // Door Control Buttons
         final Button buttonDoorControl = findViewById(R.id.buttonDoorControl);
         final Button buttonHoldControl = findViewById(R.id.buttonHoldControl);
         final Button buttonLockControl = findViewById(R.id.buttonLockControl);
+        // Door Control Buttons, indexed like DoorStateMachine's buttons
+        final Button[] doorButtons = {buttonDoorControl, buttonHoldControl, buttonLockControl};
 
         // Lock control buttons until Bluetooth connection is established
-        buttonDoorControl.setEnabled(false);
-        buttonHoldControl.setEnabled(false);
-        buttonLockControl.setEnabled(false);
+        for (Button button : doorButtons) {
+            button.setEnabled(false);
+        }
 
         // BT Device Connect Button
         final Button buttonConnect = findViewById(R.id.buttonConnect);
@@ -110,17 +275,14 @@ public class MainActivity extends AppCompatActivity {
         if (deviceName != null) {
             // Get the device address
             deviceAddress = getIntent().getStringExtra("deviceAddress");
+            // Responses of other devices are kept in their sessions until shown
+            shownAddress = deviceAddress;
+            DOOR_MACHINE.reset();
+            REGISTRY.recordName(deviceAddress, deviceName);
 
             // Show progress and connection status
             toolbar.setSubtitle("Connecting to " + deviceName + "...");
             progressBar.setVisibility(View.VISIBLE);
-
-            // Initialize on-board Bluetooth adapter
-            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-
-            // Start Bluetooth Transmission Thread
-            createBTTransmissionThread = new CreateConnectThread(bluetoothAdapter, deviceAddress);
-            createBTTransmissionThread.start();
         }
 
         //Handler for MainActivity's GUI.
@@ -133,22 +295,32 @@ public class MainActivity extends AppCompatActivity {
              * received from the external device
              * @param msg received message to be interpreted and handled
              */
-            @SuppressLint("SetTextI18n")
             @Override
             public void handleMessage(Message msg) {
+                // Ignore devices that are connected but not currently shown
+                if (deviceAddress == null || !deviceAddress.equals(msg.obj)) {
+                    return;
+                }
                 switch (msg.what) {
                     // Message is related to device connectivity
                     case CONNECTION_STATUS:
                         switch (msg.arg1) {
                             case 1: // External device connected, enable buttons
+                                connected = true;
                                 toolbar.setSubtitle("Connected to " + deviceName);
                                 progressBar.setVisibility(View.GONE);
                                 buttonConnect.setEnabled(true);
-                                buttonDoorControl.setEnabled(true);
-                                buttonHoldControl.setEnabled(true);
-                                buttonLockControl.setEnabled(true);
+                                // The next response sets the buttons, even if unchanged
+                                DOOR_MACHINE.reset();
+                                showState(doorButtons, DOOR_MACHINE.getState());
+                                break;
+                            case 0: // Link lost, commands are held until it is back
+                                connected = false;
+                                toolbar.setSubtitle("Reconnecting to " + deviceName + "...");
+                                progressBar.setVisibility(View.VISIBLE);
                                 break;
                             case -1: // External device failed to connect, retry
+                                connected = false;
                                 toolbar.setSubtitle("Device fails to connect");
                                 progressBar.setVisibility(View.GONE);
                                 buttonConnect.setEnabled(true);
@@ -158,280 +330,271 @@ public class MainActivity extends AppCompatActivity {
 
                     // Message is related to an external device response
                     case RESPONSE:
-                        // Grab response that was received from external device
-                        int response = (int) msg.obj;
+                        DoorSession session = DOORS.getSession(deviceAddress);
+                        if (session == null) {
+                            break;
+                        }
+                        // Grab latest response that was received from external device
+                        int response = session.getDoorState().take();
 
                         // If the current response is different than the previous response(s)
-                        if (response != lastResponse) {
-                            // Save the newly received response
-                            lastResponse = response;
-
-                            // Process newly received response
-                            switch (response) {
-                                case DOOR_IS_TIMED:
-                                    buttonDoorControl.setEnabled(false);
-                                    buttonHoldControl.setEnabled(false);
-                                    buttonLockControl.setEnabled(false);
-                                    break;
-
-                                case DOOR_IS_OPEN:
-                                    buttonDoorControl.setEnabled(false);
-                                    buttonHoldControl.setEnabled(true);
-                                    buttonLockControl.setEnabled(false);
-                                    buttonHoldControl.setText("Close Door");
-                                    break;
-
-                                case DOOR_IS_CLOSED:
-                                    buttonDoorControl.setEnabled(true);
-                                    buttonHoldControl.setEnabled(true);
-                                    buttonLockControl.setEnabled(true);
-                                    buttonHoldControl.setText("Open Door - Hold");
-                                    break;
-
-                                case DOOR_IS_LOCKED:
-                                    buttonDoorControl.setEnabled(false);
-                                    buttonHoldControl.setEnabled(false);
-                                    buttonLockControl.setEnabled(true);
-                                    buttonLockControl.setText("Unlock Door");
-                                    break;
-
-                                case DOOR_IS_UNLOCKED:
-                                    buttonDoorControl.setEnabled(true);
-                                    buttonHoldControl.setEnabled(true);
-                                    buttonLockControl.setEnabled(true);
-                                    buttonLockControl.setText("Lock Door");
-                                    break;
+                        // or settles the state predicted by a button press
+                        showOutcome(DOOR_MACHINE.reconcile(response));
+                        break;
+
+                    // Message is related to the controller answering a framed command
+                    case COMMAND_RESULT:
+                        // A command that left the door state unchanged (such as a refused
+                        // lock while the door is held open) produces no new response, but
+                        // its answer still ends the wait for it
+                        showOutcome(DOOR_MACHINE.onAnswer(msg.arg1 >> 1, (msg.arg1 & 1) == 1, msg.arg2));
+                        break;
+
+                    // Message is related to a predicted state the door never settled
+                    case PENDING_TIMEOUT:
+                        int attempt = msg.arg2 + 1;
+                        if (attempt < PRESS_ATTEMPTS && DOOR_MACHINE.isPending()
+                                && msg.arg1 == DOOR_MACHINE.getPresses()) {
+                            // The command or its answer may have been lost, so send it again
+                            // if that is harmless, and wait longer for the door either way
+                            byte command = DOOR_MACHINE.getLastCommand();
+                            if (DoorProtocol.isIdempotent(command)) {
+                                DOOR_MACHINE.onSent(DOORS.write((String) msg.obj, command));
                             }
+                            schedulePressTimeout(msg.arg1, attempt, (String) msg.obj);
+                            break;
+                        }
+                        showOutcome(DOOR_MACHINE.onTimeout(msg.arg1));
+                        break;
+
+                    // Message is related to the door registry having been read
+                    case CACHED_STATE:
+                        // Live state always wins over the last known one
+                        DoorRecord record = REGISTRY.get(deviceAddress);
+                        if (connected || DOOR_MACHINE.getState() != DoorStateConflator.NO_STATE
+                                || record == null || record.getState() == DoorStateConflator.NO_STATE) {
+                            break;
+                        }
+                        toolbar.setSubtitle("Connecting to " + deviceName + "... (last "
+                                + STATE_NAMES[record.getState()] + ")");
+                        // Label the buttons as the door last was, but only the live
+                        // state enables them
+                        showState(doorButtons, record.getState());
+                        for (Button button : doorButtons) {
+                            button.setEnabled(false);
                         }
                         break;
                 }
             }
+
+            /**
+             * Shows the state after the door reconciled it, telling the user
+             * if a predicted state had to be rolled back
+             *
+             * @param outcome UNCHANGED, CHANGED, CONFIRMED, or ROLLED_BACK
+             */
+            private void showOutcome(int outcome) {
+                if (outcome == UNCHANGED) {
+                    return;
+                }
+                showState(doorButtons, DOOR_MACHINE.getState());
+                if (connected) {
+                    // Settled, hide the pending indicator
+                    progressBar.setVisibility(View.GONE);
+                }
+                if (outcome == ROLLED_BACK) {
+                    int state = DOOR_MACHINE.getState();
+                    Toast.makeText(MainActivity.this, "Door did not "
+                            + COMMAND_NAMES[DOOR_MACHINE.getLastCommand()] + ", it is "
+                            + (state == DoorStateConflator.NO_STATE ? "not responding" : STATE_NAMES[state]),
+                            Toast.LENGTH_LONG).show();
+                }
+            }
         };
 
+        // Show the last known state, once the registry has been read
+        if (deviceAddress != null && REGISTRY.isLoaded()) {
+            handlerGUI.obtainMessage(CACHED_STATE, deviceAddress).sendToTarget();
+        } else if (!registryRequested) {
+            registryRequested = true;
+            REGISTRY.loadAsync(() -> handlerGUI.obtainMessage(CACHED_STATE, shownAddress).sendToTarget());
+        }
+
+        // Journal and scheduler, unless an alarm started them already
+        startBackgroundWork(this);
+
+        // Connect on a connecting thread once handlerGUI can receive the result
+        // (reports at once if already connected)
+        if (deviceAddress != null) {
+            DOORS.connectAsync(deviceAddress);
+        }
+
         // Select Bluetooth Device
         buttonConnect.setOnClickListener(view -> {
-            // If already connected, disconnect from device
-            if (BTTransmissionThread != null) {
-                lastResponse = 0;
-                BTTransmissionThread.disconnect();
-            }
+            // Connected devices stay connected, so they can be switched back to at once
             // Move to SelectDeviceACtivity
             Intent intent = new Intent(MainActivity.this, SelectDeviceActivity.class);
             startActivity(intent);
         });
 
-        // DoorControl actuation
-        buttonDoorControl.setOnClickListener(view -> {
-            // Lock all buttons until response is received
-            buttonDoorControl.setEnabled(false);
-            buttonHoldControl.setEnabled(false);
-            buttonLockControl.setEnabled(false);
-
-            // Send command to HC-05
-            BTTransmissionThread.write(TIMED_OPEN);
+        // Schedule commands to the shown door
+        final Button buttonSchedule = findViewById(R.id.buttonSchedule);
+        buttonSchedule.setEnabled(deviceAddress != null);
+        buttonSchedule.setOnClickListener(view -> {
+            Intent intent = new Intent(MainActivity.this, ScheduleActivity.class);
+            intent.putExtra("deviceName", deviceName);
+            intent.putExtra("deviceAddress", deviceAddress);
+            startActivity(intent);
         });
 
-        // HoldControl actuation
-        buttonHoldControl.setOnClickListener(view -> {
-            // Holds bit command to be sent to external device
-            byte holdCommand = 0;
-            // Current state of the button on press
-            String buttonState = buttonHoldControl.getText().toString().toLowerCase();
-            switch (buttonState) {
-                case "open door - hold":
-                    holdCommand = HOLD_OPEN;
-                    break;
-                case "close door":
-                    holdCommand = CLOSE;
-                    break;
-            }
-
-            // Lock all buttons until response is received
-            buttonDoorControl.setEnabled(false);
-            buttonHoldControl.setEnabled(false);
-            buttonLockControl.setEnabled(false);
-
-            //Send command to HC-05
-            BTTransmissionThread.write(holdCommand);
+        // Show link statistics on a long press of the connect button
+        buttonConnect.setOnLongClickListener(view -> {
+            startActivity(new Intent(MainActivity.this, DebugActivity.class));
+            return true;
         });
 
-        // LockoutControl actuation
-        buttonLockControl.setOnClickListener(view -> {
-            // Holds bit command to be sent to external device
-            byte lockCommand = 0;
-            // Current state of the button on press
-            String buttonState = buttonLockControl.getText().toString().toLowerCase();
-            switch (buttonState) {
-                case "lock door":
-                    lockCommand = LOCK;
-                    break;
-                case "unlock door":
-                    lockCommand = UNLOCK;
-                    break;
-            }
-
-            // Lock all buttons until response is received
-            buttonDoorControl.setEnabled(false);
-            buttonHoldControl.setEnabled(false);
-            buttonLockControl.setEnabled(false);
+        // Door control actuation, each button sends the command the door's state gives it
+        for (int i = 0; i < BUTTON_COUNT; i++) {
+            final int button = i;
+            doorButtons[i].setOnClickListener(view -> {
+                byte command = DOOR_MACHINE.onButton(button);
+                if (command == NULL_OP) {
+                    return;
+                }
+                // Show the expected state, with all buttons locked until it is settled
+                showState(doorButtons, DOOR_MACHINE.getState());
+                if (DOOR_MACHINE.isPending()) {
+                    progressBar.setVisibility(View.VISIBLE);
+                    // Sent again once the door is later than its measured round trip allows
+                    schedulePressTimeout(DOOR_MACHINE.getPresses(), 0, deviceAddress);
+                }
 
-            //Send command to HC-05
-            BTTransmissionThread.write(lockCommand);
-        });
+                // Send command to HC-05, only its answer settles the prediction
+                DOOR_MACHINE.onSent(DOORS.write(deviceAddress, command));
+            });
+        }
     }
 
     /**
-     * Thread to create Bluetooth connection with external device. Passes
-     * BluetoothSocket to another Thread which is used for continuous data transfer.
+     * Starts what runs for as long as the process does, unless started already:
+     * the audit journal and the scheduler. Called when the screen is created,
+     * and by ScheduleAlarmReceiver when an alarm or boot started the process
+     * without a screen. Must be called on the GUI thread.
+     *
+     * @param context any context of the app
      */
-    public static class CreateConnectThread extends Thread {
-
-        /**
-         * Creates a BluetoothSocket that connects to a given BluetoothDevice, and
-         * gives that socket to the resulting thread for data transfer between devices
-         *
-         * @param bluetoothAdapter Bluetooth adapter of local device
-         * @param address          MAC address of remote device to be connected to
-         */
-        public CreateConnectThread(BluetoothAdapter bluetoothAdapter, String address) {
-            // External Bluetooth device
-            BluetoothDevice bluetoothDevice = bluetoothAdapter.getRemoteDevice(address);
-            // Bluetooth socket to connect to external device
-            BluetoothSocket tmp = null;
-            // Specific UUID of external Bluetooth device
-            UUID uuid = bluetoothDevice.getUuids()[0].getUuid();
-
-            try {
-                // Get a BluetoothSocket to connect with the given BluetoothDevice
-                tmp = bluetoothDevice.createInsecureRfcommSocketToServiceRecord(uuid);
-
-            } catch (IOException e) {
-                Log.e(TAG, "Socket's create() method failed", e);
-            }
-
-            BTSocket = tmp;
+    static void startBackgroundWork(Context context) {
+        // Files are only touched by background threads, never by this one
+        if (applicationContext == null) {
+            applicationContext = context.getApplicationContext();
         }
 
-        /**
-         * Establishes connection with external device via BluetoothSocket and
-         * sends that socket to another thread for data transfer between devices
-         */
-        public void run() {
-            // Cancel discovery because it otherwise slows down the connection
-            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            bluetoothAdapter.cancelDiscovery();
-            try {
-                // Connect to the remote device through the socket
-                BTSocket.connect();
-                Log.e("Status", "Device connected");
-                handlerGUI.obtainMessage(CONNECTION_STATUS, 1, -1).sendToTarget();
-            } catch (IOException connectException) {
-                // Unable to connect, close the socket and return
-                try {
-                    BTSocket.close();
-                    Log.e("Status", "Cannot connect to device");
-                    handlerGUI.obtainMessage(CONNECTION_STATUS, -1, -1).sendToTarget();
-                } catch (IOException closeException) {
-                    Log.e(TAG, "Could not close the client socket", closeException);
-                }
-                return;
-            }
+        // Record what every link sends and receives from the first connection on
+        if (!journalStarted) {
+            journalStarted = true;
+            DOORS.setJournal(JOURNAL);
+            JOURNAL.start();
+            JOURNAL.compact(System.currentTimeMillis() - JOURNAL_RETENTION_MILLIS);
+        }
 
-            // The connection attempt succeeded. Perform work associated with
-            // the connection in a separate thread
-            BTTransmissionThread = new ConnectedThread(BTSocket);
-            BTTransmissionThread.run();
+        // Catch up on rules missed while the app was not running, then keep firing them
+        if (!schedulerStarted) {
+            schedulerStarted = true;
+            SCHEDULER.start();
         }
+    }
 
-        /**
-         * Closes the client socket and causes the thread to finish.
-         */
-        public void cancel() {
-            try {
-                BTSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Could not close the client socket", e);
-            }
+    /**
+     * Hands an event to handlerGUI, unless no screen has been created yet
+     *
+     * @param what CONNECTION_STATUS, RESPONSE, or COMMAND_RESULT
+     * @param arg1 first argument of the message
+     * @param arg2 second argument of the message
+     * @param obj  MAC address of the device the event is about
+     */
+    private static void postToGui(int what, int arg1, int arg2, Object obj) {
+        Handler handler = handlerGUI;
+        if (handler != null) {
+            handler.obtainMessage(what, arg1, arg2, obj).sendToTarget();
         }
     }
 
     /**
-     * Thread used for continuous data transfer between local and external devices.
+     * Schedules the check of whether a press has been answered, after the door's
+     * measured round-trip timeout doubled for every earlier attempt, like
+     * DoorSession.writeAndAwait()
+     *
+     * @param press   number of the press, as returned by DoorStateMachine.getPresses()
+     * @param attempt number of timeouts the press has already been waited for
+     * @param address MAC address of the door the press was sent to
      */
-    public static class ConnectedThread extends Thread {
-        private final BluetoothSocket transferSocket;
-        private final InputStream transferInput;
-        private final OutputStream transferOutput;
-
-        /**
-         * Accepts provided BluetoothSocket and generates Input and Output Streams
-         * to send and receive data from external device
-         *
-         * @param socket BluetoothSocket connected to external device
-         */
-        public ConnectedThread(BluetoothSocket socket) {
-            transferSocket = socket;
-            InputStream tmpInput = null;
-            OutputStream tmpOutput = null;
-
-            // Get the input and output streams
-            try {
-                tmpInput = socket.getInputStream();
-                tmpOutput = socket.getOutputStream();
-            } catch (IOException ignored) {
-            }
+    private static void schedulePressTimeout(int press, int attempt, String address) {
+        long timeoutMillis = Math.min(DOORS.getCommandTimeoutMillis(address) << attempt,
+                RttEstimator.MAX_TIMEOUT_MILLIS);
+        handlerGUI.sendMessageDelayed(handlerGUI.obtainMessage(PENDING_TIMEOUT, press, attempt, address),
+                timeoutMillis);
+    }
 
-            transferInput = tmpInput;
-            transferOutput = tmpOutput;
+    /**
+     * Adjusts button functions and availability to match a door state. While a
+     * predicted state is pending, every button is disabled.
+     *
+     * @param doorButtons door control buttons, indexed like DoorStateMachine's buttons
+     * @param state       state of the door
+     */
+    private static void showState(Button[] doorButtons, int state) {
+        for (int button = 0; button < BUTTON_COUNT; button++) {
+            doorButtons[button].setEnabled(!DOOR_MACHINE.isPending()
+                    && DoorStateMachine.isEnabled(state, button));
+            byte command = DoorStateMachine.buttonCommand(state, button);
+            if (command != NULL_OP) {
+                doorButtons[button].setText(COMMAND_LABELS[command]);
+            }
         }
+    }
 
-        /**
-         * Executes infinitely, unless otherwise stopped, to receive data from external device
-         */
-        public void run() {
-            // Keep listening to the InputStream until an exception occurs
-            while (true) {
-                try {
-                    int response = transferInput.read();
-                    if (response != 0) {
-                        handlerGUI.obtainMessage(RESPONSE, response).sendToTarget();
-                        response = 0;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    break;
-                }
-            }
+    /**
+     * Resumes delivery of responses to the GUI once the activity is visible,
+     * posting the latest response if one arrived while the activity was stopped.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        DoorSession session = DOORS.getSession(shownAddress);
+        if (session != null && session.getDoorState().resume() && handlerGUI != null) {
+            handlerGUI.obtainMessage(RESPONSE, session.getAddress()).sendToTarget();
         }
+    }
 
-        /**
-         * Sends particular bit command to external device via OutputStream
-         *
-         * @param command bit command to be sent to external device
-         */
-        public void write(byte command) {
-            try {
-                transferOutput.write(command);
-            } catch (IOException e) {
-                Log.e("Send Error", "Unable to send message", e);
-            }
+    /**
+     * Holds back delivery of responses to the GUI while the activity is not visible.
+     * The reading thread keeps only the latest response in the meantime. Unsaved
+     * changes to the door registry are written straight away.
+     */
+    @Override
+    protected void onStop() {
+        DoorSession session = DOORS.getSession(shownAddress);
+        if (session != null) {
+            session.getDoorState().pause();
         }
+        // The app may be killed in the background, so do not wait for the write behind
+        REGISTRY.flush();
+        super.onStop();
+    }
 
-        /**
-         * Closes Input and Output Streams as well as closes the BluetoothSocket.
-         * Allows for a new thread to be started for communication with a
-         * different external device.
-         */
-        public void disconnect() {
-            try {
-                transferInput.close();
-                transferOutput.close();
-                transferSocket.close();
-                Log.e("Status", "Device disconnected");
-            } catch (IOException e) {
-                Log.e("Send Error", "Unable to disconnect from Bluetooth device", e);
-            }
+    /**
+     * Getter for the cache of connection parameters, creating it on first use.
+     * Called on connecting threads, as finding the files directory may touch
+     * the disk.
+     *
+     * @return connection parameters of devices connected to before
+     */
+    private static synchronized ConnectionParamsCache connectionParams() {
+        if (connectionParams == null) {
+            connectionParams = new ConnectionParamsCache(
+                    new File(applicationContext.getFilesDir(), CONNECTION_PARAMS_FILE));
         }
+        return connectionParams;
     }
 
     /**
@@ -441,9 +604,11 @@ public class MainActivity extends AppCompatActivity {
      */
     @Override
     public void onBackPressed() {
-        // Terminate Bluetooth Connection and close app
-        if (createBTTransmissionThread != null) {
-            createBTTransmissionThread.cancel();
+        // Terminate every Bluetooth Connection (including ones still connecting) and close app
+        try {
+            DOORS.disconnectAll();
+        } catch (IOException e) {
+            Log.e("Send Error", "Unable to disconnect from Bluetooth device", e);
         }
         Intent a = new Intent(Intent.ACTION_MAIN);
         a.addCategory(Intent.CATEGORY_HOME);
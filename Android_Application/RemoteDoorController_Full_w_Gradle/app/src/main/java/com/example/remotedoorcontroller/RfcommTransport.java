@@ -0,0 +1,249 @@
+package com.example.remotedoorcontroller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * DoorTransport over a Bluetooth RFCOMM socket, used to talk to the HC-05 module
+ * of a real door controller. Doors connected to before are reached straight away
+ * with the service UUID and socket type remembered in a ConnectionParamsCache,
+ * and the Bluetooth stack's record of the door's services is refreshed in the
+ * background if it no longer matches. If connecting with the cached
+ * parameters fails for any reason, they are forgotten and the door's
+ * advertised services are used instead, as they are for a new door.
+ *
+ * @author Colby Bratton
+ */
+public class RfcommTransport implements DoorTransport {
+
+    // Serial Port Profile UUID, used when the device has not advertised its services yet
+    private final static UUID SERIAL_PORT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    // Bluetooth adapter of local device, or null to look it up when connecting
+    private final BluetoothAdapter bluetoothAdapter;
+    // MAC address of remote device to be connected to
+    private final String address;
+    // Parameters of earlier connections, or null to always look up the services
+    private final ConnectionParamsCache paramsCache;
+    // Bluetooth socket of the open connection
+    private volatile BluetoothSocket socket;
+
+    /**
+     * Constructor for a connection that has not been opened yet. Does no
+     * Bluetooth work, so may be called from the GUI thread.
+     *
+     * @param bluetoothAdapter Bluetooth adapter of local device
+     * @param address          MAC address of remote device to be connected to
+     */
+    public RfcommTransport(BluetoothAdapter bluetoothAdapter, String address) {
+        this(bluetoothAdapter, address, null);
+    }
+
+    /**
+     * Constructor for a connection through the default Bluetooth adapter that
+     * reuses the parameters of earlier connections. The adapter is only looked
+     * up when connecting, so this may be called from the GUI thread.
+     *
+     * @param address     MAC address of remote device to be connected to
+     * @param paramsCache parameters of earlier connections, or null
+     */
+    public RfcommTransport(String address, ConnectionParamsCache paramsCache) {
+        this(null, address, paramsCache);
+    }
+
+    /**
+     * Constructor for a connection that has not been opened yet, reusing the
+     * parameters of earlier connections. Does no Bluetooth work, so may be
+     * called from the GUI thread.
+     *
+     * @param bluetoothAdapter Bluetooth adapter of local device, or null to
+     *                         look up the default adapter when connecting
+     * @param address          MAC address of remote device to be connected to
+     * @param paramsCache      parameters of earlier connections, or null
+     */
+    public RfcommTransport(BluetoothAdapter bluetoothAdapter, String address,
+                           ConnectionParamsCache paramsCache) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.address = address;
+        this.paramsCache = paramsCache;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Connects a BluetoothSocket to the remote device, first with the cached
+     * parameters (if any), then with the device's first advertised service over
+     * an insecure and then a secure socket. The Bluetooth stack does not tell a
+     * stale service or socket type apart from an unreachable device, so the
+     * cached parameters are given up after any failure, and only the socket type
+     * that has just failed for a service is not tried again. Blocks until
+     * connected.
+     *
+     * @param trace startup trace that each phase of connecting is marked in
+     * @throws IOException if no attempt could connect
+     */
+    @Override
+    public void connect(ConnectTrace trace) throws IOException {
+        BluetoothAdapter adapter = bluetoothAdapter != null
+                ? bluetoothAdapter : BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) {
+            throw new IOException("Device has no Bluetooth adapter");
+        }
+        // External Bluetooth device
+        BluetoothDevice bluetoothDevice = adapter.getRemoteDevice(address);
+        // Cancel discovery because it otherwise slows down the connection
+        adapter.cancelDiscovery();
+        trace.mark(ConnectTrace.ADAPTER);
+
+        // Fast path: reuse what worked last time, without looking up the services
+        ConnectionParams cached = paramsCache == null ? null : paramsCache.get(address);
+        if (cached != null) {
+            try {
+                connectSocket(bluetoothDevice, cached.getServiceUuid(), cached.isSecure(), trace);
+                revalidate(bluetoothDevice, cached.getServiceUuid());
+                return;
+            } catch (IOException e) {
+                // Possibly stale parameters, fall back to the advertised services
+                Log.i("Status", "Cached parameters of " + address + " failed", e);
+                paramsCache.invalidate(address);
+            }
+        }
+
+        // Specific UUID of external Bluetooth device, as last advertised
+        UUID uuid = advertisedUuid(bluetoothDevice);
+        trace.mark(ConnectTrace.SERVICE_LOOKUP);
+        if (cached != null && uuid.equals(cached.getServiceUuid())) {
+            // Same service, only the other socket type is left to try
+            connectSocket(bluetoothDevice, uuid, !cached.isSecure(), trace);
+            return;
+        }
+        try {
+            connectSocket(bluetoothDevice, uuid, false, trace);
+        } catch (IOException insecureException) {
+            // Some modules only accept authenticated links
+            connectSocket(bluetoothDevice, uuid, true, trace);
+        }
+    }
+
+    /**
+     * Creates and connects a socket to one service of the remote device, and
+     * remembers the parameters if it connects
+     *
+     * @param bluetoothDevice external Bluetooth device
+     * @param uuid            RFCOMM service UUID to connect to
+     * @param secure          whether to use a secure (authenticated) socket
+     * @param trace           startup trace that creating and connecting are marked in
+     * @throws IOException if the socket could not be created or connected
+     */
+    private void connectSocket(BluetoothDevice bluetoothDevice, UUID uuid, boolean secure,
+                               ConnectTrace trace) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        // Get a BluetoothSocket to connect with the given BluetoothDevice
+        BluetoothSocket tmp = secure
+                ? bluetoothDevice.createRfcommSocketToServiceRecord(uuid)
+                : bluetoothDevice.createInsecureRfcommSocketToServiceRecord(uuid);
+        socket = tmp;
+        trace.mark(ConnectTrace.SOCKET_CREATE);
+        try {
+            // Connect to the remote device through the socket
+            tmp.connect();
+        } catch (IOException connectException) {
+            // Unable to connect, close the socket
+            close();
+            trace.mark(ConnectTrace.SOCKET_CONNECT);
+            throw connectException;
+        }
+        trace.mark(ConnectTrace.SOCKET_CONNECT);
+        if (paramsCache != null) {
+            paramsCache.put(address, new ConnectionParams(uuid, secure,
+                    SystemClock.elapsedRealtime() - start, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Finds the service to connect to among those the remote device advertised
+     *
+     * @param bluetoothDevice external Bluetooth device
+     * @return first advertised service UUID, or the Serial Port Profile UUID if
+     * the device has not advertised any yet
+     */
+    private static UUID advertisedUuid(BluetoothDevice bluetoothDevice) {
+        ParcelUuid[] uuids = bluetoothDevice.getUuids();
+        if (uuids == null || uuids.length == 0) {
+            return SERIAL_PORT_UUID;
+        }
+        return uuids[0].getUuid();
+    }
+
+    /**
+     * Checks that a cached service UUID is still among those the Bluetooth stack
+     * holds for the remote device. If not, asks the stack to look the services
+     * up again in the background (the result is delivered to the stack, not to
+     * this thread), so that a later fallback to fresh discovery finds an up to
+     * date record instead of waiting on a lookup.
+     *
+     * @param bluetoothDevice external Bluetooth device
+     * @param cachedUuid      service UUID that was just connected with
+     */
+    private void revalidate(BluetoothDevice bluetoothDevice, UUID cachedUuid) {
+        ParcelUuid[] uuids = bluetoothDevice.getUuids();
+        if (uuids != null) {
+            for (ParcelUuid uuid : uuids) {
+                if (cachedUuid.equals(uuid.getUuid())) {
+                    return;
+                }
+            }
+        }
+        Log.i("Status", "Refreshing services of " + address);
+        bluetoothDevice.fetchUuidsWithSdp();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return openSocket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return openSocket().getOutputStream();
+    }
+
+    /**
+     * Closes the client socket, if one was created
+     *
+     * @throws IOException if the socket could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        BluetoothSocket tmp = socket;
+        if (tmp != null) {
+            tmp.close();
+        }
+    }
+
+    /**
+     * Getter for the socket of an open connection
+     *
+     * @return socket created by connect()
+     * @throws IOException if connect() has not been called
+     */
+    private BluetoothSocket openSocket() throws IOException {
+        BluetoothSocket tmp = socket;
+        if (tmp == null) {
+            throw new IOException("RFCOMM transport to " + address + " is not connected");
+        }
+        return tmp;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.remotedoorcontroller;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.RadioGroup;
+import android.widget.TextView;
+import android.widget.TimePicker;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Screen listing the rules of MainActivity.SCHEDULER for one door, and adding
+ * rules that send it a command at a time of day, either every day or once at
+ * the next such time. Rules of every door are fired by the scheduler whether
+ * or not this screen is shown.
+ *
+ * @author Colby Bratton
+ */
+public class ScheduleActivity extends AppCompatActivity {
+
+    // MAC address of the door the rules are for
+    private String deviceAddress;
+    // Lists the rules of the door
+    private TextView textRules;
+    // Redraws the list when the scheduler's rules change
+    private final Handler handler = new Handler(Looper.getMainLooper()) {
+        /**
+         * Redraws the list of rules
+         *
+         * @param msg change of the rules
+         */
+        @Override
+        public void handleMessage(Message msg) {
+            showRules();
+        }
+    };
+
+    /**
+     * Generates the schedule screen and establishes the add and clear buttons
+     *
+     * @param savedInstanceState state of the previous activity (such as MainActivity)
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_schedule);
+        deviceAddress = getIntent().getStringExtra("deviceAddress");
+        textRules = findViewById(R.id.textViewRules);
+
+        final TimePicker timePicker = findViewById(R.id.timePickerRule);
+        timePicker.setIs24HourView(true);
+        final RadioGroup radioGroupCommand = findViewById(R.id.radioGroupCommand);
+        final CheckBox checkBoxEveryDay = findViewById(R.id.checkBoxEveryDay);
+
+        final Button buttonAddRule = findViewById(R.id.buttonAddRule);
+        buttonAddRule.setOnClickListener(view -> {
+            // getHour() needs API 23
+            int minuteOfDay = timePicker.getCurrentHour() * 60 + timePicker.getCurrentMinute();
+            byte command = checkedCommand(radioGroupCommand.getCheckedRadioButtonId());
+            if (checkBoxEveryDay.isChecked()) {
+                MainActivity.SCHEDULER.scheduleWeekly(deviceAddress, command, minuteOfDay,
+                        ScheduledAction.EVERY_DAY);
+            } else {
+                MainActivity.SCHEDULER.scheduleOnce(deviceAddress, command, nextTimeOfDay(minuteOfDay));
+            }
+        });
+
+        final Button buttonClearRules = findViewById(R.id.buttonClearRules);
+        buttonClearRules.setOnClickListener(view -> {
+            for (ScheduledAction action : MainActivity.SCHEDULER.getActions()) {
+                if (action.getAddress().equals(deviceAddress)) {
+                    MainActivity.SCHEDULER.remove(action.getId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the rules, and keeps them up to date while the screen is visible
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        MainActivity.handlerSchedule = handler;
+        showRules();
+    }
+
+    /**
+     * Stops updating the rules while the screen is not visible
+     */
+    @Override
+    protected void onStop() {
+        MainActivity.handlerSchedule = null;
+        super.onStop();
+    }
+
+    /**
+     * Lists the rules of the door and when each fires next
+     */
+    private void showRules() {
+        StringBuilder rules = new StringBuilder();
+        Calendar next = Calendar.getInstance(MainActivity.SCHEDULER.getZone(), Locale.US);
+        for (ScheduledAction action : MainActivity.SCHEDULER.getActions()) {
+            if (!action.getAddress().equals(deviceAddress)) {
+                continue;
+            }
+            next.setTimeInMillis(MainActivity.SCHEDULER.getNextFireAt(action.getId()));
+            rules.append(action.describe(MainActivity.SCHEDULER.getZone()))
+                    .append(String.format(Locale.US, " (next %1$ta %1$tH:%1$tM)%n", next));
+        }
+        textRules.setText(rules.length() > 0 ? rules.toString() : "No rules for this door");
+    }
+
+    /**
+     * Looks up the command of the checked radio button
+     *
+     * @param id identifier of the checked radio button
+     * @return UNLOCK, HOLD_OPEN, CLOSE, or LOCK
+     */
+    private static byte checkedCommand(int id) {
+        if (id == R.id.radioUnlock) {
+            return DoorProtocol.UNLOCK;
+        } else if (id == R.id.radioHoldOpen) {
+            return DoorProtocol.HOLD_OPEN;
+        } else if (id == R.id.radioClose) {
+            return DoorProtocol.CLOSE;
+        }
+        return DoorProtocol.LOCK;
+    }
+
+    /**
+     * Finds the next time a time of day comes round
+     *
+     * @param minuteOfDay minute of the day
+     * @return first time (System.currentTimeMillis) after now at that minute of the day
+     */
+    private static long nextTimeOfDay(int minuteOfDay) {
+        Calendar calendar = Calendar.getInstance(MainActivity.SCHEDULER.getZone(), Locale.US);
+        long now = calendar.getTimeInMillis();
+        calendar.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+        calendar.set(Calendar.MINUTE, minuteOfDay % 60);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (calendar.getTimeInMillis() <= now) {
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+}
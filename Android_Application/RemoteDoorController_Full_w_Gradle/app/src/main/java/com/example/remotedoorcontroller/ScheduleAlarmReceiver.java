@@ -0,0 +1,85 @@
+package com.example.remotedoorcontroller;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Brings the process back for MainActivity.SCHEDULER once Android has killed it.
+ * A single system alarm is kept set for the earliest fire of all rules (see
+ * DoorScheduler.Listener.onNextFireChanged()), not one per rule. When it goes
+ * off, or the phone has booted (which clears every alarm), the scheduler is
+ * started if it is not running, which catches up on missed fires and sets the
+ * alarm again, and due rules are fired. The process is kept alive until their
+ * commands have been sent, or SEND_WAIT_MILLIS have passed.
+ *
+ * @author Colby Bratton
+ */
+public class ScheduleAlarmReceiver extends BroadcastReceiver {
+
+    // Longest time the process is kept alive for the commands of due rules
+    private final static long SEND_WAIT_MILLIS = ScheduledCommandSender.DEFAULT_DOOR_TIMEOUT_MILLIS;
+    // Request code of the alarm, the same every time so setting it replaces the last one
+    private final static int ALARM_REQUEST = 0;
+
+    /**
+     * Starts the scheduler and fires its due rules, off the GUI thread
+     *
+     * @param context context the receiver runs in
+     * @param intent  the alarm, or the boot completed broadcast
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        MainActivity.startBackgroundWork(context);
+        // Without a screen, the process may be killed as soon as this returns
+        final PendingResult result = goAsync();
+        new Thread(() -> {
+            try {
+                MainActivity.SCHEDULER.advance().get();
+                if (!MainActivity.SCHEDULED_SENDER.awaitIdle(SEND_WAIT_MILLIS)) {
+                    Log.e("Status", "Scheduled commands still sending after "
+                            + SEND_WAIT_MILLIS + " ms");
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e("Status", "Unable to fire scheduled rules", e);
+            } finally {
+                result.finish();
+            }
+        }, "ScheduleAlarmReceiver").start();
+    }
+
+    /**
+     * Sets the alarm for the earliest fire of all rules, replacing the one set
+     * before, or cancels it if no rule fires again. May be called from any thread.
+     *
+     * @param context any context of the app
+     * @param fireAt  time (System.currentTimeMillis) of the earliest fire, or
+     *                ScheduledAction.NEVER
+     */
+    static void arm(Context context, long fireAt) {
+        AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent wakeUp = PendingIntent.getBroadcast(context, ALARM_REQUEST,
+                new Intent(context, ScheduleAlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (fireAt == ScheduledAction.NEVER) {
+            alarms.cancel(wakeUp);
+            return;
+        }
+        // Rules fire on the first tick at or after their time, so wake up on that tick
+        long tick = DoorScheduler.TICK_MILLIS;
+        long at = (fireAt + tick - 1) / tick * tick;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Also goes off while the phone dozes
+            alarms.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, wakeUp);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarms.setExact(AlarmManager.RTC_WAKEUP, at, wakeUp);
+        } else {
+            alarms.set(AlarmManager.RTC_WAKEUP, at, wakeUp);
+        }
+    }
+}
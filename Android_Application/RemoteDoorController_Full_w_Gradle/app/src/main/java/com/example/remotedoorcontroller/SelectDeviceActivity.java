@@ -1,36 +1,69 @@
 package com.example.remotedoorcontroller;
 
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
+import android.Manifest;
+import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
 
 import com.google.android.material.snackbar.Snackbar;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Activity to handle the list generation and GUI functionality of a list
  * of currently paired and available Bluetooth devices. This list may be
  * used to select a desired device to be controlled with MainActivity
  * (assuming the device is compatible/set up with the Arduino Door Control
- * program developed by Colby Bratton)
+ * program developed by Colby Bratton). Devices are found by a DeviceDiscovery
+ * in the background and added to the list as they are found, so the screen
+ * can be used straight away. The list is filtered as the user types in the
+ * search box, using a DeviceSearchIndex that is updated as devices are found.
+ * Every door shown can be locked or closed at once with GroupCommandActivity,
+ * after the user confirms it. Only paired devices and doors the app has talked
+ * to before are sent to, never a stranger's device that happens to be nearby.
  *
  * @author Colby Bratton
  */
-public class SelectDeviceActivity extends AppCompatActivity {
+public class SelectDeviceActivity extends AppCompatActivity implements DeviceDiscovery.Listener {
+
+    // Request code of the location permission needed for active discovery
+    private final static int LOCATION_REQUEST = 1;
+    // Entries kept bound just off screen, rebound without going through the pool
+    private final static int ITEM_VIEW_CACHE_SIZE = 8;
+    // Unbound entries kept for reuse
+    private final static int POOLED_VIEWS = 24;
+
+    // Adapter of the device list
+    private DeviceListAdapter deviceListAdapter;
+    // Finds paired and nearby devices in the background
+    private DeviceDiscovery deviceDiscovery;
+    // Every device found so far, searchable by name and address
+    private final DeviceSearchIndex<DeviceInfoModel> searchIndex = new DeviceSearchIndex<>();
+    // Text typed in the search box
+    private String query = "";
+    // Devices currently shown, matching the search box
+    private List<DeviceInfoModel> shown = new ArrayList<>();
 
     /**
-     * Handles the generation of the paired devices list that will be used
-     * by the user to select a Bluetooth device to be utilized with the MainActivity's
-     * communication functions.
+     * Handles the generation of the device list that will be used by the user
+     * to select a Bluetooth device to be utilized with the MainActivity's
+     * communication functions. The list starts empty and is filled in as
+     * devices are found.
      *
      * @param savedInstanceState state of the previous activity (such as MainActivity)
      */
@@ -40,29 +73,159 @@ public class SelectDeviceActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_select_device);
 
-        // Establish a Bluetooth adapter on local device
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-
-        // Get list of paired Bluetooth devices
-        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
-        List<Object> deviceList = new ArrayList<>();
-        if (pairedDevices.size() > 0) {
-            // If there are paired devices, get the name and address of each
-            for (BluetoothDevice device : pairedDevices) {
-                String deviceName = device.getName();
-                String deviceHardwareAddress = device.getAddress(); // MAC address
-                DeviceInfoModel deviceInfoModel = new DeviceInfoModel(deviceName, deviceHardwareAddress);
-                deviceList.add(deviceInfoModel);
+        // Display devices using recyclerView, filled in as they are found
+        RecyclerView recyclerView = findViewById(R.id.recyclerViewDevice);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        // The list fills the screen whatever its contents, and flinging through hundreds of
+        // doors reuses views from a pool instead of inflating new ones
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setItemViewCacheSize(ITEM_VIEW_CACHE_SIZE);
+        RecyclerView.RecycledViewPool viewPool = new RecyclerView.RecycledViewPool();
+        viewPool.setMaxRecycledViews(DeviceListAdapter.TYPE_DEVICE, POOLED_VIEWS);
+        recyclerView.setRecycledViewPool(viewPool);
+        deviceListAdapter = new DeviceListAdapter(this);
+        recyclerView.setAdapter(deviceListAdapter);
+        recyclerView.setItemAnimator(new DefaultItemAnimator());
+
+        // Filter the list as the user types
+        EditText editTextSearch = findViewById(R.id.editTextSearch);
+        editTextSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                query = s.toString();
+                showMatches();
+            }
+        });
+
+        // Lock or close every door shown at once
+        final Button buttonLockAll = findViewById(R.id.buttonLockAll);
+        buttonLockAll.setOnClickListener(view -> startGroupCommand(DoorProtocol.LOCK));
+        final Button buttonCloseAll = findViewById(R.id.buttonCloseAll);
+        buttonCloseAll.setOnClickListener(view -> startGroupCommand(DoorProtocol.CLOSE));
+
+        // Active discovery of unpaired devices needs the location permission
+        boolean locationGranted = ContextCompat.checkSelfPermission(this,
+                Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+        deviceDiscovery = new DeviceDiscovery(this, this);
+        deviceDiscovery.start(locationGranted);
+        if (!locationGranted && deviceDiscovery.isBluetoothAvailable()) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, LOCATION_REQUEST);
+        }
+    }
+
+    /**
+     * Starts searching for unpaired devices once the location permission is granted
+     *
+     * @param requestCode  code the permissions were requested with
+     * @param permissions  permissions that were requested
+     * @param grantResults whether each permission was granted
+     */
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == LOCATION_REQUEST && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            deviceDiscovery.startActiveDiscovery();
+        }
+    }
+
+    /**
+     * Stops searching for devices, as discovery slows down connecting
+     */
+    @Override
+    protected void onDestroy() {
+        deviceDiscovery.stop();
+        super.onDestroy();
+    }
+
+    /**
+     * Adds the devices found so far to the search index and shows those
+     * matching the search box, only binding entries that changed
+     *
+     * @param devices snapshot of every device found so far
+     */
+    @Override
+    public void onDevicesChanged(List<DeviceInfoModel> devices) {
+        for (DeviceInfoModel device : devices) {
+            searchIndex.put(device.getDeviceName(), device.getDeviceHardwareAddress(), device);
+        }
+        showMatches();
+    }
+
+    /**
+     * Shows the devices matching the text in the search box
+     */
+    private void showMatches() {
+        List<DeviceInfoModel> matches = new ArrayList<>();
+        searchIndex.search(query, matches);
+        shown = matches;
+        deviceListAdapter.submitList(matches);
+    }
+
+    /**
+     * Asks the user to confirm sending a command to every door shown, then
+     * sends it on GroupCommandActivity. Nearby devices that are neither paired
+     * nor in the door registry are left out.
+     *
+     * @param command LOCK or CLOSE
+     */
+    private void startGroupCommand(final byte command) {
+        final List<String> doors = new ArrayList<>();
+        for (DeviceInfoModel device : shown) {
+            String address = device.getDeviceHardwareAddress();
+            if (device.isPaired() || MainActivity.REGISTRY.get(address) != null) {
+                doors.add(address);
             }
+        }
+        if (doors.isEmpty()) {
+            Snackbar.make(findViewById(R.id.recyclerViewDevice), "No doors to send to",
+                    Snackbar.LENGTH_SHORT).show();
+            return;
+        }
+        String action = command == DoorProtocol.LOCK ? "Lock" : "Close";
+        int skipped = shown.size() - doors.size();
+        new AlertDialog.Builder(this)
+                .setTitle(action + " " + doors.size() + (doors.size() == 1 ? " door?" : " doors?"))
+                .setMessage("Every door shown will be sent the command at once."
+                        + (skipped > 0 ? " " + skipped + " unknown nearby devices are left out." : ""))
+                .setPositiveButton(action, (dialog, which) ->
+                        sendGroupCommand(command, doors.toArray(new String[0])))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-            // Display paired devices using recyclerView
-            RecyclerView recyclerView = findViewById(R.id.recyclerViewDevice);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            DeviceListAdapter deviceListAdapter = new DeviceListAdapter(this, deviceList);
-            recyclerView.setAdapter(deviceListAdapter);
-            recyclerView.setItemAnimator(new DefaultItemAnimator());
-        } else {
-            // Otherwise, if no devices are paired, or Bluetooth is not active,
+    /**
+     * Sends a command to a group of doors, on GroupCommandActivity
+     *
+     * @param command   LOCK or CLOSE
+     * @param addresses addresses of the doors
+     */
+    private void sendGroupCommand(byte command, String[] addresses) {
+        Intent intent = new Intent(this, GroupCommandActivity.class);
+        intent.putExtra(GroupCommandActivity.EXTRA_COMMAND, command);
+        intent.putExtra(GroupCommandActivity.EXTRA_ADDRESSES, addresses);
+        startActivity(intent);
+    }
+
+    /**
+     * Asks the user to service the issue if no device could be found
+     *
+     * @param count number of devices found
+     */
+    @Override
+    public void onDiscoveryFinished(int count) {
+        if (count == 0) {
+            // If no devices are paired or nearby, or Bluetooth is not active,
             // request the user to service the issue (pair a device, turn on BT, etc.)
             View view = findViewById(R.id.recyclerViewDevice);
             Snackbar snackbar = Snackbar.make(view, "Activate Bluetooth or Pair a Door Control Device", Snackbar.LENGTH_INDEFINITE);
@@ -70,6 +233,5 @@ public class SelectDeviceActivity extends AppCompatActivity {
             });
             snackbar.show();
         }
-
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,77 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the audit journal adds to the command path: the cost of one
+ * record() call, which only copies the event into the ring. Each invocation
+ * fills the ring, which is then written to disk outside of the measurement.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditJournalBenchmark {
+
+    private final static long DEVICE = DeviceId.fromAddress("98:D3:31:F5:2B:1C");
+
+    private File directory;
+    private AuditJournal journal;
+
+    @Setup(Level.Trial)
+    public void openJournal() throws IOException {
+        directory = File.createTempFile("audit", null);
+        directory.delete();
+        directory.mkdir();
+        journal = new AuditJournal(() -> directory);
+    }
+
+    @TearDown(Level.Invocation)
+    public void drainRing() throws Exception {
+        journal.flush().get();
+        // Keep the directory small, only the record() cost is of interest
+        journal.compact(Long.MAX_VALUE).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeJournal() throws InterruptedException {
+        journal.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AuditJournal.RING_CAPACITY)
+    public boolean recordCommandSent() {
+        boolean recorded = true;
+        for (int i = 0; i < AuditJournal.RING_CAPACITY; i++) {
+            recorded &= journal.record(AuditJournal.COMMAND_SENT, DEVICE, DoorProtocol.LOCK, 0, i & 0xFF, 0);
+        }
+        return recorded;
+    }
+}
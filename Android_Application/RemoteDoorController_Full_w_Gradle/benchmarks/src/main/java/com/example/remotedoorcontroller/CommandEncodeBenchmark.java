@@ -0,0 +1,48 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures command encoding: writing a single command frame, and writing a full
+ * batch of queued command frames into one buffer the way CommandWriterThread does.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandEncodeBenchmark {
+
+    private final byte[] batchBuffer = new byte[CommandWriterThread.QUEUE_CAPACITY * DoorProtocol.FRAME_LENGTH];
+    private int sequence = 0;
+
+    @Benchmark
+    public byte[] encodeCommandFrame() {
+        sequence = sequence % 255 + 1;
+        DoorProtocol.encode(batchBuffer, 0, sequence, DoorProtocol.LOCK, 0);
+        return batchBuffer;
+    }
+
+    @Benchmark
+    public int encodeCommandBatch() {
+        int length = 0;
+        for (int i = 0; i < CommandWriterThread.QUEUE_CAPACITY; i++) {
+            sequence = sequence % 255 + 1;
+            length += DoorProtocol.encode(batchBuffer, length, sequence, DoorProtocol.CLOSE, 0);
+        }
+        return length;
+    }
+}
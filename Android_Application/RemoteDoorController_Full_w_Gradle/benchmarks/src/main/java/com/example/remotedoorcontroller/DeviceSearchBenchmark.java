@@ -0,0 +1,66 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filtering the device list of a large fleet with DeviceSearchIndex
+ * as the user types, which has to fit well within a 16 ms frame.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceSearchBenchmark {
+
+    // Number of devices in the fleet
+    private final static int FLEET_SIZE = 5000;
+
+    private final DeviceSearchIndex<String> index = new DeviceSearchIndex<>();
+    private final List<String> out = new ArrayList<>(FLEET_SIZE);
+
+    @Setup
+    public void fillIndex() {
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            String address = String.format("98:D3:31:F5:%02X:%02X", i >> 8, i & 0xFF);
+            index.put("Building " + (i / 40) + " Door " + (i % 40), address, address);
+        }
+    }
+
+    @Benchmark
+    public int searchPrefix() {
+        out.clear();
+        index.search("bu", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int searchTrigrams() {
+        out.clear();
+        index.search("building 12 door 3", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int searchAddress() {
+        out.clear();
+        index.search("0f:a", out);
+        return out.size();
+    }
+}
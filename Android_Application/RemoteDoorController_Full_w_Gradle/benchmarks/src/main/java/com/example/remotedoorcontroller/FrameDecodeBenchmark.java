@@ -0,0 +1,72 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the state decode path of ConnectedThread: decoding one full receive
+ * buffer of continuous state reports, either as single byte responses (legacy
+ * firmware) or as frames.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecodeBenchmark implements FrameDecoder.Listener {
+
+    private final FrameDecoder decoder = new FrameDecoder();
+    // One receive buffer of single byte state reports
+    private final byte[] legacyChunk = new byte[ConnectedThread.RECEIVE_BUFFER_SIZE];
+    // One receive buffer of framed state reports
+    private final byte[] framedChunk = new byte[ConnectedThread.RECEIVE_BUFFER_SIZE
+            - ConnectedThread.RECEIVE_BUFFER_SIZE % DoorProtocol.FRAME_LENGTH];
+    // Last response decoded, the same way ConnectedThread keeps it
+    private int chunkResponse;
+
+    @Setup
+    public void fillChunks() {
+        for (int i = 0; i < legacyChunk.length; i++) {
+            legacyChunk[i] = (byte) DoorProtocol.DOOR_IS_CLOSED;
+        }
+        for (int i = 0; i < framedChunk.length; i += DoorProtocol.FRAME_LENGTH) {
+            DoorProtocol.encode(framedChunk, i, DoorProtocol.NO_SEQUENCE,
+                    DoorProtocol.OP_STATE, DoorProtocol.DOOR_IS_CLOSED);
+        }
+    }
+
+    @Benchmark
+    public int decodeLegacyChunk() {
+        decoder.decode(legacyChunk, 0, legacyChunk.length, this);
+        return chunkResponse;
+    }
+
+    @Benchmark
+    public int decodeFramedChunk() {
+        decoder.decode(framedChunk, 0, framedChunk.length, this);
+        return chunkResponse;
+    }
+
+    @Override
+    public void onFrame(int sequence, int opcode, int payload) {
+        chunkResponse = payload;
+    }
+
+    @Override
+    public void onLegacyResponse(int response) {
+        chunkResponse = response;
+    }
+}
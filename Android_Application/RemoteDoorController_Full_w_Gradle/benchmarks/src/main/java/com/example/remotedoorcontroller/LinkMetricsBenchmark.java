@@ -0,0 +1,45 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures adding to a door's link metrics from several threads at once, as
+ * the reader, writer, and connecting threads of a link do, against a single
+ * shared AtomicLong that every thread contends on.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LinkMetricsBenchmark {
+
+    private final LinkMetrics metrics = new LinkMetrics("98:D3:31:F5:2B:1C");
+    private final AtomicLong shared = new AtomicLong();
+
+    @Benchmark
+    public void stripedAdd() {
+        metrics.add(LinkMetrics.BYTES_IN, 5);
+    }
+
+    @Benchmark
+    public long sharedAtomicAdd() {
+        return shared.addAndGet(5);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full write to response round trip through ConnectedThread and
+ * CommandWriterThread, against an EmulatedDoorController over a LoopbackTransport.
+ * Each operation sends one framed command and waits for its answer.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    // Longest wait for a single answer before the run is considered broken
+    private final static long ANSWER_TIMEOUT_MILLIS = 1000;
+
+    private LoopbackTransport transport;
+    private ConnectedThread connection;
+    private boolean locked = false;
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception {
+        transport = new LoopbackTransport("benchmark", 0);
+        transport.connect(new ConnectTrace("benchmark"));
+        connection = new ConnectedThread(transport, new DoorStateConflator(), new ConnectedThread.Listener() {
+            @Override
+            public void onStateAvailable() {
+            }
+
+            @Override
+            public void onCommandAnswered(int sequence, boolean accepted, int state) {
+            }
+
+            @Override
+            public void onConnectTraced(ConnectTrace trace) {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+            }
+        });
+        connection.start();
+        while (!connection.isFramed()) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+        connection.disconnect();
+    }
+
+    @Benchmark
+    public int commandRoundTrip() throws InterruptedException {
+        locked = !locked;
+        PendingCommand pending = connection.write(locked ? DoorProtocol.LOCK : DoorProtocol.UNLOCK);
+        if (!pending.awaitAnswer(ANSWER_TIMEOUT_MILLIS)) {
+            throw new IllegalStateException("Command was not acknowledged");
+        }
+        return pending.getResultState();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lastResponse dedup logic now done on the reading thread by
+ * DoorStateConflator: the common case of an unchanged state being dropped, and
+ * a changed state being handed over and taken by the GUI.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateDedupBenchmark {
+
+    private final DoorStateConflator doorState = new DoorStateConflator();
+    // Alternates the offered state between benchmark calls
+    private boolean locked = false;
+
+    @Benchmark
+    public boolean offerUnchangedState() {
+        return doorState.offer(DoorProtocol.DOOR_IS_CLOSED);
+    }
+
+    @Benchmark
+    public int offerChangedStateAndTake() {
+        locked = !locked;
+        doorState.offer(locked ? DoorProtocol.DOOR_IS_LOCKED : DoorProtocol.DOOR_IS_UNLOCKED);
+        return doorState.take();
+    }
+}
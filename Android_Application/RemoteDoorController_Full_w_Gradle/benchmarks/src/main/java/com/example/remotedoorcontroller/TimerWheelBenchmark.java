@@ -0,0 +1,66 @@
+package com.example.remotedoorcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the DoorScheduler's timer wheel holding the daily rules of a large
+ * fleet: the cost of one tick (almost always an empty slot) and of
+ * rescheduling a rule after it fires.
+ *
+ * @author Colby Bratton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+
+    // Number of rules, such as two a day for each of 5000 doors
+    private final static int RULES = 10000;
+    // Ticks (seconds) in a day
+    private final static int DAY_TICKS = 24 * 60 * 60;
+
+    private final TimerWheel<Integer> wheel = new TimerWheel<>(0);
+    private final List<Integer> expired = new ArrayList<>();
+    private long tick = 0;
+
+    @Setup
+    public void fillWheel() {
+        Random random = new Random(22);
+        for (int i = 0; i < RULES; i++) {
+            wheel.schedule(1 + random.nextInt(DAY_TICKS), i);
+        }
+    }
+
+    @Benchmark
+    public int advanceOneTick() {
+        expired.clear();
+        wheel.advance(++tick, expired);
+        // Fired rules come round again the next day
+        for (int i = 0; i < expired.size(); i++) {
+            wheel.schedule(tick + DAY_TICKS, expired.get(i));
+        }
+        return expired.size();
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        return wheel.cancel(wheel.schedule(tick + DAY_TICKS / 2, -1));
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.remotedoorcontroller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * File that is always replaced as a whole, like android.util.AtomicFile, so the
+ * registry, the schedule and the connection cache survive the process being
+ * killed while they are written. New contents are written and synced to a
+ * temporary file next to the file, which is then renamed over it.
+ *
+ * Some file systems refuse to rename over an existing file. The old file is
+ * then first renamed to a backup, which is only deleted once the new file is
+ * in place; openRead() puts the backup back if a crash came in between, so
+ * the file is never found missing.
+ *
+ * @author Colby Bratton
+ */
+public class AtomicFile {
+
+    // File that is read and replaced
+    private final File baseFile;
+    // File the new contents are written to before replacing the file
+    private final File newFile;
+    // Old contents, only while a replacement that could not rename over them is in progress
+    private final File backupFile;
+
+    /**
+     * Constructor for a file that may or may not exist yet
+     *
+     * @param baseFile file that is read and replaced
+     */
+    public AtomicFile(File baseFile) {
+        this.baseFile = baseFile;
+        this.newFile = new File(baseFile.getPath() + ".tmp");
+        this.backupFile = new File(baseFile.getPath() + ".bak");
+    }
+
+    /**
+     * Getter for the file that is read and replaced
+     *
+     * @return file given to the constructor
+     */
+    public File getBaseFile() {
+        return baseFile;
+    }
+
+    /**
+     * States whether there is anything to read, a backup left by a crash included
+     *
+     * @return true if openRead() would find the file
+     */
+    public boolean exists() {
+        return baseFile.exists() || backupFile.exists();
+    }
+
+    /**
+     * Opens the file for reading, after putting back the old contents if a
+     * replacement was cut short after moving them aside
+     *
+     * @return stream of the file's contents
+     * @throws FileNotFoundException if the file has never been written
+     */
+    public FileInputStream openRead() throws FileNotFoundException {
+        if (backupFile.exists()) {
+            if (baseFile.exists()) {
+                // The new file was renamed into place, only the cleanup was missed
+                backupFile.delete();
+            } else {
+                backupFile.renameTo(baseFile);
+            }
+        }
+        return new FileInputStream(baseFile);
+    }
+
+    /**
+     * Starts replacing the file. The contents must be written to the returned
+     * stream, which is then handed to finishWrite(), or to failWrite() if
+     * writing them failed.
+     *
+     * @return stream of the new contents
+     * @throws IOException if the temporary file could not be created
+     */
+    public FileOutputStream startWrite() throws IOException {
+        return new FileOutputStream(newFile);
+    }
+
+    /**
+     * Syncs the new contents to storage and puts them in place of the file
+     *
+     * @param out stream returned by startWrite(), closed by this method
+     * @throws IOException if the contents could not be synced or put in place,
+     *                     in which case the file keeps its old contents
+     */
+    public void finishWrite(FileOutputStream out) throws IOException {
+        try {
+            out.flush();
+            // The rename must never reach storage before the contents do
+            out.getFD().sync();
+        } catch (IOException e) {
+            failWrite(out);
+            throw e;
+        }
+        out.close();
+        if (newFile.renameTo(baseFile)) {
+            return;
+        }
+        // The file system refuses to replace the file, so move it aside first
+        backupFile.delete();
+        if (baseFile.exists() && !baseFile.renameTo(backupFile)) {
+            newFile.delete();
+            throw new IOException("Unable to move " + baseFile + " aside");
+        }
+        if (!newFile.renameTo(baseFile)) {
+            backupFile.renameTo(baseFile);
+            newFile.delete();
+            throw new IOException("Unable to replace " + baseFile);
+        }
+        backupFile.delete();
+    }
+
+    /**
+     * Gives up replacing the file, which keeps its old contents
+     *
+     * @param out stream returned by startWrite(), or null if it failed; closed
+     *            by this method
+     */
+    public void failWrite(FileOutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Deleted anyway
+            }
+        }
+        newFile.delete();
+    }
+}
@@ -0,0 +1,911 @@
+package com.example.remotedoorcontroller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of what happened on every door link: each command sent,
+ * each answer with its round-trip latency, each change of door state, and each
+ * link going up or down, so it can be shown later who opened which door when.
+ *
+ * Recording never blocks and never touches the disk: record() copies the event
+ * into a preallocated ring under a short lock and returns, and when the ring
+ * is full the event is dropped (and counted) rather than holding up a command.
+ * The journal's own thread drains the ring every FLUSH_MILLIS through one
+ * preallocated direct buffer into the current segment file.
+ *
+ * The journal is a directory of segment files, audit-NNNNNNNN.log, each a
+ * RECORD_SIZE header (MAGIC, FORMAT_VERSION) followed by at most
+ * segmentRecords records. A new segment is started once the current one is
+ * full. Records are fixed width and their times never go backwards (the writer
+ * holds a time back to the one before it if the clock is set back), so scan()
+ * finds the start of a range of time by binary search. A segment cut short by a
+ * crash is trimmed back to its last whole record with a valid checksum when the
+ * journal is opened, and compact() drops the records older than a given time.
+ *
+ * A record is big-endian: the time (long, as System.currentTimeMillis), the
+ * device (long, see DeviceId), the type, the value (the command or door
+ * state), the flags, a reserved byte, the sequence id of a framed command
+ * (int), the latency in microseconds (int), then a checksum of the rest (int).
+ *
+ * @author Colby Bratton
+ */
+public class AuditJournal {
+
+    /**
+     * Receives the records found by scan()
+     */
+    public interface Visitor {
+        /**
+         * Called for each record in the range, oldest first
+         *
+         * @param record record found, only valid until this call returns
+         * @return true to carry on, false to stop the scan
+         */
+        boolean visit(Record record);
+    }
+
+    /**
+     * A record of the journal, read in place from a segment. scan() hands the
+     * same instance to every call, moved to the next record each time.
+     */
+    public static class Record {
+        // Segment the record is read from
+        private ByteBuffer segment;
+        // Position of the record in the segment
+        private int offset;
+
+        /**
+         * Moves the record to another place in a segment
+         *
+         * @param segment segment to read from
+         * @param offset  position of the record in the segment
+         */
+        private void moveTo(ByteBuffer segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        /**
+         * Getter for the time
+         *
+         * @return time (System.currentTimeMillis) the event was recorded
+         */
+        public long getTimeMillis() {
+            return segment.getLong(offset);
+        }
+
+        /**
+         * Getter for the device
+         *
+         * @return device the event happened on, see DeviceId
+         */
+        public long getDevice() {
+            return segment.getLong(offset + 8);
+        }
+
+        /**
+         * Getter for the type
+         *
+         * @return COMMAND_SENT, COMMAND_ANSWERED, STATE_CHANGED, LINK_UP, or LINK_DOWN
+         */
+        public int getType() {
+            return segment.get(offset + 16) & 0xFF;
+        }
+
+        /**
+         * Getter for the value
+         *
+         * @return command sent, door state answered or changed to, or 0 for link events
+         */
+        public int getValue() {
+            return segment.get(offset + 17) & 0xFF;
+        }
+
+        /**
+         * States whether an answered command was carried out
+         *
+         * @return true if the door controller accepted the command
+         */
+        public boolean isAccepted() {
+            return (segment.get(offset + 18) & FLAG_ACCEPTED) != 0;
+        }
+
+        /**
+         * Getter for the sequence id
+         *
+         * @return sequence id of a framed command, or DoorProtocol.NO_SEQUENCE
+         */
+        public int getSequence() {
+            return segment.getInt(offset + 20);
+        }
+
+        /**
+         * Getter for the latency
+         *
+         * @return microseconds from the command being made to it being answered,
+         * or 0 for other events
+         */
+        public int getLatencyMicros() {
+            return segment.getInt(offset + 24);
+        }
+
+        /**
+         * States whether the record was written whole
+         *
+         * @return true if the checksum matches the rest of the record
+         */
+        private boolean isValid() {
+            return segment.getInt(offset + 28) == checksum(getTimeMillis(), getDevice(),
+                    segment.getInt(offset + 16), getSequence(), getLatencyMicros());
+        }
+
+        /**
+         * Describes the record on one line, such as
+         * "14:02:11.532 98:D3:31:F5:2B:1C answered 4 (accepted) seq 7 in 41.2 ms"
+         *
+         * @return description of the record
+         */
+        public String describe() {
+            Calendar time = Calendar.getInstance(Locale.US);
+            time.setTimeInMillis(getTimeMillis());
+            String description = String.format(Locale.US, "%1$tH:%1$tM:%1$tS.%1$tL %2$s %3$s",
+                    time, DeviceId.toName(getDevice()), TYPE_NAMES[Math.min(getType(), TYPE_NAMES.length - 1)]);
+            switch (getType()) {
+                case COMMAND_SENT:
+                    return description + " " + getValue() + " seq " + getSequence();
+                case COMMAND_ANSWERED:
+                    return description + String.format(Locale.US, " %d (%s) seq %d in %.1f ms", getValue(),
+                            isAccepted() ? "accepted" : "refused", getSequence(), getLatencyMicros() / 1000.0);
+                case STATE_CHANGED:
+                    return description + " " + getValue();
+                default:
+                    return description;
+            }
+        }
+    }
+
+    // Types of record
+    public final static int COMMAND_SENT = 1;
+    public final static int COMMAND_ANSWERED = 2;
+    public final static int STATE_CHANGED = 3;
+    public final static int LINK_UP = 4;
+    public final static int LINK_DOWN = 5;
+    // Flag of an answered command that was carried out
+    public final static int FLAG_ACCEPTED = 1;
+    // Bytes in a record, and in the header of a segment
+    public final static int RECORD_SIZE = 32;
+    // Default number of records in a segment (1 MB)
+    public final static int DEFAULT_SEGMENT_RECORDS = 32768;
+    // Number of records the ring holds before new ones are dropped
+    public final static int RING_CAPACITY = 4096;
+    // Time between drains of the ring to the disk
+    public final static long FLUSH_MILLIS = 100;
+    // First four bytes of a segment ("AUDT")
+    private final static int MAGIC = 0x41554454;
+    // Layout of the records in a segment
+    private final static int FORMAT_VERSION = 1;
+    // Records written to the disk in one call
+    private final static int BATCH_RECORDS = 256;
+    // Names of the types of record, by type
+    private final static String[] TYPE_NAMES = {"?", "sent", "answered", "state", "link up",
+            "link down", "?"};
+
+    // Looks up the directory the segments are kept in, or returns null to keep nothing
+    private final Callable<File> directorySource;
+    // Number of records in a segment
+    private final int segmentRecords;
+    // Source of the time of each record
+    private final DoorScheduler.Clock clock;
+
+    // Events recorded but not written yet, as parallel arrays (guarded by ringLock)
+    private final Object ringLock = new Object();
+    private final long[] times = new long[RING_CAPACITY];
+    private final long[] devices = new long[RING_CAPACITY];
+    private final int[] words = new int[RING_CAPACITY];
+    private final int[] sequences = new int[RING_CAPACITY];
+    private final int[] latencies = new int[RING_CAPACITY];
+    // Slot of the oldest event in the ring (guarded by ringLock)
+    private int head = 0;
+    // Number of events in the ring, including ones being written (guarded by ringLock)
+    private int count = 0;
+    // Number of events dropped because the ring was full or could not be written (guarded by ringLock)
+    private long dropped = 0;
+    // Whether close() has been called (guarded by ringLock)
+    private boolean closed = false;
+
+    // Directory the segments are kept in, once looked up on the journal's thread
+    private volatile File directory;
+    // Number of records written to the disk (only written by the journal's thread)
+    private volatile long written = 0;
+    // Buffer each batch of records is written from (journal's thread only)
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_SIZE);
+    // Segment being appended to, or null until opened (journal's thread only)
+    private FileChannel channel;
+    // Number of the segment being appended to (journal's thread only)
+    private int segmentNumber;
+    // Number of records in the segment being appended to (journal's thread only)
+    private int segmentCount;
+    // Time of the last record written, no record is given an earlier one (journal's thread only)
+    private long lastTime = Long.MIN_VALUE;
+    // Periodic drains of the ring, or null until started (guarded by this)
+    private ScheduledFuture<?> drains;
+    // Thread the ring is drained and the segments are written on
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AuditJournal");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructor for a journal with segments of the default size on the system clock
+     *
+     * @param directorySource looks up the directory the segments are kept in, on
+     *                        the journal's thread, or returns null to keep nothing
+     */
+    public AuditJournal(Callable<File> directorySource) {
+        this(directorySource, DEFAULT_SEGMENT_RECORDS, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for a journal that has not been started. Does no disk work,
+     * so may be called from the GUI thread.
+     *
+     * @param directorySource looks up the directory the segments are kept in, on
+     *                        the journal's thread, or returns null to keep nothing
+     * @param segmentRecords  number of records in a segment
+     * @param clock           source of the time of each record
+     */
+    public AuditJournal(Callable<File> directorySource, int segmentRecords, DoorScheduler.Clock clock) {
+        if (segmentRecords < 1) {
+            throw new IllegalArgumentException("segmentRecords must be at least 1");
+        }
+        this.directorySource = directorySource;
+        this.segmentRecords = segmentRecords;
+        this.clock = clock;
+    }
+
+    /**
+     * Starts draining the ring to the disk every FLUSH_MILLIS. Events recorded
+     * before then wait in the ring.
+     */
+    public synchronized void start() {
+        if (drains != null) {
+            throw new IllegalStateException("Journal already started");
+        }
+        drains = executor.scheduleWithFixedDelay(this::drain, FLUSH_MILLIS, FLUSH_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records an event without blocking. Safe to call from any thread.
+     *
+     * @param type          COMMAND_SENT, COMMAND_ANSWERED, STATE_CHANGED, LINK_UP, or LINK_DOWN
+     * @param device        device the event happened on, see DeviceId
+     * @param value         command sent, door state answered or changed to, or 0
+     * @param flags         FLAG_ACCEPTED for a command that was carried out, or 0
+     * @param sequence      sequence id of a framed command, or DoorProtocol.NO_SEQUENCE
+     * @param latencyMicros microseconds from the command being made to it being answered, or 0
+     * @return false if the event was dropped because the ring is full or the journal is closed
+     */
+    public boolean record(int type, long device, int value, int flags, int sequence, long latencyMicros) {
+        synchronized (ringLock) {
+            if (count == RING_CAPACITY || closed) {
+                dropped++;
+                return false;
+            }
+            int slot = (head + count) & (RING_CAPACITY - 1);
+            times[slot] = clock.currentTimeMillis();
+            devices[slot] = device;
+            words[slot] = (type & 0xFF) << 24 | (value & 0xFF) << 16 | (flags & 0xFF) << 8;
+            sequences[slot] = sequence;
+            latencies[slot] = (int) Math.min(latencyMicros, Integer.MAX_VALUE);
+            count++;
+        }
+        return true;
+    }
+
+    /**
+     * Writes every event recorded so far to the disk, on the journal's thread
+     *
+     * @return completes once the events have been written
+     */
+    public Future<?> flush() {
+        return executor.submit(this::drain);
+    }
+
+    /**
+     * Drops the records older than a time, on the journal's thread. Segments
+     * entirely older are deleted, and the segment holding the time is rewritten
+     * without its older records.
+     *
+     * @param beforeMillis time (System.currentTimeMillis) to keep records from
+     * @return completes with the number of records dropped
+     */
+    public Future<Integer> compact(long beforeMillis) {
+        return executor.submit(() -> {
+            drain();
+            return compactNow(beforeMillis);
+        });
+    }
+
+    /**
+     * Getter for the number of events written to the disk
+     *
+     * @return number of records written since the journal was made
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Getter for the number of events dropped
+     *
+     * @return number of events dropped because the ring was full or the disk
+     * could not be written
+     */
+    public long getDropped() {
+        synchronized (ringLock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Visits the records in a range of time, oldest first. Reads the segments
+     * in place on the calling thread, so is best not called from the GUI
+     * thread for large ranges. Events still waiting in the ring are not seen,
+     * flush() first to include them.
+     *
+     * @param fromMillis first time (System.currentTimeMillis) of the range
+     * @param toMillis   last time of the range
+     * @param visitor    receiver of the records
+     * @return number of records visited
+     * @throws IOException if a segment could not be read
+     */
+    public int scan(long fromMillis, long toMillis, Visitor visitor) throws IOException {
+        File folder = directory;
+        if (folder == null || fromMillis > toMillis) {
+            return 0;
+        }
+        File[] segments = listSegments(folder);
+        // Segment i holds times from its first record up to the first record of segment i + 1
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstTime(segments[middle]) < fromMillis) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        Record record = new Record();
+        int visited = 0;
+        for (int i = low; i < segments.length; i++) {
+            ByteBuffer segment;
+            try (FileInputStream in = new FileInputStream(segments[i])) {
+                FileChannel reader = in.getChannel();
+                long records = Math.max(0, (reader.size() - RECORD_SIZE) / RECORD_SIZE);
+                if (records == 0) {
+                    continue;
+                }
+                segment = reader.map(FileChannel.MapMode.READ_ONLY, 0, (records + 1) * RECORD_SIZE);
+            } catch (FileNotFoundException e) {
+                // Deleted by compact() since it was listed
+                continue;
+            }
+            if (segment.getInt(0) != MAGIC) {
+                continue;
+            }
+            int end = segment.limit() / RECORD_SIZE - 1;
+            int first = findFirst(segment, end, fromMillis);
+            for (int r = first; r < end; r++) {
+                record.moveTo(segment, (r + 1) * RECORD_SIZE);
+                if (!record.isValid()) {
+                    // Still being written, or cut short by a crash
+                    break;
+                }
+                if (record.getTimeMillis() > toMillis) {
+                    return visited;
+                }
+                visited++;
+                if (!visitor.visit(record)) {
+                    return visited;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Writes a report of the journal and of its records in a range of time,
+     * one per line
+     *
+     * @param out        destination of the report
+     * @param fromMillis first time (System.currentTimeMillis) of the range
+     * @param toMillis   last time of the range
+     * @throws IOException if the report could not be written
+     */
+    public void writeReport(final Appendable out, long fromMillis, long toMillis) throws IOException {
+        out.append(String.format(Locale.US, "%d records written, %d dropped%n", getWritten(), getDropped()));
+        final IOException[] failure = new IOException[1];
+        scan(fromMillis, toMillis, record -> {
+            try {
+                out.append(record.describe()).append('\n');
+                return true;
+            } catch (IOException e) {
+                failure[0] = e;
+                return false;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Builds a report of the journal and of its records in a range of time
+     *
+     * @param fromMillis first time (System.currentTimeMillis) of the range
+     * @param toMillis   last time of the range
+     * @return text report, one record per line
+     */
+    public String report(long fromMillis, long toMillis) {
+        StringBuilder report = new StringBuilder();
+        try {
+            writeReport(report, fromMillis, toMillis);
+        } catch (IOException e) {
+            report.append("Unable to read the journal: ").append(e.getMessage()).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes every event recorded so far and closes the segment being
+     * appended to. Events recorded afterwards are dropped.
+     *
+     * @throws InterruptedException if interrupted while waiting for the writes
+     */
+    public void close() throws InterruptedException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        synchronized (this) {
+            if (drains != null) {
+                drains.cancel(false);
+            }
+        }
+        synchronized (ringLock) {
+            closed = true;
+        }
+        executor.execute(() -> {
+            drain();
+            closeSegment();
+        });
+        executor.shutdown();
+        executor.awaitTermination(10 * FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the events in the ring to the current segment, starting a new
+     * segment whenever one fills up. Runs on the journal's thread.
+     */
+    private void drain() {
+        int start;
+        int pending;
+        synchronized (ringLock) {
+            start = head;
+            pending = count;
+        }
+        if (pending == 0) {
+            return;
+        }
+        // Slots up to count are not reused until head moves past them below
+        int done = 0;
+        try {
+            if (openSegment()) {
+                while (done < pending) {
+                    if (segmentCount == segmentRecords) {
+                        closeSegment();
+                        createSegment(segmentNumber + 1);
+                    }
+                    int batch = Math.min(Math.min(pending - done, BATCH_RECORDS), segmentRecords - segmentCount);
+                    buffer.clear();
+                    for (int i = 0; i < batch; i++) {
+                        int slot = (start + done + i) & (RING_CAPACITY - 1);
+                        // Times never go backwards, so ranges can be found by binary search
+                        lastTime = Math.max(lastTime, times[slot]);
+                        buffer.putLong(lastTime)
+                                .putLong(devices[slot])
+                                .putInt(words[slot])
+                                .putInt(sequences[slot])
+                                .putInt(latencies[slot])
+                                .putInt(checksum(lastTime, devices[slot], words[slot], sequences[slot],
+                                        latencies[slot]));
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    segmentCount += batch;
+                    done += batch;
+                    written += batch;
+                }
+            }
+        } catch (IOException e) {
+            // Reopened (and its torn tail trimmed) on the next drain
+            closeSegment();
+        } finally {
+            synchronized (ringLock) {
+                head = (start + pending) & (RING_CAPACITY - 1);
+                count -= pending;
+                dropped += pending - done;
+            }
+        }
+    }
+
+    /**
+     * Opens the newest segment to append to, trimming any record cut short by a
+     * crash, or creates the first segment. Runs on the journal's thread.
+     *
+     * @return false if there is no directory to keep the segments in
+     * @throws IOException if the segment could not be opened
+     */
+    private boolean openSegment() throws IOException {
+        if (channel != null) {
+            return true;
+        }
+        if (directory == null) {
+            File folder;
+            try {
+                folder = directorySource.call();
+            } catch (Exception e) {
+                folder = null;
+            }
+            if (folder == null || !(folder.isDirectory() || folder.mkdirs())) {
+                return false;
+            }
+            directory = folder;
+        }
+        File[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            createSegment(0);
+            return true;
+        }
+        File newest = segments[segments.length - 1];
+        segmentNumber = segmentNumber(newest);
+        RandomAccessFile file = new RandomAccessFile(newest, "rw");
+        channel = file.getChannel();
+        buffer.clear();
+        buffer.limit(RECORD_SIZE);
+        if (channel.read(buffer, 0) < RECORD_SIZE || buffer.getInt(0) != MAGIC) {
+            // Cut short before its header was written
+            closeSegment();
+            createSegment(segmentNumber);
+            return true;
+        }
+
+        // Keep the whole records with a valid checksum
+        Record record = new Record();
+        long records = (channel.size() - RECORD_SIZE) / RECORD_SIZE;
+        long valid = 0;
+        boolean torn = false;
+        while (valid < records && !torn) {
+            buffer.clear();
+            int batch = (int) Math.min(records - valid, BATCH_RECORDS);
+            buffer.limit(batch * RECORD_SIZE);
+            long position = (valid + 1) * RECORD_SIZE;
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                // Read the whole batch
+            }
+            for (int i = 0; i < batch && !torn; i++) {
+                record.moveTo(buffer, i * RECORD_SIZE);
+                if (record.isValid()) {
+                    lastTime = Math.max(lastTime, record.getTimeMillis());
+                    valid++;
+                } else {
+                    torn = true;
+                }
+            }
+        }
+        channel.truncate((valid + 1) * RECORD_SIZE);
+        channel.position((valid + 1) * RECORD_SIZE);
+        segmentCount = (int) valid;
+        if (valid == 0 && segments.length > 1) {
+            lastTime = Math.max(lastTime, lastRecordTime(segments[segments.length - 2]));
+        }
+        return true;
+    }
+
+    /**
+     * Starts a new, empty segment to append to. Runs on the journal's thread.
+     *
+     * @param number number of the segment
+     * @throws IOException if the segment could not be created
+     */
+    private void createSegment(int number) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(directory, number), "rw");
+        channel = file.getChannel();
+        channel.truncate(0);
+        writeHeader(channel);
+        segmentNumber = number;
+        segmentCount = 0;
+    }
+
+    /**
+     * Closes the segment being appended to, if any, once it is on the disk.
+     * Runs on the journal's thread.
+     */
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException ignored) {
+            // The records written so far are as good as they get
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing more is written to it
+        }
+        channel = null;
+    }
+
+    /**
+     * Drops the records older than a time. Runs on the journal's thread.
+     *
+     * @param beforeMillis time to keep records from
+     * @return number of records dropped
+     * @throws IOException if a segment could not be rewritten
+     */
+    private int compactNow(long beforeMillis) throws IOException {
+        if (directory == null || !openSegment()) {
+            return 0;
+        }
+        File[] segments = listSegments(directory);
+        int compacted = 0;
+        for (int i = 0; i < segments.length; i++) {
+            long records = Math.max(0, (segments[i].length() - RECORD_SIZE) / RECORD_SIZE);
+            boolean newest = i == segments.length - 1;
+            if (!newest && firstTime(segments[i + 1]) < beforeMillis) {
+                // Every record is older than the next segment's first
+                if (segments[i].delete()) {
+                    compacted += records;
+                }
+                continue;
+            }
+            int older = countOlder(segments[i], beforeMillis);
+            if (older == 0) {
+                // So are the segments after it
+                break;
+            }
+            if (newest) {
+                // Stop appending to it before rewriting it
+                closeSegment();
+                createSegment(segmentNumber + 1);
+            }
+            if (older == records) {
+                if (segments[i].delete()) {
+                    compacted += older;
+                }
+            } else {
+                rewriteFrom(segments[i], older);
+                compacted += older;
+            }
+            break;
+        }
+        return compacted;
+    }
+
+    /**
+     * Replaces a segment with a copy of its records from one on
+     *
+     * @param segment segment to rewrite
+     * @param first   index of the first record to keep
+     * @throws IOException if the segment could not be rewritten
+     */
+    private void rewriteFrom(File segment, int first) throws IOException {
+        File temporary = new File(segment.getPath() + ".tmp");
+        try (FileInputStream in = new FileInputStream(segment);
+             RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+            target.truncate(0);
+            writeHeader(target);
+            long position = (first + 1L) * RECORD_SIZE;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(false);
+        }
+        // Scans see either the old or the new segment, never half of one
+        if (!temporary.renameTo(segment)) {
+            temporary.delete();
+            throw new IOException("Unable to replace " + segment);
+        }
+    }
+
+    /**
+     * Counts the records of a segment older than a time
+     *
+     * @param segment      segment to look in
+     * @param beforeMillis time to count records before
+     * @return number of records before the time
+     * @throws IOException if the segment could not be read
+     */
+    private static int countOlder(File segment, long beforeMillis) throws IOException {
+        try (FileInputStream in = new FileInputStream(segment)) {
+            FileChannel reader = in.getChannel();
+            long records = Math.max(0, (reader.size() - RECORD_SIZE) / RECORD_SIZE);
+            if (records == 0) {
+                return 0;
+            }
+            ByteBuffer map = reader.map(FileChannel.MapMode.READ_ONLY, 0, (records + 1) * RECORD_SIZE);
+            return findFirst(map, (int) records, beforeMillis);
+        }
+    }
+
+    /**
+     * Finds the first record of a segment at or after a time, by binary search
+     *
+     * @param segment    mapped segment
+     * @param records    number of records in the segment
+     * @param fromMillis time to look for
+     * @return index of the first record at or after the time, or records if there is none
+     */
+    private static int findFirst(ByteBuffer segment, int records, long fromMillis) {
+        int low = 0;
+        int high = records;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segment.getLong((middle + 1) * RECORD_SIZE) < fromMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the time of the first record of a segment
+     *
+     * @param segment segment to read
+     * @return time of its first record, or Long.MAX_VALUE if it has none
+     * @throws IOException if the segment could not be read
+     */
+    private static long firstTime(File segment) throws IOException {
+        return timeAt(segment, RECORD_SIZE);
+    }
+
+    /**
+     * Reads the time of the last record of a segment
+     *
+     * @param segment segment to read
+     * @return time of its last record, or Long.MIN_VALUE if it has none
+     * @throws IOException if the segment could not be read
+     */
+    private static long lastRecordTime(File segment) throws IOException {
+        long records = (segment.length() - RECORD_SIZE) / RECORD_SIZE;
+        long time = records > 0 ? timeAt(segment, records * RECORD_SIZE) : Long.MAX_VALUE;
+        return time == Long.MAX_VALUE ? Long.MIN_VALUE : time;
+    }
+
+    /**
+     * Reads the time of the record at a position of a segment
+     *
+     * @param segment  segment to read
+     * @param position position of the record
+     * @return time of the record, or Long.MAX_VALUE if there is none
+     * @throws IOException if the segment could not be read
+     */
+    private static long timeAt(File segment, long position) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(segment, "r")) {
+            if (in.length() < position + RECORD_SIZE) {
+                return Long.MAX_VALUE;
+            }
+            in.seek(position);
+            return in.readLong();
+        } catch (FileNotFoundException e) {
+            // Deleted by compact()
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Writes the header of a segment at its start
+     *
+     * @param target segment to write to, left positioned after the header
+     * @throws IOException if the header could not be written
+     */
+    private static void writeHeader(FileChannel target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION);
+        header.clear();
+        target.position(0);
+        while (header.hasRemaining()) {
+            target.write(header);
+        }
+    }
+
+    /**
+     * Lists the segments of a directory, oldest first
+     *
+     * @param folder directory the segments are kept in
+     * @return segment files, in order of their numbers
+     */
+    private static File[] listSegments(File folder) {
+        File[] segments = folder.listFiles((dir, name) -> name.startsWith("audit-") && name.endsWith(".log"));
+        if (segments == null) {
+            return new File[0];
+        }
+        // Numbers are zero padded, so sort as text
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Getter for the file of a segment
+     *
+     * @param folder directory the segments are kept in
+     * @param number number of the segment
+     * @return file of the segment
+     */
+    private static File segmentFile(File folder, int number) {
+        return new File(folder, String.format(Locale.US, "audit-%08d.log", number));
+    }
+
+    /**
+     * Reads the number of a segment from its name
+     *
+     * @param segment file of the segment
+     * @return number of the segment
+     */
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring("audit-".length(), name.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Mixes the fields of a record into a checksum, so a record that was only
+     * partly written (such as one of zeros) is found when the journal is read
+     *
+     * @param time     time of the record
+     * @param device   device of the record
+     * @param word     type, value, flags, and reserved byte of the record
+     * @param sequence sequence id of the record
+     * @param latency  latency of the record
+     * @return checksum of the record
+     */
+    private static int checksum(long time, long device, int word, int sequence, int latency) {
+        long hash = 0x9E3779B97F4A7C15L;
+        hash = (hash ^ time) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ device) * 0x94D049BB133111EBL;
+        hash = (hash ^ ((long) word << 32 | (sequence & 0xFFFFFFFFL))) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ latency) * 0x94D049BB133111EBL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures, for a single door controller, the time from sending each bit command
+ * to receiving the first door state that confirms it. Each command's confirming
+ * state has the same bit sequence as the command (see DoorProtocol), which makes
+ * matching a single array lookup. Latencies are kept in one LatencyHistogram per
+ * command. Nothing is allocated after construction.
+ *
+ * @author Colby Bratton
+ */
+public class CommandLatencyTracker {
+
+    // Highest bit command that is tracked
+    public final static int MAX_COMMAND = DoorProtocol.UNLOCK;
+
+    // Address of the door controller being tracked
+    private final String address;
+    // Latency histogram of each command, indexed by command
+    private final LatencyHistogram[] histograms = new LatencyHistogram[MAX_COMMAND + 1];
+    // Time (System.nanoTime) the oldest unconfirmed command was sent, 0 if none
+    private final AtomicLongArray sentAt = new AtomicLongArray(MAX_COMMAND + 1);
+
+    /**
+     * Constructor for the tracker of a single door controller
+     *
+     * @param address address of the door controller
+     */
+    public CommandLatencyTracker(String address) {
+        this.address = address;
+        for (int i = 0; i <= MAX_COMMAND; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return address of the door controller being tracked
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Records that a command has been sent. If the same command is already waiting
+     * for confirmation, the older send time is kept.
+     *
+     * @param command   bit command that was sent
+     * @param nanoTime  System.nanoTime() when the command was sent
+     */
+    public void commandSent(int command, long nanoTime) {
+        if (command > 0 && command <= MAX_COMMAND) {
+            sentAt.compareAndSet(command, 0, nanoTime);
+        }
+    }
+
+    /**
+     * Records that a command is being sent now
+     *
+     * @param command bit command being sent
+     */
+    public void commandSent(int command) {
+        commandSent(command, System.nanoTime());
+    }
+
+    /**
+     * Records a door state received now. Cheap enough to call for every state
+     * received, as the clock is only read when a command is waiting.
+     *
+     * @param state door state received from the controller
+     * @return latency of the command the state confirms in microseconds, or
+     * -1 if no command was waiting for it
+     */
+    public long stateReceived(int state) {
+        if (state > 0 && state <= MAX_COMMAND && sentAt.get(state) != 0) {
+            return stateReceived(state, System.nanoTime());
+        }
+        return -1;
+    }
+
+    /**
+     * Records a door state received from the controller. If it confirms a command
+     * waiting for confirmation, that command's latency is recorded.
+     *
+     * @param state    door state received from the controller
+     * @param nanoTime System.nanoTime() when the state was received
+     * @return latency of the command the state confirms in microseconds, or
+     * -1 if no command was waiting for it
+     */
+    public long stateReceived(int state, long nanoTime) {
+        if (state <= 0 || state > MAX_COMMAND) {
+            return -1;
+        }
+        long sent = sentAt.getAndSet(state, 0);
+        if (sent == 0) {
+            return -1;
+        }
+        long micros = (nanoTime - sent) / 1000;
+        histograms[state].record(micros);
+        return micros;
+    }
+
+    /**
+     * Forgets a command waiting for confirmation, such as one the controller refused
+     *
+     * @param command bit command that will not be confirmed
+     */
+    public void commandAbandoned(int command) {
+        if (command > 0 && command <= MAX_COMMAND) {
+            sentAt.set(command, 0);
+        }
+    }
+
+    /**
+     * Getter for the latency histogram of a command
+     *
+     * @param command bit command (TIMED_OPEN to UNLOCK)
+     * @return latency histogram of the command
+     */
+    public LatencyHistogram getHistogram(int command) {
+        return histograms[command];
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread that owns the OutputStream of a connection to an external device. Bit
+ * commands are queued by any thread (usually the GUI thread) and written by this
+ * thread, so a congested Bluetooth link can never block the caller. Commands that
+ * are queued together are written to the OutputStream in a single batch. Commands
+ * with a sequence id are written as frames (see DoorProtocol), all others as a
+ * single byte.
+ *
+ * Every command in the queue has exactly one owner: the writer takes a batch out
+ * of the queue under the queue's lock, and shutdown() or abandon() empty it under
+ * the same lock, so a command is either written or handed back, never both or
+ * neither. The writer never fails queued commands itself, not even after a write
+ * error, so the connection can still hand them to another link.
+ *
+ * @author Colby Bratton
+ */
+public class CommandWriterThread extends Thread {
+
+    // Largest number of commands that may wait to be written
+    public final static int QUEUE_CAPACITY = 32;
+
+    // OutputStream of the connection to the external device
+    private final OutputStream transferOutput;
+    // Commands waiting to be written (guarded by itself)
+    private final ArrayDeque<PendingCommand> commandQueue = new ArrayDeque<>(QUEUE_CAPACITY);
+    // Commands taken from the queue for the current batch
+    private final List<PendingCommand> batch = new ArrayList<>(QUEUE_CAPACITY);
+    // Reusable buffer a batch of commands is written from
+    private final byte[] batchBuffer = new byte[QUEUE_CAPACITY * DoorProtocol.FRAME_LENGTH];
+    // Whether the writer has stopped taking commands (written while holding commandQueue)
+    private volatile boolean closed = false;
+    // Error that stopped the writer, if any
+    private volatile IOException failure = null;
+    // Counters of bytes written and time stalled writing, or null to keep none
+    private volatile LinkMetrics metrics = null;
+
+    /**
+     * Constructor for a writer that sends commands over the given OutputStream
+     *
+     * @param output OutputStream of the connection to the external device
+     */
+    public CommandWriterThread(OutputStream output) {
+        super("CommandWriter");
+        this.transferOutput = output;
+    }
+
+    /**
+     * Queues a bit command to be written to the external device. Never blocks; if
+     * the queue is full or the writer is closed, the returned handle is already
+     * completed as not sent.
+     *
+     * @param command bit command to be sent to external device
+     * @return handle that completes once the command has been written or has failed
+     */
+    public PendingCommand submit(byte command) {
+        return submit(new PendingCommand(command));
+    }
+
+    /**
+     * Queues a command to be written to the external device. Never blocks; if
+     * the queue is full or the writer is closed, the handle is completed as not sent.
+     *
+     * @param pending command to be sent to external device
+     * @return the given handle, completed once the command has been written or has failed
+     */
+    public PendingCommand submit(PendingCommand pending) {
+        boolean queued = false;
+        synchronized (commandQueue) {
+            if (!closed && commandQueue.size() < QUEUE_CAPACITY) {
+                commandQueue.add(pending);
+                commandQueue.notify();
+                queued = true;
+            }
+        }
+        if (!queued) {
+            // Queue unavailable, the command is dropped
+            pending.complete(false);
+        }
+        return pending;
+    }
+
+    /**
+     * Writes queued commands until the writer is shut down or the OutputStream fails
+     */
+    public void run() {
+        while (true) {
+            // Wait for a command, then take everything that is queued
+            synchronized (commandQueue) {
+                while (commandQueue.isEmpty() && !closed) {
+                    try {
+                        commandQueue.wait();
+                    } catch (InterruptedException e) {
+                        // Only shutdown() or abandon() end the writer
+                    }
+                }
+                if (closed) {
+                    // What is still queued belongs to shutdown() or abandon()
+                    break;
+                }
+                batch.addAll(commandQueue);
+                commandQueue.clear();
+            }
+
+            int count = batch.size();
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                PendingCommand pending = batch.get(i);
+                if (pending.isFramed()) {
+                    length += DoorProtocol.encode(batchBuffer, length,
+                            pending.getSequence(), pending.getCommand(), pending.getPayload());
+                } else {
+                    batchBuffer[length++] = pending.getCommand();
+                }
+            }
+
+            boolean sent;
+            try {
+                long startedAt = System.nanoTime();
+                transferOutput.write(batchBuffer, 0, length);
+                transferOutput.flush();
+                sent = true;
+                LinkMetrics counters = metrics;
+                if (counters != null) {
+                    // A congested link blocks in the OutputStream, so this is the stall
+                    counters.add(LinkMetrics.WRITE_STALL_MICROS, (System.nanoTime() - startedAt) / 1000);
+                    counters.add(LinkMetrics.BYTES_OUT, length);
+                    counters.increment(LinkMetrics.WRITES);
+                }
+            } catch (IOException e) {
+                failure = e;
+                sent = false;
+                synchronized (commandQueue) {
+                    // Later commands are refused, queued ones wait for abandon() or shutdown()
+                    closed = true;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                batch.get(i).complete(sent);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Sets the counters bytes written and time stalled writing are added to
+     *
+     * @param metrics link metrics of the external device
+     */
+    public void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Getter for the error that stopped the writer
+     *
+     * @return error thrown by the OutputStream, or null if writing has not failed
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops the writer. Commands that have not been written yet are completed as
+     * not sent.
+     */
+    public void shutdown() {
+        for (PendingCommand pending : takeQueued()) {
+            pending.complete(false);
+        }
+    }
+
+    /**
+     * Stops the writer without failing the commands that have not been written
+     * yet, so they can be handed to another connection
+     *
+     * @return commands that were still waiting to be written, oldest first
+     */
+    List<PendingCommand> abandon() {
+        return takeQueued();
+    }
+
+    /**
+     * Stops the writer taking commands and empties the queue. The batch the
+     * writer may be writing is not in the queue and is completed by the writer.
+     *
+     * @return commands that were still waiting to be written, oldest first
+     */
+    private List<PendingCommand> takeQueued() {
+        synchronized (commandQueue) {
+            closed = true;
+            List<PendingCommand> unsent = new ArrayList<>(commandQueue);
+            commandQueue.clear();
+            commandQueue.notifyAll();
+            return unsent;
+        }
+    }
+}
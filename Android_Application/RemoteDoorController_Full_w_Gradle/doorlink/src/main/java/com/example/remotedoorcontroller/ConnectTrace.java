@@ -0,0 +1,140 @@
+package com.example.remotedoorcontroller;
+
+import java.util.Locale;
+
+/**
+ * Startup trace of a single connection attempt, splitting the time from asking
+ * for a connection to receiving the door's first state into phases. Each call to
+ * mark() charges the time since the previous mark to a phase, so a phase that
+ * runs more than once (such as connecting again over a secure socket) adds up.
+ * Phases run on the connecting thread and then on the reading thread, one after
+ * the other.
+ *
+ * @author Colby Bratton
+ */
+public class ConnectTrace {
+
+    // Waiting for a connecting thread to pick up the request
+    public final static int DISPATCH = 0;
+    // Getting the Bluetooth adapter and remote device ready
+    public final static int ADAPTER = 1;
+    // Finding the service UUID (cache or SDP record)
+    public final static int SERVICE_LOOKUP = 2;
+    // Creating the socket
+    public final static int SOCKET_CREATE = 3;
+    // Connecting the socket
+    public final static int SOCKET_CONNECT = 4;
+    // Starting the reader and waiting for the first door state
+    public final static int FIRST_STATE = 5;
+    // Number of phases
+    public final static int PHASE_COUNT = 6;
+
+    // Name of each phase, indexed by phase
+    private final static String[] PHASE_NAMES = {
+            "dispatch", "adapter", "service lookup", "socket create", "connect", "first state"};
+
+    // Address of the door controller being connected to
+    private final String address;
+    // Time (System.nanoTime) of the previous mark
+    private long lastMark;
+    // Time charged to each phase, in nanoseconds, indexed by phase
+    private final long[] phaseNanos = new long[PHASE_COUNT];
+    // Whether the first state has been received
+    private boolean complete = false;
+
+    /**
+     * Constructor for a trace starting now
+     *
+     * @param address address of the door controller being connected to
+     */
+    public ConnectTrace(String address) {
+        this.address = address;
+        this.lastMark = System.nanoTime();
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return address of the door controller being connected to
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Charges the time since the previous mark to a phase. Marking FIRST_STATE
+     * completes the trace; later marks are ignored.
+     *
+     * @param phase phase that just ended (DISPATCH to FIRST_STATE)
+     */
+    public synchronized void mark(int phase) {
+        if (complete) {
+            return;
+        }
+        long now = System.nanoTime();
+        phaseNanos[phase] += now - lastMark;
+        lastMark = now;
+        complete = phase == FIRST_STATE;
+    }
+
+    /**
+     * States whether the first state has been received
+     *
+     * @return true if every phase has ended
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Getter for the time charged to a phase
+     *
+     * @param phase phase (DISPATCH to FIRST_STATE)
+     * @return time charged to the phase, in microseconds
+     */
+    public synchronized long getPhaseMicros(int phase) {
+        return phaseNanos[phase] / 1000;
+    }
+
+    /**
+     * Getter for the time charged to every phase
+     *
+     * @return total time traced, in microseconds
+     */
+    public synchronized long getTotalMicros() {
+        long total = 0;
+        for (long nanos : phaseNanos) {
+            total += nanos;
+        }
+        return total / 1000;
+    }
+
+    /**
+     * Getter for the name of a phase
+     *
+     * @param phase phase (DISPATCH to FIRST_STATE)
+     * @return readable name of the phase
+     */
+    public static String phaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Describes the trace on a single line, phase times in milliseconds
+     *
+     * @return readable trace
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(address).append(':');
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            builder.append(String.format(Locale.US, " %s %.1f ms,", PHASE_NAMES[phase],
+                    phaseNanos[phase] / 1000000.0));
+        }
+        builder.append(String.format(Locale.US, " total %.1f ms", getTotalMicros() / 1000.0));
+        if (!complete) {
+            builder.append(" (no state yet)");
+        }
+        return builder.toString();
+    }
+}
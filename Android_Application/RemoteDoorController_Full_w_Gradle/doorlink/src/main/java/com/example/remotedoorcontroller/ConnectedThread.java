@@ -0,0 +1,729 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread used for continuous data transfer between local and external devices.
+ * Reads responses from the DoorTransport in blocks, hands the latest door state to
+ * a DoorStateConflator, and writes commands through its own CommandWriterThread.
+ * Every connection starts in the legacy single byte mode and switches to framed
+ * commands once the external device answers the protocol probe (see DoorProtocol).
+ * Devices that support it are then asked for edge-triggered reports with a
+ * heartbeat, and checkLiveness() declares the link stale once too many
+ * heartbeats in a row have not arrived. Devices that answer pings are also
+ * pinged on every check, which feeds an RttEstimator the command timeouts are
+ * taken from, and the link is declared stale once too many pings in a row have
+ * gone unanswered for longer than that timeout.
+ *
+ * @author Colby Bratton
+ */
+public class ConnectedThread extends Thread implements FrameDecoder.Listener {
+
+    /**
+     * Receives events from the connection. Called on the reading thread, so
+     * implementations must return quickly and not block.
+     */
+    public interface Listener {
+        /**
+         * Called when a new door state is waiting in the DoorStateConflator.
+         * Not called again until the state has been taken.
+         */
+        void onStateAvailable();
+
+        /**
+         * Called when the external device answers a framed command
+         *
+         * @param sequence sequence id of the answered command
+         * @param accepted true if the command was carried out
+         * @param state    door state reported in the answer
+         */
+        void onCommandAnswered(int sequence, boolean accepted, int state);
+
+        /**
+         * Called once the first door state has been received, completing the
+         * startup trace given to setConnectTrace()
+         *
+         * @param trace completed startup trace of the connection
+         */
+        void onConnectTraced(ConnectTrace trace);
+
+        /**
+         * Called once when the connection stops receiving
+         *
+         * @param cause error that ended the connection, or null if the external
+         *              device closed it
+         */
+        void onDisconnected(IOException cause);
+    }
+
+    // Size of the buffer used to receive responses in blocks rather than byte by byte
+    public final static int RECEIVE_BUFFER_SIZE = 256;
+
+    private final DoorTransport transport;
+    private final InputStream transferInput;
+    // Separate thread that owns the OutputStream and writes queued commands
+    private final CommandWriterThread commandWriter;
+    // Mailbox the latest door state is handed over in
+    private final DoorStateConflator doorState;
+    // Receiver of connection events
+    private final Listener listener;
+    // Round-trip latencies of commands sent over this connection
+    private final CommandLatencyTracker latency;
+    // Link-level counters of the external device
+    private volatile LinkMetrics metrics;
+
+    // Reusable buffer that each block read from the InputStream is placed in
+    private final byte[] receiveBuffer = new byte[RECEIVE_BUFFER_SIZE];
+    // Number of read calls made on the InputStream (only written by this thread)
+    private volatile long readCount = 0;
+    // Number of bytes received from the InputStream (only written by this thread)
+    private volatile long bytesReceived = 0;
+
+    // Splits received bytes into frames and legacy responses
+    private final FrameDecoder frameDecoder = new FrameDecoder();
+    // Final response found in the chunk currently being decoded
+    private int chunkResponse = DoorProtocol.NULL_OP;
+    // Whether the external device has agreed to use frames
+    private volatile boolean framed = false;
+    // Released once the external device has answered the protocol probe
+    private final CountDownLatch negotiated = new CountDownLatch(1);
+    // Heartbeat interval to ask the external device for, 0 to keep continuous reports
+    private volatile long heartbeatMillis = 0;
+    // Request for edge-triggered reports, waiting for its answer
+    private volatile PendingCommand reportModeRequest;
+    // Whether the external device has agreed to edge-triggered reports with a heartbeat
+    private volatile boolean edgeTriggered = false;
+    // Time (System.nanoTime) anything was last received from the external device
+    private volatile long lastReceivedAt = System.nanoTime();
+    // Number of heartbeats received (only written by this thread)
+    private volatile long heartbeats = 0;
+    // Protocol version the external device answered the probe with, 0 until it has
+    private volatile int peerVersion = 0;
+    // Round-trip time estimate of the link, fed by pings
+    private volatile RttEstimator rtt = new RttEstimator();
+    // Latest ping sent, or null before the first one
+    private volatile PendingCommand ping;
+    // Time the latest ping may take to be answered before it is taken as lost
+    private volatile long pingTimeoutMillis;
+    // Number of pings in a row that went unanswered within their timeout
+    private volatile int missedPings = 0;
+    // Guards sending pings, which both the reading and the checking thread do
+    private final Object pingLock = new Object();
+    // Source of the payloads of pings, echoed in their answers (guarded by pingLock)
+    private int pingCounter = 0;
+    // Reason the link was declared stale, or null while it is alive
+    private volatile IOException staleCause;
+    // Startup trace waiting for the first door state, or null (only read by this thread)
+    private volatile ConnectTrace connectTrace;
+    // Source of sequence ids for framed commands
+    private final AtomicInteger sequenceCounter = new AtomicInteger(0);
+    // Framed commands waiting for an answer, indexed by sequence id
+    private final AtomicReferenceArray<PendingCommand> inFlight = new AtomicReferenceArray<>(256);
+    // Journal commands, answers, and changes of state are recorded in, or null
+    private volatile AuditJournal journal;
+    // Device id of the external device in the journal
+    private volatile long journalDevice;
+    // Last door state recorded in the journal (only used by this thread)
+    private int journaledState = DoorStateConflator.NO_STATE;
+
+    /**
+     * Takes the streams of a connected DoorTransport to send and receive data
+     * from external device, without keeping its latencies anywhere else
+     *
+     * @param transport connected transport to the external device
+     * @param doorState mailbox the latest door state is handed over in
+     * @param listener  receiver of connection events
+     * @throws IOException if the transport's streams are not available
+     */
+    public ConnectedThread(DoorTransport transport, DoorStateConflator doorState, Listener listener)
+            throws IOException {
+        this(transport, doorState, listener, new CommandLatencyTracker(transport.getAddress()));
+    }
+
+    /**
+     * Takes the streams of a connected DoorTransport to send and receive data
+     * from external device
+     *
+     * @param transport connected transport to the external device
+     * @param doorState mailbox the latest door state is handed over in
+     * @param listener  receiver of connection events
+     * @param latency   tracker the round-trip latency of each command is recorded in
+     * @throws IOException if the transport's streams are not available
+     */
+    public ConnectedThread(DoorTransport transport, DoorStateConflator doorState, Listener listener,
+                           CommandLatencyTracker latency) throws IOException {
+        super("ConnectedThread " + transport.getAddress());
+        this.transport = transport;
+        this.doorState = doorState;
+        this.listener = listener;
+        this.latency = latency;
+        transferInput = transport.getInputStream();
+        commandWriter = new CommandWriterThread(transport.getOutputStream());
+        // Kept on their own until setMetrics() hands over the door's counters
+        metrics = new LinkMetrics(transport.getAddress());
+        commandWriter.setMetrics(metrics);
+    }
+
+    /**
+     * Executes infinitely, unless otherwise stopped, to receive data from external device
+     */
+    public void run() {
+        // Previous connection's response must not suppress the first response of this one
+        doorState.reset();
+        // Commands are written on their own thread so they never wait on reads
+        commandWriter.start();
+        // Ask the external device whether it supports frames (ignored by older firmware)
+        commandWriter.submit(DoorProtocol.PROTOCOL_PROBE);
+
+        IOException cause = null;
+        // Keep listening to the InputStream until an exception occurs
+        while (true) {
+            try {
+                // Take everything that is currently available in one call
+                int count = transferInput.read(receiveBuffer, 0, RECEIVE_BUFFER_SIZE);
+                if (count < 0) {
+                    // End of stream, external device closed the connection
+                    break;
+                }
+                readCount++;
+                bytesReceived += count;
+                metrics.increment(LinkMetrics.READS);
+                metrics.add(LinkMetrics.BYTES_IN, count);
+                // Any traffic shows the link is alive, not only heartbeats
+                lastReceivedAt = System.nanoTime();
+
+                // Answers are handled as they are decoded, but only the final
+                // response of the chunk is of interest to the GUI
+                frameDecoder.decode(receiveBuffer, 0, count, this);
+                int response = chunkResponse;
+                chunkResponse = DoorProtocol.NULL_OP;
+                if (connectTrace != null && response != DoorProtocol.NULL_OP) {
+                    // First door state of the connection
+                    ConnectTrace trace = connectTrace;
+                    connectTrace = null;
+                    trace.mark(ConnectTrace.FIRST_STATE);
+                    listener.onConnectTraced(trace);
+                }
+                // Only signal a changed response that has not been signalled yet
+                if (doorState.offer(response)) {
+                    metrics.increment(LinkMetrics.STATES_POSTED);
+                    listener.onStateAvailable();
+                } else if (response != DoorProtocol.NULL_OP) {
+                    metrics.increment(LinkMetrics.STATES_DUPLICATE);
+                }
+            } catch (IOException e) {
+                cause = e;
+                break;
+            }
+        }
+        if (staleCause != null) {
+            // The transport was closed by checkLiveness()
+            cause = staleCause;
+        }
+        listener.onDisconnected(cause);
+    }
+
+    /**
+     * Records a single byte response sent by the external device. Commands sent
+     * as a single byte are never answered, so the first response confirming one
+     * is journaled as its answer, with no sequence id.
+     *
+     * @param response response sent by the external device
+     */
+    @Override
+    public void onLegacyResponse(int response) {
+        chunkResponse = response;
+        long latencyMicros = latency.stateReceived(response);
+        AuditJournal commands = journal;
+        if (latencyMicros >= 0 && commands != null) {
+            commands.record(AuditJournal.COMMAND_ANSWERED, journalDevice, response,
+                    AuditJournal.FLAG_ACCEPTED, DoorProtocol.NO_SEQUENCE, latencyMicros);
+        }
+        journalState(response);
+    }
+
+    /**
+     * Handles a frame sent by the external device. State reports and answers
+     * both carry the current door state; answers additionally complete the
+     * command with the matching sequence id.
+     *
+     * @param sequence sequence id of the frame
+     * @param opcode   opcode of the frame
+     * @param payload  payload of the frame
+     */
+    @Override
+    public void onFrame(int sequence, int opcode, int payload) {
+        switch (opcode) {
+            case DoorProtocol.OP_HELLO:
+                framed = payload >= DoorProtocol.MIN_FRAMED_VERSION;
+                // Stray bytes from now on are remains of damaged frames, not states
+                frameDecoder.setFramed(framed);
+                peerVersion = payload;
+                if (payload >= DoorProtocol.HEARTBEAT_VERSION && heartbeatMillis > 0) {
+                    requestEdgeReports();
+                }
+                negotiated.countDown();
+                // A first round trip straight away, rather than at the first check
+                ping();
+                break;
+
+            case DoorProtocol.OP_PONG:
+                PendingCommand echoed = inFlight.get(sequence);
+                if (echoed != null && echoed.getCommand() == (byte) DoorProtocol.OP_PING
+                        && echoed.getPayload() == payload && inFlight.compareAndSet(sequence, echoed, null)) {
+                    // Also sampled if answered after its timeout, as the sequence id is its own
+                    rtt.sample(echoed.getAgeMicros());
+                    missedPings = 0;
+                    echoed.answer(true, payload);
+                }
+                break;
+
+            case DoorProtocol.OP_HEARTBEAT:
+                heartbeats++;
+                // Also carries the state, in case a report of a change was lost
+                chunkResponse = payload;
+                journalState(payload);
+                latency.stateReceived(payload);
+                break;
+
+            case DoorProtocol.OP_STATE:
+                chunkResponse = payload;
+                journalState(payload);
+                latency.stateReceived(payload);
+                break;
+
+            case DoorProtocol.OP_ACK:
+            case DoorProtocol.OP_NACK:
+                chunkResponse = payload;
+                boolean accepted = opcode == DoorProtocol.OP_ACK;
+                PendingCommand pending = inFlight.getAndSet(sequence, null);
+                if (pending != null) {
+                    if (accepted) {
+                        latency.stateReceived(payload);
+                    } else {
+                        latency.commandAbandoned(pending.getCommand());
+                    }
+                    pending.answer(accepted, payload);
+                    if (pending == reportModeRequest) {
+                        // Not a door command, so the listener is not told about it
+                        reportModeRequest = null;
+                        lastReceivedAt = System.nanoTime();
+                        edgeTriggered = accepted;
+                    } else {
+                        AuditJournal commands = journal;
+                        if (commands != null) {
+                            commands.record(AuditJournal.COMMAND_ANSWERED, journalDevice, payload,
+                                    accepted ? AuditJournal.FLAG_ACCEPTED : 0, sequence, pending.getAgeMicros());
+                        }
+                        listener.onCommandAnswered(sequence, accepted, payload);
+                    }
+                }
+                // Recorded after the answer, as the state is what the command led to
+                journalState(payload);
+                break;
+        }
+    }
+
+    /**
+     * Asks the external device to only report changes of state, plus a heartbeat
+     */
+    private void requestEdgeReports() {
+        // The interval is carried in one byte of HEARTBEAT_UNIT_MILLIS
+        long units = Math.max(1, Math.min(255, heartbeatMillis / DoorProtocol.HEARTBEAT_UNIT_MILLIS));
+        PendingCommand request = new PendingCommand((byte) DoorProtocol.OP_REPORT_MODE,
+                DoorProtocol.NO_SEQUENCE, (int) units);
+        reportModeRequest = request;
+        submit(request);
+    }
+
+    /**
+     * Sends a ping if the external device answers them and no ping is waiting
+     * for its answer within its timeout. Called on the reading thread once the
+     * protocol is agreed on, and by checkLiveness() from then on.
+     *
+     * @return true if a ping was sent
+     */
+    private boolean ping() {
+        if (!framed || peerVersion < DoorProtocol.PING_VERSION || staleCause != null) {
+            return false;
+        }
+        synchronized (pingLock) {
+            PendingCommand last = ping;
+            if (last != null && !last.isAnswered() && last.getAgeMillis() <= pingTimeoutMillis) {
+                return false;
+            }
+            pingCounter = (pingCounter + 1) & 0xFF;
+            PendingCommand next = new PendingCommand((byte) DoorProtocol.OP_PING,
+                    DoorProtocol.NO_SEQUENCE, pingCounter);
+            pingTimeoutMillis = rtt.getTimeoutMillis();
+            ping = next;
+            submit(next);
+            return true;
+        }
+    }
+
+    /**
+     * Getter for the number of read calls made on the InputStream
+     *
+     * @return number of read calls made since the thread started
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Getter for the number of bytes received from the InputStream
+     *
+     * @return number of bytes received since the thread started
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Average number of bytes returned by each read call, used to see how
+     * well responses are being batched
+     *
+     * @return bytes received per read call, or 0 if nothing has been read
+     */
+    public double getBytesPerRead() {
+        long reads = readCount;
+        return reads == 0 ? 0 : (double) bytesReceived / reads;
+    }
+
+    /**
+     * Queues a particular bit command to be sent to external device. The command
+     * is written by the writer thread, so this never blocks the calling thread.
+     * Once the external device supports frames, the command is sent with its own
+     * sequence id and the returned handle is also answered by the device.
+     *
+     * @param command bit command to be sent to external device
+     * @return handle that completes once the command has been written or has failed
+     */
+    public PendingCommand write(byte command) {
+        return submit(new PendingCommand(command));
+    }
+
+    /**
+     * Queues a command created elsewhere (such as one replayed after a reconnect),
+     * giving it a sequence id of this connection if frames are in use
+     *
+     * @param pending command to be sent to external device
+     * @return the given handle
+     */
+    PendingCommand submit(PendingCommand pending) {
+        latency.commandSent(pending.getCommand());
+        if (!framed) {
+            pending.assignSequence(DoorProtocol.NO_SEQUENCE);
+            journalSent(pending);
+            return commandWriter.submit(pending);
+        }
+
+        // Sequence ids run from 1 to 255, 0 is reserved for state reports
+        int sequence = (sequenceCounter.getAndIncrement() & Integer.MAX_VALUE) % 255 + 1;
+        pending.assignSequence(sequence);
+        PendingCommand replaced = inFlight.getAndSet(sequence, pending);
+        if (replaced != null) {
+            // Never answered after 255 newer commands, give up on it
+            replaced.answer(false, replaced.getResultState());
+        }
+        journalSent(pending);
+        return commandWriter.submit(pending);
+    }
+
+    /**
+     * Records a door state in the journal, if there is one and the state differs
+     * from the last one recorded. Called for every state decoded, so each
+     * change is recorded even when several arrive in one read.
+     *
+     * @param state door state sent by the external device
+     */
+    private void journalState(int state) {
+        AuditJournal states = journal;
+        if (states != null && state != journaledState) {
+            journaledState = state;
+            states.record(AuditJournal.STATE_CHANGED, journalDevice, state, 0,
+                    DoorProtocol.NO_SEQUENCE, 0);
+        }
+    }
+
+    /**
+     * Records a door command being sent in the journal, if there is one
+     *
+     * @param pending command being sent
+     */
+    private void journalSent(PendingCommand pending) {
+        AuditJournal commands = journal;
+        if (commands != null && pending != reportModeRequest
+                && pending.getCommand() != (byte) DoorProtocol.OP_PING) {
+            commands.record(AuditJournal.COMMAND_SENT, journalDevice, pending.getCommand(), 0,
+                    pending.getSequence(), 0);
+        }
+    }
+
+    /**
+     * Sets the startup trace to complete once the first door state is received.
+     * Must be called before the thread is started.
+     *
+     * @param trace startup trace of the connection
+     */
+    public void setConnectTrace(ConnectTrace trace) {
+        connectTrace = trace;
+    }
+
+    /**
+     * Sets the heartbeat interval to ask the external device for. Must be called
+     * before the thread is started.
+     *
+     * @param heartbeatMillis heartbeat interval, 0 to keep continuous reports
+     */
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * Sets the counters this connection and its writer add to, so they are kept
+     * across every link to the external device. Must be called before the
+     * thread is started.
+     *
+     * @param metrics link metrics of the external device
+     */
+    public void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+        commandWriter.setMetrics(metrics);
+    }
+
+    /**
+     * Sets the round-trip time estimate this connection's pings feed, so it is
+     * kept across every link to the external device. Must be called before the
+     * thread is started.
+     *
+     * @param rtt round-trip time estimate of the external device
+     */
+    public void setRtt(RttEstimator rtt) {
+        this.rtt = rtt;
+    }
+
+    /**
+     * Getter for the round-trip time estimate this connection's pings feed
+     *
+     * @return round-trip time estimate of the link
+     */
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Getter for the time a command sent over this connection may take to be
+     * answered before it is taken as lost
+     *
+     * @return retransmission timeout of the link, in milliseconds
+     */
+    public long getCommandTimeoutMillis() {
+        return rtt.getTimeoutMillis();
+    }
+
+    /**
+     * Getter for the protocol version the external device answered the probe with
+     *
+     * @return protocol version, 0 if the device has not answered (older firmware)
+     */
+    public int getPeerVersion() {
+        return peerVersion;
+    }
+
+    /**
+     * Getter for the number of pings in a row that went unanswered
+     *
+     * @return pings not answered within their timeout since the last answer
+     */
+    public int getMissedPings() {
+        return missedPings;
+    }
+
+    /**
+     * Getter for the counters this connection adds to
+     *
+     * @return link metrics of the external device
+     */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the journal commands, answers, and changes of state are recorded in.
+     * Must be called before the thread is started.
+     *
+     * @param journal journal to record in
+     * @param device  device id of the external device, see DeviceId
+     */
+    public void setJournal(AuditJournal journal, long device) {
+        journalDevice = device;
+        // A reconnect only records a change from the state known before it
+        journaledState = doorState.peek();
+        this.journal = journal;
+    }
+
+    /**
+     * States whether the external device only reports changes of state, plus a heartbeat
+     *
+     * @return true if edge-triggered reports have been agreed on
+     */
+    public boolean isEdgeTriggered() {
+        return edgeTriggered;
+    }
+
+    /**
+     * Getter for the number of heartbeats received
+     *
+     * @return heartbeats received since the thread started
+     */
+    public long getHeartbeats() {
+        return heartbeats;
+    }
+
+    /**
+     * Checks that the external device has been heard from recently enough, and
+     * pings it if it answers pings. The link is declared stale and its
+     * transport closed, so the thread ends and reports an IOException to
+     * onDisconnected(), if more than missedBeatLimit heartbeat intervals (plus
+     * the measured timeout, as a heartbeat is late by up to a round trip) have
+     * passed in silence, or if missedBeatLimit pings in a row have not been
+     * answered within their timeout. Each lost ping doubles the timeout, so a
+     * door that has become slower gets longer to answer the next one. Links
+     * that neither agreed on edge-triggered reports nor answer pings are never
+     * declared stale.
+     *
+     * @param missedBeatLimit number of heartbeats (or pings) that may be missed in a row
+     * @return false if the link has been declared stale
+     */
+    public boolean checkLiveness(int missedBeatLimit) {
+        if (staleCause != null) {
+            return false;
+        }
+        if (edgeTriggered) {
+            long silentMillis = (System.nanoTime() - lastReceivedAt) / 1000000;
+            long allowanceMillis = heartbeatMillis * missedBeatLimit;
+            if (rtt.getSampleCount() > 0) {
+                allowanceMillis += rtt.getTimeoutMillis();
+            }
+            if (silentMillis > allowanceMillis) {
+                return declareStale(new IOException("No heartbeat from " + transport.getAddress()
+                        + " for " + silentMillis + " ms"));
+            }
+        }
+        PendingCommand last = ping;
+        if (last != null && !last.isAnswered() && last.getAgeMillis() > pingTimeoutMillis) {
+            // Lost, or answered too late to tell apart from lost
+            rtt.backOff();
+            if (++missedPings >= missedBeatLimit) {
+                return declareStale(new IOException("No answer from " + transport.getAddress()
+                        + " to " + missedPings + " pings, the last within " + pingTimeoutMillis + " ms"));
+            }
+        }
+        ping();
+        return true;
+    }
+
+    /**
+     * Declares the link stale and closes its transport
+     *
+     * @param cause reason the link is given up on, reported to onDisconnected()
+     * @return false, as the link is no longer alive
+     */
+    private boolean declareStale(IOException cause) {
+        staleCause = cause;
+        try {
+            // Wakes the blocked read
+            transport.close();
+        } catch (IOException ignored) {
+            // Already stale, the link is given up on either way
+        }
+        return false;
+    }
+
+    /**
+     * States whether checkLiveness() has declared the link stale
+     *
+     * @return true if the link missed too many heartbeats or pings
+     */
+    public boolean isStale() {
+        return staleCause != null;
+    }
+
+    /**
+     * Getter for the latency tracker of this connection
+     *
+     * @return tracker the round-trip latency of each command is recorded in
+     */
+    public CommandLatencyTracker getLatency() {
+        return latency;
+    }
+
+    /**
+     * States whether commands are currently sent as frames
+     *
+     * @return true if the external device has agreed to use frames
+     */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * Waits for the external device to answer the protocol probe. Older firmware
+     * never answers, so the wait should be short.
+     *
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if the external device has agreed to use frames
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitFramed(long timeoutMillis) throws InterruptedException {
+        negotiated.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        return framed;
+    }
+
+    /**
+     * Stops the writer of a connection that has been lost, without failing the
+     * commands it had not written yet
+     *
+     * @return commands that were still waiting to be written, oldest first
+     */
+    List<PendingCommand> takeUnsent() {
+        List<PendingCommand> unsent = commandWriter.abandon();
+        // The new link negotiates its own report mode, and pings on its own
+        unsent.remove(reportModeRequest);
+        unsent.remove(ping);
+        // Never written, so this connection will never see them answered
+        for (PendingCommand pending : unsent) {
+            if (pending.isFramed()) {
+                inFlight.compareAndSet(pending.getSequence(), pending, null);
+            }
+        }
+        return unsent;
+    }
+
+    /**
+     * Stops the writer and closes the transport. Allows for a new thread to be
+     * started for communication with a different external device.
+     *
+     * @throws IOException if the transport could not be closed cleanly
+     */
+    public void disconnect() throws IOException {
+        // Stop the writer first so no command is written to a closing stream
+        commandWriter.shutdown();
+        // Commands still waiting for an answer will never get one
+        for (int i = 0; i < inFlight.length(); i++) {
+            PendingCommand pending = inFlight.getAndSet(i, null);
+            if (pending != null) {
+                pending.answer(false, pending.getResultState());
+            }
+        }
+        transport.close();
+    }
+}
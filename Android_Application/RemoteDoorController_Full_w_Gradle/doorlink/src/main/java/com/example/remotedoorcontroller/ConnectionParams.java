@@ -0,0 +1,73 @@
+package com.example.remotedoorcontroller;
+
+import java.util.UUID;
+
+/**
+ * Parameters of the last successful connection to a door controller: the RFCOMM
+ * service UUID it was reached on, whether a secure (authenticated) socket was
+ * needed, and how long connecting took.
+ *
+ * @author Colby Bratton
+ */
+public class ConnectionParams {
+
+    // RFCOMM service UUID the controller was reached on
+    private final UUID serviceUuid;
+    // Whether a secure (authenticated) socket was used
+    private final boolean secure;
+    // Time connecting took, in milliseconds
+    private final long connectMillis;
+    // Time (System.currentTimeMillis) of the connection
+    private final long connectedAt;
+
+    /**
+     * Constructor for the parameters of a successful connection
+     *
+     * @param serviceUuid   RFCOMM service UUID the controller was reached on
+     * @param secure        whether a secure (authenticated) socket was used
+     * @param connectMillis time connecting took, in milliseconds
+     * @param connectedAt   time (System.currentTimeMillis) of the connection
+     */
+    public ConnectionParams(UUID serviceUuid, boolean secure, long connectMillis, long connectedAt) {
+        this.serviceUuid = serviceUuid;
+        this.secure = secure;
+        this.connectMillis = connectMillis;
+        this.connectedAt = connectedAt;
+    }
+
+    /**
+     * Getter for serviceUuid
+     *
+     * @return RFCOMM service UUID the controller was reached on
+     */
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    /**
+     * Getter for secure
+     *
+     * @return true if a secure (authenticated) socket was used
+     */
+    public boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * Getter for connectMillis
+     *
+     * @return time connecting took, in milliseconds
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * Getter for connectedAt
+     *
+     * @return time (System.currentTimeMillis) of the connection
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+}
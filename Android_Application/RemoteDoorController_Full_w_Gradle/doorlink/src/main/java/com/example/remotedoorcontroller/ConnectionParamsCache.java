@@ -0,0 +1,152 @@
+package com.example.remotedoorcontroller;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persistent cache of the ConnectionParams of every door controller connected to
+ * before, keyed by address. Lets a transport skip service discovery on the fast
+ * path. The file is read on first use (never on the GUI thread, as connecting is
+ * the only user) and rewritten whenever the service UUID or socket type of a
+ * door changes, not on every connect; it holds one line per door: address,
+ * service UUID, secure flag, connect time, and time connected.
+ *
+ * @author Colby Bratton
+ */
+public class ConnectionParamsCache {
+
+    // Separator between the fields of a line
+    private final static String SEPARATOR = " ";
+
+    // File the cache is kept in, or null to only keep it in memory
+    private final AtomicFile file;
+    // Parameters of each door controller, keyed by address (guarded by this)
+    private final Map<String, ConnectionParams> entries = new HashMap<>();
+    // Whether the file has been read yet (guarded by this)
+    private boolean loaded = false;
+
+    /**
+     * Constructor for a cache kept in the given file
+     *
+     * @param file file the cache is kept in, or null to only keep it in memory
+     */
+    public ConnectionParamsCache(File file) {
+        this.file = file != null ? new AtomicFile(file) : null;
+    }
+
+    /**
+     * Getter for the parameters of a door controller
+     *
+     * @param address address of the door controller
+     * @return parameters of the last successful connection, or null if unknown
+     */
+    public synchronized ConnectionParams get(String address) {
+        load();
+        return entries.get(address);
+    }
+
+    /**
+     * Records the parameters of a successful connection. The file is only
+     * rewritten if the door is new or its service UUID or socket type changed,
+     * so the timings of a reconnect with the same parameters stay in memory.
+     *
+     * @param address address of the door controller
+     * @param params  parameters of the connection
+     */
+    public synchronized void put(String address, ConnectionParams params) {
+        load();
+        ConnectionParams old = entries.put(address, params);
+        if (old == null || old.isSecure() != params.isSecure()
+                || !old.getServiceUuid().equals(params.getServiceUuid())) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets the parameters of a door controller, such as after they stopped working
+     *
+     * @param address address of the door controller
+     */
+    public synchronized void invalidate(String address) {
+        load();
+        if (entries.remove(address) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Getter for the number of door controllers in the cache
+     *
+     * @return number of cached entries
+     */
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * Reads the file the first time the cache is used. Lines that cannot be
+     * parsed are skipped, so a damaged file only costs a slower connect.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.openRead()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    entries.put(fields[0], new ConnectionParams(UUID.fromString(fields[1]),
+                            Boolean.parseBoolean(fields[2]), Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4])));
+                } catch (IllegalArgumentException ignored) {
+                    // Damaged line, the door is discovered again next time
+                }
+            }
+        } catch (IOException ignored) {
+            // Unreadable file, every door is discovered again
+        }
+    }
+
+    /**
+     * Rewrites the file. Replaces the file as a whole, so a crash while
+     * writing leaves the old cache behind, never a half written or missing one.
+     */
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            Writer writer = new OutputStreamWriter(stream);
+            for (Map.Entry<String, ConnectionParams> entry : entries.entrySet()) {
+                ConnectionParams params = entry.getValue();
+                writer.write(entry.getKey() + SEPARATOR + params.getServiceUuid() + SEPARATOR
+                        + params.isSecure() + SEPARATOR + params.getConnectMillis() + SEPARATOR
+                        + params.getConnectedAt() + "\n");
+            }
+            writer.flush();
+            file.finishWrite(stream);
+        } catch (IOException ignored) {
+            // The old cache is kept, at worst a door is discovered again
+            file.failWrite(stream);
+        }
+    }
+}
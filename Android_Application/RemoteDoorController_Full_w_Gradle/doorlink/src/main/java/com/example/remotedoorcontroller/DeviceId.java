@@ -0,0 +1,71 @@
+package com.example.remotedoorcontroller;
+
+import java.util.Locale;
+
+/**
+ * Numeric id of a door controller, derived from its address, shared by every
+ * place that needs one: the records of the AuditJournal, and the stable ids of
+ * the app's device list. A MAC address is 48 bits, so it is its own id and two
+ * devices never share one. Any other address (such as that of an emulated
+ * controller) is hashed, with the HASHED bit set, which no MAC address has.
+ *
+ * @author Colby Bratton
+ */
+public final class DeviceId {
+
+    // Bit set on the id of an address that is not a MAC address, so is stored as its hash
+    public final static long HASHED = 1L << 63;
+
+    private DeviceId() {
+    }
+
+    /**
+     * Turns the address of a door controller into its id
+     *
+     * @param address address of the door controller, a MAC address in the
+     *                AA:BB:CC:DD:EE:FF form (in either case) or any other text
+     * @return the 48 bit MAC address, or HASHED and the address's hash for an
+     * address that is not a MAC address
+     */
+    public static long fromAddress(String address) {
+        if (address.length() == 17) {
+            long id = 0;
+            boolean mac = true;
+            for (int i = 0; i < 17 && mac; i++) {
+                char c = address.charAt(i);
+                if (i % 3 == 2) {
+                    mac = c == ':';
+                } else {
+                    int digit = Character.digit(c, 16);
+                    mac = digit >= 0;
+                    id = id << 4 | digit;
+                }
+            }
+            if (mac) {
+                return id;
+            }
+        }
+        return HASHED | (address.hashCode() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Turns an id back into a readable name
+     *
+     * @param id id of a door controller, see fromAddress()
+     * @return the MAC address, or "#" and the hash of an address that is not a MAC address
+     */
+    public static String toName(long id) {
+        if ((id & HASHED) != 0) {
+            return String.format(Locale.US, "#%08X", (int) id);
+        }
+        StringBuilder name = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            name.append(Character.toUpperCase(Character.forDigit((int) (id >>> (shift + 4)) & 0xF, 16)))
+                    .append(Character.toUpperCase(Character.forDigit((int) (id >>> shift) & 0xF, 16)));
+            if (shift > 0) {
+                name.append(':');
+            }
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.remotedoorcontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory search index over the name and MAC address of every device found,
+ * used to filter the device list as the user types. Queries of one or two
+ * characters are looked up by the start of a word (so "fr" finds "Front Door"),
+ * longer queries by the three-character sequences (trigrams) they contain, so
+ * "door" finds "Front Door" and "2b:1c" or "2b1c" finds 98:D3:31:F5:2B:1C.
+ * Either way only the devices listed under one index key are checked, rather
+ * than every device.
+ *
+ * Devices are added and updated one at a time as they are found, and only a
+ * device whose name changed is indexed again. Entries are never removed from
+ * the index lists, as every candidate is checked against its current text.
+ * Not thread safe: SelectDeviceActivity only uses it on the GUI thread.
+ *
+ * @param <T> type of the devices indexed
+ * @author Colby Bratton
+ */
+public class DeviceSearchIndex<T> {
+
+    // Queries at least this long are looked up by trigram, shorter ones by word prefix
+    private final static int TRIGRAM_LENGTH = 3;
+    // Initial capacity of an index list
+    private final static int INITIAL_POSTINGS = 4;
+
+    /**
+     * Growable list of device positions under one index key, kept in ascending
+     * order so the matches of a query come out in the order devices were found.
+     */
+    private static class Postings {
+        // Positions of the devices, ascending
+        private int[] positions = new int[INITIAL_POSTINGS];
+        // Number of positions in use
+        private int size = 0;
+
+        /**
+         * Adds a device position, unless it is already listed
+         *
+         * @param position position of the device
+         */
+        void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            int at = size;
+            if (size > 0 && positions[size - 1] > position) {
+                // A device found earlier was renamed
+                at = Arrays.binarySearch(positions, 0, size, position);
+                if (at >= 0) {
+                    return;
+                }
+                at = -at - 1;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            System.arraycopy(positions, at, positions, at + 1, size - at);
+            positions[at] = position;
+            size++;
+        }
+    }
+
+    // Devices in the order they were added
+    private final List<T> items = new ArrayList<>();
+    // Lower case text searched for each device: name, address, and address without colons
+    private final List<String> texts = new ArrayList<>();
+    // Position of each device, keyed by its address
+    private final Map<String, Integer> positions = new HashMap<>();
+    // Devices listed under each one or two character word prefix
+    private final Map<String, Postings> prefixes = new HashMap<>();
+    // Devices listed under each trigram, packed into a long by trigram()
+    private final Map<Long, Postings> trigrams = new HashMap<>();
+
+    /**
+     * Adds a device, or replaces the device with the same address. The device
+     * is only indexed again if its name changed.
+     *
+     * @param name    name of the device, or null if unknown
+     * @param address MAC address of the device, which identifies it
+     * @param item    device to return from search()
+     */
+    public void put(String name, String address, T item) {
+        String text = searchText(name, address);
+        Integer known = positions.get(address);
+        int position;
+        if (known == null) {
+            position = items.size();
+            positions.put(address, position);
+            items.add(item);
+            texts.add(text);
+        } else {
+            position = known;
+            items.set(position, item);
+            if (texts.get(position).equals(text)) {
+                return;
+            }
+            texts.set(position, text);
+        }
+        index(text, position);
+    }
+
+    /**
+     * Getter for the number of devices
+     *
+     * @return number of devices added
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Forgets every device
+     */
+    public void clear() {
+        items.clear();
+        texts.clear();
+        positions.clear();
+        prefixes.clear();
+        trigrams.clear();
+    }
+
+    /**
+     * Finds the devices matching a query, in the order they were added. A query
+     * of one or two characters matches the start of a word of the name or
+     * address, a longer query matches anywhere. Case is ignored, and a blank
+     * query matches every device.
+     *
+     * @param query text typed by the user
+     * @param out   list the matching devices are added to
+     */
+    public void search(String query, List<T> out) {
+        String normalized = query.trim().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            out.addAll(items);
+            return;
+        }
+        Postings candidates;
+        if (normalized.length() < TRIGRAM_LENGTH) {
+            candidates = prefixes.get(normalized);
+        } else {
+            // The rarest trigram of the query has the fewest candidates to check
+            candidates = null;
+            for (int i = 0; i + TRIGRAM_LENGTH <= normalized.length(); i++) {
+                Postings postings = trigrams.get(trigram(normalized, i));
+                if (postings == null) {
+                    return;
+                }
+                if (candidates == null || postings.size < candidates.size) {
+                    candidates = postings;
+                }
+            }
+        }
+        if (candidates == null) {
+            return;
+        }
+        for (int i = 0; i < candidates.size; i++) {
+            int position = candidates.positions[i];
+            if (matches(texts.get(position), normalized)) {
+                out.add(items.get(position));
+            }
+        }
+    }
+
+    /**
+     * Lists a device under the word prefixes and trigrams of its text
+     *
+     * @param text     search text of the device
+     * @param position position of the device
+     */
+    private void index(String text, int position) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isWordStart(text, i)) {
+                postings(prefixes, text.substring(i, i + 1)).add(position);
+                if (i + 1 < text.length() && isWordChar(text.charAt(i + 1))) {
+                    postings(prefixes, text.substring(i, i + 2)).add(position);
+                }
+            }
+            if (i + TRIGRAM_LENGTH <= text.length()) {
+                postings(trigrams, trigram(text, i)).add(position);
+            }
+        }
+    }
+
+    /**
+     * Checks a candidate against the query, as index lists may still list a
+     * device under keys of its old name
+     *
+     * @param text  current search text of the device
+     * @param query normalized query
+     * @return true if the device matches
+     */
+    private static boolean matches(String text, String query) {
+        if (query.length() >= TRIGRAM_LENGTH) {
+            return text.contains(query);
+        }
+        for (int at = text.indexOf(query); at >= 0; at = text.indexOf(query, at + 1)) {
+            if (isWordStart(text, at)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the lower case text a device is searched by
+     *
+     * @param name    name of the device, or null if unknown
+     * @param address MAC address of the device
+     * @return name, address, and address without colons, one per line
+     */
+    static String searchText(String name, String address) {
+        StringBuilder text = new StringBuilder(64);
+        if (name != null) {
+            text.append(name).append('\n');
+        }
+        text.append(address).append('\n');
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c != ':') {
+                text.append(c);
+            }
+        }
+        return text.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * States whether a word starts at a position of a text
+     *
+     * @param text  text to check
+     * @param index position in the text
+     * @return true if the character is a letter or digit not preceded by one
+     */
+    private static boolean isWordStart(String text, int index) {
+        return isWordChar(text.charAt(index)) && (index == 0 || !isWordChar(text.charAt(index - 1)));
+    }
+
+    /**
+     * States whether a character is part of a word
+     *
+     * @param c character to check
+     * @return true if the character is a letter or digit
+     */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Packs the three characters at a position of a text into one key
+     *
+     * @param text  text to read
+     * @param index position of the first character
+     * @return the characters packed 16 bits each
+     */
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16)
+                | text.charAt(index + 2);
+    }
+
+    /**
+     * Looks up the index list of a key, creating it if needed
+     *
+     * @param map index to look in
+     * @param key key of the list
+     * @param <K> type of the keys
+     * @return index list of the key
+     */
+    private static <K> Postings postings(Map<K, Postings> map, K key) {
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        return postings;
+    }
+}
@@ -0,0 +1,775 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds live sessions to several door controllers at once, keyed by address, so
+ * commands can be sent to any connected door without reconnecting. The number of
+ * links open at the same time (including ones still connecting) is capped, as a
+ * phone's Bluetooth controller only supports a handful of RFCOMM links. Failed
+ * connection attempts and lost links are retried as set by a ReconnectPolicy;
+ * a session keeps its link while it reconnects. Connections may be requested
+ * from the GUI thread with connectAsync(), which does all of the work on a
+ * connecting thread and traces each phase of it (see ConnectTrace). Doors that
+ * support it only report changes of state plus a heartbeat, and a link that
+ * misses missedBeatLimit heartbeats (or pings) in a row is treated as lost. What is sent
+ * and received on every link can be recorded in an AuditJournal (see setJournal()).
+ *
+ * @author Colby Bratton
+ */
+public class DoorConnectionManager {
+
+    /**
+     * Creates the transport used to reach a door controller
+     */
+    public interface TransportFactory {
+        /**
+         * Creates a transport that is not connected yet
+         *
+         * @param address address of the door controller
+         * @return transport to the door controller
+         */
+        DoorTransport create(String address);
+    }
+
+    /**
+     * Receives events from every session. Called on the sessions' reading
+     * threads, so implementations must return quickly and not block.
+     */
+    public interface Listener {
+        /**
+         * Called when a connection requested with connectAsync() is established
+         * (or was already open)
+         *
+         * @param session connected session
+         */
+        void onConnected(DoorSession session);
+
+        /**
+         * Called when a connection requested with connectAsync() fails
+         *
+         * @param address address of the door controller
+         * @param cause   error that stopped the connection
+         */
+        void onConnectFailed(String address, IOException cause);
+
+        /**
+         * Called when a new link (first connection or reconnect) receives its
+         * first door state, completing its startup trace
+         *
+         * @param session session the link belongs to
+         * @param trace   completed startup trace
+         */
+        void onConnectTraced(DoorSession session, ConnectTrace trace);
+
+        /**
+         * Called when a new door state is waiting in a session's DoorStateConflator
+         *
+         * @param session session the state was received on
+         */
+        void onStateAvailable(DoorSession session);
+
+        /**
+         * Called when a door controller answers a framed command
+         *
+         * @param session  session the answer was received on
+         * @param sequence sequence id of the answered command
+         * @param accepted true if the command was carried out
+         * @param state    door state reported in the answer
+         */
+        void onCommandAnswered(DoorSession session, int sequence, boolean accepted, int state);
+
+        /**
+         * Called when a session loses its link and starts reconnecting. Commands
+         * written in the meantime are replayed once reconnected.
+         *
+         * @param session session that lost its link
+         * @param cause   error that ended the link, or null if the door closed it
+         */
+        void onLinkLost(DoorSession session, IOException cause);
+
+        /**
+         * Called when a session that lost its link is connected again
+         *
+         * @param session session that reconnected
+         */
+        void onReconnected(DoorSession session);
+
+        /**
+         * Called once when a session ends, either because it was disconnected or
+         * because reconnecting was given up. The session has already been
+         * removed from the manager.
+         *
+         * @param session session that ended
+         * @param cause   error that ended the session, or null if it was closed
+         */
+        void onDisconnected(DoorSession session, IOException cause);
+    }
+
+    // Default number of links to door controllers that may be open at once
+    public final static int DEFAULT_MAX_LINKS = 4;
+    // Default heartbeat interval asked of door controllers
+    public final static long DEFAULT_HEARTBEAT_MILLIS = 2000;
+    // Default number of heartbeats that may be missed in a row before a link is stale
+    public final static int DEFAULT_MISSED_BEAT_LIMIT = 3;
+    // Longest heartbeat interval that fits in an OP_REPORT_MODE frame
+    public final static long MAX_HEARTBEAT_MILLIS = 255L * DoorProtocol.HEARTBEAT_UNIT_MILLIS;
+    // Time to wait before trying for a link again when every link is in use
+    private final static long LINK_RETRY_MILLIS = 100;
+
+    // Creates the transport to each door controller
+    private final TransportFactory transportFactory;
+    // Receiver of every session's events
+    private final Listener listener;
+    // Round-trip latencies of every door controller
+    private final LatencyRecorder latency;
+    // Link-level counters of every door controller
+    private final LinkMetricsRegistry metrics = new LinkMetricsRegistry();
+    // Delays between connection attempts
+    private final ReconnectPolicy policy;
+    // Number of links that may be open at once
+    private volatile int maxLinks;
+    // Heartbeat interval asked of door controllers, 0 for continuous reports
+    private volatile long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+    // Number of heartbeats that may be missed in a row before a link is stale
+    private volatile int missedBeatLimit = DEFAULT_MISSED_BEAT_LIMIT;
+    // Journal every session's commands, answers, and link events are recorded in, or null
+    private volatile AuditJournal journal;
+
+    // Connected sessions, keyed by address (read without locking)
+    private final ConcurrentMap<String, DoorSession> sessions = new ConcurrentHashMap<>();
+    // Transports currently being connected, keyed by address (guarded by this)
+    private final Map<String, DoorTransport> connecting = new HashMap<>();
+    // Addresses whose connection attempts were abandoned, so are not retried (guarded by this)
+    private final Set<String> abandoned = new HashSet<>();
+    // Latest completed startup trace of each door controller, keyed by address
+    private final ConcurrentMap<String, ConnectTrace> traces = new ConcurrentHashMap<>();
+    // Threads that connect requests from connectAsync() are carried out on
+    private final ExecutorService connectExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "DoorConnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Thread the links' heartbeats are checked on
+    private final ScheduledExecutorService heartbeatExecutor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DoorHeartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Periodic heartbeat check, or null until the first session starts (guarded by this)
+    private ScheduledFuture<?> heartbeatCheck;
+
+    /**
+     * Constructor for a manager of links to door controllers
+     *
+     * @param maxLinks         number of links that may be open at once
+     * @param transportFactory creates the transport to each door controller
+     * @param listener         receiver of every session's events
+     * @param latency          recorder of every door controller's latencies
+     */
+    public DoorConnectionManager(int maxLinks, TransportFactory transportFactory, Listener listener,
+                                 LatencyRecorder latency) {
+        this(maxLinks, transportFactory, listener, latency, new ReconnectPolicy());
+    }
+
+    /**
+     * Constructor for a manager of links to door controllers
+     *
+     * @param maxLinks         number of links that may be open at once
+     * @param transportFactory creates the transport to each door controller
+     * @param listener         receiver of every session's events
+     * @param latency          recorder of every door controller's latencies
+     * @param policy           delays between connection attempts
+     */
+    public DoorConnectionManager(int maxLinks, TransportFactory transportFactory, Listener listener,
+                                 LatencyRecorder latency, ReconnectPolicy policy) {
+        if (maxLinks < 1) {
+            throw new IllegalArgumentException("maxLinks must be at least 1");
+        }
+        this.maxLinks = maxLinks;
+        this.transportFactory = transportFactory;
+        this.listener = listener;
+        this.latency = latency;
+        this.policy = policy;
+    }
+
+    /**
+     * Requests a connection to a door controller without blocking. The result is
+     * reported to the listener's onConnected() or onConnectFailed(). Safe to
+     * call from the GUI thread, as nothing is done on the calling thread.
+     *
+     * @param address address of the door controller
+     */
+    public void connectAsync(String address) {
+        final ConnectTrace trace = new ConnectTrace(address);
+        connectExecutor.execute(() -> {
+            trace.mark(ConnectTrace.DISPATCH);
+            DoorSession session;
+            try {
+                session = connect(address, trace);
+            } catch (IOException e) {
+                listener.onConnectFailed(address, e);
+                return;
+            }
+            listener.onConnected(session);
+        });
+    }
+
+    /**
+     * Connects to a door controller, or returns the existing session if it is
+     * already connected. Makes up to the policy's number of connection attempts.
+     * Blocks until the connection is established, so must not be called from
+     * the GUI thread.
+     *
+     * @param address address of the door controller
+     * @return connected session to the door controller
+     * @throws IOException if the link limit is reached, the door is already being
+     *                     connected to, or the connection could not be established
+     */
+    public DoorSession connect(String address) throws IOException {
+        return connect(address, new ConnectTrace(address));
+    }
+
+    /**
+     * Connects to a door controller like connect(String), but waits for a link
+     * while every link is in use (such as by the other doors of a GroupCommand),
+     * as links are freed as other doors are done with
+     *
+     * @param address  address of the door controller
+     * @param deadline time (System.nanoTime) the door has to be connected by
+     * @return connected session to the door controller
+     * @throws IOException          if no link was freed in time, or the door
+     *                              could not be connected to
+     * @throws InterruptedException if interrupted while waiting for a link
+     */
+    public DoorSession connect(String address, long deadline) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return connect(address);
+            } catch (LinkUnavailableException e) {
+                if (DoorSession.remainingMillis(deadline) <= LINK_RETRY_MILLIS) {
+                    throw e;
+                }
+                Thread.sleep(LINK_RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Connects to a door controller, marking each phase in a startup trace
+     *
+     * @param address address of the door controller
+     * @param trace   startup trace of the connection
+     * @return connected session to the door controller
+     * @throws IOException if the door could not be connected to
+     */
+    private DoorSession connect(String address, ConnectTrace trace) throws IOException {
+        synchronized (this) {
+            abandoned.remove(address);
+        }
+        int attempt = 0;
+        while (true) {
+            try {
+                return connectOnce(address, trace);
+            } catch (LinkUnavailableException e) {
+                // Retrying cannot help
+                throw e;
+            } catch (IOException e) {
+                attempt++;
+                synchronized (this) {
+                    if (abandoned.remove(address) || attempt >= policy.getConnectAttempts()) {
+                        throw e;
+                    }
+                }
+            }
+            try {
+                Thread.sleep(policy.delayMillis(attempt - 1));
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while connecting to " + address);
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt to connect to a door controller
+     *
+     * @param address address of the door controller
+     * @param trace   startup trace of the connection
+     * @return connected session to the door controller
+     * @throws IOException if the door could not be connected to
+     */
+    private DoorSession connectOnce(String address, ConnectTrace trace) throws IOException {
+        DoorTransport transport;
+        synchronized (this) {
+            DoorSession existing = sessions.get(address);
+            if (existing != null) {
+                return existing;
+            }
+            if (connecting.containsKey(address)) {
+                throw new LinkUnavailableException("Already connecting to " + address);
+            }
+            if (sessions.size() + connecting.size() >= maxLinks) {
+                throw new LinkUnavailableException("Limit of " + maxLinks + " door links reached");
+            }
+            // Hold the link while connecting so the limit also covers connection attempts
+            transport = transportFactory.create(address);
+            connecting.put(address, transport);
+        }
+
+        LinkMetrics link = metrics.forDevice(address);
+        link.increment(LinkMetrics.CONNECT_ATTEMPTS);
+        DoorSession session;
+        try {
+            transport.connect(trace);
+            session = new DoorSession(this, transport, latency.forDevice(address));
+        } catch (IOException e) {
+            link.increment(LinkMetrics.CONNECT_FAILURES);
+            synchronized (this) {
+                connecting.remove(address);
+            }
+            try {
+                transport.close();
+            } catch (IOException ignored) {
+                // Already failing, the original error is more useful
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            connecting.remove(address);
+            sessions.put(address, session);
+            if (heartbeatCheck == null) {
+                scheduleHeartbeatCheck();
+            }
+        }
+        session.start(trace);
+        return session;
+    }
+
+    /**
+     * Getter for the session of a connected door
+     *
+     * @param address address of the door controller
+     * @return session to the door controller, or null if it is not connected
+     */
+    public DoorSession getSession(String address) {
+        return address == null ? null : sessions.get(address);
+    }
+
+    /**
+     * States whether a door is connected
+     *
+     * @param address address of the door controller
+     * @return true if a session to the door controller is open
+     */
+    public boolean isConnected(String address) {
+        return getSession(address) != null;
+    }
+
+    /**
+     * Getter for the time a command sent to a door may take to be answered
+     * before it is taken as lost
+     *
+     * @param address address of the door controller
+     * @return timeout measured for the door, or RttEstimator.INITIAL_TIMEOUT_MILLIS
+     * if it is not connected
+     */
+    public long getCommandTimeoutMillis(String address) {
+        DoorSession session = getSession(address);
+        return session == null ? RttEstimator.INITIAL_TIMEOUT_MILLIS : session.getCommandTimeoutMillis();
+    }
+
+    /**
+     * Queues a bit command to be sent to a connected door, without blocking
+     *
+     * @param address address of the door controller
+     * @param command bit command to be sent to the door controller
+     * @return handle that completes once the command has been written or has
+     * failed (immediately failed if the door is not connected)
+     */
+    public PendingCommand write(String address, byte command) {
+        DoorSession session = getSession(address);
+        if (session == null) {
+            PendingCommand failed = new PendingCommand(command);
+            failed.complete(false);
+            return failed;
+        }
+        return session.write(command);
+    }
+
+    /**
+     * Closes the session to a door if it is connected, or abandons the attempt
+     * if it is still being connected to
+     *
+     * @param address address of the door controller
+     * @throws IOException if the transport could not be closed cleanly
+     */
+    public void disconnect(String address) throws IOException {
+        DoorTransport pending;
+        synchronized (this) {
+            pending = connecting.get(address);
+            // Also stops retries of an attempt that is waiting between tries
+            abandoned.add(address);
+        }
+        if (pending != null) {
+            // Makes the blocked connect() fail, which releases the link
+            pending.close();
+        }
+        DoorSession session = getSession(address);
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+
+    /**
+     * Closes every session and abandons every connection attempt
+     *
+     * @throws IOException if any transport could not be closed cleanly (every
+     *                     session is still closed)
+     */
+    public void disconnectAll() throws IOException {
+        List<DoorTransport> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(connecting.values());
+            abandoned.addAll(connecting.keySet());
+        }
+        IOException failure = null;
+        for (DoorTransport transport : pending) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (DoorSession session : getSessions()) {
+            try {
+                session.disconnect();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Getter for every connected session
+     *
+     * @return snapshot of the connected sessions
+     */
+    public List<DoorSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    /**
+     * Getter for the number of connected sessions
+     *
+     * @return number of connected sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Getter for maxLinks
+     *
+     * @return number of links that may be open at once
+     */
+    public int getMaxLinks() {
+        return maxLinks;
+    }
+
+    /**
+     * Setter for maxLinks. Lowering the limit does not close open sessions, it
+     * only stops new ones from being connected until enough have closed.
+     *
+     * @param maxLinks number of links that may be open at once
+     */
+    public void setMaxLinks(int maxLinks) {
+        if (maxLinks < 1) {
+            throw new IllegalArgumentException("maxLinks must be at least 1");
+        }
+        this.maxLinks = maxLinks;
+    }
+
+    /**
+     * Getter for the link-level counters of every door controller
+     *
+     * @return registry of every door controller's link metrics
+     */
+    public LinkMetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Getter for journal
+     *
+     * @return journal every session's commands and link events are recorded in, or null
+     */
+    public AuditJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Setter for journal. Only sessions connected from now on record in it.
+     *
+     * @param journal journal to record every session's commands, answers, and
+     *                link events in, or null to record nothing
+     */
+    public void setJournal(AuditJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Getter for heartbeatMillis
+     *
+     * @return heartbeat interval asked of door controllers, 0 for continuous reports
+     */
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /**
+     * Getter for missedBeatLimit
+     *
+     * @return number of heartbeats that may be missed in a row before a link is stale
+     */
+    public int getMissedBeatLimit() {
+        return missedBeatLimit;
+    }
+
+    /**
+     * Sets how door controllers report their state. Only links connected from now
+     * on ask for the new interval, while the missed beat limit applies straight away.
+     *
+     * @param heartbeatMillis heartbeat interval asked of door controllers (at most
+     *                        MAX_HEARTBEAT_MILLIS), or 0 to keep continuous reports
+     * @param missedBeatLimit number of heartbeats that may be missed in a row
+     *                        before a link is stale
+     */
+    public void setHeartbeat(long heartbeatMillis, int missedBeatLimit) {
+        if (heartbeatMillis != 0 && (heartbeatMillis < DoorProtocol.HEARTBEAT_UNIT_MILLIS
+                || heartbeatMillis > MAX_HEARTBEAT_MILLIS)) {
+            throw new IllegalArgumentException("heartbeatMillis must be 0 or "
+                    + DoorProtocol.HEARTBEAT_UNIT_MILLIS + " to " + MAX_HEARTBEAT_MILLIS);
+        }
+        if (missedBeatLimit < 1) {
+            throw new IllegalArgumentException("missedBeatLimit must be at least 1");
+        }
+        this.missedBeatLimit = missedBeatLimit;
+        synchronized (this) {
+            long previous = this.heartbeatMillis;
+            this.heartbeatMillis = heartbeatMillis;
+            if (heartbeatCheck != null && heartbeatMillis != 0 && heartbeatMillis != previous) {
+                // Check at the new interval
+                heartbeatCheck.cancel(false);
+                scheduleHeartbeatCheck();
+            }
+        }
+    }
+
+    /**
+     * Starts checking the links' heartbeats, at the heartbeat interval. Must be
+     * called while holding the lock.
+     */
+    private void scheduleHeartbeatCheck() {
+        long period = heartbeatMillis > 0 ? heartbeatMillis : DEFAULT_HEARTBEAT_MILLIS;
+        heartbeatCheck = heartbeatExecutor.scheduleAtFixedRate(this::checkHeartbeats,
+                period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Declares every link that has missed too many heartbeats stale, which makes
+     * its session reconnect
+     *
+     * @return number of links declared stale
+     */
+    int checkHeartbeats() {
+        int stale = 0;
+        for (DoorSession session : sessions.values()) {
+            if (!session.checkLiveness(missedBeatLimit)) {
+                stale++;
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Writes a report of every connected door's reconnects. Outage durations
+     * (from losing the link to reconnecting) are in seconds.
+     *
+     * @param out destination of the report
+     * @throws IOException if the destination cannot be written to
+     */
+    public void writeReconnectReport(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-17s %5s %5s %8s %6s %8s %9s %9s %s%n",
+                "device", "lost", "stale", "attempts", "failed", "replayed", "p50 s", "max s", "link"));
+        for (DoorSession session : getSessions()) {
+            ReconnectStats stats = session.getReconnectStats();
+            LatencyHistogram outages = stats.getOutages();
+            out.append(String.format(Locale.US, "%-17s %5d %5d %8d %6d %8d %9.2f %9.2f %s%n",
+                    session.getAddress(), stats.getLinksLost(), stats.getStaleLinks(), stats.getAttempts(),
+                    stats.getFailedAttempts(), stats.getReplayedCommands(),
+                    outages.getPercentile(0.50) / 1000000.0, outages.getMax() / 1000000.0,
+                    session.isReconnecting() ? "reconnecting" : "up"));
+        }
+    }
+
+    /**
+     * Produces the report written by writeReconnectReport()
+     *
+     * @return report of every connected door's reconnects
+     */
+    public String reconnectReport() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReconnectReport(builder);
+        } catch (IOException ignored) {
+            // StringBuilder never throws
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a report of every connected door's measured round-trip time and the
+     * command timeout derived from it. Times are in milliseconds.
+     *
+     * @param out destination of the report
+     * @throws IOException if the destination cannot be written to
+     */
+    public void writeRttReport(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-17s %8s %9s %8s %10s %6s %7s%n",
+                "device", "samples", "srtt ms", "var ms", "timeout ms", "missed", "version"));
+        for (DoorSession session : getSessions()) {
+            RttEstimator rtt = session.getRtt();
+            ConnectedThread connection = session.getConnection();
+            out.append(String.format(Locale.US, "%-17s %8d %9.2f %8.2f %10d %6d %7d%n",
+                    session.getAddress(), rtt.getSampleCount(), rtt.getSrttMicros() / 1000.0,
+                    rtt.getRttvarMicros() / 1000.0, rtt.getTimeoutMillis(), connection.getMissedPings(),
+                    connection.getPeerVersion()));
+        }
+    }
+
+    /**
+     * Produces the report written by writeRttReport()
+     *
+     * @return report of every connected door's round-trip time
+     */
+    public String rttReport() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeRttReport(builder);
+        } catch (IOException ignored) {
+            // StringBuilder never throws
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Getter for the latest completed startup trace of a door controller
+     *
+     * @param address address of the door controller
+     * @return latest startup trace, or null if no link to it has received a state
+     */
+    public ConnectTrace getConnectTrace(String address) {
+        return traces.get(address);
+    }
+
+    /**
+     * Produces a report of the latest startup trace of every door controller
+     *
+     * @return one line per door controller, phase times in milliseconds
+     */
+    public String traceReport() {
+        List<String> addresses = new ArrayList<>(traces.keySet());
+        Collections.sort(addresses);
+        StringBuilder builder = new StringBuilder();
+        for (String address : addresses) {
+            builder.append(traces.get(address)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Records a completed startup trace and passes it on to the listener
+     *
+     * @param session session the traced link belongs to
+     * @param trace   completed startup trace
+     */
+    void traceCompleted(DoorSession session, ConnectTrace trace) {
+        traces.put(session.getAddress(), trace);
+        listener.onConnectTraced(session, trace);
+    }
+
+    /**
+     * Getter for listener
+     *
+     * @return receiver of every session's events
+     */
+    Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Getter for policy
+     *
+     * @return delays between connection attempts
+     */
+    ReconnectPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Creates a transport to a door controller, used by sessions to reconnect
+     *
+     * @param address address of the door controller
+     * @return transport that is not connected yet
+     */
+    DoorTransport createTransport(String address) {
+        return transportFactory.create(address);
+    }
+
+    /**
+     * Forgets a session that has been or is being closed, freeing its link
+     *
+     * @param session session to forget
+     */
+    void remove(DoorSession session) {
+        sessions.remove(session.getAddress(), session);
+    }
+
+    /**
+     * Thrown when a connection attempt is refused before it starts, because the
+     * link limit is reached or the door is already being connected to
+     */
+    public static class LinkUnavailableException extends IOException {
+        // Version of the serialized form
+        private final static long serialVersionUID = 1L;
+
+        /**
+         * Constructor for the exception
+         *
+         * @param message reason the link is unavailable
+         */
+        public LinkUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
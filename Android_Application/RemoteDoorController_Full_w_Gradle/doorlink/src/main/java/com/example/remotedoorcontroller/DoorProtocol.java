@@ -0,0 +1,158 @@
+package com.example.remotedoorcontroller;
+
+/**
+ * Describes the protocol spoken between the application and the Arduino door
+ * controller (see Door_Controller.ino). Commands and responses are 4-bit values
+ * that are either sent as a single byte (legacy mode) or inside a frame.
+ * Each frame is a fixed five bytes:
+ *
+ * <pre>
+ *   START | SEQUENCE | OPCODE | PAYLOAD | CHECKSUM
+ * </pre>
+ *
+ * Commands sent by the application use the existing bit commands as their opcode
+ * and carry a sequence id (1-255) that the controller echoes in its ACK or NACK,
+ * so several commands may be in flight at once. Sequence id 0 is used for
+ * unsolicited state reports.
+ *
+ * Controllers running older firmware only understand single byte commands and
+ * only send single byte responses. The application therefore starts every
+ * connection in that legacy mode and sends PROTOCOL_PROBE, a single byte older
+ * firmware ignores. Firmware that supports frames answers with an OP_HELLO frame,
+ * after which both ends switch to frames.
+ *
+ * Controllers report their state continuously by default. From protocol version
+ * HEARTBEAT_VERSION, the application may ask with an OP_REPORT_MODE frame for
+ * edge-triggered reports instead: the state is only sent when it changes, plus
+ * an OP_HEARTBEAT frame whenever nothing else has been sent for the requested
+ * interval, which lets the application tell a quiet link from a dead one.
+ *
+ * From PING_VERSION, the application may send OP_PING frames, which the
+ * controller queues like commands and answers with an OP_PONG frame carrying
+ * the same sequence id and payload. Timing these gives the link's round-trip
+ * time, command timeouts included, see RttEstimator.
+ *
+ * @author Colby Bratton
+ */
+public final class DoorProtocol {
+
+    // Arduino Bit Commands
+    public final static byte NULL_OP = 0b0000;
+    public final static byte TIMED_OPEN = 0b0001;
+    public final static byte HOLD_OPEN = 0b0010;
+    public final static byte CLOSE = 0b0011;
+    public final static byte LOCK = 0b0100;
+    public final static byte UNLOCK = 0b0101;
+
+    // Arduino Bit Responses (each command's expected response has the same value)
+    public final static int DOOR_IS_TIMED = 0b0001;
+    public final static int DOOR_IS_OPEN = 0b0010;
+    public final static int DOOR_IS_CLOSED = 0b0011;
+    public final static int DOOR_IS_LOCKED = 0b0100;
+    public final static int DOOR_IS_UNLOCKED = 0b0101;
+
+    // First byte of every frame (never a valid legacy command or response)
+    public final static int FRAME_START = 0x7E;
+    // Number of bytes in every frame
+    public final static int FRAME_LENGTH = 5;
+    // Oldest protocol version using frames; this application implements up to PING_VERSION
+    public final static int MIN_FRAMED_VERSION = 1;
+    // First protocol version supporting edge-triggered reports with a heartbeat
+    public final static int HEARTBEAT_VERSION = 2;
+    // First protocol version answering OP_PING with OP_PONG
+    public final static int PING_VERSION = 3;
+    // Unit of the heartbeat interval carried in an OP_REPORT_MODE frame
+    public final static int HEARTBEAT_UNIT_MILLIS = 100;
+
+    // Single byte sent in legacy mode to ask the controller whether it supports frames
+    public final static byte PROTOCOL_PROBE = 0b1000;
+
+    // Frame opcodes sent by the controller (commands sent by the application use
+    // the bit command itself as the opcode)
+    public final static int OP_STATE = 0x20; // Unsolicited state report, payload is the state
+    public final static int OP_ACK = 0x21; // Command carried out, payload is the resulting state
+    public final static int OP_NACK = 0x22; // Command refused, payload is the unchanged state
+    public final static int OP_HELLO = 0x23; // Frames supported, payload is the protocol version
+    public final static int OP_HEARTBEAT = 0x24; // State unchanged, payload is the state
+    public final static int OP_PONG = 0x25; // Ping answered, payload is the ping's payload
+
+    // Frame opcode sent by the application to choose how the state is reported,
+    // answered like a command. Payload is the heartbeat interval in
+    // HEARTBEAT_UNIT_MILLIS, or 0 to go back to continuous reports.
+    public final static int OP_REPORT_MODE = 0x30;
+    // Frame opcode sent by the application to measure the round-trip time,
+    // answered with an OP_PONG echoing its sequence id and payload
+    public final static int OP_PING = 0x31;
+
+    // Sequence id used for frames that do not answer a command
+    public final static int NO_SEQUENCE = 0;
+
+    private DoorProtocol() {
+    }
+
+    /**
+     * Gives a readable name for a bit command, for logs and reports
+     *
+     * @param command bit command
+     * @return name of the command
+     */
+    public static String commandName(int command) {
+        switch (command) {
+            case TIMED_OPEN:
+                return "TIMED_OPEN";
+            case HOLD_OPEN:
+                return "HOLD_OPEN";
+            case CLOSE:
+                return "CLOSE";
+            case LOCK:
+                return "LOCK";
+            case UNLOCK:
+                return "UNLOCK";
+            default:
+                return "OP_" + command;
+        }
+    }
+
+    /**
+     * States whether carrying out a bit command twice leaves the door as carrying
+     * it out once, so a command whose answer is late may safely be sent again.
+     * A timed open is not, since it restarts the door's timer.
+     *
+     * @param command bit command
+     * @return true if the command may be sent again
+     */
+    public static boolean isIdempotent(int command) {
+        return command == HOLD_OPEN || command == CLOSE || command == LOCK || command == UNLOCK;
+    }
+
+    /**
+     * Calculates the checksum of a frame
+     *
+     * @param sequence sequence id of the frame
+     * @param opcode   opcode of the frame
+     * @param payload  payload of the frame
+     * @return checksum byte of the frame
+     */
+    public static int checksum(int sequence, int opcode, int payload) {
+        return (sequence ^ opcode ^ payload ^ 0xFF) & 0xFF;
+    }
+
+    /**
+     * Writes a frame into the given buffer
+     *
+     * @param buffer   buffer to write the frame into
+     * @param offset   position in the buffer of the first byte of the frame
+     * @param sequence sequence id of the frame
+     * @param opcode   opcode of the frame
+     * @param payload  payload of the frame
+     * @return number of bytes written (always FRAME_LENGTH)
+     */
+    public static int encode(byte[] buffer, int offset, int sequence, int opcode, int payload) {
+        buffer[offset] = (byte) FRAME_START;
+        buffer[offset + 1] = (byte) sequence;
+        buffer[offset + 2] = (byte) opcode;
+        buffer[offset + 3] = (byte) payload;
+        buffer[offset + 4] = (byte) checksum(sequence & 0xFF, opcode & 0xFF, payload & 0xFF);
+        return FRAME_LENGTH;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.remotedoorcontroller;
+
+/**
+ * What the app remembers about a door controller between launches: its name,
+ * the last state it reported, when it was last heard from, and how often it
+ * was connected to and lost. Kept in a DoorRegistry.
+ *
+ * @author Colby Bratton
+ */
+public class DoorRecord {
+
+    // MAC address of the door controller
+    private final String address;
+    // Name of the door controller, or null if unknown
+    private final String name;
+    // Last state reported (DOOR_IS_TIMED to DOOR_IS_UNLOCKED), or NO_STATE
+    private final int state;
+    // Time (System.currentTimeMillis) the door was last heard from, or 0 if never
+    private final long lastSeenAt;
+    // Number of times a link to the door was opened
+    private final int connects;
+    // Number of times an open link to the door was lost
+    private final int linksLost;
+
+    /**
+     * Constructor for the record of a door controller
+     *
+     * @param address    MAC address of the door controller
+     * @param name       name of the door controller, or null if unknown
+     * @param state      last state reported, or NO_STATE
+     * @param lastSeenAt time (System.currentTimeMillis) the door was last heard from, or 0
+     * @param connects   number of times a link to the door was opened
+     * @param linksLost  number of times an open link to the door was lost
+     */
+    public DoorRecord(String address, String name, int state, long lastSeenAt,
+                      int connects, int linksLost) {
+        this.address = address;
+        this.name = name;
+        this.state = state;
+        this.lastSeenAt = lastSeenAt;
+        this.connects = connects;
+        this.linksLost = linksLost;
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return MAC address of the door controller
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Getter for name
+     *
+     * @return name of the door controller, or null if unknown
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for state
+     *
+     * @return last state reported (DOOR_IS_TIMED to DOOR_IS_UNLOCKED), or NO_STATE
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Getter for lastSeenAt
+     *
+     * @return time (System.currentTimeMillis) the door was last heard from, or 0 if never
+     */
+    public long getLastSeenAt() {
+        return lastSeenAt;
+    }
+
+    /**
+     * Getter for connects
+     *
+     * @return number of times a link to the door was opened
+     */
+    public int getConnects() {
+        return connects;
+    }
+
+    /**
+     * Getter for linksLost
+     *
+     * @return number of times an open link to the door was lost
+     */
+    public int getLinksLost() {
+        return linksLost;
+    }
+
+    /**
+     * Combines this record with an older one of the same door, such as one read
+     * from the file after this one was started
+     *
+     * @param older older record of the same door
+     * @return record with this record's name and state where known, and the
+     * counts of both
+     */
+    DoorRecord mergeOlder(DoorRecord older) {
+        return new DoorRecord(address, name != null ? name : older.name,
+                state != DoorStateConflator.NO_STATE ? state : older.state,
+                Math.max(lastSeenAt, older.lastSeenAt),
+                connects + older.connects, linksLost + older.linksLost);
+    }
+}
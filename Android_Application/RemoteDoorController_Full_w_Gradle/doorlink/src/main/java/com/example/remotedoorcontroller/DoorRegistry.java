@@ -0,0 +1,343 @@
+package com.example.remotedoorcontroller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.remotedoorcontroller.DoorProtocol.DOOR_IS_TIMED;
+import static com.example.remotedoorcontroller.DoorProtocol.DOOR_IS_UNLOCKED;
+
+/**
+ * Persistent registry of every door controller the app has talked to, with the
+ * last state each reported, so MainActivity can show a door's state the moment
+ * it is opened instead of waiting for the link and the first report. The file
+ * is read on the registry's own thread after loadAsync(), and changes are kept
+ * in memory and written behind: a write is scheduled WRITE_DELAY_MILLIS after
+ * the first change, so a burst of changes costs a single write. Nothing here
+ * touches the disk on the caller's thread, so every method may be called from
+ * the GUI thread or a reading thread.
+ *
+ * The file is binary: MAGIC, FORMAT_VERSION, the number of records, then per
+ * record its address, whether it has a name, the name, the state byte, the
+ * time last seen, and the connect and lost link counts. A state byte that is
+ * not a state the door reports is read as NO_STATE.
+ *
+ * @author Colby Bratton
+ */
+public class DoorRegistry {
+
+    // Time from the first unsaved change to the write that saves it
+    public final static long WRITE_DELAY_MILLIS = 2000;
+    // First four bytes of the file ("DOOR")
+    private final static int MAGIC = 0x444F4F52;
+    // Layout of the records in the file
+    private final static int FORMAT_VERSION = 1;
+
+    // Looks up the file the registry is kept in, or returns null to only keep it in memory
+    private final Callable<File> fileSource;
+    // Record of each door controller, keyed by address (guarded by this)
+    private final Map<String, DoorRecord> records = new HashMap<>();
+    // Whether the file has been read (guarded by this)
+    private boolean loaded = false;
+    // Scheduled write of unsaved changes, or null if none are waiting (guarded by this)
+    private ScheduledFuture<?> pendingWrite;
+    // File the registry is kept in, looked up on the registry's thread
+    private AtomicFile file;
+    // Number of times the file has been written (guarded by this)
+    private int writeCount = 0;
+    // Thread the file is read and written on
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DoorRegistry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructor for a registry that has not been read yet. Does no disk work,
+     * so may be called from the GUI thread.
+     *
+     * @param fileSource looks up the file the registry is kept in, on the
+     *                   registry's thread (finding the files directory may touch
+     *                   the disk), or returns null to only keep it in memory
+     */
+    public DoorRegistry(Callable<File> fileSource) {
+        this.fileSource = fileSource;
+    }
+
+    /**
+     * Reads the file in the background. Changes recorded before it has been read
+     * are kept, and combined with what is read.
+     *
+     * @param onLoaded called on the registry's thread once the file has been read,
+     *                 or null
+     */
+    public void loadAsync(final Runnable onLoaded) {
+        executor.execute(() -> {
+            load();
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+        });
+    }
+
+    /**
+     * States whether the file has been read
+     *
+     * @return true once loadAsync() has read the file
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Getter for the record of a door controller
+     *
+     * @param address MAC address of the door controller
+     * @return record of the door, or null if unknown (or not read yet)
+     */
+    public synchronized DoorRecord get(String address) {
+        return records.get(address);
+    }
+
+    /**
+     * Getter for every record
+     *
+     * @return snapshot of the records, in no particular order
+     */
+    public synchronized List<DoorRecord> getRecords() {
+        return new ArrayList<>(records.values());
+    }
+
+    /**
+     * Records the name of a door controller, such as when the user selects it
+     *
+     * @param address MAC address of the door controller
+     * @param name    name of the door controller
+     */
+    public synchronized void recordName(String address, String name) {
+        DoorRecord record = record(address);
+        if (name == null || name.equals(record.getName())) {
+            return;
+        }
+        update(new DoorRecord(address, name, record.getState(), record.getLastSeenAt(),
+                record.getConnects(), record.getLinksLost()), true);
+    }
+
+    /**
+     * Records a state reported by a door controller. Only a changed state is
+     * written behind; the time last seen is saved with the next write.
+     *
+     * @param address MAC address of the door controller
+     * @param state   state reported by the door, anything but DOOR_IS_TIMED to
+     *                DOOR_IS_UNLOCKED is ignored
+     */
+    public synchronized void recordState(String address, int state) {
+        if (state < DOOR_IS_TIMED || state > DOOR_IS_UNLOCKED) {
+            return;
+        }
+        DoorRecord record = record(address);
+        update(new DoorRecord(address, record.getName(), state, System.currentTimeMillis(),
+                record.getConnects(), record.getLinksLost()), state != record.getState());
+    }
+
+    /**
+     * Records that a link to a door controller was opened
+     *
+     * @param address MAC address of the door controller
+     */
+    public synchronized void recordConnected(String address) {
+        DoorRecord record = record(address);
+        update(new DoorRecord(address, record.getName(), record.getState(),
+                System.currentTimeMillis(), record.getConnects() + 1, record.getLinksLost()), true);
+    }
+
+    /**
+     * Records that an open link to a door controller was lost
+     *
+     * @param address MAC address of the door controller
+     */
+    public synchronized void recordLinkLost(String address) {
+        DoorRecord record = record(address);
+        update(new DoorRecord(address, record.getName(), record.getState(),
+                record.getLastSeenAt(), record.getConnects(), record.getLinksLost() + 1), true);
+    }
+
+    /**
+     * Writes unsaved changes now instead of when scheduled, such as when the app
+     * goes to the background and may be killed. Without unsaved changes, only
+     * waits for a write in progress.
+     *
+     * @return completes once the changes are written
+     */
+    public synchronized Future<?> flush() {
+        if (pendingWrite == null) {
+            // Every change schedules a write, so nothing is unsaved
+            return executor.submit(() -> {
+            });
+        }
+        pendingWrite.cancel(false);
+        pendingWrite = null;
+        return executor.submit(this::save);
+    }
+
+    /**
+     * Getter for writeCount
+     *
+     * @return number of times the file has been written
+     */
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Writes unsaved changes and stops the registry's thread. Does nothing if
+     * closed already.
+     *
+     * @throws InterruptedException if interrupted while waiting for the write
+     */
+    public void close() throws InterruptedException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        flush();
+        executor.shutdown();
+        executor.awaitTermination(WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Getter for the record of a door controller, or an empty one. Must be
+     * called while holding the lock.
+     *
+     * @param address MAC address of the door controller
+     * @return record of the door, or an empty record if unknown
+     */
+    private DoorRecord record(String address) {
+        DoorRecord record = records.get(address);
+        return record != null ? record
+                : new DoorRecord(address, null, DoorStateConflator.NO_STATE, 0, 0, 0);
+    }
+
+    /**
+     * Replaces a record, scheduling a write if needed. Must be called while
+     * holding the lock.
+     *
+     * @param record new record of the door
+     * @param write  whether the change needs to be written
+     */
+    private void update(DoorRecord record, boolean write) {
+        records.put(record.getAddress(), record);
+        if (write && pendingWrite == null) {
+            pendingWrite = executor.schedule(this::save, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the file, keeping records changed in the meantime. Runs on the
+     * registry's thread. Damaged records end the file, so at worst a door's
+     * state is shown once the link is up, as before the registry.
+     */
+    private void load() {
+        Map<String, DoorRecord> read = new HashMap<>();
+        try {
+            File source = fileSource.call();
+            file = source != null ? new AtomicFile(source) : null;
+        } catch (Exception e) {
+            file = null;
+        }
+        if (file != null && file.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(file.openRead()))) {
+                if (in.readInt() == MAGIC && in.readByte() == FORMAT_VERSION) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String address = in.readUTF();
+                        boolean named = in.readBoolean();
+                        String name = in.readUTF();
+                        int state = in.readByte();
+                        if (state < DOOR_IS_TIMED || state > DOOR_IS_UNLOCKED) {
+                            // Damaged state, the door's state is shown once it reports
+                            state = DoorStateConflator.NO_STATE;
+                        }
+                        read.put(address, new DoorRecord(address, named ? name : null, state,
+                                in.readLong(), in.readInt(), in.readInt()));
+                    }
+                }
+            } catch (EOFException ignored) {
+                // Cut short by a crash, keep the records read
+            } catch (IOException ignored) {
+                // Unreadable file, doors are shown once connected
+            }
+        }
+        synchronized (this) {
+            // Changes recorded while reading could not be written yet
+            boolean unsaved = !records.isEmpty();
+            for (DoorRecord older : read.values()) {
+                DoorRecord newer = records.get(older.getAddress());
+                records.put(older.getAddress(), newer != null ? newer.mergeOlder(older) : older);
+            }
+            loaded = true;
+            if (unsaved && pendingWrite == null) {
+                pendingWrite = executor.schedule(this::save, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with every record. Runs on the registry's thread, and
+     * replaces the file as a whole, so a crash while writing leaves the old
+     * registry behind, never a half written or missing one.
+     */
+    private void save() {
+        List<DoorRecord> snapshot;
+        synchronized (this) {
+            pendingWrite = null;
+            if (!loaded || file == null) {
+                // Writing before reading would lose the file's records, so
+                // load() schedules the write instead
+                return;
+            }
+            snapshot = new ArrayList<>(records.values());
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (DoorRecord record : snapshot) {
+                out.writeUTF(record.getAddress());
+                out.writeBoolean(record.getName() != null);
+                out.writeUTF(record.getName() != null ? record.getName() : "");
+                out.writeByte(record.getState());
+                out.writeLong(record.getLastSeenAt());
+                out.writeInt(record.getConnects());
+                out.writeInt(record.getLinksLost());
+            }
+            out.flush();
+            file.finishWrite(stream);
+            synchronized (this) {
+                writeCount++;
+            }
+        } catch (IOException ignored) {
+            // The old registry is kept, doors are shown once connected
+            file.failWrite(stream);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+package com.example.remotedoorcontroller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends commands to door controllers at scheduled times, such as unlocking the
+ * lobby at 07:00 and locking every door at 22:00. The next fire of every rule
+ * (a ScheduledAction) sits in a TimerWheel that is advanced once a tick on the
+ * scheduler's own thread, so thousands of rules cost one timer thread and no
+ * alarm each. Rules due in the same tick are handed to the listener together,
+ * one call per door controller in the order they were due, so each door is
+ * connected to once for all of them.
+ *
+ * The rules and the time up to which every fire was handed over are kept in a
+ * file, so the schedule survives the process being killed. On start() the
+ * scheduler catches up: each rule that was due while it was not running fires
+ * once, for its latest missed time, if that was at most MAX_CATCH_UP_MILLIS
+ * ago. The catch up is handed over in the order the fires were due (ties in
+ * the order the rules were made), so the same missed fires always leave the
+ * doors in the same state. A fire is written as handed over only after the
+ * listener has it, so a crash in between repeats it rather than losing it.
+ *
+ * The wheel only turns while the process is alive. The listener is told the
+ * earliest fire of all rules whenever it changes (onNextFireChanged()), so one
+ * system alarm for that time, not one per rule, can bring the process back to
+ * start() or advance() the scheduler.
+ *
+ * The file is binary: MAGIC, FORMAT_VERSION, the time fires were handed over
+ * up to, the next rule identifier, the number of rules, then per rule its
+ * identifier, address, command, kind, time, minute of the day and days of the
+ * week.
+ *
+ * @author Colby Bratton
+ */
+public class DoorScheduler {
+
+    /**
+     * Receives the fires of the scheduler. Called on the scheduler's thread,
+     * so must not block.
+     */
+    public interface Listener {
+        /**
+         * Called when rules of a door controller are due
+         *
+         * @param address address of the door controller
+         * @param actions rules that are due, in the order their commands are to be sent
+         */
+        void onActionsDue(String address, List<ScheduledAction> actions);
+
+        /**
+         * Called when rules are added or removed, including one time rules
+         * removed after firing
+         *
+         * @param scheduler scheduler whose rules changed
+         */
+        void onActionsChanged(DoorScheduler scheduler);
+
+        /**
+         * Called when the earliest fire of all rules changes, and once the file
+         * has been read, such as to set a system alarm waking the process for it
+         *
+         * @param scheduler scheduler whose next fire changed
+         * @param fireAt    time (System.currentTimeMillis) of the earliest fire,
+         *                  or ScheduledAction.NEVER if no rule fires again
+         */
+        void onNextFireChanged(DoorScheduler scheduler, long fireAt);
+    }
+
+    /**
+     * Source of the current time, so tests can set the time
+     */
+    public interface Clock {
+        /**
+         * Getter for the current time
+         *
+         * @return current time, as System.currentTimeMillis
+         */
+        long currentTimeMillis();
+    }
+
+    // Time the timer wheel advances by in one tick
+    public final static long TICK_MILLIS = 1000;
+    // Longest time a missed fire is caught up after
+    public final static long MAX_CATCH_UP_MILLIS = 24 * 60 * 60 * 1000L;
+    // First four bytes of the file ("SCHD")
+    private final static int MAGIC = 0x53434844;
+    // Layout of the rules in the file
+    private final static int FORMAT_VERSION = 1;
+    // Earliest fire before any has been reported to the listener
+    private final static long NOT_REPORTED = Long.MIN_VALUE;
+
+    /**
+     * A rule and its next fire
+     */
+    private static class Entry {
+        // Rule of the entry
+        private final ScheduledAction action;
+        // Time (System.currentTimeMillis) of the next fire
+        private long fireAt;
+        // Timer of the next fire in the wheel
+        private TimerWheel.Timer<Entry> timer;
+
+        /**
+         * Constructor for an entry that is not in the wheel yet
+         *
+         * @param action rule of the entry
+         */
+        private Entry(ScheduledAction action) {
+            this.action = action;
+        }
+    }
+
+    /**
+     * A rule that is due, and when
+     */
+    private static class Fire implements Comparable<Fire> {
+        // Time (System.currentTimeMillis) the rule was due
+        private final long dueAt;
+        // Rule that is due
+        private final ScheduledAction action;
+
+        /**
+         * Constructor for a due rule
+         *
+         * @param dueAt  time the rule was due
+         * @param action rule that is due
+         */
+        private Fire(long dueAt, ScheduledAction action) {
+            this.dueAt = dueAt;
+            this.action = action;
+        }
+
+        /**
+         * Orders fires by the time they were due, then by the order the rules were made
+         *
+         * @param other fire to compare with
+         * @return negative, zero, or positive as this fire comes first, with, or after
+         */
+        @Override
+        public int compareTo(Fire other) {
+            if (dueAt != other.dueAt) {
+                return dueAt < other.dueAt ? -1 : 1;
+            }
+            return action.getId() < other.action.getId() ? -1
+                    : action.getId() == other.action.getId() ? 0 : 1;
+        }
+    }
+
+    // Looks up the file the rules are kept in, or returns null to only keep them in memory
+    private final Callable<File> fileSource;
+    // Time zone the times of day of the rules are in
+    private final TimeZone zone;
+    // Source of the current time
+    private final Clock clock;
+    // Receiver of the fires
+    private final Listener listener;
+
+    // Entry of every rule, keyed (and so ordered) by identifier (guarded by this)
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+    // Next fire of every rule, in ticks (guarded by this)
+    private TimerWheel<Entry> wheel;
+    // Time every fire up to has been handed to the listener (guarded by this)
+    private long firedUntil = 0;
+    // Identifier of the next rule made (guarded by this)
+    private int nextId = 1;
+    // Whether the file has been read (guarded by this)
+    private boolean loaded = false;
+    // Ticks of the wheel, or null until started (guarded by this)
+    private ScheduledFuture<?> ticks;
+    // File the rules are kept in, looked up on the scheduler's thread
+    private AtomicFile file;
+    // Earliest fire last reported to the listener (scheduler's thread only)
+    private long reportedNextFire = NOT_REPORTED;
+    // Thread the wheel is advanced and the file read and written on
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DoorScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructor for a scheduler in the default time zone and on the system clock
+     *
+     * @param fileSource looks up the file the rules are kept in, on the
+     *                   scheduler's thread, or returns null to only keep them in memory
+     * @param listener   receiver of the fires
+     */
+    public DoorScheduler(Callable<File> fileSource, Listener listener) {
+        this(fileSource, TimeZone.getDefault(), System::currentTimeMillis, listener);
+    }
+
+    /**
+     * Constructor for a scheduler that has not been started. Does no disk work,
+     * so may be called from the GUI thread.
+     *
+     * @param fileSource looks up the file the rules are kept in, on the
+     *                   scheduler's thread, or returns null to only keep them in memory
+     * @param zone       time zone the times of day of the rules are in
+     * @param clock      source of the current time
+     * @param listener   receiver of the fires
+     */
+    public DoorScheduler(Callable<File> fileSource, TimeZone zone, Clock clock, Listener listener) {
+        this.fileSource = fileSource;
+        this.zone = zone;
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the file, catches up on missed fires, and starts advancing the
+     * wheel, all on the scheduler's thread
+     */
+    public synchronized void start() {
+        if (ticks != null) {
+            throw new IllegalStateException("Scheduler already started");
+        }
+        executor.execute(this::load);
+        ticks = executor.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a rule that sends a command once
+     *
+     * @param address  MAC address of the door controller
+     * @param command  HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     * @param atMillis time (System.currentTimeMillis) to send at, a time already
+     *                 passed sends at the next tick
+     * @return completes with the rule once it is added
+     */
+    public Future<ScheduledAction> scheduleOnce(String address, byte command, long atMillis) {
+        final ScheduledAction action = ScheduledAction.once(0, address, command, atMillis);
+        return executor.submit(() -> add(action));
+    }
+
+    /**
+     * Adds a rule that sends a command at a time of day on some days of the week
+     *
+     * @param address     MAC address of the door controller
+     * @param command     HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     * @param minuteOfDay minute of the day to send at (such as 22 * 60 for 22:00)
+     * @param daysOfWeek  days of the week to send on (bit n is Calendar day n + 1),
+     *                    or ScheduledAction.EVERY_DAY
+     * @return completes with the rule once it is added
+     */
+    public Future<ScheduledAction> scheduleWeekly(String address, byte command, int minuteOfDay,
+                                                  int daysOfWeek) {
+        final ScheduledAction action = ScheduledAction.weekly(0, address, command, minuteOfDay, daysOfWeek);
+        return executor.submit(() -> add(action));
+    }
+
+    /**
+     * Removes a rule
+     *
+     * @param id identifier of the rule
+     * @return completes with true if the rule existed
+     */
+    public Future<Boolean> remove(final int id) {
+        return executor.submit(() -> {
+            load();
+            boolean removed;
+            synchronized (this) {
+                Entry entry = entries.remove(id);
+                removed = entry != null;
+                if (removed) {
+                    wheel.cancel(entry.timer);
+                }
+            }
+            if (removed) {
+                save();
+                listener.onActionsChanged(this);
+                reportNextFire();
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Fires rules that are due now rather than at the next tick, such as after
+     * the system clock was changed
+     *
+     * @return completes once due rules are handed to the listener
+     */
+    public Future<?> advance() {
+        return executor.submit(this::tick);
+    }
+
+    /**
+     * States whether the file has been read
+     *
+     * @return true once start() has read the file and caught up
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Getter for every rule
+     *
+     * @return snapshot of the rules, in the order they were made
+     */
+    public synchronized List<ScheduledAction> getActions() {
+        List<ScheduledAction> actions = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            actions.add(entry.action);
+        }
+        return actions;
+    }
+
+    /**
+     * Getter for the earliest fire of all rules
+     *
+     * @return time (System.currentTimeMillis) the first rule fires next, or
+     * ScheduledAction.NEVER if there are no rules
+     */
+    public synchronized long getNextFireAt() {
+        long next = ScheduledAction.NEVER;
+        for (Entry entry : entries.values()) {
+            if (next == ScheduledAction.NEVER || entry.fireAt < next) {
+                next = entry.fireAt;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Getter for the next fire of a rule
+     *
+     * @param id identifier of the rule
+     * @return time (System.currentTimeMillis) the rule fires next, or
+     * ScheduledAction.NEVER if there is no such rule
+     */
+    public synchronized long getNextFireAt(int id) {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.fireAt : ScheduledAction.NEVER;
+    }
+
+    /**
+     * Getter for zone
+     *
+     * @return time zone the times of day of the rules are in
+     */
+    public TimeZone getZone() {
+        return zone;
+    }
+
+    /**
+     * Writes the rules and stops the scheduler's thread. Rules due afterwards
+     * are caught up on the next start().
+     *
+     * @throws InterruptedException if interrupted while waiting for the write
+     */
+    public void close() throws InterruptedException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        synchronized (this) {
+            if (ticks != null) {
+                ticks.cancel(false);
+            }
+        }
+        executor.execute(this::save);
+        executor.shutdown();
+        executor.awaitTermination(TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a rule. Runs on the scheduler's thread.
+     *
+     * @param template rule to add, under a new identifier
+     * @return rule added
+     */
+    private ScheduledAction add(ScheduledAction template) {
+        load();
+        ScheduledAction action;
+        synchronized (this) {
+            long now = clock.currentTimeMillis();
+            if (template.getKind() == ScheduledAction.ONCE) {
+                // A time already passed is sent at the next tick, and caught up if missed
+                action = ScheduledAction.once(nextId++, template.getAddress(), template.getCommand(),
+                        Math.max(template.getAtMillis(), now + 1));
+            } else {
+                action = template.withId(nextId++);
+            }
+            Entry entry = new Entry(action);
+            entries.put(action.getId(), entry);
+            schedule(entry, action.nextFireAfter(now, zone));
+        }
+        save();
+        listener.onActionsChanged(this);
+        reportNextFire();
+        return action;
+    }
+
+    /**
+     * Advances the wheel to the current time and hands the due rules to the
+     * listener. Runs on the scheduler's thread.
+     */
+    private void tick() {
+        List<Fire> fires = new ArrayList<>();
+        boolean changed = false;
+        boolean rebuilt = false;
+        synchronized (this) {
+            if (!loaded) {
+                return;
+            }
+            long now = clock.currentTimeMillis();
+            if (now / TICK_MILLIS < wheel.getNow()) {
+                // The clock was set back, so the times in between come round again
+                rebuildWheel(now);
+                rebuilt = true;
+            }
+            List<Entry> expired = new ArrayList<>();
+            wheel.advance(now / TICK_MILLIS, expired);
+            for (Entry entry : expired) {
+                if (now - entry.fireAt <= MAX_CATCH_UP_MILLIS) {
+                    fires.add(new Fire(entry.fireAt, entry.action));
+                }
+                changed |= schedule(entry, entry.action.nextFireAfter(now, zone));
+            }
+            firedUntil = now;
+        }
+        if (!fires.isEmpty() || changed) {
+            handOver(fires);
+            save();
+        }
+        if (changed) {
+            listener.onActionsChanged(this);
+        }
+        if (!fires.isEmpty() || changed || rebuilt) {
+            reportNextFire();
+        }
+    }
+
+    /**
+     * Reads the file, catches up on fires missed while the scheduler was not
+     * running, and fills the wheel, unless done already. Runs on the
+     * scheduler's thread. Damaged rules end the file.
+     */
+    private void load() {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        List<ScheduledAction> read = new ArrayList<>();
+        long readFiredUntil = 0;
+        int readNextId = 1;
+        try {
+            File source = fileSource.call();
+            file = source != null ? new AtomicFile(source) : null;
+        } catch (Exception e) {
+            file = null;
+        }
+        if (file != null && file.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(file.openRead()))) {
+                if (in.readInt() == MAGIC && in.readByte() == FORMAT_VERSION) {
+                    readFiredUntil = in.readLong();
+                    readNextId = in.readInt();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        read.add(new ScheduledAction(in.readInt(), in.readUTF(), in.readByte(),
+                                in.readByte(), in.readLong(), in.readShort(), in.readByte()));
+                    }
+                }
+            } catch (EOFException ignored) {
+                // Cut short by a crash, keep the rules read
+            } catch (IOException | IllegalArgumentException ignored) {
+                // Unreadable file or rule, keep the rules read
+            }
+        }
+
+        List<Fire> fires = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.currentTimeMillis();
+            wheel = new TimerWheel<>(now / TICK_MILLIS);
+            // Never catch up on fires from before the rules were last written
+            long from = Math.max(readFiredUntil, now - MAX_CATCH_UP_MILLIS);
+            for (ScheduledAction action : read) {
+                long missed = ScheduledAction.NEVER;
+                for (long at = action.nextFireAfter(from, zone); at != ScheduledAction.NEVER && at <= now;
+                     at = action.nextFireAfter(at, zone)) {
+                    missed = at;
+                }
+                if (missed != ScheduledAction.NEVER) {
+                    fires.add(new Fire(missed, action));
+                }
+                Entry entry = new Entry(action);
+                entries.put(action.getId(), entry);
+                nextId = Math.max(nextId, action.getId() + 1);
+                schedule(entry, action.nextFireAfter(now, zone));
+            }
+            nextId = Math.max(nextId, readNextId);
+            firedUntil = now;
+            loaded = true;
+        }
+        handOver(fires);
+        save();
+        listener.onActionsChanged(this);
+        reportNextFire();
+    }
+
+    /**
+     * Puts the next fire of a rule in the wheel, or removes a rule that never
+     * fires again. Must be called while holding the lock.
+     *
+     * @param entry  entry of the rule
+     * @param fireAt time (System.currentTimeMillis) of the next fire, or
+     *               ScheduledAction.NEVER
+     * @return true if the rule was removed
+     */
+    private boolean schedule(Entry entry, long fireAt) {
+        if (fireAt == ScheduledAction.NEVER) {
+            entries.remove(entry.action.getId());
+            return true;
+        }
+        entry.fireAt = fireAt;
+        // Rounded up, so a rule never fires before its time
+        entry.timer = wheel.schedule((fireAt + TICK_MILLIS - 1) / TICK_MILLIS, entry);
+        return false;
+    }
+
+    /**
+     * Refills the wheel from a time before the one it was advanced to. Must be
+     * called while holding the lock.
+     *
+     * @param now current time
+     */
+    private void rebuildWheel(long now) {
+        wheel = new TimerWheel<>(now / TICK_MILLIS);
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            schedule(entry, entry.action.getKind() == ScheduledAction.ONCE ? entry.fireAt
+                    : entry.action.nextFireAfter(now, zone));
+        }
+    }
+
+    /**
+     * Tells the listener the earliest fire of all rules, unless it was told
+     * that time already. Runs on the scheduler's thread.
+     */
+    private void reportNextFire() {
+        long next = getNextFireAt();
+        if (next != reportedNextFire) {
+            reportedNextFire = next;
+            listener.onNextFireChanged(this, next);
+        }
+    }
+
+    /**
+     * Hands due rules to the listener, one call per door controller, in the
+     * order they were due
+     *
+     * @param fires rules that are due
+     */
+    private void handOver(List<Fire> fires) {
+        Collections.sort(fires);
+        Map<String, List<ScheduledAction>> byDoor = new LinkedHashMap<>();
+        for (Fire fire : fires) {
+            List<ScheduledAction> actions = byDoor.get(fire.action.getAddress());
+            if (actions == null) {
+                actions = new ArrayList<>();
+                byDoor.put(fire.action.getAddress(), actions);
+            }
+            actions.add(fire.action);
+        }
+        for (Map.Entry<String, List<ScheduledAction>> door : byDoor.entrySet()) {
+            listener.onActionsDue(door.getKey(), door.getValue());
+        }
+    }
+
+    /**
+     * Rewrites the file with every rule. Runs on the scheduler's thread, and
+     * replaces the file as a whole, so a crash while writing leaves the old
+     * schedule behind, never a half written or missing one.
+     */
+    private void save() {
+        List<ScheduledAction> snapshot;
+        long snapshotFiredUntil;
+        int snapshotNextId;
+        synchronized (this) {
+            if (!loaded || file == null) {
+                return;
+            }
+            snapshot = getActions();
+            snapshotFiredUntil = firedUntil;
+            snapshotNextId = nextId;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(snapshotFiredUntil);
+            out.writeInt(snapshotNextId);
+            out.writeInt(snapshot.size());
+            for (ScheduledAction action : snapshot) {
+                out.writeInt(action.getId());
+                out.writeUTF(action.getAddress());
+                out.writeByte(action.getCommand());
+                out.writeByte(action.getKind());
+                out.writeLong(action.getAtMillis());
+                out.writeShort(action.getMinuteOfDay());
+                out.writeByte(action.getDaysOfWeek());
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException ignored) {
+            // The schedule keeps running, changes are only lost if the process is killed
+            file.failWrite(stream);
+        }
+    }
+}
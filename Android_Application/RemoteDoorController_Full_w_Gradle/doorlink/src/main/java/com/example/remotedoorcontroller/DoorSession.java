@@ -0,0 +1,518 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live connection to a single door controller held by a DoorConnectionManager.
+ * Each session has its own transport, reader and writer threads (ConnectedThread
+ * and CommandWriterThread), and its own DoorStateConflator, so several doors can
+ * be connected and commanded at the same time.
+ *
+ * If the link is lost without disconnect() being called, the session reconnects
+ * on its own, waiting between attempts as set by the manager's ReconnectPolicy.
+ * The last known door state is kept in the meantime, and commands written while
+ * reconnecting (or still unwritten when the link was lost) are replayed on the
+ * new link, unless they have become older than REPLAY_WINDOW_MILLIS.
+ *
+ * The round-trip time of the door is measured with pings on every link to it,
+ * and writeAndAwait() sends a command again whenever its answer takes longer
+ * than the measured timeout.
+ *
+ * @author Colby Bratton
+ */
+public class DoorSession implements ConnectedThread.Listener {
+
+    // Oldest a command may be and still be replayed after a reconnect
+    public final static long REPLAY_WINDOW_MILLIS = 30000;
+    // Longest wait for a new link to agree on frames before replaying commands
+    private final static long NEGOTIATION_TIMEOUT_MILLIS = 1000;
+    // Longest wait for a new link to agree on frames before sending a command
+    private final static long FRAMING_WAIT_MILLIS = 500;
+
+    // Address of the door controller
+    private final String address;
+    // Manager the session belongs to
+    private final DoorConnectionManager manager;
+    // Mailbox the latest state of this door is handed over in
+    private final DoorStateConflator doorState = new DoorStateConflator();
+    // Round-trip latencies of commands sent to this door
+    private final CommandLatencyTracker latency;
+    // Reconnect metrics of this door
+    private final ReconnectStats reconnectStats = new ReconnectStats();
+    // Link-level counters of this door, kept across every link to it
+    private final LinkMetrics linkMetrics;
+    // Round-trip time estimate of this door, kept across every link to it
+    private final RttEstimator rtt = new RttEstimator();
+    // Journal commands and link events of this door are recorded in, or null
+    private final AuditJournal journal;
+    // Device id of this door in the journal
+    private final long journalDevice;
+
+    // Reader (and owner of the writer) of the current link
+    private volatile ConnectedThread connection;
+    // Transport of a reconnect attempt in progress (guarded by this)
+    private DoorTransport reconnectTransport;
+    // Thread reconnecting a lost link (guarded by this)
+    private Thread reconnectThread;
+    // Commands to be replayed once reconnected, oldest first (guarded by this)
+    private final List<PendingCommand> backlog = new ArrayList<>();
+    // Whether the link is lost and being reconnected
+    private volatile boolean reconnecting = false;
+    // Whether a link being negotiated was lost again (guarded by this)
+    private boolean negotiationLost = false;
+    // Time (System.nanoTime) the current outage began
+    private long lostAt;
+    // Whether disconnect() has been called, or reconnecting has been given up
+    private volatile boolean closed = false;
+    // Whether the listener has been told the session ended (guarded by this)
+    private boolean endReported = false;
+
+    /**
+     * Constructor for a session over an already connected transport
+     *
+     * @param manager   manager the session belongs to
+     * @param transport connected transport to the door controller
+     * @param latency   tracker the round-trip latency of each command is recorded in
+     * @throws IOException if the transport's streams are not available
+     */
+    DoorSession(DoorConnectionManager manager, DoorTransport transport, CommandLatencyTracker latency)
+            throws IOException {
+        this.address = transport.getAddress();
+        this.manager = manager;
+        this.latency = latency;
+        journal = manager.getJournal();
+        journalDevice = DeviceId.fromAddress(address);
+        connection = new ConnectedThread(transport, doorState, this, latency);
+        connection.setHeartbeatMillis(manager.getHeartbeatMillis());
+        linkMetrics = manager.getMetrics().forDevice(address);
+        connection.setMetrics(linkMetrics);
+        connection.setRtt(rtt);
+        if (journal != null) {
+            connection.setJournal(journal, journalDevice);
+        }
+    }
+
+    /**
+     * Starts receiving from and sending to the door controller
+     *
+     * @param trace startup trace to complete once the first door state arrives
+     */
+    void start(ConnectTrace trace) {
+        connection.setConnectTrace(trace);
+        journalLink(AuditJournal.LINK_UP);
+        connection.start();
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return address of the door controller
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Getter for the mailbox the latest state of this door is handed over in
+     *
+     * @return state mailbox of this door
+     */
+    public DoorStateConflator getDoorState() {
+        return doorState;
+    }
+
+    /**
+     * Getter for the last state reported by this door, kept while reconnecting
+     *
+     * @return last known door state, or NO_STATE if none has been received
+     */
+    public int getLastKnownState() {
+        return doorState.peek();
+    }
+
+    /**
+     * Getter for the thread handling the current link
+     *
+     * @return reader thread of the current link
+     */
+    public ConnectedThread getConnection() {
+        return connection;
+    }
+
+    /**
+     * Getter for the link-level counters of this door
+     *
+     * @return link metrics, kept across every link to this door
+     */
+    public LinkMetrics getLinkMetrics() {
+        return linkMetrics;
+    }
+
+    /**
+     * Getter for the round-trip time estimate of this door
+     *
+     * @return round-trip time estimate, kept across every link to this door
+     */
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Getter for the time a command sent to this door may take to be answered
+     * before it is taken as lost
+     *
+     * @return retransmission timeout measured for this door, in milliseconds
+     */
+    public long getCommandTimeoutMillis() {
+        return rtt.getTimeoutMillis();
+    }
+
+    /**
+     * Getter for the reconnect metrics of this door
+     *
+     * @return reconnect metrics
+     */
+    public ReconnectStats getReconnectStats() {
+        return reconnectStats;
+    }
+
+    /**
+     * States whether the link is lost and being reconnected
+     *
+     * @return true while reconnecting
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * Queues a bit command to be sent to this door, without blocking. While
+     * reconnecting, the command is held and replayed once the link is back.
+     *
+     * @param command bit command to be sent to the door controller
+     * @return handle that completes once the command has been written or has failed
+     */
+    public PendingCommand write(byte command) {
+        synchronized (this) {
+            if (reconnecting && !closed) {
+                PendingCommand pending = new PendingCommand(command);
+                if (backlog.size() < CommandWriterThread.QUEUE_CAPACITY) {
+                    backlog.add(pending);
+                } else {
+                    pending.complete(false);
+                }
+                return pending;
+            }
+            // Queued while holding the lock, so a link lost meanwhile hands the
+            // command back through takeUnsent() instead of its abandoned writer failing it
+            return connection.write(command);
+        }
+    }
+
+    /**
+     * Sends a bit command to this door and waits for it to be answered. A framed
+     * command whose answer takes longer than the measured timeout is taken as
+     * lost and sent again, with the timeout doubled each time, as long as sending
+     * it twice is harmless (see DoorProtocol.isIdempotent()). Must not be called
+     * from the GUI thread.
+     *
+     * @param command  bit command to be sent to the door controller
+     * @param deadline time (System.nanoTime) to give up waiting at
+     * @return the last copy of the command sent, answered unless the deadline
+     * passed or the link was lost
+     * @throws InterruptedException if interrupted while waiting for the door
+     */
+    public PendingCommand writeAndAwait(byte command, long deadline) throws InterruptedException {
+        long timeoutMillis = getCommandTimeoutMillis();
+        while (true) {
+            PendingCommand pending = write(command);
+            if (!pending.await(remainingMillis(deadline)) || !pending.isFramed()) {
+                return pending;
+            }
+            long remaining = remainingMillis(deadline);
+            boolean retry = DoorProtocol.isIdempotent(command) && remaining > timeoutMillis;
+            pending.awaitAnswer(retry ? timeoutMillis : remaining);
+            if (pending.isAnswered() || !retry) {
+                return pending;
+            }
+            // The command or its answer was most likely lost on the way
+            timeoutMillis = Math.min(RttEstimator.MAX_TIMEOUT_MILLIS, timeoutMillis * 2);
+        }
+    }
+
+    /**
+     * Waits for a newly connected door to agree to frames, so the commands sent
+     * next are answered. Older firmware never does, so the wait is kept short.
+     *
+     * @param deadline time (System.nanoTime) to give up waiting at, at the latest
+     * @return true if the current link uses frames
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitFramed(long deadline) throws InterruptedException {
+        return connection.awaitFramed(Math.min(FRAMING_WAIT_MILLIS, remainingMillis(deadline)));
+    }
+
+    /**
+     * Getter for the time left until a deadline
+     *
+     * @param deadline time (System.nanoTime) of the deadline
+     * @return milliseconds left, 0 or less once passed
+     */
+    static long remainingMillis(long deadline) {
+        return (deadline - System.nanoTime()) / 1000000;
+    }
+
+    /**
+     * Checks that the current link is still alive, declaring it stale (which
+     * makes the session reconnect) if too many heartbeats or pings have been missed
+     *
+     * @param missedBeatLimit number of heartbeats (or pings) that may be missed in a row
+     * @return false if the link was declared stale by this check
+     */
+    boolean checkLiveness(int missedBeatLimit) {
+        if (reconnecting || closed) {
+            return true;
+        }
+        ConnectedThread current = connection;
+        // Counted in onDisconnected(), which closing the stale link leads to
+        return current.checkLiveness(missedBeatLimit);
+    }
+
+    /**
+     * Closes the connection to this door, freeing its link for another door.
+     * Stops any reconnect in progress.
+     *
+     * @throws IOException if the transport could not be closed cleanly
+     */
+    public void disconnect() throws IOException {
+        DoorTransport pendingTransport;
+        boolean wasReconnecting;
+        synchronized (this) {
+            closed = true;
+            wasReconnecting = reconnecting;
+            pendingTransport = reconnectTransport;
+            if (reconnectThread != null) {
+                reconnectThread.interrupt();
+            }
+            failBacklog();
+        }
+        manager.remove(this);
+        if (pendingTransport != null) {
+            pendingTransport.close();
+        }
+        connection.disconnect();
+        if (wasReconnecting) {
+            // The lost link has already reported, so report the end here
+            reportEnd(null);
+        }
+    }
+
+    @Override
+    public void onStateAvailable() {
+        manager.getListener().onStateAvailable(this);
+    }
+
+    @Override
+    public void onCommandAnswered(int sequence, boolean accepted, int state) {
+        manager.getListener().onCommandAnswered(this, sequence, accepted, state);
+    }
+
+    @Override
+    public void onConnectTraced(ConnectTrace trace) {
+        manager.traceCompleted(this, trace);
+    }
+
+    /**
+     * Called when the current link stops receiving. Reconnects unless the
+     * session has been disconnected.
+     *
+     * @param cause error that ended the link, or null if the door closed it
+     */
+    @Override
+    public void onDisconnected(IOException cause) {
+        synchronized (this) {
+            if (!closed && reconnecting) {
+                // A new link failed while being negotiated, the reconnect loop retries
+                negotiationLost = true;
+                return;
+            }
+            journalLink(AuditJournal.LINK_DOWN);
+            if (!closed) {
+                reconnecting = true;
+                lostAt = System.nanoTime();
+                // Commands the lost link never wrote are replayed first
+                backlog.addAll(0, connection.takeUnsent());
+                reconnectThread = new Thread(this::reconnect, "Reconnect " + address);
+            }
+        }
+        if (closed) {
+            manager.remove(this);
+            reportEnd(cause);
+            return;
+        }
+
+        reconnectStats.linkLost();
+        if (connection.isStale()) {
+            // Counted before the listener hears of it
+            reconnectStats.linkStale();
+        }
+        try {
+            // Release the lost link's socket and fail commands it was waiting on
+            connection.disconnect();
+        } catch (IOException ignored) {
+            // The link is already gone
+        }
+        manager.getListener().onLinkLost(this, cause);
+        reconnectThread.start();
+    }
+
+    /**
+     * Tries to get a lost link back until it succeeds, the policy gives up,
+     * or the session is disconnected
+     */
+    private void reconnect() {
+        ReconnectPolicy policy = manager.getPolicy();
+        IOException lastFailure = null;
+        int attempts = 0;
+        while (!closed && policy.mayRetry(attempts)) {
+            try {
+                Thread.sleep(policy.delayMillis(attempts));
+            } catch (InterruptedException e) {
+                return;
+            }
+            attempts++;
+
+            ConnectTrace trace = new ConnectTrace(address);
+            DoorTransport transport = manager.createTransport(address);
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                reconnectTransport = transport;
+                negotiationLost = false;
+            }
+            ConnectedThread next = null;
+            linkMetrics.increment(LinkMetrics.CONNECT_ATTEMPTS);
+            try {
+                transport.connect(trace);
+                next = new ConnectedThread(transport, doorState, this, latency);
+                next.setConnectTrace(trace);
+                next.setHeartbeatMillis(manager.getHeartbeatMillis());
+                next.setMetrics(linkMetrics);
+                next.setRtt(rtt);
+                if (journal != null) {
+                    next.setJournal(journal, journalDevice);
+                }
+                connection = next;
+                next.start();
+                // Replayed commands should go out in the door's own protocol
+                next.awaitFramed(NEGOTIATION_TIMEOUT_MILLIS);
+
+                int replayed;
+                synchronized (this) {
+                    reconnectTransport = null;
+                    if (closed) {
+                        return;
+                    }
+                    if (negotiationLost) {
+                        throw new IOException("Link to " + address + " lost while negotiating");
+                    }
+                    journalLink(AuditJournal.LINK_UP);
+                    replayed = replayBacklog(next);
+                    reconnecting = false;
+                    reconnectThread = null;
+                }
+                reconnectStats.attemptMade(true);
+                linkMetrics.increment(LinkMetrics.RECONNECTS);
+                reconnectStats.reconnected((System.nanoTime() - lostAt) / 1000, replayed);
+                manager.getListener().onReconnected(this);
+                return;
+            } catch (IOException e) {
+                lastFailure = e;
+                reconnectStats.attemptMade(false);
+                linkMetrics.increment(LinkMetrics.CONNECT_FAILURES);
+                try {
+                    if (next != null) {
+                        // Also stops the new link's writer
+                        next.disconnect();
+                    } else {
+                        transport.close();
+                    }
+                } catch (IOException ignored) {
+                    // Already failing, try again with a new transport
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        if (!closed) {
+            // Out of attempts, the session ends here
+            synchronized (this) {
+                closed = true;
+                failBacklog();
+            }
+            manager.remove(this);
+            reportEnd(lastFailure);
+        }
+    }
+
+    /**
+     * Hands every held command that is still recent enough to a new link
+     *
+     * @param next new link to the door controller
+     * @return number of commands replayed
+     */
+    private int replayBacklog(ConnectedThread next) {
+        int replayed = 0;
+        for (PendingCommand pending : backlog) {
+            if (pending.getAgeMillis() > REPLAY_WINDOW_MILLIS) {
+                // Too late to act on, such as opening a door long after it was asked for
+                pending.complete(false);
+            } else {
+                next.submit(pending);
+                replayed++;
+            }
+        }
+        backlog.clear();
+        return replayed;
+    }
+
+    /**
+     * Fails every held command. Must be called while holding the lock.
+     */
+    private void failBacklog() {
+        for (PendingCommand pending : backlog) {
+            pending.complete(false);
+        }
+        backlog.clear();
+    }
+
+    /**
+     * Records the link going up or down in the journal, if there is one
+     *
+     * @param type AuditJournal.LINK_UP or LINK_DOWN
+     */
+    private void journalLink(int type) {
+        if (journal != null) {
+            journal.record(type, journalDevice, 0, 0, DoorProtocol.NO_SEQUENCE, 0);
+        }
+    }
+
+    /**
+     * Tells the listener the session has ended, once
+     *
+     * @param cause error that ended the session, or null if it was closed
+     */
+    private void reportEnd(IOException cause) {
+        synchronized (this) {
+            if (endReported) {
+                return;
+            }
+            endReported = true;
+        }
+        manager.getListener().onDisconnected(this, cause);
+    }
+}
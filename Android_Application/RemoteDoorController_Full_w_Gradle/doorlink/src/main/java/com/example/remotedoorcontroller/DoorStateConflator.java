@@ -0,0 +1,96 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-slot mailbox used to hand door states from the Bluetooth reader thread
+ * to the GUI thread. The external device reports its state continuously, so the
+ * reader only forwards states that differ from the last one it saw, and only
+ * the most recent state is kept. At most one wake-up message is outstanding
+ * for the GUI at any time, and wake-ups are held back while delivery is paused
+ * (such as while MainActivity is stopped).
+ *
+ * @author Colby Bratton
+ */
+public class DoorStateConflator {
+
+    // Value used when no state has been received yet
+    public final static int NO_STATE = 0;
+
+    // Last state accepted from the reader thread (only touched by the reader thread)
+    private int lastOffered = NO_STATE;
+    // Most recent state waiting to be picked up by the GUI
+    private final AtomicInteger latestState = new AtomicInteger(NO_STATE);
+    // Whether a wake-up message is already on its way to the GUI
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
+    // Whether wake-ups are currently being held back
+    private volatile boolean paused = false;
+
+    /**
+     * Called by the reader thread for every state received from the external
+     * device. Repeated and null states are dropped without any allocation.
+     *
+     * @param state state received from the external device
+     * @return true if the caller needs to post a wake-up message to the GUI
+     */
+    public boolean offer(int state) {
+        if (state == NO_STATE || state == lastOffered) {
+            return false;
+        }
+        lastOffered = state;
+        latestState.set(state);
+
+        // Only one wake-up may be outstanding; the GUI always reads the latest value
+        return !paused && updatePending.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the GUI thread when a wake-up message is received. Returns the
+     * most recent state and allows the reader thread to post the next wake-up.
+     *
+     * @return most recent state received from the external device
+     */
+    public int take() {
+        updatePending.set(false);
+        return latestState.get();
+    }
+
+    /**
+     * Reads the most recent state without acknowledging a wake-up
+     *
+     * @return most recent state received from the external device
+     */
+    public int peek() {
+        return latestState.get();
+    }
+
+    /**
+     * Holds back wake-up messages until resume() is called. States received in
+     * the meantime still replace the stored state.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Allows wake-up messages to be posted again.
+     *
+     * @return true if a state is waiting and the caller needs to post a wake-up
+     * message to the GUI
+     */
+    public boolean resume() {
+        paused = false;
+        return latestState.get() != NO_STATE && updatePending.compareAndSet(false, true);
+    }
+
+    /**
+     * Makes sure the first state from a new connection is always forwarded, even
+     * if it matches the last one seen. The last state is kept as the door's last
+     * known state until the new connection reports. Must be called from the
+     * reader thread.
+     */
+    public void reset() {
+        lastOffered = NO_STATE;
+    }
+}
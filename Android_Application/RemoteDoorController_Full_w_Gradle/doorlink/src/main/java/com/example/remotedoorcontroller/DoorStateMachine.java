@@ -0,0 +1,408 @@
+package com.example.remotedoorcontroller;
+
+import static com.example.remotedoorcontroller.DoorProtocol.*;
+
+/**
+ * State machine of a door as seen by the app. Which buttons are enabled, which
+ * bit command each button sends, and which state a command is expected to lead
+ * to are all precomputed into flat tables indexed by state and button (or state
+ * and command), so the GUI and the command path look them up in constant time
+ * without allocating. The transition rules mirror the Arduino sketch: lockout
+ * refuses opening and closing, a door held open refuses lockout, and an open
+ * door (held or timed) refuses unlocking.
+ *
+ * Besides the states reported by the door (DOOR_IS_TIMED to DOOR_IS_UNLOCKED) and
+ * NO_STATE before the first report, the machine has an AWAITING state in which
+ * a command has been sent and every button is disabled until the door answers.
+ *
+ * An optimistic machine skips AWAITING: a button press moves it straight to the
+ * state the command is expected to lead to, so the GUI can show it at once,
+ * and marks it pending (every button disabled) until the door reconciles it.
+ * A report or answer of the predicted state confirms it; a refusal, a report
+ * of any state but the predicted one or the one before the press, or
+ * onTimeout() rolls it back to what the door actually reported. Only the
+ * answer to the command sent for the press (see onSent()) counts: answers
+ * to earlier presses or to commands sent by others, such as a group or a
+ * schedule, are left to the state reports.
+ *
+ * @author Colby Bratton
+ */
+public class DoorStateMachine {
+
+    // Buttons of the door control screen
+    public final static int BUTTON_DOOR = 0; // Open Door - Timed
+    public final static int BUTTON_HOLD = 1; // Open Door - Hold / Close Door
+    public final static int BUTTON_LOCK = 2; // Lock Door / Unlock Door
+    public final static int BUTTON_COUNT = 3;
+
+    // A command has been sent and the door has not answered yet
+    public final static int AWAITING = 6;
+    // Number of states (NO_STATE to AWAITING)
+    private final static int STATE_COUNT = AWAITING + 1;
+    // Number of bit commands (NULL_OP to UNLOCK)
+    private final static int COMMAND_COUNT = UNLOCK + 1;
+
+    // Outcomes of reconciling the machine with the door
+    public final static int UNCHANGED = 0;   // Nothing to show
+    public final static int CHANGED = 1;     // The state changed
+    public final static int CONFIRMED = 2;   // The door reached the predicted state
+    public final static int ROLLED_BACK = 3; // The door contradicted the prediction, or never answered
+
+    // Command sent by each button in each state, indexed by state * BUTTON_COUNT + button
+    private final static byte[] BUTTON_COMMANDS = new byte[STATE_COUNT * BUTTON_COUNT];
+    // Whether each button is enabled in each state, indexed like BUTTON_COMMANDS
+    private final static boolean[] BUTTON_ENABLED = new boolean[STATE_COUNT * BUTTON_COUNT];
+    // State expected after each command in each state, indexed by state * COMMAND_COUNT + command
+    private final static byte[] TRANSITIONS = new byte[STATE_COUNT * COMMAND_COUNT];
+    // Whether the door carries out each command in each state, indexed like TRANSITIONS
+    private final static boolean[] ACCEPTED = new boolean[STATE_COUNT * COMMAND_COUNT];
+
+    static {
+        // Hold and lock commands of each state, then whether door, hold, and lock are enabled
+        buttons(DoorStateConflator.NO_STATE, HOLD_OPEN, LOCK, true, true, true);
+        // A timed open may be ended early by closing or locking out
+        buttons(DOOR_IS_TIMED, CLOSE, LOCK, false, true, true);
+        buttons(DOOR_IS_OPEN, CLOSE, LOCK, false, true, false);
+        buttons(DOOR_IS_CLOSED, HOLD_OPEN, LOCK, true, true, true);
+        buttons(DOOR_IS_LOCKED, HOLD_OPEN, UNLOCK, false, false, true);
+        buttons(DOOR_IS_UNLOCKED, HOLD_OPEN, LOCK, true, true, true);
+        buttons(AWAITING, NULL_OP, NULL_OP, false, false, false);
+
+        for (int state = 0; state < STATE_COUNT; state++) {
+            // Lockout refuses every command but unlocking
+            boolean locked = state == DOOR_IS_LOCKED;
+            // A door held open refuses lockout
+            boolean held = state == DOOR_IS_OPEN;
+            // An open door, held or timed, is not locked, so refuses unlocking
+            boolean open = held || state == DOOR_IS_TIMED;
+            transition(state, TIMED_OPEN, !locked, DOOR_IS_TIMED);
+            transition(state, HOLD_OPEN, !locked, DOOR_IS_OPEN);
+            transition(state, CLOSE, !locked, DOOR_IS_CLOSED);
+            transition(state, LOCK, !held, DOOR_IS_LOCKED);
+            transition(state, UNLOCK, !open, DOOR_IS_UNLOCKED);
+        }
+    }
+
+    // Whether button presses predict the state instead of awaiting it
+    private final boolean optimistic;
+    // Current state, the predicted one while pending (only touched by the GUI thread)
+    private int state = DoorStateConflator.NO_STATE;
+    // Whether a predicted state awaits the door (only touched by the GUI thread)
+    private boolean pending = false;
+    // State before the pending prediction, which a stale report may repeat
+    private int confirmedState = DoorStateConflator.NO_STATE;
+    // Command of the latest optimistic press
+    private byte lastCommand = NULL_OP;
+    // Number of optimistic presses, identifying the one a timeout is for
+    private int presses = 0;
+    // Command sent for the pending prediction, whose answer alone settles it
+    private PendingCommand pendingCommand;
+
+    /**
+     * Constructor for a machine that awaits the door after every button press
+     */
+    public DoorStateMachine() {
+        this(false);
+    }
+
+    /**
+     * Constructor for a machine that may predict the state a button press leads to
+     *
+     * @param optimistic whether button presses predict the state instead of awaiting it
+     */
+    public DoorStateMachine(boolean optimistic) {
+        this.optimistic = optimistic;
+    }
+
+    /**
+     * Fills the button tables for one state
+     *
+     * @param state       state the row is for
+     * @param holdCommand command sent by the hold button
+     * @param lockCommand command sent by the lock button
+     * @param doorEnabled whether the timed open button is enabled
+     * @param holdEnabled whether the hold button is enabled
+     * @param lockEnabled whether the lock button is enabled
+     */
+    private static void buttons(int state, byte holdCommand, byte lockCommand,
+                                boolean doorEnabled, boolean holdEnabled, boolean lockEnabled) {
+        int row = state * BUTTON_COUNT;
+        // While awaiting an answer every button keeps the command it had
+        BUTTON_COMMANDS[row + BUTTON_DOOR] = state == AWAITING ? NULL_OP : TIMED_OPEN;
+        BUTTON_COMMANDS[row + BUTTON_HOLD] = holdCommand;
+        BUTTON_COMMANDS[row + BUTTON_LOCK] = lockCommand;
+        BUTTON_ENABLED[row + BUTTON_DOOR] = doorEnabled;
+        BUTTON_ENABLED[row + BUTTON_HOLD] = holdEnabled;
+        BUTTON_ENABLED[row + BUTTON_LOCK] = lockEnabled;
+    }
+
+    /**
+     * Fills the transition tables for one state and command
+     *
+     * @param state    state the entry is for
+     * @param command  bit command the entry is for
+     * @param accepted whether the door carries out the command in the state
+     * @param target   state the door reports after carrying out the command
+     */
+    private static void transition(int state, int command, boolean accepted, int target) {
+        int index = state * COMMAND_COUNT + command;
+        ACCEPTED[index] = accepted;
+        TRANSITIONS[index] = (byte) (accepted ? target : state);
+    }
+
+    /**
+     * States whether a state can be looked up in the tables
+     *
+     * @param state state to check
+     * @return true if the state is NO_STATE to AWAITING
+     */
+    public static boolean isKnownState(int state) {
+        return state >= 0 && state < STATE_COUNT;
+    }
+
+    /**
+     * Looks up the command a button sends in a state (also when disabled, so
+     * its label can be shown)
+     *
+     * @param state  state of the door
+     * @param button BUTTON_DOOR, BUTTON_HOLD, or BUTTON_LOCK
+     * @return bit command sent by the button, or NULL_OP while AWAITING (the
+     * button keeps its previous command and label)
+     */
+    public static byte buttonCommand(int state, int button) {
+        return BUTTON_COMMANDS[state * BUTTON_COUNT + button];
+    }
+
+    /**
+     * Looks up whether a button is enabled in a state
+     *
+     * @param state  state of the door
+     * @param button BUTTON_DOOR, BUTTON_HOLD, or BUTTON_LOCK
+     * @return true if the button may be pressed
+     */
+    public static boolean isEnabled(int state, int button) {
+        return BUTTON_ENABLED[state * BUTTON_COUNT + button];
+    }
+
+    /**
+     * Looks up whether the door carries out a command in a state
+     *
+     * @param state   state of the door
+     * @param command bit command (TIMED_OPEN to UNLOCK)
+     * @return true if the door carries out the command
+     */
+    public static boolean isAccepted(int state, int command) {
+        return ACCEPTED[state * COMMAND_COUNT + command];
+    }
+
+    /**
+     * Looks up the state the door reports after a command
+     *
+     * @param state   state of the door
+     * @param command bit command (TIMED_OPEN to UNLOCK)
+     * @return expected state, the same state if the command is refused
+     */
+    public static int expectedState(int state, int command) {
+        return TRANSITIONS[state * COMMAND_COUNT + command];
+    }
+
+    /**
+     * Getter for state
+     *
+     * @return current state
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * States whether a predicted state awaits the door
+     *
+     * @return true between an optimistic button press and its reconciliation
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Getter for lastCommand
+     *
+     * @return command of the latest optimistic press, such as the one just rolled back
+     */
+    public byte getLastCommand() {
+        return lastCommand;
+    }
+
+    /**
+     * Getter for presses
+     *
+     * @return number of optimistic presses, to be passed to onTimeout()
+     */
+    public int getPresses() {
+        return presses;
+    }
+
+    /**
+     * Looks up whether a button may be pressed now
+     *
+     * @param button BUTTON_DOOR, BUTTON_HOLD, or BUTTON_LOCK
+     * @return true if the button is enabled in the current state and nothing is pending
+     */
+    public boolean isButtonEnabled(int button) {
+        return !pending && isEnabled(state, button);
+    }
+
+    /**
+     * Records a state reported by the door (in a state report or an answer)
+     *
+     * @param reported state reported by the door
+     * @return true if the state changed, so the buttons need updating
+     */
+    public boolean onStateReported(int reported) {
+        return reconcile(reported) != UNCHANGED;
+    }
+
+    /**
+     * Records a state reported by the door in a state report. While a prediction
+     * is pending, a report of the state before the press is taken to be sent
+     * before the door carried out the command, so is ignored.
+     *
+     * @param reported state reported by the door
+     * @return UNCHANGED, CHANGED, CONFIRMED, or ROLLED_BACK
+     */
+    public int reconcile(int reported) {
+        if (!isReportedState(reported)) {
+            return UNCHANGED;
+        }
+        if (!pending) {
+            if (reported == state) {
+                return UNCHANGED;
+            }
+            state = reported;
+            return CHANGED;
+        }
+        if (reported == state) {
+            pending = false;
+            pendingCommand = null;
+            return CONFIRMED;
+        }
+        if (reported == confirmedState) {
+            // Still on its way when the command was sent
+            return UNCHANGED;
+        }
+        return rollBack(reported);
+    }
+
+    /**
+     * Records the command sent for the latest optimistic press, so its answer
+     * can be told from the answers to other commands
+     *
+     * @param command handle of the command sent for the press
+     */
+    public void onSent(PendingCommand command) {
+        if (pending) {
+            pendingCommand = command;
+        }
+    }
+
+    /**
+     * Records the door's answer to a framed command. Unlike a state report, the
+     * answer to the command sent for the pending press always settles it. While
+     * pending, answers to any other command are ignored, as they may be late or
+     * about a command the press superseded.
+     *
+     * @param sequence sequence id the answer carries
+     * @param accepted whether the door carried out the command
+     * @param reported state of the door after the command
+     * @return UNCHANGED, CHANGED, CONFIRMED, or ROLLED_BACK
+     */
+    public int onAnswer(int sequence, boolean accepted, int reported) {
+        if (!pending) {
+            return reconcile(reported);
+        }
+        // Read now, as a command held during a reconnect only gets its sequence id when replayed
+        if (pendingCommand == null || sequence == NO_SEQUENCE || sequence != pendingCommand.getSequence()) {
+            return UNCHANGED;
+        }
+        if (accepted && reported == state) {
+            pending = false;
+            pendingCommand = null;
+            return CONFIRMED;
+        }
+        return rollBack(isReportedState(reported) ? reported : confirmedState);
+    }
+
+    /**
+     * Rolls a prediction back if the door has not settled it, as the command or
+     * its answer may have been lost. Called once the door's command timeout
+     * (see RttEstimator) has passed since the press.
+     *
+     * @param press value of getPresses() just after the press the timeout is for
+     * @return ROLLED_BACK, or UNCHANGED if that press was already settled
+     */
+    public int onTimeout(int press) {
+        if (!pending || press != presses) {
+            return UNCHANGED;
+        }
+        return rollBack(confirmedState);
+    }
+
+    /**
+     * Handles a button press. If the button is enabled, an optimistic machine
+     * moves to the state the command is expected to lead to and marks it
+     * pending; otherwise the machine waits for the door's answer with every
+     * button disabled.
+     *
+     * @param button BUTTON_DOOR, BUTTON_HOLD, or BUTTON_LOCK
+     * @return bit command to send, or NULL_OP if the button is disabled
+     */
+    public byte onButton(int button) {
+        if (!isButtonEnabled(button)) {
+            return NULL_OP;
+        }
+        byte command = buttonCommand(state, button);
+        if (optimistic) {
+            confirmedState = state;
+            state = expectedState(state, command);
+            pending = true;
+            pendingCommand = null;
+            lastCommand = command;
+            presses++;
+        } else {
+            state = AWAITING;
+        }
+        return command;
+    }
+
+    /**
+     * Forgets the current state, such as when a door is (re)connected
+     */
+    public void reset() {
+        state = DoorStateConflator.NO_STATE;
+        pending = false;
+        pendingCommand = null;
+    }
+
+    /**
+     * Ends a pending prediction with the state the door is actually in
+     *
+     * @param actual state to show instead of the prediction
+     * @return ROLLED_BACK
+     */
+    private int rollBack(int actual) {
+        pending = false;
+        pendingCommand = null;
+        state = actual;
+        return ROLLED_BACK;
+    }
+
+    /**
+     * States whether a state is one the door reports
+     *
+     * @param state state to check
+     * @return true if the state is DOOR_IS_TIMED to DOOR_IS_UNLOCKED
+     */
+    private static boolean isReportedState(int state) {
+        return state != DoorStateConflator.NO_STATE && state < AWAITING && isKnownState(state);
+    }
+}
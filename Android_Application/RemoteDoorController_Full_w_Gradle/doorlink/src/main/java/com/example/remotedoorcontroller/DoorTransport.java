@@ -0,0 +1,54 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte stream connection to a door controller. Hides whether the controller is
+ * reached over a Bluetooth RFCOMM socket or emulated in-process, so the send and
+ * receive pipeline (ConnectedThread, CommandWriterThread) can run on any JVM.
+ *
+ * @author Colby Bratton
+ */
+public interface DoorTransport {
+
+    /**
+     * Getter for the address of the door controller
+     *
+     * @return address (such as the MAC address) of the door controller
+     */
+    String getAddress();
+
+    /**
+     * Opens the connection to the door controller. Blocks until the connection is
+     * established, so must not be called from the GUI thread.
+     *
+     * @param trace startup trace that each phase of connecting is marked in
+     * @throws IOException if the connection could not be established
+     */
+    void connect(ConnectTrace trace) throws IOException;
+
+    /**
+     * Getter for the stream of bytes received from the door controller
+     *
+     * @return InputStream of the open connection
+     * @throws IOException if the connection is not open
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Getter for the stream of bytes sent to the door controller
+     *
+     * @return OutputStream of the open connection
+     * @throws IOException if the connection is not open
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the connection, unblocking any thread reading from or writing to it
+     *
+     * @throws IOException if the connection could not be closed cleanly
+     */
+    void close() throws IOException;
+}
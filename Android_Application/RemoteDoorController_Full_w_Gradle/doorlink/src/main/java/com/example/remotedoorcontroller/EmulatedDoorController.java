@@ -0,0 +1,442 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.example.remotedoorcontroller.DoorProtocol.*;
+
+/**
+ * In-process stand-in for the Arduino door controller (Door_Controller.ino). Reads
+ * commands from one stream and writes responses to another, following the same
+ * rules as the sketch: lockout refuses opening, an open door refuses lockout,
+ * a timed open closes by itself after openTimerMillis unless ended earlier,
+ * commands received together are queued and a command superseded by the next
+ * one (such as a hold followed by a close) is dropped, with a NACK if framed,
+ * frames are used once the app sends the protocol probe, and the current state
+ * is reported continuously (every reportIntervalMillis) until the app asks for
+ * edge-triggered reports with a heartbeat, and pings are queued like commands
+ * and answered with a pong. Used by LoopbackTransport
+ * so the pipeline can be exercised and measured without hardware.
+ *
+ * @author Colby Bratton
+ */
+public class EmulatedDoorController {
+
+    // Commands sent by the app
+    private final InputStream commandInput;
+    // Responses sent to the app
+    private final OutputStream responseOutput;
+    // Default time a timed open keeps the door open, as OPENTIMER in the sketch
+    public final static long DEFAULT_OPEN_TIMER_MILLIS = 10000;
+    // Number of queued commands, as COMMAND_QUEUE_SIZE in the sketch
+    private final static int COMMAND_QUEUE_SIZE = 16;
+
+    // Time between continuous state reports, 0 to only report after commands
+    private final long reportIntervalMillis;
+    // Protocol version answered to the probe (below HEARTBEAT_VERSION to emulate older firmware)
+    private final int protocolVersion;
+
+    // Emulated controller state, guarded by this
+    private int controllerState = DOOR_IS_CLOSED;
+    private boolean holdControl = false;
+    private boolean lockoutControl = false;
+    private boolean framedMode = false;
+    // Time a timed open keeps the door open
+    private long openTimerMillis = DEFAULT_OPEN_TIMER_MILLIS;
+    // Time (System.nanoTime) the timed open door closes, 0 when no timer is running
+    private long timedCloseAt = 0;
+    // Edge-triggered reporting, guarded by this
+    private boolean edgeReports = false;
+    private long heartbeatMillis = 0;
+    private long lastSentAt = 0;
+    private int reportedState = NULL_OP;
+    // Whether the controller has stopped sending, such as when out of range
+    private volatile boolean muted = false;
+
+    // Reusable buffers for received and sent bytes
+    private final byte[] receiveBuffer = new byte[256];
+    private final byte[] sendBuffer = new byte[FRAME_LENGTH];
+    // Bytes of the frame currently being received
+    private final int[] frame = new int[FRAME_LENGTH];
+    private int framePosition = 0;
+    // Commands received in the current chunk, oldest first (guarded by this)
+    private final int[] queuedCommand = new int[COMMAND_QUEUE_SIZE];
+    private final int[] queuedSequence = new int[COMMAND_QUEUE_SIZE];
+    private final int[] queuedPayload = new int[COMMAND_QUEUE_SIZE];
+    private int queueCount = 0;
+
+    // Threads serving the emulated controller
+    private Thread commandThread;
+    private Thread reportThread;
+    private volatile boolean running = false;
+
+    /**
+     * Constructor for an emulated controller talking over the given streams
+     *
+     * @param commandInput         stream the app's commands are read from
+     * @param responseOutput       stream responses are written to
+     * @param reportIntervalMillis time between continuous state reports, 0 to
+     *                             only report the state after each command
+     */
+    public EmulatedDoorController(InputStream commandInput, OutputStream responseOutput,
+                                  long reportIntervalMillis) {
+        this(commandInput, responseOutput, reportIntervalMillis, PING_VERSION);
+    }
+
+    /**
+     * Constructor for an emulated controller running a given protocol version
+     *
+     * @param commandInput         stream the app's commands are read from
+     * @param responseOutput       stream responses are written to
+     * @param reportIntervalMillis time between continuous state reports, 0 to
+     *                             only report the state after each command
+     * @param protocolVersion      protocol version answered to the probe
+     */
+    public EmulatedDoorController(InputStream commandInput, OutputStream responseOutput,
+                                  long reportIntervalMillis, int protocolVersion) {
+        this.commandInput = commandInput;
+        this.responseOutput = responseOutput;
+        this.reportIntervalMillis = reportIntervalMillis;
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * Starts answering commands (and reporting the state, if enabled)
+     */
+    public synchronized void start() {
+        running = true;
+        commandThread = new Thread(this::serveCommands, "EmulatedDoorController");
+        commandThread.setDaemon(true);
+        commandThread.start();
+        reportThread = new Thread(this::reportState, "EmulatedDoorReports");
+        reportThread.setDaemon(true);
+        reportThread.start();
+    }
+
+    /**
+     * Stops the emulated controller
+     */
+    public synchronized void stop() {
+        running = false;
+        if (commandThread != null) {
+            commandThread.interrupt();
+        }
+        if (reportThread != null) {
+            reportThread.interrupt();
+        }
+    }
+
+    /**
+     * Getter for the current emulated door state
+     *
+     * @return state the controller would report
+     */
+    public synchronized int getControllerState() {
+        return controllerState;
+    }
+
+    /**
+     * Setter for openTimerMillis, used to shorten timed opens in tests
+     *
+     * @param openTimerMillis time a timed open keeps the door open
+     */
+    public synchronized void setOpenTimerMillis(long openTimerMillis) {
+        this.openTimerMillis = openTimerMillis;
+    }
+
+    /**
+     * Setter for muted. A muted controller still carries out commands but sends
+     * nothing, like one whose replies no longer reach the app.
+     *
+     * @param muted true to stop sending
+     */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    /**
+     * Reads and carries out commands until stopped or the stream closes
+     */
+    private void serveCommands() {
+        try {
+            while (running) {
+                int count = commandInput.read(receiveBuffer, 0, receiveBuffer.length);
+                if (count < 0) {
+                    break;
+                }
+                // Commands that arrived together are queued, like one pass of the sketch's loop()
+                synchronized (this) {
+                    for (int i = 0; i < count; i++) {
+                        if (queueCount == COMMAND_QUEUE_SIZE) {
+                            executeQueuedCommands();
+                        }
+                        receiveByte(receiveBuffer[i] & 0xFF);
+                    }
+                    executeQueuedCommands();
+                }
+            }
+        } catch (IOException ignored) {
+            // Link closed by the app
+        }
+    }
+
+    /**
+     * Reports the state until stopped or the stream closes, like reportState() in
+     * the sketch: continuously by default, or once the app has asked for
+     * edge-triggered reports, only changes plus a heartbeat
+     */
+    private void reportState() {
+        try {
+            while (running) {
+                long sleepMillis;
+                synchronized (this) {
+                    runTimer();
+                    if (edgeReports) {
+                        if (controllerState != reportedState) {
+                            reportedState = controllerState;
+                            sendFrame(NO_SEQUENCE, OP_STATE, controllerState);
+                        } else if (System.nanoTime() - lastSentAt >= heartbeatMillis * 1000000) {
+                            sendFrame(NO_SEQUENCE, OP_HEARTBEAT, controllerState);
+                        }
+                        sleepMillis = 5;
+                    } else if (reportIntervalMillis > 0) {
+                        sendState(controllerState);
+                        sleepMillis = reportIntervalMillis;
+                    } else {
+                        sleepMillis = 5;
+                    }
+                }
+                Thread.sleep(sleepMillis);
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Link closed by the app or controller stopped
+        }
+    }
+
+    /**
+     * Closes a timed open door once its timer has run out, like runTimers() in
+     * the sketch. Must be called while holding the lock.
+     *
+     * @throws IOException if the closed state could not be reported
+     */
+    private void runTimer() throws IOException {
+        if (timedCloseAt == 0 || System.nanoTime() - timedCloseAt < 0) {
+            return;
+        }
+        timedCloseAt = 0;
+        controllerState = DOOR_IS_CLOSED;
+        if (!edgeReports && reportIntervalMillis == 0) {
+            // Not reported continuously, so report the change here
+            sendState(controllerState);
+        }
+    }
+
+    /**
+     * Handles a single received byte, the same way receiveByte() does in the sketch.
+     * Must be called while holding the lock.
+     *
+     * @param value received byte
+     * @throws IOException if an answer could not be written
+     */
+    private void receiveByte(int value) throws IOException {
+        if (framePosition == 0) {
+            if (value == FRAME_START) {
+                frame[framePosition++] = value;
+            } else if (value == PROTOCOL_PROBE) {
+                framedMode = true;
+                // A new app connection negotiates its own report mode
+                edgeReports = false;
+                sendFrame(NO_SEQUENCE, OP_HELLO, protocolVersion);
+            } else if (value != NULL_OP) {
+                framedMode = false;
+                edgeReports = false;
+                queueCommand(NO_SEQUENCE, value, 0);
+            }
+            return;
+        }
+
+        frame[framePosition++] = value;
+        if (framePosition == FRAME_LENGTH) {
+            framePosition = 0;
+            if (checksum(frame[1], frame[2], frame[3]) == frame[4]) {
+                queueCommand(frame[1], frame[2], frame[3]);
+            }
+        }
+    }
+
+    /**
+     * Adds a received command to the queue, replacing the last queued command if
+     * the new one supersedes it, the same way queueCommand() does in the sketch
+     *
+     * @param sequence sequence id of the command, NO_SEQUENCE if sent as a single byte
+     * @param command  bit command (or opcode) received
+     * @param payload  payload of the frame
+     * @throws IOException if the superseded command's NACK could not be written
+     */
+    private void queueCommand(int sequence, int command, int payload) throws IOException {
+        int group = commandGroup(command);
+        int slot = queueCount;
+        if (queueCount > 0 && group != 0 && commandGroup(queuedCommand[queueCount - 1]) == group) {
+            slot = queueCount - 1;
+            if (queuedSequence[slot] != NO_SEQUENCE) {
+                // Superseded before it was carried out, so it is refused
+                sendFrame(queuedSequence[slot], OP_NACK, controllerState);
+            }
+        } else {
+            queueCount++;
+        }
+        queuedCommand[slot] = command;
+        queuedSequence[slot] = sequence;
+        queuedPayload[slot] = payload;
+    }
+
+    /**
+     * Gives the group of commands that supersede each other a command belongs to
+     *
+     * @param command bit command (or opcode)
+     * @return 1 for door commands, 2 for lockout, 3 for report mode, 0 for none
+     */
+    private static int commandGroup(int command) {
+        switch (command) {
+            case TIMED_OPEN:
+            case HOLD_OPEN:
+            case CLOSE:
+                return 1;
+            case LOCK:
+            case UNLOCK:
+                return 2;
+            case OP_REPORT_MODE:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Carries out every queued command, oldest first
+     *
+     * @throws IOException if an answer could not be written
+     */
+    private void executeQueuedCommands() throws IOException {
+        for (int i = 0; i < queueCount; i++) {
+            if (queuedSequence[i] == NO_SEQUENCE) {
+                executeCommand(queuedCommand[i]);
+                if (reportIntervalMillis == 0) {
+                    sendState(controllerState);
+                }
+            } else {
+                executeFramedCommand(queuedSequence[i], queuedCommand[i], queuedPayload[i]);
+            }
+        }
+        queueCount = 0;
+    }
+
+    /**
+     * Carries out a framed command and answers it with an ACK or NACK
+     *
+     * @param sequence sequence id of the command
+     * @param command  bit command to be carried out
+     * @param payload  payload of the frame (only used by OP_REPORT_MODE and OP_PING)
+     * @throws IOException if the answer could not be written
+     */
+    private void executeFramedCommand(int sequence, int command, int payload) throws IOException {
+        if (command == OP_PING && protocolVersion >= PING_VERSION) {
+            sendFrame(sequence, OP_PONG, payload);
+            return;
+        }
+        if (command == OP_REPORT_MODE && protocolVersion >= HEARTBEAT_VERSION) {
+            edgeReports = payload != 0;
+            heartbeatMillis = payload * HEARTBEAT_UNIT_MILLIS;
+            // The answer carries the state, so only later changes are reported
+            reportedState = controllerState;
+            sendFrame(sequence, OP_ACK, controllerState);
+            return;
+        }
+        executeCommand(command);
+        sendFrame(sequence, controllerState == command ? OP_ACK : OP_NACK, controllerState);
+    }
+
+    /**
+     * Applies a bit command to the emulated state, following the sketch's rules
+     *
+     * @param command bit command to be carried out
+     */
+    private void executeCommand(int command) {
+        switch (command) {
+            case TIMED_OPEN:
+                if (!lockoutControl) {
+                    controllerState = DOOR_IS_TIMED;
+                    // Never 0, which means no timer is running
+                    timedCloseAt = (System.nanoTime() + openTimerMillis * 1000000) | 1;
+                }
+                break;
+            case HOLD_OPEN:
+                if (!lockoutControl) {
+                    // Holding or closing the door takes over from a timed open
+                    timedCloseAt = 0;
+                    holdControl = true;
+                    controllerState = DOOR_IS_OPEN;
+                }
+                break;
+            case CLOSE:
+                if (!lockoutControl) {
+                    timedCloseAt = 0;
+                    holdControl = false;
+                    controllerState = DOOR_IS_CLOSED;
+                }
+                break;
+            case LOCK:
+                if (!holdControl) {
+                    // Locking out during a timed open closes the door straight away
+                    timedCloseAt = 0;
+                    lockoutControl = true;
+                    controllerState = DOOR_IS_LOCKED;
+                }
+                break;
+            case UNLOCK:
+                if (!holdControl) {
+                    lockoutControl = false;
+                    // Lockout is already off while the door is timed open, which stays open
+                    if (timedCloseAt == 0) {
+                        controllerState = DOOR_IS_UNLOCKED;
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reports a state as a frame or single byte, depending on the current mode
+     *
+     * @param state state to be reported
+     * @throws IOException if the report could not be written
+     */
+    private void sendState(int state) throws IOException {
+        if (framedMode) {
+            sendFrame(NO_SEQUENCE, OP_STATE, state);
+        } else if (!muted) {
+            responseOutput.write(state);
+            responseOutput.flush();
+        }
+    }
+
+    /**
+     * Writes a single frame
+     *
+     * @param sequence sequence id of the frame
+     * @param opcode   opcode of the frame
+     * @param payload  payload of the frame
+     * @throws IOException if the frame could not be written
+     */
+    private void sendFrame(int sequence, int opcode, int payload) throws IOException {
+        // Any frame sent restarts the heartbeat interval
+        lastSentAt = System.nanoTime();
+        if (muted) {
+            return;
+        }
+        int length = encode(sendBuffer, 0, sequence, opcode, payload);
+        responseOutput.write(sendBuffer, 0, length);
+        responseOutput.flush();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.remotedoorcontroller;
+
+/**
+ * Incremental decoder for bytes received from the door controller. Splits the
+ * incoming bytes into frames (see DoorProtocol) and single byte legacy responses.
+ * Frames may be split across any number of reads. Decoding does not allocate.
+ *
+ * Once the controller has agreed to frames (see setFramed()), bytes outside of a
+ * frame can only be the remains of a frame that lost a byte, so they are dropped
+ * rather than taken for legacy responses. A frame that fails its checksum is
+ * searched for the start of the next one, so one lost or corrupted byte costs
+ * at most the frames it touched.
+ *
+ * @author Colby Bratton
+ */
+public class FrameDecoder {
+
+    /**
+     * Receives what the decoder finds in the incoming bytes
+     */
+    public interface Listener {
+        /**
+         * Called for every complete frame with a valid checksum
+         *
+         * @param sequence sequence id of the frame
+         * @param opcode   opcode of the frame
+         * @param payload  payload of the frame
+         */
+        void onFrame(int sequence, int opcode, int payload);
+
+        /**
+         * Called for every non-null byte received outside of a frame
+         *
+         * @param response single byte response sent by the controller
+         */
+        void onLegacyResponse(int response);
+    }
+
+    // Bytes of the frame currently being received
+    private final int[] frame = new int[DoorProtocol.FRAME_LENGTH];
+    // Number of bytes of the current frame received so far (0 when outside a frame)
+    private int position = 0;
+    // Number of frames dropped because of a bad checksum
+    private long corruptFrames = 0;
+    // Whether the controller sends frames only, so stray bytes are not responses
+    private boolean framed = false;
+    // Number of bytes dropped outside of a frame while framed
+    private long droppedBytes = 0;
+
+    /**
+     * Decodes a chunk of received bytes, reporting frames and legacy responses
+     * to the listener in the order they were received
+     *
+     * @param buffer   buffer holding the received bytes
+     * @param offset   position of the first received byte in the buffer
+     * @param count    number of received bytes
+     * @param listener receiver of decoded frames and responses
+     */
+    public void decode(byte[] buffer, int offset, int count, Listener listener) {
+        for (int i = offset; i < offset + count; i++) {
+            int value = buffer[i] & 0xFF;
+
+            if (position == 0) {
+                if (value == DoorProtocol.FRAME_START) {
+                    frame[position++] = value;
+                } else if (framed) {
+                    droppedBytes++;
+                } else if (value != 0) {
+                    listener.onLegacyResponse(value);
+                }
+                continue;
+            }
+
+            frame[position++] = value;
+            if (position == DoorProtocol.FRAME_LENGTH) {
+                if (DoorProtocol.checksum(frame[1], frame[2], frame[3]) == frame[4]) {
+                    position = 0;
+                    listener.onFrame(frame[1], frame[2], frame[3]);
+                } else {
+                    corruptFrames++;
+                    resync();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restarts decoding at the next frame start within a frame that failed its
+     * checksum, as a frame that lost a byte has swallowed the start of the next.
+     * Bytes before it are dropped.
+     */
+    private void resync() {
+        int start = 1;
+        while (start < DoorProtocol.FRAME_LENGTH && frame[start] != DoorProtocol.FRAME_START) {
+            start++;
+        }
+        droppedBytes += start;
+        position = DoorProtocol.FRAME_LENGTH - start;
+        System.arraycopy(frame, start, frame, 0, position);
+    }
+
+    /**
+     * Sets whether the controller has agreed to frames. From then on, bytes
+     * outside of a frame are dropped instead of reported as legacy responses.
+     *
+     * @param framed true once the controller only sends frames
+     */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /**
+     * Getter for the number of bytes dropped while looking for a frame start
+     *
+     * @return number of bytes dropped outside of a frame or from a corrupt frame
+     */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Discards any partially received frame, such as when a new connection starts
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * Getter for the number of frames dropped because of a bad checksum
+     *
+     * @return number of corrupt frames received
+     */
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+}
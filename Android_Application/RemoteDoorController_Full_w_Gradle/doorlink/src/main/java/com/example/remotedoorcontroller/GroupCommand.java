@@ -0,0 +1,476 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.example.remotedoorcontroller.DoorProtocol.CLOSE;
+import static com.example.remotedoorcontroller.DoorProtocol.DOOR_IS_LOCKED;
+import static com.example.remotedoorcontroller.DoorProtocol.DOOR_IS_OPEN;
+import static com.example.remotedoorcontroller.DoorProtocol.LOCK;
+
+/**
+ * Sends LOCK or CLOSE to a group of door controllers at once, such as to lock
+ * down a building. Up to the given number of doors are worked on in parallel
+ * (each needs one of the DoorConnectionManager's links), so the whole group
+ * takes about as long as its slowest door rather than the sum of every door.
+ * Each door is connected to if needed, sent the command, and settled as
+ * CONFIRMED once it answers (or, with firmware that does not answer, reports
+ * the target state), REFUSED if it refuses, FAILED if it cannot be reached,
+ * or TIMED_OUT if it takes longer than the per-door timeout. Links the group
+ * opened are closed again once their door is settled, freeing them for the
+ * rest of the group.
+ *
+ * A door held open refuses lockout, so locking it sends CLOSE first, and a
+ * door that is locked out already counts as closed.
+ *
+ * @author Colby Bratton
+ */
+public class GroupCommand {
+
+    /**
+     * Receives the progress of a group command. Called on the group's threads.
+     */
+    public interface Listener {
+        /**
+         * Called when a door of the group is settled
+         *
+         * @param group   group command the door belongs to
+         * @param address address of the door controller
+         * @param outcome CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+         */
+        void onDoorSettled(GroupCommand group, String address, int outcome);
+
+        /**
+         * Called once every door of the group is settled
+         *
+         * @param group group command that finished
+         */
+        void onFinished(GroupCommand group);
+    }
+
+    // Outcomes of each door
+    public final static int PENDING = 0;   // Not settled yet
+    public final static int CONFIRMED = 1; // The door reached the target state
+    public final static int REFUSED = 2;   // The door refused the command
+    public final static int FAILED = 3;    // The door could not be reached
+    public final static int TIMED_OUT = 4; // The door took longer than the per-door timeout
+    // Shown in report(), indexed by outcome
+    private final static String[] OUTCOME_NAMES = {"pending", "confirmed", "refused", "failed",
+            "timed out"};
+
+    // Default time each door may take, from starting on it to being settled
+    public final static long DEFAULT_DOOR_TIMEOUT_MILLIS = 10000;
+    // Time between checks of the state of a door that does not answer commands
+    private final static long STATE_POLL_MILLIS = 20;
+
+    // Links to the door controllers
+    private final DoorConnectionManager manager;
+    // LOCK or CLOSE
+    private final byte command;
+    // Addresses of the door controllers in the group
+    private final String[] addresses;
+    // Number of doors worked on at once
+    private final int concurrency;
+    // Time each door may take, in milliseconds
+    private final long doorTimeoutMillis;
+    // Receiver of the group's progress, or null
+    private final Listener listener;
+
+    // Outcome of each door, indexed like addresses
+    private final AtomicIntegerArray outcomes;
+    // Time each door took to settle, in milliseconds, indexed like addresses
+    private final long[] settleMillis;
+    // Whether the group opened the link to each door, indexed like addresses
+    private final boolean[] opened;
+    // Number of doors not settled yet
+    private final AtomicInteger unsettled;
+    // Released once every door is settled
+    private final CountDownLatch finished = new CountDownLatch(1);
+    // Time (System.nanoTime) the group was started
+    private volatile long startedAt;
+    // Time (System.nanoTime) the last door was settled
+    private volatile long finishedAt;
+
+    // Threads the doors are worked on
+    private ExecutorService workers;
+    // Thread the per-door timeouts run on
+    private ScheduledExecutorService timeouts;
+
+    /**
+     * Constructor for a group command that has not been started
+     *
+     * @param manager           links to the door controllers
+     * @param command           LOCK or CLOSE
+     * @param addresses         addresses of the door controllers in the group
+     * @param concurrency       number of doors worked on at once, such as the
+     *                          manager's link limit
+     * @param doorTimeoutMillis time each door may take, in milliseconds
+     * @param listener          receiver of the group's progress, or null
+     */
+    public GroupCommand(DoorConnectionManager manager, byte command, List<String> addresses,
+                        int concurrency, long doorTimeoutMillis, Listener listener) {
+        if (command != LOCK && command != CLOSE) {
+            throw new IllegalArgumentException("Only LOCK and CLOSE can be sent to a group");
+        }
+        if (concurrency < 1 || doorTimeoutMillis < 1) {
+            throw new IllegalArgumentException("concurrency and doorTimeoutMillis must be at least 1");
+        }
+        this.manager = manager;
+        this.command = command;
+        this.addresses = addresses.toArray(new String[0]);
+        this.concurrency = concurrency;
+        this.doorTimeoutMillis = doorTimeoutMillis;
+        this.listener = listener;
+        outcomes = new AtomicIntegerArray(this.addresses.length);
+        settleMillis = new long[this.addresses.length];
+        opened = new boolean[this.addresses.length];
+        unsettled = new AtomicInteger(this.addresses.length);
+    }
+
+    /**
+     * Starts working on the doors, without blocking
+     */
+    public synchronized void start() {
+        if (workers != null) {
+            throw new IllegalStateException("Group command already started");
+        }
+        startedAt = System.nanoTime();
+        workers = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, addresses.length)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DoorGroup");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DoorGroupTimeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (addresses.length == 0) {
+            finish();
+            return;
+        }
+        for (int door = 0; door < addresses.length; door++) {
+            final int index = door;
+            workers.execute(() -> run(index));
+        }
+    }
+
+    /**
+     * Waits for every door to be settled. Must not be called from the GUI thread.
+     *
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if every door was settled within the given time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Getter for command
+     *
+     * @return LOCK or CLOSE
+     */
+    public byte getCommand() {
+        return command;
+    }
+
+    /**
+     * Getter for the number of doors in the group
+     *
+     * @return number of door controllers
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Getter for the address of a door
+     *
+     * @param door position of the door in the group
+     * @return address of the door controller
+     */
+    public String getAddress(int door) {
+        return addresses[door];
+    }
+
+    /**
+     * Getter for the outcome of a door
+     *
+     * @param door position of the door in the group
+     * @return PENDING, CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+     */
+    public int getOutcome(int door) {
+        return outcomes.get(door);
+    }
+
+    /**
+     * Counts the doors with an outcome
+     *
+     * @param outcome PENDING, CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+     * @return number of doors with that outcome
+     */
+    public int count(int outcome) {
+        int count = 0;
+        for (int door = 0; door < addresses.length; door++) {
+            if (outcomes.get(door) == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * States whether every door is settled
+     *
+     * @return true once every door has an outcome other than PENDING
+     */
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Getter for the time the group has taken
+     *
+     * @return milliseconds from start() to the last door being settled, or to now
+     * if doors are still pending
+     */
+    public long getElapsedMillis() {
+        long end = isFinished() ? finishedAt : System.nanoTime();
+        return (end - startedAt) / 1000000;
+    }
+
+    /**
+     * Writes a report of the group: how many doors have each outcome, then each
+     * door's outcome and the time it took to settle
+     *
+     * @param out destination of the report
+     * @throws IOException if the destination cannot be written to
+     */
+    public void writeReport(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%s %d doors: %d confirmed, %d failed, %d pending (%.1f s)%n",
+                command == LOCK ? "Lock" : "Close", addresses.length, count(CONFIRMED),
+                addresses.length - count(CONFIRMED) - count(PENDING), count(PENDING),
+                getElapsedMillis() / 1000.0));
+        for (int door = 0; door < addresses.length; door++) {
+            int outcome = outcomes.get(door);
+            out.append(String.format(Locale.US, "%-17s %-9s %s%n", addresses[door],
+                    OUTCOME_NAMES[outcome], outcome == PENDING ? ""
+                            : String.format(Locale.US, "%.2f s", settleMillis(door) / 1000.0)));
+        }
+    }
+
+    /**
+     * Produces the report written by writeReport()
+     *
+     * @return text report
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        try {
+            writeReport(report);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Works on one door: connects to it if needed, sends the command, and
+     * settles the door. Runs on one of the group's threads.
+     *
+     * @param door position of the door in the group
+     */
+    private void run(final int door) {
+        String address = addresses[door];
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(doorTimeoutMillis);
+        opened[door] = !manager.isConnected(address);
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> timeOut(door),
+                doorTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            // Links are freed as other doors of the group are settled
+            DoorSession session = manager.connect(address, deadline);
+            if (outcomes.get(door) == PENDING) {
+                settle(door, send(session, deadline));
+            }
+        } catch (IOException e) {
+            settle(door, FAILED);
+        } catch (InterruptedException e) {
+            settle(door, FAILED);
+            Thread.currentThread().interrupt();
+        } finally {
+            timeout.cancel(false);
+            if (opened[door]) {
+                disconnect(address);
+            }
+        }
+    }
+
+    /**
+     * Sends the command to a connected door
+     *
+     * @param session  session to the door
+     * @param deadline time (System.nanoTime) the door has to be settled by
+     * @return outcome of the door
+     * @throws InterruptedException if interrupted while waiting for the door
+     */
+    private int send(DoorSession session, long deadline) throws InterruptedException {
+        // Framed commands are answered, so wait for a new link to agree to them
+        session.awaitFramed(deadline);
+        int state = session.getLastKnownState();
+        if (state == targetState(command) || (command == CLOSE && state == DOOR_IS_LOCKED)) {
+            // Nothing to do, a locked out door is closed
+            return CONFIRMED;
+        }
+        if (command == LOCK && state == DOOR_IS_OPEN) {
+            // A door held open refuses lockout
+            int closed = send(session, CLOSE, deadline, false);
+            if (closed != CONFIRMED) {
+                return closed;
+            }
+        }
+        return send(session, command, deadline, command == LOCK);
+    }
+
+    /**
+     * Sends one command to a connected door and waits for it to be carried out,
+     * sending it again if its answer is later than the door's measured timeout.
+     * Older firmware does not answer, so its commands are confirmed by the
+     * state it reports. Also used by ScheduledCommandSender.
+     *
+     * @param session     session to the door
+     * @param command     bit command (TIMED_OPEN to UNLOCK)
+     * @param deadline    time (System.nanoTime) the door has to be settled by
+     * @param closeIfOpen whether to close the door and try again if the command
+     *                    is refused because the door is held open
+     * @return outcome of the command
+     * @throws InterruptedException if interrupted while waiting for the door
+     */
+    static int send(DoorSession session, byte command, long deadline, boolean closeIfOpen)
+            throws InterruptedException {
+        PendingCommand pending = session.writeAndAwait(command, deadline);
+        if (!pending.isSent()) {
+            return pending.isDone() ? FAILED : TIMED_OUT;
+        }
+        if (pending.isFramed()) {
+            if (!pending.isAnswered()) {
+                return TIMED_OUT;
+            }
+            if (pending.isAccepted()) {
+                return CONFIRMED;
+            }
+            // A refusal carries the door's state, a lost link does not
+            int refusedState = pending.getResultState();
+            if (closeIfOpen && refusedState == DOOR_IS_OPEN) {
+                // Held open since the last report reached the app
+                int closed = send(session, CLOSE, deadline, false);
+                return closed == CONFIRMED ? send(session, command, deadline, false) : closed;
+            }
+            return refusedState != DoorStateConflator.NO_STATE ? REFUSED : FAILED;
+        }
+        // Older firmware only answers with a state report
+        int target = targetState(command);
+        while (session.getLastKnownState() != target) {
+            if (DoorSession.remainingMillis(deadline) <= 0) {
+                return TIMED_OUT;
+            }
+            Thread.sleep(STATE_POLL_MILLIS);
+        }
+        return CONFIRMED;
+    }
+
+    /**
+     * Settles a door that took longer than the per-door timeout, abandoning the
+     * link the group was opening to it. Runs on the timeout thread.
+     *
+     * @param door position of the door in the group
+     */
+    private void timeOut(int door) {
+        if (settle(door, TIMED_OUT) && opened[door]) {
+            disconnect(addresses[door]);
+        }
+    }
+
+    /**
+     * Records the outcome of a door, unless it is settled already
+     *
+     * @param door    position of the door in the group
+     * @param outcome CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+     * @return true if the door was settled by this call
+     */
+    private boolean settle(int door, int outcome) {
+        if (!outcomes.compareAndSet(door, PENDING, outcome)) {
+            return false;
+        }
+        synchronized (settleMillis) {
+            settleMillis[door] = (System.nanoTime() - startedAt) / 1000000;
+        }
+        if (listener != null) {
+            listener.onDoorSettled(this, addresses[door], outcome);
+        }
+        if (unsettled.decrementAndGet() == 0) {
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Getter for the time a door took to settle
+     *
+     * @param door position of the door in the group
+     * @return milliseconds from start() to the door being settled
+     */
+    private long settleMillis(int door) {
+        synchronized (settleMillis) {
+            return settleMillis[door];
+        }
+    }
+
+    /**
+     * Ends the group once every door is settled
+     */
+    private void finish() {
+        finishedAt = System.nanoTime();
+        finished.countDown();
+        workers.shutdown();
+        timeouts.shutdown();
+        if (listener != null) {
+            listener.onFinished(this);
+        }
+    }
+
+    /**
+     * Closes a link the group opened
+     *
+     * @param address address of the door controller
+     */
+    private void disconnect(String address) {
+        try {
+            manager.disconnect(address);
+        } catch (IOException ignored) {
+            // The link is given up on either way
+        }
+    }
+
+    /**
+     * Looks up the state a command leaves a door in
+     *
+     * @param command bit command (TIMED_OPEN to UNLOCK)
+     * @return the state with the same value as the command (such as
+     * DOOR_IS_LOCKED for LOCK), see DoorProtocol
+     */
+    private static int targetState(byte command) {
+        return command;
+    }
+}
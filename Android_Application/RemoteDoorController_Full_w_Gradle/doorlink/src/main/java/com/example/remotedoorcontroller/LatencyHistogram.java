@@ -0,0 +1,146 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of latencies in microseconds. Buckets are log-linear: exact
+ * below 16us, then 16 buckets per power of two (about 6% resolution), up to about
+ * 35 minutes; longer latencies land in the last bucket. Recording never allocates
+ * and may happen from any thread.
+ *
+ * @author Colby Bratton
+ */
+public class LatencyHistogram {
+
+    // Number of sub-buckets per power of two (as a power of two itself)
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Highest power of two covered before values are clamped to the last bucket
+    private final static int MAX_EXPONENT = 30;
+    // Total number of buckets
+    public final static int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    // Number of latencies recorded in each bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    // Number of latencies recorded
+    private final AtomicLong count = new AtomicLong();
+    // Largest latency recorded, in microseconds
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single latency
+     *
+     * @param micros latency in microseconds (negative values are counted as 0)
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        buckets.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Getter for the number of latencies recorded
+     *
+     * @return number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Getter for the largest latency recorded
+     *
+     * @return largest latency recorded, in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Estimates the latency below which the given fraction of recorded latencies
+     * fall. Reports the top of the matching bucket, so never under-reports.
+     *
+     * @param fraction fraction of latencies, such as 0.99 for p99
+     * @return latency in microseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears every recorded latency
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Finds the bucket a latency is counted in
+     *
+     * @param micros latency in microseconds, not negative
+     * @return index of the bucket
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+    }
+
+    /**
+     * Finds the largest latency counted in a bucket
+     *
+     * @param bucket index of the bucket
+     * @return largest latency in the bucket, in microseconds
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBoundOf(bucket + 1) - 1;
+    }
+
+    /**
+     * Finds the smallest latency counted in a bucket
+     *
+     * @param bucket index of the bucket
+     * @return smallest latency in the bucket, in microseconds
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT;
+        return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
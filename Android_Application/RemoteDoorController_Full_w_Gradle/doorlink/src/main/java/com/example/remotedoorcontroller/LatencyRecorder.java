@@ -0,0 +1,85 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the CommandLatencyTracker of every door controller connected to since the
+ * application started, and produces a plain text report of their round-trip
+ * latencies (p50, p90, p99, and max per command).
+ *
+ * @author Colby Bratton
+ */
+public class LatencyRecorder {
+
+    // Tracker of each door controller, keyed by address
+    private final ConcurrentMap<String, CommandLatencyTracker> trackers = new ConcurrentHashMap<>();
+
+    /**
+     * Getter for the tracker of a door controller, creating it on first use
+     *
+     * @param address address of the door controller
+     * @return tracker of the door controller
+     */
+    public CommandLatencyTracker forDevice(String address) {
+        CommandLatencyTracker tracker = trackers.get(address);
+        if (tracker == null) {
+            CommandLatencyTracker created = new CommandLatencyTracker(address);
+            tracker = trackers.putIfAbsent(address, created);
+            if (tracker == null) {
+                tracker = created;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Writes a report of every door controller's latencies, one line per command
+     * that has been confirmed at least once. Latencies are in milliseconds.
+     *
+     * @param out destination of the report
+     * @throws IOException if the destination cannot be written to
+     */
+    public void writeReport(Appendable out) throws IOException {
+        List<String> addresses = new ArrayList<>(trackers.keySet());
+        Collections.sort(addresses);
+
+        out.append(String.format(Locale.US, "%-17s %-10s %7s %9s %9s %9s %9s%n",
+                "device", "command", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (String address : addresses) {
+            CommandLatencyTracker tracker = trackers.get(address);
+            for (int command = 1; command <= CommandLatencyTracker.MAX_COMMAND; command++) {
+                LatencyHistogram histogram = tracker.getHistogram(command);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                out.append(String.format(Locale.US, "%-17s %-10s %7d %9.1f %9.1f %9.1f %9.1f%n",
+                        address, DoorProtocol.commandName(command), histogram.getCount(),
+                        histogram.getPercentile(0.50) / 1000.0,
+                        histogram.getPercentile(0.90) / 1000.0,
+                        histogram.getPercentile(0.99) / 1000.0,
+                        histogram.getMax() / 1000.0));
+            }
+        }
+    }
+
+    /**
+     * Produces the report written by writeReport()
+     *
+     * @return report of every door controller's latencies
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReport(builder);
+        } catch (IOException ignored) {
+            // StringBuilder never throws
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Link-level counters of a single door: bytes and reads in, bytes and writes
+ * out with the time writes were stalled in the OutputStream, state wake-ups
+ * posted to the GUI versus dropped as duplicates, and connect attempts,
+ * failures, and reconnects. Kept for the door across every link to it.
+ *
+ * The counters are striped longs updated without locking or allocating: each
+ * thread adds to the stripe its thread id picks, and a stripe's counters fill
+ * a cache line of their own, so the reader, writer, and connecting threads of
+ * a link do not contend on the same line. get() and snapshot() add the
+ * stripes up, which is only exact once updates have stopped.
+ *
+ * @author Colby Bratton
+ */
+public class LinkMetrics {
+
+    /**
+     * Values of every counter of a door at one moment
+     */
+    public static class Snapshot {
+        // Address of the door controller
+        private final String address;
+        // Time (System.currentTimeMillis) the snapshot was taken
+        private final long takenAtMillis;
+        // Nanoseconds from the metrics being created to the snapshot
+        private final long uptimeNanos;
+        // Value of each counter, indexed by metric
+        private final long[] values;
+
+        /**
+         * Constructor for a snapshot of counter values
+         *
+         * @param address       address of the door controller
+         * @param takenAtMillis time the snapshot was taken
+         * @param uptimeNanos   nanoseconds from the metrics being created to the snapshot
+         * @param values        value of each counter, indexed by metric
+         */
+        private Snapshot(String address, long takenAtMillis, long uptimeNanos, long[] values) {
+            this.address = address;
+            this.takenAtMillis = takenAtMillis;
+            this.uptimeNanos = uptimeNanos;
+            this.values = values;
+        }
+
+        /**
+         * Getter for address
+         *
+         * @return address of the door controller
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Getter for takenAtMillis
+         *
+         * @return time (System.currentTimeMillis) the snapshot was taken
+         */
+        public long getTakenAtMillis() {
+            return takenAtMillis;
+        }
+
+        /**
+         * Getter for the time the metrics had been kept
+         *
+         * @return seconds from the metrics being created to the snapshot
+         */
+        public double getUptimeSeconds() {
+            return uptimeNanos / 1e9;
+        }
+
+        /**
+         * Getter for the value of a counter
+         *
+         * @param metric BYTES_IN, READS, BYTES_OUT, ...
+         * @return value of the counter
+         */
+        public long get(int metric) {
+            return values[metric];
+        }
+
+        /**
+         * Works out how fast a counter grew between an earlier snapshot and this one
+         *
+         * @param metric  BYTES_IN, READS, BYTES_OUT, ...
+         * @param earlier earlier snapshot of the same door, or null for since the
+         *                metrics were created
+         * @return increase of the counter per second, or 0 if no time passed
+         */
+        public double getRatePerSecond(int metric, Snapshot earlier) {
+            long nanos = uptimeNanos - (earlier == null ? 0 : earlier.uptimeNanos);
+            long increase = values[metric] - (earlier == null ? 0 : earlier.values[metric]);
+            return nanos <= 0 ? 0 : increase * 1e9 / nanos;
+        }
+    }
+
+    // Counters, each an index into a stripe
+    public final static int BYTES_IN = 0;
+    public final static int READS = 1;
+    public final static int BYTES_OUT = 2;
+    public final static int WRITES = 3;
+    public final static int WRITE_STALL_MICROS = 4;
+    public final static int STATES_POSTED = 5;
+    public final static int STATES_DUPLICATE = 6;
+    public final static int CONNECT_ATTEMPTS = 7;
+    public final static int CONNECT_FAILURES = 8;
+    public final static int RECONNECTS = 9;
+    // Number of counters
+    public final static int METRIC_COUNT = 10;
+    // Names of the counters, by metric, as used in exported files
+    public final static String[] NAMES = {"bytes_in", "reads", "bytes_out", "writes",
+            "write_stall_us", "states_posted", "states_duplicate", "connect_attempts",
+            "connect_failures", "reconnects"};
+    // Longs from one stripe to the next: 128 bytes, so stripes never share a cache line
+    private final static int STRIPE_LONGS = 16;
+    // Number of stripes, a power of two covering the processors
+    private final static int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+
+    // Address of the door controller
+    private final String address;
+    // Time (System.nanoTime) the metrics were created
+    private final long createdAt = System.nanoTime();
+    // Counters of every stripe, indexed by stripe * STRIPE_LONGS + metric
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_LONGS);
+
+    /**
+     * Constructor for the metrics of a door controller, all zero
+     *
+     * @param address address of the door controller
+     */
+    public LinkMetrics(String address) {
+        this.address = address;
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return address of the door controller
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Adds to a counter. Never blocks or allocates.
+     *
+     * @param metric BYTES_IN, READS, BYTES_OUT, ...
+     * @param delta  amount to add
+     */
+    public void add(int metric, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * STRIPE_LONGS + metric, delta);
+    }
+
+    /**
+     * Adds one to a counter. Never blocks or allocates.
+     *
+     * @param metric BYTES_IN, READS, BYTES_OUT, ...
+     */
+    public void increment(int metric) {
+        add(metric, 1);
+    }
+
+    /**
+     * Getter for the value of a counter
+     *
+     * @param metric BYTES_IN, READS, BYTES_OUT, ...
+     * @return sum of the counter over every stripe
+     */
+    public long get(int metric) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * STRIPE_LONGS + metric);
+        }
+        return sum;
+    }
+
+    /**
+     * Takes the value of every counter
+     *
+     * @return snapshot of the counters
+     */
+    public Snapshot snapshot() {
+        long[] values = new long[METRIC_COUNT];
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            values[metric] = get(metric);
+        }
+        return new Snapshot(address, System.currentTimeMillis(), System.nanoTime() - createdAt, values);
+    }
+
+    /**
+     * Works out the number of stripes for a number of processors
+     *
+     * @param processors number of processors
+     * @return smallest power of two at least the number of processors, at most 16
+     */
+    private static int stripeCount(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.remotedoorcontroller;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the LinkMetrics of every door controller connected to since the
+ * application started. Produces a plain text report of them, and exports
+ * snapshots as rows of a CSV file so link health can be compared across doors
+ * and phones.
+ *
+ * @author Colby Bratton
+ */
+public class LinkMetricsRegistry {
+
+    // Metrics of each door controller, keyed by address
+    private final ConcurrentMap<String, LinkMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Getter for the metrics of a door controller, creating them on first use
+     *
+     * @param address address of the door controller
+     * @return metrics of the door controller
+     */
+    public LinkMetrics forDevice(String address) {
+        LinkMetrics device = metrics.get(address);
+        if (device == null) {
+            LinkMetrics created = new LinkMetrics(address);
+            device = metrics.putIfAbsent(address, created);
+            if (device == null) {
+                device = created;
+            }
+        }
+        return device;
+    }
+
+    /**
+     * Takes a snapshot of every door controller's metrics
+     *
+     * @return one snapshot per door controller, ordered by address
+     */
+    public List<LinkMetrics.Snapshot> snapshot() {
+        List<String> addresses = new ArrayList<>(metrics.keySet());
+        Collections.sort(addresses);
+        List<LinkMetrics.Snapshot> snapshots = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            snapshots.add(metrics.get(address).snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Writes a report of every door controller's metrics, one line per door.
+     * Reads per second are averaged over the time the metrics have been kept.
+     *
+     * @param out destination of the report
+     * @throws IOException if the destination cannot be written to
+     */
+    public void writeReport(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-17s %9s %9s %7s %7s %9s %9s %9s %7s%n",
+                "device", "bytes in", "bytes out", "reads/s", "stall ms", "posted", "dup", "connects",
+                "reconn"));
+        for (LinkMetrics.Snapshot snapshot : snapshot()) {
+            out.append(String.format(Locale.US, "%-17s %9d %9d %7.1f %7.1f %9d %9d %5d/%-3d %7d%n",
+                    snapshot.getAddress(),
+                    snapshot.get(LinkMetrics.BYTES_IN),
+                    snapshot.get(LinkMetrics.BYTES_OUT),
+                    snapshot.getRatePerSecond(LinkMetrics.READS, null),
+                    snapshot.get(LinkMetrics.WRITE_STALL_MICROS) / 1000.0,
+                    snapshot.get(LinkMetrics.STATES_POSTED),
+                    snapshot.get(LinkMetrics.STATES_DUPLICATE),
+                    snapshot.get(LinkMetrics.CONNECT_ATTEMPTS)
+                            - snapshot.get(LinkMetrics.CONNECT_FAILURES),
+                    snapshot.get(LinkMetrics.CONNECT_ATTEMPTS),
+                    snapshot.get(LinkMetrics.RECONNECTS)));
+        }
+    }
+
+    /**
+     * Produces the report written by writeReport()
+     *
+     * @return report of every door controller's metrics
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReport(builder);
+        } catch (IOException ignored) {
+            // StringBuilder never throws
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends a snapshot of every door controller's metrics to a CSV file, one
+     * row per door, writing the header row first if the file is new. Rows from
+     * several phones or exports can be concatenated and compared.
+     *
+     * @param file  file to append to
+     * @param phone name of the phone the metrics were gathered on
+     * @return number of rows appended
+     * @throws IOException if the file cannot be written to
+     */
+    public int exportTo(File file, String phone) throws IOException {
+        boolean header = !file.exists() || file.length() == 0;
+        List<LinkMetrics.Snapshot> snapshots = snapshot();
+        try (Writer out = new FileWriter(file, true)) {
+            if (header) {
+                out.write("taken_at_ms,phone,device,uptime_s");
+                for (String name : LinkMetrics.NAMES) {
+                    out.write(',');
+                    out.write(name);
+                }
+                out.write(",reads_per_s\n");
+            }
+            for (LinkMetrics.Snapshot snapshot : snapshots) {
+                out.write(String.format(Locale.US, "%d,%s,%s,%.3f", snapshot.getTakenAtMillis(),
+                        phone.replace(',', ' '), snapshot.getAddress(), snapshot.getUptimeSeconds()));
+                for (int metric = 0; metric < LinkMetrics.METRIC_COUNT; metric++) {
+                    out.write(',');
+                    out.write(Long.toString(snapshot.get(metric)));
+                }
+                out.write(String.format(Locale.US, ",%.2f%n",
+                        snapshot.getRatePerSecond(LinkMetrics.READS, null)));
+            }
+        }
+        return snapshots.size();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * DoorTransport connected through in-memory pipes to an EmulatedDoorController
+ * instead of a real door controller. Lets the whole send and receive pipeline be
+ * exercised, tested, and benchmarked on a plain JVM.
+ *
+ * @author Colby Bratton
+ */
+public class LoopbackTransport implements DoorTransport {
+
+    // Size of each pipe's buffer, comparable to the socket buffers on a phone
+    private final static int PIPE_BUFFER_SIZE = 4096;
+
+    // Address reported for the emulated controller
+    private final String address;
+    // Time between the emulated controller's continuous state reports
+    private final long reportIntervalMillis;
+    // Protocol version of the emulated controller's firmware
+    private final int protocolVersion;
+
+    // Streams of the open connection
+    private PipedInputStream transferInput;
+    private PipedOutputStream transferOutput;
+    // Stream the emulated controller writes its responses to
+    private PipedOutputStream controllerOutput;
+    // Controller answering on the other end of the pipes
+    private EmulatedDoorController controller;
+
+    /**
+     * Constructor for a loopback connection to an emulated controller
+     *
+     * @param address              address reported for the emulated controller
+     * @param reportIntervalMillis time between the emulated controller's continuous
+     *                             state reports, 0 to only report after commands
+     */
+    public LoopbackTransport(String address, long reportIntervalMillis) {
+        this(address, reportIntervalMillis, DoorProtocol.PING_VERSION);
+    }
+
+    /**
+     * Constructor for a loopback connection to an emulated controller running a
+     * given protocol version, such as older firmware without heartbeats
+     *
+     * @param address              address reported for the emulated controller
+     * @param reportIntervalMillis time between the emulated controller's continuous
+     *                             state reports, 0 to only report after commands
+     * @param protocolVersion      protocol version of the emulated firmware
+     */
+    public LoopbackTransport(String address, long reportIntervalMillis, int protocolVersion) {
+        this.address = address;
+        this.reportIntervalMillis = reportIntervalMillis;
+        this.protocolVersion = protocolVersion;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Connects a fresh pair of pipes to a newly started emulated controller
+     *
+     * @param trace startup trace, in which all the work is charged to connecting
+     * @throws IOException if the pipes could not be connected
+     */
+    @Override
+    public synchronized void connect(ConnectTrace trace) throws IOException {
+        // App -> controller
+        PipedOutputStream commandOutput = new PipedOutputStream();
+        PipedInputStream commandInput = new PipedInputStream(commandOutput, PIPE_BUFFER_SIZE);
+        // Controller -> app
+        PipedOutputStream responseOutput = new PipedOutputStream();
+        PipedInputStream responseInput = new PipedInputStream(responseOutput, PIPE_BUFFER_SIZE);
+
+        transferInput = responseInput;
+        transferOutput = commandOutput;
+        controllerOutput = responseOutput;
+        controller = new EmulatedDoorController(commandInput, responseOutput, reportIntervalMillis,
+                protocolVersion);
+        controller.start();
+        trace.mark(ConnectTrace.SOCKET_CONNECT);
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (transferInput == null) {
+            throw new IOException("Loopback transport is not connected");
+        }
+        return transferInput;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (transferOutput == null) {
+            throw new IOException("Loopback transport is not connected");
+        }
+        return transferOutput;
+    }
+
+    /**
+     * Getter for the emulated controller on the other end of the connection
+     *
+     * @return emulated controller, or null if not connected
+     */
+    public synchronized EmulatedDoorController getController() {
+        return controller;
+    }
+
+    /**
+     * Stops the emulated controller and closes both pipes. Pipes only wake a
+     * blocked reader when closed from the writing end, so both writing ends
+     * are closed first.
+     *
+     * @throws IOException if a pipe could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (controller != null) {
+            controller.stop();
+            controller = null;
+        }
+        if (transferInput != null) {
+            transferOutput.close();
+            controllerOutput.close();
+            transferInput.close();
+            transferInput = null;
+            transferOutput = null;
+            controllerOutput = null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion handle for a bit command queued on a CommandWriterThread. The handle
+ * is completed once the command has been written to the external device, or has
+ * failed to be written (queue full, link closed, write error). Commands sent as
+ * frames (see DoorProtocol) are additionally acknowledged once the controller
+ * answers their sequence id with an ACK or NACK.
+ *
+ * @author Colby Bratton
+ */
+public class PendingCommand {
+
+    // Bit command to be sent to the external device
+    private final byte command;
+    // Sequence id of the frame carrying the command (NO_SEQUENCE when sent as a single byte)
+    private volatile int sequence;
+    // Payload of the frame carrying the command (0 for bit commands)
+    private final int payload;
+    // Time (System.nanoTime) the command was created, used to drop stale replays
+    private final long createdAt = System.nanoTime();
+    // Released once the command has been written or has failed
+    private final CountDownLatch done = new CountDownLatch(1);
+    // Whether the command made it onto the OutputStream
+    private volatile boolean sent = false;
+    // Released once the controller has answered the command (or it has failed)
+    private final CountDownLatch answered = new CountDownLatch(1);
+    // Whether the controller carried out the command
+    private volatile boolean accepted = false;
+    // State reported by the controller in its answer
+    private volatile int resultState = 0;
+
+    /**
+     * Constructor for a command that is sent as a single byte and cannot be acknowledged
+     *
+     * @param command bit command to be sent to external device
+     */
+    public PendingCommand(byte command) {
+        this(command, DoorProtocol.NO_SEQUENCE);
+    }
+
+    /**
+     * Constructor for a command that has not been written yet
+     *
+     * @param command  bit command to be sent to external device
+     * @param sequence sequence id of the frame carrying the command, or
+     *                 NO_SEQUENCE to send the command as a single byte
+     */
+    public PendingCommand(byte command, int sequence) {
+        this(command, sequence, 0);
+    }
+
+    /**
+     * Constructor for a framed request that carries a payload, such as
+     * OP_REPORT_MODE
+     *
+     * @param command  opcode to be sent to external device
+     * @param sequence sequence id of the frame carrying the request
+     * @param payload  payload of the frame carrying the request
+     */
+    public PendingCommand(byte command, int sequence, int payload) {
+        this.command = command;
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    /**
+     * Getter for command
+     *
+     * @return bit command to be sent to external device
+     */
+    public byte getCommand() {
+        return command;
+    }
+
+    /**
+     * Getter for payload
+     *
+     * @return payload of the frame carrying the command
+     */
+    public int getPayload() {
+        return payload;
+    }
+
+    /**
+     * Getter for sequence
+     *
+     * @return sequence id of the frame carrying the command, or NO_SEQUENCE
+     * if the command is sent as a single byte
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Getter for the age of the command
+     *
+     * @return milliseconds since the command was created
+     */
+    public long getAgeMillis() {
+        return (System.nanoTime() - createdAt) / 1000000;
+    }
+
+    /**
+     * Getter for the age of the command, finely enough for round-trip latencies
+     *
+     * @return microseconds since the command was created
+     */
+    public long getAgeMicros() {
+        return (System.nanoTime() - createdAt) / 1000;
+    }
+
+    /**
+     * Gives the command the sequence id of the connection it is handed to. Only
+     * called before the command is queued on a CommandWriterThread.
+     *
+     * @param sequence sequence id of the frame carrying the command, or
+     *                 NO_SEQUENCE to send the command as a single byte
+     */
+    void assignSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * States whether the command is sent as a frame that the controller will answer
+     *
+     * @return true if the command will be acknowledged by the controller
+     */
+    public boolean isFramed() {
+        return sequence != DoorProtocol.NO_SEQUENCE;
+    }
+
+    /**
+     * Marks the command as written (or not) and releases anyone waiting on it.
+     * Only the first call counts.
+     *
+     * @param wasSent true if the command was written to the OutputStream
+     */
+    synchronized void complete(boolean wasSent) {
+        if (done.getCount() > 0) {
+            sent = wasSent;
+            done.countDown();
+        }
+        // A command that was never sent will never be answered
+        if (!wasSent) {
+            answer(false, resultState);
+        }
+    }
+
+    /**
+     * Records the controller's answer to the command and releases anyone waiting
+     * on it. Only the first call counts, so an ACK racing the failure of a lost
+     * link never mixes its state with the failure's.
+     *
+     * @param wasAccepted true if the controller carried out the command
+     * @param state       state reported by the controller in its answer
+     */
+    synchronized void answer(boolean wasAccepted, int state) {
+        if (answered.getCount() > 0) {
+            accepted = wasAccepted;
+            resultState = state;
+            answered.countDown();
+        }
+    }
+
+    /**
+     * States whether the command has been handled by the writer yet
+     *
+     * @return true if the command has been written or has failed
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * States whether the command was written to the external device
+     *
+     * @return true if the command was written, false if it failed or is still queued
+     */
+    public boolean isSent() {
+        return sent;
+    }
+
+    /**
+     * Waits for the command to be handled by the writer. Must not be called from
+     * the GUI thread.
+     *
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if the command was written within the given time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS) && sent;
+    }
+
+    /**
+     * States whether the controller has answered the command yet
+     *
+     * @return true if the command has been acknowledged, refused, or has failed
+     */
+    public boolean isAnswered() {
+        return answered.getCount() == 0;
+    }
+
+    /**
+     * States whether the controller carried out the command
+     *
+     * @return true if the controller acknowledged the command
+     */
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Getter for the state reported by the controller in its answer
+     *
+     * @return state reported in the ACK or NACK, 0 if not answered
+     */
+    public int getResultState() {
+        return resultState;
+    }
+
+    /**
+     * Waits for the controller to answer the command. Only framed commands are
+     * ever answered. Must not be called from the GUI thread.
+     *
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if the controller acknowledged the command within the given time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean awaitAnswer(long timeoutMillis) throws InterruptedException {
+        return answered.await(timeoutMillis, TimeUnit.MILLISECONDS) && accepted;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.remotedoorcontroller;
+
+import java.util.Random;
+
+/**
+ * Decides how long to wait between attempts to (re)connect to a door controller.
+ * Delays grow exponentially from a base delay up to a cap, and each delay is
+ * randomised between half and all of its nominal value so that phones (or doors)
+ * that lost their links at the same moment do not all retry in lockstep.
+ *
+ * @author Colby Bratton
+ */
+public class ReconnectPolicy {
+
+    // Default delay before the first retry
+    public final static long DEFAULT_BASE_DELAY_MILLIS = 250;
+    // Default longest delay between retries
+    public final static long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    // Default number of attempts made when a door is first connected to
+    public final static int DEFAULT_CONNECT_ATTEMPTS = 3;
+    // Value of maxReconnectAttempts that keeps retrying until disconnected
+    public final static int UNLIMITED = 0;
+
+    // Delay before the first retry, in milliseconds
+    private final long baseDelayMillis;
+    // Longest delay between retries, in milliseconds
+    private final long maxDelayMillis;
+    // Number of attempts made when a door is first connected to
+    private final int connectAttempts;
+    // Number of attempts made after a link is lost, or UNLIMITED
+    private final int maxReconnectAttempts;
+    // Source of the jitter applied to each delay
+    private final Random random;
+
+    /**
+     * Constructor for the default policy, which retries a lost link until the
+     * door is disconnected
+     */
+    public ReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_CONNECT_ATTEMPTS,
+                UNLIMITED, new Random());
+    }
+
+    /**
+     * Constructor for a custom policy
+     *
+     * @param baseDelayMillis      delay before the first retry, in milliseconds
+     * @param maxDelayMillis       longest delay between retries, in milliseconds
+     * @param connectAttempts      number of attempts made when a door is first
+     *                             connected to (at least 1)
+     * @param maxReconnectAttempts number of attempts made after a link is lost,
+     *                             or UNLIMITED
+     * @param random               source of the jitter applied to each delay
+     */
+    public ReconnectPolicy(long baseDelayMillis, long maxDelayMillis, int connectAttempts,
+                           int maxReconnectAttempts, Random random) {
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis || connectAttempts < 1
+                || maxReconnectAttempts < 0) {
+            throw new IllegalArgumentException("Invalid reconnect policy");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.connectAttempts = connectAttempts;
+        this.maxReconnectAttempts = maxReconnectAttempts;
+        this.random = random;
+    }
+
+    /**
+     * Calculates the delay before an attempt
+     *
+     * @param attempt number of attempts already made (0 before the first retry)
+     * @return delay in milliseconds, between half and all of the nominal delay
+     */
+    public long delayMillis(int attempt) {
+        // Doubling stops at the cap, well before the shift could overflow
+        long nominal = baseDelayMillis << Math.min(attempt, 30);
+        if (nominal > maxDelayMillis || nominal <= 0) {
+            nominal = maxDelayMillis;
+        }
+        long half = nominal / 2;
+        return half + (long) (random.nextDouble() * (nominal - half + 1));
+    }
+
+    /**
+     * Getter for connectAttempts
+     *
+     * @return number of attempts made when a door is first connected to
+     */
+    public int getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    /**
+     * States whether another attempt may be made after a link was lost
+     *
+     * @param attempts number of attempts already made since the link was lost
+     * @return true if the session should keep trying
+     */
+    public boolean mayRetry(int attempts) {
+        return maxReconnectAttempts == UNLIMITED || attempts < maxReconnectAttempts;
+    }
+}
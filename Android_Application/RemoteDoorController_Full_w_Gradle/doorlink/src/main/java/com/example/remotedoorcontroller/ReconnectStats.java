@@ -0,0 +1,117 @@
+package com.example.remotedoorcontroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconnect metrics of a single door: how often its link was lost, how many
+ * attempts it took to get it back, and how long each outage lasted (from the
+ * link being lost to the door answering on the new link).
+ *
+ * @author Colby Bratton
+ */
+public class ReconnectStats {
+
+    // Number of times the link was lost
+    private final AtomicLong linksLost = new AtomicLong();
+    // Number of times the link was declared stale after missed heartbeats
+    private final AtomicLong staleLinks = new AtomicLong();
+    // Number of reconnect attempts made
+    private final AtomicLong attempts = new AtomicLong();
+    // Number of reconnect attempts that failed
+    private final AtomicLong failedAttempts = new AtomicLong();
+    // Number of commands replayed on a new link
+    private final AtomicLong replayedCommands = new AtomicLong();
+    // Duration of each outage that ended in a reconnect, in microseconds
+    private final LatencyHistogram outages = new LatencyHistogram();
+
+    /**
+     * Records that the link was lost
+     */
+    void linkLost() {
+        linksLost.incrementAndGet();
+    }
+
+    /**
+     * Records that the link was declared stale after missed heartbeats
+     */
+    void linkStale() {
+        staleLinks.incrementAndGet();
+    }
+
+    /**
+     * Records the result of a reconnect attempt
+     *
+     * @param succeeded true if the attempt reconnected the door
+     */
+    void attemptMade(boolean succeeded) {
+        attempts.incrementAndGet();
+        if (!succeeded) {
+            failedAttempts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records an outage that ended in a reconnect
+     *
+     * @param micros   time from losing the link to reconnecting, in microseconds
+     * @param replayed number of commands replayed on the new link
+     */
+    void reconnected(long micros, int replayed) {
+        outages.record(micros);
+        replayedCommands.addAndGet(replayed);
+    }
+
+    /**
+     * Getter for the number of times the link was lost
+     *
+     * @return number of lost links
+     */
+    public long getLinksLost() {
+        return linksLost.get();
+    }
+
+    /**
+     * Getter for the number of times the link was declared stale
+     *
+     * @return number of links declared stale after missed heartbeats
+     */
+    public long getStaleLinks() {
+        return staleLinks.get();
+    }
+
+    /**
+     * Getter for the number of reconnect attempts made
+     *
+     * @return number of attempts
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * Getter for the number of reconnect attempts that failed
+     *
+     * @return number of failed attempts
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * Getter for the number of commands replayed on a new link
+     *
+     * @return number of replayed commands
+     */
+    public long getReplayedCommands() {
+        return replayedCommands.get();
+    }
+
+    /**
+     * Getter for the durations of outages that ended in a reconnect
+     *
+     * @return histogram of outage durations, in microseconds
+     */
+    public LatencyHistogram getOutages() {
+        return outages;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.remotedoorcontroller;
+
+/**
+ * Estimates the round-trip time of the link to a door controller from timed
+ * pings, the way TCP does (RFC 6298): a smoothed round-trip time (SRTT) and its
+ * mean deviation (RTTVAR) are updated by each sample, and the timeout given to
+ * a command is SRTT + 4 * RTTVAR, so a door that is slow or jittery is waited
+ * on longer and a fast, steady one is retried sooner.
+ *
+ * Only pings are sampled, as each has a sequence id of its own and its answer
+ * can never be mistaken for that of a command sent again (Karn's algorithm).
+ * Each ping lost doubles the timeout until the next sample arrives, so a link
+ * that has suddenly become slower is not taken for a dead one.
+ *
+ * @author Colby Bratton
+ */
+public class RttEstimator {
+
+    // Timeout used until the first round trip is measured, the fixed timeout used before
+    public final static long INITIAL_TIMEOUT_MILLIS = 3000;
+    // Shortest timeout, so a scheduling hiccup on either end is not taken for a loss
+    public final static long MIN_TIMEOUT_MILLIS = 200;
+    // Longest timeout, however slow the link or however often pings were lost
+    public final static long MAX_TIMEOUT_MILLIS = 10000;
+    // Resolution of the clock the samples are taken with (G in RFC 6298)
+    private final static long GRANULARITY_MICROS = 1000;
+
+    // Smoothed round-trip time, in microseconds (guarded by this)
+    private long srttMicros = 0;
+    // Mean deviation of the round-trip time, in microseconds (guarded by this)
+    private long rttvarMicros = 0;
+    // Number of samples taken (guarded by this)
+    private long samples = 0;
+    // Number of times the timeout has been doubled since the last sample (guarded by this)
+    private int backoffs = 0;
+
+    /**
+     * Adds a measured round-trip time to the estimate, and ends any backoff
+     *
+     * @param rttMicros time from sending a ping to receiving its answer, in microseconds
+     */
+    public synchronized void sample(long rttMicros) {
+        long rtt = Math.max(0, rttMicros);
+        if (samples == 0) {
+            srttMicros = rtt;
+            rttvarMicros = rtt / 2;
+        } else {
+            // RTTVAR first, as it uses the SRTT from before this sample
+            rttvarMicros += (Math.abs(srttMicros - rtt) - rttvarMicros) / 4;
+            srttMicros += (rtt - srttMicros) / 8;
+        }
+        samples++;
+        backoffs = 0;
+    }
+
+    /**
+     * Doubles the timeout after a ping went unanswered, until the next sample
+     */
+    public synchronized void backOff() {
+        if (baseTimeoutMillis() << backoffs < MAX_TIMEOUT_MILLIS) {
+            backoffs++;
+        }
+    }
+
+    /**
+     * Getter for the time a command may take to be answered before it is taken
+     * as lost
+     *
+     * @return SRTT + 4 * RTTVAR, doubled for each ping lost since the last
+     * sample, between MIN_TIMEOUT_MILLIS and MAX_TIMEOUT_MILLIS (or
+     * INITIAL_TIMEOUT_MILLIS until the first sample)
+     */
+    public synchronized long getTimeoutMillis() {
+        return Math.min(MAX_TIMEOUT_MILLIS, baseTimeoutMillis() << backoffs);
+    }
+
+    /**
+     * Getter for the smoothed round-trip time
+     *
+     * @return SRTT in microseconds, 0 until the first sample
+     */
+    public synchronized long getSrttMicros() {
+        return srttMicros;
+    }
+
+    /**
+     * Getter for the mean deviation of the round-trip time
+     *
+     * @return RTTVAR in microseconds, 0 until the first sample
+     */
+    public synchronized long getRttvarMicros() {
+        return rttvarMicros;
+    }
+
+    /**
+     * Getter for the number of round trips measured
+     *
+     * @return number of samples taken
+     */
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Getter for the number of times the timeout has been doubled
+     *
+     * @return pings lost since the last sample, as far as the timeout still doubled
+     */
+    public synchronized int getBackoffs() {
+        return backoffs;
+    }
+
+    /**
+     * Works out the timeout before any backoff. Must be called while holding the lock.
+     *
+     * @return SRTT + max(G, 4 * RTTVAR) in milliseconds, rounded up and clamped
+     */
+    private long baseTimeoutMillis() {
+        if (samples == 0) {
+            return INITIAL_TIMEOUT_MILLIS;
+        }
+        long micros = srttMicros + Math.max(GRANULARITY_MICROS, 4 * rttvarMicros);
+        long millis = (micros + 999) / 1000;
+        return Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, millis));
+    }
+}
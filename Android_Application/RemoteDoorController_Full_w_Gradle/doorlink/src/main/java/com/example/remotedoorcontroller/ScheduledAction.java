@@ -0,0 +1,244 @@
+package com.example.remotedoorcontroller;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static com.example.remotedoorcontroller.DoorProtocol.CLOSE;
+import static com.example.remotedoorcontroller.DoorProtocol.HOLD_OPEN;
+import static com.example.remotedoorcontroller.DoorProtocol.LOCK;
+import static com.example.remotedoorcontroller.DoorProtocol.UNLOCK;
+
+/**
+ * A rule of the DoorScheduler: a command sent to a door controller once at a
+ * given time, or every week at a time of day on some days of the week (every
+ * day for a daily rule), such as unlocking the lobby at 07:00 on weekdays.
+ * Times of day are in the scheduler's time zone, so a daily rule keeps firing
+ * at 07:00 across daylight saving changes.
+ *
+ * @author Colby Bratton
+ */
+public class ScheduledAction {
+
+    // Kinds of rule
+    public final static int ONCE = 0;   // Fires once, at atMillis
+    public final static int WEEKLY = 1; // Fires at minuteOfDay on each day of daysOfWeek
+    // Days of the week of a rule that fires every day (bit n is Calendar day n + 1)
+    public final static int EVERY_DAY = 0x7F;
+    // Returned by nextFireAfter() when the rule never fires again
+    public final static long NEVER = -1;
+    // Minutes in a day
+    private final static int MINUTES_PER_DAY = 24 * 60;
+    // Shown in describe(), indexed by command
+    private final static String[] COMMAND_NAMES = {"", "open", "hold open", "close", "lock",
+            "unlock"};
+    // Shown in describe(), indexed by Calendar day - 1
+    private final static String[] DAY_NAMES = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+
+    // Identifier given by the scheduler
+    private final int id;
+    // MAC address of the door controller
+    private final String address;
+    // HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+    private final byte command;
+    // ONCE or WEEKLY
+    private final int kind;
+    // Time (System.currentTimeMillis) a ONCE rule fires at, 0 for WEEKLY
+    private final long atMillis;
+    // Minute of the day a WEEKLY rule fires at, 0 for ONCE
+    private final int minuteOfDay;
+    // Days of the week a WEEKLY rule fires on (bit n is Calendar day n + 1), 0 for ONCE
+    private final int daysOfWeek;
+
+    /**
+     * Constructor for a rule, see once() and weekly()
+     *
+     * @param id          identifier given by the scheduler
+     * @param address     MAC address of the door controller
+     * @param command     HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     * @param kind        ONCE or WEEKLY
+     * @param atMillis    time a ONCE rule fires at
+     * @param minuteOfDay minute of the day a WEEKLY rule fires at
+     * @param daysOfWeek  days of the week a WEEKLY rule fires on
+     */
+    ScheduledAction(int id, String address, byte command, int kind, long atMillis,
+                    int minuteOfDay, int daysOfWeek) {
+        if (command != HOLD_OPEN && command != CLOSE && command != LOCK && command != UNLOCK) {
+            throw new IllegalArgumentException("Only HOLD_OPEN, CLOSE, LOCK, and UNLOCK can be scheduled");
+        }
+        if (kind == WEEKLY && (minuteOfDay < 0 || minuteOfDay >= MINUTES_PER_DAY
+                || daysOfWeek <= 0 || daysOfWeek > EVERY_DAY)) {
+            throw new IllegalArgumentException("A weekly rule needs a minute of the day and at least one day");
+        }
+        if (kind != ONCE && kind != WEEKLY) {
+            throw new IllegalArgumentException("Unknown kind of rule " + kind);
+        }
+        this.id = id;
+        this.address = address;
+        this.command = command;
+        this.kind = kind;
+        this.atMillis = kind == ONCE ? atMillis : 0;
+        this.minuteOfDay = kind == WEEKLY ? minuteOfDay : 0;
+        this.daysOfWeek = kind == WEEKLY ? daysOfWeek : 0;
+    }
+
+    /**
+     * Creates a rule that fires once
+     *
+     * @param id       identifier given by the scheduler
+     * @param address  MAC address of the door controller
+     * @param command  HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     * @param atMillis time (System.currentTimeMillis) to fire at
+     * @return new rule
+     */
+    static ScheduledAction once(int id, String address, byte command, long atMillis) {
+        return new ScheduledAction(id, address, command, ONCE, atMillis, 0, 0);
+    }
+
+    /**
+     * Creates a rule that fires at a time of day on some days of the week
+     *
+     * @param id          identifier given by the scheduler
+     * @param address     MAC address of the door controller
+     * @param command     HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     * @param minuteOfDay minute of the day to fire at (such as 7 * 60 for 07:00)
+     * @param daysOfWeek  days of the week to fire on (bit n is Calendar day n + 1),
+     *                    or EVERY_DAY
+     * @return new rule
+     */
+    static ScheduledAction weekly(int id, String address, byte command, int minuteOfDay,
+                                  int daysOfWeek) {
+        return new ScheduledAction(id, address, command, WEEKLY, 0, minuteOfDay, daysOfWeek);
+    }
+
+    /**
+     * Copies the rule under another identifier
+     *
+     * @param id identifier given by the scheduler
+     * @return rule that only differs in its identifier
+     */
+    ScheduledAction withId(int id) {
+        return new ScheduledAction(id, address, command, kind, atMillis, minuteOfDay, daysOfWeek);
+    }
+
+    /**
+     * Getter for id
+     *
+     * @return identifier given by the scheduler
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Getter for address
+     *
+     * @return MAC address of the door controller
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Getter for command
+     *
+     * @return HOLD_OPEN, CLOSE, LOCK, or UNLOCK
+     */
+    public byte getCommand() {
+        return command;
+    }
+
+    /**
+     * Getter for kind
+     *
+     * @return ONCE or WEEKLY
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Getter for atMillis
+     *
+     * @return time (System.currentTimeMillis) a ONCE rule fires at, 0 for WEEKLY
+     */
+    public long getAtMillis() {
+        return atMillis;
+    }
+
+    /**
+     * Getter for minuteOfDay
+     *
+     * @return minute of the day a WEEKLY rule fires at, 0 for ONCE
+     */
+    public int getMinuteOfDay() {
+        return minuteOfDay;
+    }
+
+    /**
+     * Getter for daysOfWeek
+     *
+     * @return days of the week a WEEKLY rule fires on (bit n is Calendar day n + 1),
+     * 0 for ONCE
+     */
+    public int getDaysOfWeek() {
+        return daysOfWeek;
+    }
+
+    /**
+     * Finds the first time the rule fires after a given time
+     *
+     * @param after time (System.currentTimeMillis) to look after
+     * @param zone  time zone of the rule's time of day
+     * @return first fire strictly after the given time, or NEVER
+     */
+    public long nextFireAfter(long after, TimeZone zone) {
+        if (kind == ONCE) {
+            return atMillis > after ? atMillis : NEVER;
+        }
+        Calendar calendar = Calendar.getInstance(zone, Locale.US);
+        calendar.setTimeInMillis(after);
+        int year = calendar.get(Calendar.YEAR);
+        int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
+        // Today may have passed already, and a day may be skipped, so look over eight days
+        for (int day = 0; day <= 7; day++) {
+            calendar.clear();
+            calendar.set(Calendar.YEAR, year);
+            calendar.set(Calendar.DAY_OF_YEAR, dayOfYear + day);
+            calendar.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+            calendar.set(Calendar.MINUTE, minuteOfDay % 60);
+            long fireAt = calendar.getTimeInMillis();
+            if (fireAt > after && (daysOfWeek & (1 << (calendar.get(Calendar.DAY_OF_WEEK) - 1))) != 0) {
+                return fireAt;
+            }
+        }
+        return NEVER;
+    }
+
+    /**
+     * Describes the rule for the user, such as "07:00 Mon Tue Wed Thu Fri: unlock"
+     *
+     * @param zone time zone of the rule's time of day
+     * @return short description of when the rule fires and what it sends
+     */
+    public String describe(TimeZone zone) {
+        StringBuilder description = new StringBuilder();
+        if (kind == ONCE) {
+            Calendar calendar = Calendar.getInstance(zone, Locale.US);
+            calendar.setTimeInMillis(atMillis);
+            description.append(String.format(Locale.US, "%1$tY-%1$tm-%1$td %1$tH:%1$tM once", calendar));
+        } else {
+            description.append(String.format(Locale.US, "%02d:%02d", minuteOfDay / 60, minuteOfDay % 60));
+            if (daysOfWeek == EVERY_DAY) {
+                description.append(" daily");
+            } else {
+                for (int day = 0; day < DAY_NAMES.length; day++) {
+                    if ((daysOfWeek & (1 << day)) != 0) {
+                        description.append(' ').append(DAY_NAMES[day]);
+                    }
+                }
+            }
+        }
+        return description.append(": ").append(COMMAND_NAMES[command]).toString();
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the commands of due rules of a DoorScheduler to the door controllers.
+ * The rules of a door are queued, and one thread per door (up to the
+ * manager's link limit) connects to it once and sends everything queued for
+ * it, including rules that become due while it is connecting, before closing
+ * the link again (if it was not open already). So fires that land close
+ * together cost each controller one connection. awaitIdle() tells when every
+ * door has been worked on, such as before the process may be killed again.
+ *
+ * @author Colby Bratton
+ */
+public class ScheduledCommandSender {
+
+    /**
+     * Receives the outcome of each scheduled command. Called on the sender's threads.
+     */
+    public interface Listener {
+        /**
+         * Called once the command of a rule is sent, or could not be
+         *
+         * @param action  rule whose command was sent
+         * @param outcome GroupCommand.CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+         */
+        void onActionSent(ScheduledAction action, int outcome);
+    }
+
+    // Default time a door may take to connect, and then to carry out each batch of queued commands
+    public final static long DEFAULT_DOOR_TIMEOUT_MILLIS = 30000;
+
+    // Links to the door controllers
+    private final DoorConnectionManager manager;
+    // Time a door may take to connect, and then to carry out each batch of queued commands
+    private final long doorTimeoutMillis;
+    // Receiver of the outcomes, or null
+    private final Listener listener;
+    // Rules waiting to be sent, keyed by address. A door has a key while one of
+    // the sender's threads is working on it (guarded by this)
+    private final Map<String, List<ScheduledAction>> queues = new HashMap<>();
+    // Threads the doors are worked on, one per link
+    private final ExecutorService workers;
+
+    /**
+     * Constructor for a sender with nothing queued
+     *
+     * @param manager           links to the door controllers
+     * @param doorTimeoutMillis time a door may take to connect, and then to
+     *                          carry out each batch of queued commands, in
+     *                          milliseconds
+     * @param listener          receiver of the outcomes, or null
+     */
+    public ScheduledCommandSender(DoorConnectionManager manager, long doorTimeoutMillis,
+                                  Listener listener) {
+        this.manager = manager;
+        this.doorTimeoutMillis = doorTimeoutMillis;
+        this.listener = listener;
+        workers = Executors.newFixedThreadPool(manager.getMaxLinks(), runnable -> {
+            Thread thread = new Thread(runnable, "ScheduledCommandSender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the commands of due rules of a door, without blocking (such as
+     * from DoorScheduler.Listener.onActionsDue())
+     *
+     * @param address address of the door controller
+     * @param actions rules whose commands are sent, in order
+     */
+    public void send(final String address, List<ScheduledAction> actions) {
+        synchronized (this) {
+            List<ScheduledAction> queue = queues.get(address);
+            if (queue != null) {
+                // Joins the link a thread is opening or using already
+                queue.addAll(actions);
+                return;
+            }
+            queues.put(address, new ArrayList<>(actions));
+        }
+        workers.execute(() -> drain(address));
+    }
+
+    /**
+     * Waits until no door is being worked on, every queued command having been
+     * sent or given up on and every link the sender opened closed again
+     *
+     * @param timeoutMillis longest time to wait, in milliseconds
+     * @return true if the sender is idle, false if the time ran out first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!queues.isEmpty()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the sender's threads, abandoning queued commands
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Connects to a door and sends its queued commands until none are left.
+     * Runs on one of the sender's threads.
+     *
+     * @param address address of the door controller
+     */
+    private void drain(final String address) {
+        boolean drained = false;
+        try {
+            while (!drained) {
+                drainLink(address);
+                synchronized (this) {
+                    // Otherwise rules became due while the link was closing, open it again
+                    drained = queues.get(address).isEmpty();
+                    if (drained) {
+                        // Rules due from now on start a new thread and link
+                        queues.remove(address);
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (!drained) {
+                // The listener threw. Rules queued meanwhile are sent by a new thread,
+                // and rules due from now on start one of their own
+                boolean queued;
+                synchronized (this) {
+                    queued = !queues.get(address).isEmpty();
+                    if (!queued) {
+                        queues.remove(address);
+                        notifyAll();
+                    }
+                }
+                if (queued) {
+                    workers.execute(() -> drain(address));
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens one link to a door (unless it is open already) and sends the
+     * queued commands over it, then closes the link again if it was opened
+     *
+     * @param address address of the door controller
+     */
+    private void drainLink(String address) {
+        long connectDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(doorTimeoutMillis);
+        boolean opened = !manager.isConnected(address);
+        DoorSession session = null;
+        try {
+            session = manager.connect(address, connectDeadline);
+            // Framed commands are answered, so wait for a new link to agree to them
+            session.awaitFramed(connectDeadline);
+        } catch (IOException e) {
+            session = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            List<ScheduledAction> batch = take(address);
+            while (!batch.isEmpty()) {
+                // Rules that became due while earlier ones were sent get a full timeout of their own
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(doorTimeoutMillis);
+                for (ScheduledAction action : batch) {
+                    int outcome = session != null ? send(session, action.getCommand(), deadline)
+                            : GroupCommand.FAILED;
+                    if (listener != null) {
+                        listener.onActionSent(action, outcome);
+                    }
+                }
+                batch = take(address);
+            }
+        } finally {
+            if (opened) {
+                try {
+                    manager.disconnect(address);
+                } catch (IOException ignored) {
+                    // The link is given up on either way
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the rules queued for a door
+     *
+     * @param address address of the door controller
+     * @return rules queued since the last call, oldest first
+     */
+    private synchronized List<ScheduledAction> take(String address) {
+        List<ScheduledAction> batch = queues.get(address);
+        queues.put(address, new ArrayList<>());
+        return batch;
+    }
+
+    /**
+     * Sends one command to a connected door and waits for it to be carried out
+     * (see GroupCommand.send())
+     *
+     * @param session  session to the door
+     * @param command  command to send
+     * @param deadline time (System.nanoTime) the door has to carry it out by
+     * @return GroupCommand.CONFIRMED, REFUSED, FAILED, or TIMED_OUT
+     */
+    private static int send(DoorSession session, byte command, long deadline) {
+        try {
+            return GroupCommand.send(session, command, deadline, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return GroupCommand.FAILED;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.remotedoorcontroller;
+
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel holding the next fire of every scheduled action.
+ * Time is counted in ticks (such as seconds). LEVELS wheels of SLOTS slots
+ * each cover SLOTS, SLOTS^2, ... ticks ahead, so scheduling and cancelling a
+ * timer is a constant time list operation whatever the number of timers, and
+ * advancing one tick only looks at one slot, plus one slot of each coarser
+ * wheel when a finer one wraps around (its timers are then moved down, a
+ * "cascade"). Timers further ahead than the wheels cover are parked in the
+ * coarsest wheel and cascaded again until they are in range.
+ *
+ * Not thread safe, the owner serializes calls.
+ *
+ * @param <T> type of the item each timer carries
+ * @author Colby Bratton
+ */
+public class TimerWheel<T> {
+
+    /**
+     * A timer in the wheel, returned by schedule() so it can be cancelled
+     *
+     * @param <T> type of the item the timer carries
+     */
+    public static class Timer<T> {
+        // Tick the timer expires at
+        private final long deadline;
+        // Item handed back when the timer expires
+        private final T item;
+        // Neighbours in the slot's list, null at either end
+        private Timer<T> previous;
+        private Timer<T> next;
+        // Slot the timer is in, or -1 once expired or cancelled
+        private int slot = -1;
+
+        /**
+         * Constructor for a timer that is not in a wheel yet
+         *
+         * @param deadline tick the timer expires at
+         * @param item     item handed back when the timer expires
+         */
+        private Timer(long deadline, T item) {
+            this.deadline = deadline;
+            this.item = item;
+        }
+
+        /**
+         * Getter for deadline
+         *
+         * @return tick the timer expires at
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Getter for item
+         *
+         * @return item handed back when the timer expires
+         */
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * States whether the timer is still waiting to expire
+         *
+         * @return true until the timer expires or is cancelled
+         */
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    // Bits of a tick each wheel resolves
+    private final static int SLOT_BITS = 6;
+    // Slots of each wheel
+    private final static int SLOTS = 1 << SLOT_BITS;
+    private final static int SLOT_MASK = SLOTS - 1;
+    // Number of wheels, covering SLOTS^LEVELS ticks (194 days of one second ticks)
+    private final static int LEVELS = 4;
+    // Furthest ahead a timer can be placed without being parked
+    private final static long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    // First timer of each slot of each wheel, indexed by level * SLOTS + slot
+    private final Timer<T>[] heads;
+    // Last tick advanced to, every timer up to it has expired
+    private long now;
+    // Number of timers waiting to expire
+    private int size = 0;
+
+    /**
+     * Constructor for an empty wheel
+     *
+     * @param now current tick, timers at or before it expire on the next advance()
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long now) {
+        this.now = now;
+        heads = (Timer<T>[]) new Timer<?>[LEVELS * SLOTS];
+    }
+
+    /**
+     * Getter for now
+     *
+     * @return last tick advanced to
+     */
+    public long getNow() {
+        return now;
+    }
+
+    /**
+     * Getter for the number of timers
+     *
+     * @return number of timers waiting to expire
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedules an item to be handed back once the wheel reaches a tick
+     *
+     * @param deadline tick to expire at, a tick already passed expires on the
+     *                 next advance()
+     * @param item     item to hand back
+     * @return timer that can be cancelled
+     */
+    public Timer<T> schedule(long deadline, T item) {
+        Timer<T> timer = new Timer<>(deadline, item);
+        place(timer, now + 1);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancels a timer before it expires
+     *
+     * @param timer timer returned by schedule()
+     * @return true if the timer was waiting, false if it already expired or
+     * was cancelled
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (!timer.isScheduled()) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to a tick, handing back every item whose timer expires
+     * on the way, in deadline order (items of the same tick in no particular order)
+     *
+     * @param tick    tick to advance to, earlier ticks are ignored
+     * @param expired list the expired items are added to
+     */
+    public void advance(long tick, List<T> expired) {
+        while (now < tick) {
+            if (size == 0) {
+                // Nothing can expire, skip straight there
+                now = tick;
+                return;
+            }
+            now++;
+            // Coarser wheels first, a cascade may fill a finer slot cascaded next
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (now >>> (SLOT_BITS * level)) & SLOT_MASK);
+                }
+            }
+            int index = (int) now & SLOT_MASK;
+            Timer<T> timer = heads[index];
+            heads[index] = null;
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.previous = null;
+                timer.next = null;
+                timer.slot = -1;
+                if (timer.deadline <= now) {
+                    expired.add(timer.item);
+                    size--;
+                } else {
+                    // Parked beyond the span of the wheels
+                    place(timer, now + 1);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Moves every timer of a slot of a coarser wheel to a finer one
+     *
+     * @param level wheel of the slot
+     * @param slot  slot of the wheel
+     */
+    private void cascade(int level, int slot) {
+        int index = level * SLOTS + slot;
+        Timer<T> timer = heads[index];
+        heads[index] = null;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            timer.previous = null;
+            timer.next = null;
+            // The current tick's slot is expired after the cascades
+            place(timer, now);
+            timer = next;
+        }
+    }
+
+    /**
+     * Puts a timer in the slot of the finest wheel that covers its deadline
+     *
+     * @param timer    timer to place
+     * @param earliest first tick whose slot is still to be expired
+     */
+    private void place(Timer<T> timer, long earliest) {
+        // Due timers go in the earliest slot, far ones are parked at the end of the span
+        long at = Math.max(timer.deadline, earliest);
+        if (at - now >= SPAN) {
+            at = now + SPAN - 1;
+        }
+        long delta = at - now;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int index = level * SLOTS + ((int) (at >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timer.slot = index;
+        timer.previous = null;
+        timer.next = heads[index];
+        if (heads[index] != null) {
+            heads[index].previous = timer;
+        }
+        heads[index] = timer;
+    }
+
+    /**
+     * Takes a timer out of its slot
+     *
+     * @param timer timer to take out
+     */
+    private void unlink(Timer<T> timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            heads[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+}
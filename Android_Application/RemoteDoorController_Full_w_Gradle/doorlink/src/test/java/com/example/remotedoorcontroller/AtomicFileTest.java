@@ -0,0 +1,114 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for replacing a file as a whole.
+ */
+public class AtomicFileTest {
+
+    private File file;
+    private File backup;
+    private File temporary;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("atomic", null);
+        file.delete();
+        backup = new File(file.getPath() + ".bak");
+        temporary = new File(file.getPath() + ".tmp");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+        backup.delete();
+        temporary.delete();
+    }
+
+    @Test
+    public void replacesContents() throws Exception {
+        AtomicFile atomic = new AtomicFile(file);
+        assertFalse(atomic.exists());
+        write(atomic, "old");
+        write(atomic, "new");
+
+        assertEquals("new", read(atomic));
+        assertFalse(temporary.exists());
+        assertFalse(backup.exists());
+    }
+
+    @Test
+    public void keepsOldContentsWhenWriteFails() throws Exception {
+        AtomicFile atomic = new AtomicFile(file);
+        write(atomic, "old");
+
+        FileOutputStream out = atomic.startWrite();
+        out.write("half".getBytes("UTF-8"));
+        atomic.failWrite(out);
+
+        assertEquals("old", read(atomic));
+        assertFalse(temporary.exists());
+    }
+
+    @Test
+    public void restoresBackupLeftByCrash() throws Exception {
+        AtomicFile atomic = new AtomicFile(file);
+        write(atomic, "old");
+        // Killed after moving the old file aside, before renaming the new one
+        assertTrue(file.renameTo(backup));
+
+        assertTrue(atomic.exists());
+        assertEquals("old", read(atomic));
+        assertFalse(backup.exists());
+    }
+
+    @Test
+    public void dropsBackupOnceReplaced() throws Exception {
+        AtomicFile atomic = new AtomicFile(file);
+        write(atomic, "old");
+        assertTrue(file.renameTo(backup));
+        // Killed after renaming the new file into place, before deleting the backup
+        write(atomic, "new");
+
+        assertEquals("new", read(atomic));
+        assertFalse(backup.exists());
+    }
+
+    /**
+     * Replaces the contents of a file
+     *
+     * @param atomic   file to replace
+     * @param contents new contents
+     * @throws IOException if the file could not be replaced
+     */
+    private static void write(AtomicFile atomic, String contents) throws IOException {
+        FileOutputStream out = atomic.startWrite();
+        out.write(contents.getBytes("UTF-8"));
+        atomic.finishWrite(out);
+    }
+
+    /**
+     * Reads the contents of a file
+     *
+     * @param atomic file to read
+     * @return contents of the file
+     * @throws IOException if the file could not be read
+     */
+    private static String read(AtomicFile atomic) throws IOException {
+        try (FileInputStream in = atomic.openRead()) {
+            byte[] buffer = new byte[64];
+            int length = in.read(buffer);
+            return new String(buffer, 0, Math.max(0, length), "UTF-8");
+        }
+    }
+}
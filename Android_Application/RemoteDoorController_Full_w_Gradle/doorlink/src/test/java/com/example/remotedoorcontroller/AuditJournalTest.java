@@ -0,0 +1,317 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the audit journal of door commands and link events.
+ */
+public class AuditJournalTest {
+
+    private final static String LOBBY = "98:D3:31:F5:2B:1C";
+    private final static long DEVICE = DeviceId.fromAddress(LOBBY);
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final List<AuditJournal> journals = new ArrayList<>();
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("audit", null);
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        for (AuditJournal journal : journals) {
+            journal.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private AuditJournal openJournal(int segmentRecords) {
+        AuditJournal journal = new AuditJournal(() -> directory, segmentRecords, now::get);
+        journals.add(journal);
+        return journal;
+    }
+
+    // Records a state change at each time, with the time's seconds as the state
+    private static void recordAt(AuditJournal journal, AtomicLong now, long... times) {
+        for (long time : times) {
+            now.set(time);
+            journal.record(AuditJournal.STATE_CHANGED, DEVICE, (int) (time / 1000), 0,
+                    DoorProtocol.NO_SEQUENCE, 0);
+        }
+    }
+
+    private static List<Long> scanTimes(AuditJournal journal, long from, long to) throws IOException {
+        final List<Long> times = new ArrayList<>();
+        journal.scan(from, to, record -> times.add(record.getTimeMillis()));
+        return times;
+    }
+
+    private static DoorConnectionManager.Listener quietListener() {
+        return new QuietListener();
+    }
+
+    private int segmentCount() {
+        return directory.list((dir, name) -> name.endsWith(".log")).length;
+    }
+
+    @Test
+    public void scansRangeAcrossSegments() throws Exception {
+        AuditJournal journal = openJournal(4);
+        recordAt(journal, now, 1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000, 9000, 10000);
+        journal.flush().get();
+
+        assertEquals(3, segmentCount());
+        assertEquals(10, journal.getWritten());
+        assertEquals(Arrays.asList(3000L, 4000L, 5000L, 6000L, 7000L), scanTimes(journal, 2500, 7000));
+        assertEquals(Arrays.asList(10000L), scanTimes(journal, 10000, Long.MAX_VALUE));
+        assertTrue(scanTimes(journal, 11000, 20000).isEmpty());
+
+        // The visitor can stop the scan
+        final List<Integer> states = new ArrayList<>();
+        assertEquals(2, journal.scan(0, Long.MAX_VALUE, record -> {
+            states.add(record.getValue());
+            return states.size() < 2;
+        }));
+        assertEquals(Arrays.asList(1, 2), states);
+    }
+
+    @Test
+    public void keepsTimesFromGoingBackwards() throws Exception {
+        AuditJournal journal = openJournal(AuditJournal.DEFAULT_SEGMENT_RECORDS);
+        // The clock is set back by a minute between the second and third records
+        recordAt(journal, now, 70000, 80000, 20000, 90000);
+        journal.flush().get();
+
+        assertEquals(Arrays.asList(70000L, 80000L, 80000L, 90000L), scanTimes(journal, 0, Long.MAX_VALUE));
+        assertEquals(Arrays.asList(80000L, 80000L), scanTimes(journal, 75000, 85000));
+    }
+
+    @Test
+    public void trimsRecordCutShortByCrash() throws Exception {
+        AuditJournal first = openJournal(AuditJournal.DEFAULT_SEGMENT_RECORDS);
+        recordAt(first, now, 1000, 2000);
+        first.close();
+
+        // A record whose tail never reached the disk
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length());
+            file.writeLong(3000);
+            file.writeLong(DEVICE);
+            file.writeInt(0x03030000);
+        }
+
+        AuditJournal reopened = openJournal(AuditJournal.DEFAULT_SEGMENT_RECORDS);
+        recordAt(reopened, now, 4000);
+        reopened.flush().get();
+
+        assertEquals(Arrays.asList(1000L, 2000L, 4000L), scanTimes(reopened, 0, Long.MAX_VALUE));
+        assertEquals(4 * AuditJournal.RECORD_SIZE, segment.length());
+    }
+
+    @Test
+    public void compactsRecordsOlderThanCutoff() throws Exception {
+        AuditJournal journal = openJournal(4);
+        recordAt(journal, now, 1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000, 9000, 10000);
+
+        // Two whole segments go, and the one being appended to is rewritten
+        assertEquals(9, (int) journal.compact(9500).get());
+        assertEquals(Arrays.asList(10000L), scanTimes(journal, 0, Long.MAX_VALUE));
+
+        // Appending carries on in a new segment
+        recordAt(journal, now, 11000);
+        journal.flush().get();
+        assertEquals(Arrays.asList(10000L, 11000L), scanTimes(journal, 0, Long.MAX_VALUE));
+        assertEquals(2, segmentCount());
+        assertEquals(0, (int) journal.compact(0).get());
+    }
+
+    @Test
+    public void dropsEventsRatherThanBlockWhenRingIsFull() throws Exception {
+        AuditJournal journal = openJournal(AuditJournal.DEFAULT_SEGMENT_RECORDS);
+        for (int i = 0; i < AuditJournal.RING_CAPACITY; i++) {
+            assertTrue(journal.record(AuditJournal.COMMAND_SENT, DEVICE, DoorProtocol.LOCK, 0, 1, 0));
+        }
+        assertFalse(journal.record(AuditJournal.COMMAND_SENT, DEVICE, DoorProtocol.LOCK, 0, 1, 0));
+        assertEquals(1, journal.getDropped());
+
+        journal.flush().get();
+        assertEquals(AuditJournal.RING_CAPACITY, journal.getWritten());
+        assertTrue(journal.record(AuditJournal.COMMAND_SENT, DEVICE, DoorProtocol.LOCK, 0, 1, 0));
+    }
+
+    @Test
+    public void journalsCommandsAndLinkEventsOfSessions() throws Exception {
+        AuditJournal journal = new AuditJournal(() -> directory);
+        journals.add(journal);
+        DoorConnectionManager manager = new DoorConnectionManager(1,
+                address -> new LoopbackTransport(address, 0), quietListener(), new LatencyRecorder());
+        manager.setJournal(journal);
+
+        DoorSession session = manager.connect(LOBBY);
+        assertTrue(session.getConnection().awaitFramed(2000));
+        PendingCommand lock = session.write(DoorProtocol.LOCK);
+        assertTrue(lock.awaitAnswer(2000));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (session.getLastKnownState() != DoorProtocol.DOOR_IS_LOCKED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        manager.disconnectAll();
+        Thread.sleep(100);
+        journal.flush().get();
+
+        final List<String> events = new ArrayList<>();
+        journal.scan(0, Long.MAX_VALUE, record -> {
+            assertEquals(LOBBY, DeviceId.toName(record.getDevice()));
+            if (record.getType() == AuditJournal.COMMAND_ANSWERED) {
+                assertTrue(record.isAccepted());
+                assertEquals(lock.getSequence(), record.getSequence());
+                assertTrue(record.getLatencyMicros() > 0);
+            }
+            // The door may or may not report its first state before the command
+            if (record.getType() != AuditJournal.STATE_CHANGED || record.getValue() != DoorProtocol.DOOR_IS_CLOSED) {
+                events.add(record.getType() + ":" + record.getValue());
+            }
+            return true;
+        });
+        assertEquals(Arrays.asList(
+                AuditJournal.LINK_UP + ":0",
+                AuditJournal.COMMAND_SENT + ":" + DoorProtocol.LOCK,
+                AuditJournal.COMMAND_ANSWERED + ":" + DoorProtocol.DOOR_IS_LOCKED,
+                AuditJournal.STATE_CHANGED + ":" + DoorProtocol.DOOR_IS_LOCKED,
+                AuditJournal.LINK_DOWN + ":0"), events);
+    }
+
+    @Test
+    public void journalsLegacyCommandsAnsweredByState() throws Exception {
+        AuditJournal journal = new AuditJournal(() -> directory);
+        journals.add(journal);
+        // Firmware that only speaks single bytes
+        DoorConnectionManager manager = new DoorConnectionManager(1,
+                address -> new LoopbackTransport(address, 0, 0), quietListener(), new LatencyRecorder());
+        manager.setJournal(journal);
+
+        DoorSession session = manager.connect(LOBBY);
+        assertFalse(session.getConnection().awaitFramed(2000));
+        session.write(DoorProtocol.LOCK);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (session.getLastKnownState() != DoorProtocol.DOOR_IS_LOCKED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        manager.disconnectAll();
+        Thread.sleep(100);
+        journal.flush().get();
+
+        final List<String> events = new ArrayList<>();
+        journal.scan(0, Long.MAX_VALUE, record -> {
+            if (record.getType() == AuditJournal.COMMAND_ANSWERED) {
+                assertEquals(DoorProtocol.NO_SEQUENCE, record.getSequence());
+                assertTrue(record.getLatencyMicros() > 0);
+            }
+            if (record.getType() != AuditJournal.STATE_CHANGED || record.getValue() != DoorProtocol.DOOR_IS_CLOSED) {
+                events.add(record.getType() + ":" + record.getValue());
+            }
+            return true;
+        });
+        assertEquals(Arrays.asList(
+                AuditJournal.LINK_UP + ":0",
+                AuditJournal.COMMAND_SENT + ":" + DoorProtocol.LOCK,
+                AuditJournal.COMMAND_ANSWERED + ":" + DoorProtocol.DOOR_IS_LOCKED,
+                AuditJournal.STATE_CHANGED + ":" + DoorProtocol.DOOR_IS_LOCKED,
+                AuditJournal.LINK_DOWN + ":0"), events);
+    }
+
+    @Test
+    public void journalsEveryStateOfOneRead() throws Exception {
+        AuditJournal journal = new AuditJournal(() -> directory);
+        journals.add(journal);
+        // Three single byte states that arrive in one read, then the end of the link
+        final byte[] states = {DoorProtocol.DOOR_IS_CLOSED, DoorProtocol.DOOR_IS_OPEN, DoorProtocol.DOOR_IS_CLOSED};
+        DoorTransport transport = new DoorTransport() {
+            @Override
+            public String getAddress() {
+                return LOBBY;
+            }
+
+            @Override
+            public void connect(ConnectTrace trace) {
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(states);
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ConnectedThread connection = new ConnectedThread(transport, new DoorStateConflator(),
+                new ConnectedThread.Listener() {
+                    @Override
+                    public void onStateAvailable() {
+                    }
+
+                    @Override
+                    public void onCommandAnswered(int sequence, boolean accepted, int state) {
+                    }
+
+                    @Override
+                    public void onConnectTraced(ConnectTrace trace) {
+                    }
+
+                    @Override
+                    public void onDisconnected(IOException cause) {
+                    }
+                });
+        connection.setJournal(journal, DEVICE);
+        connection.start();
+        connection.join(2000);
+        connection.disconnect();
+        journal.flush().get();
+
+        final List<Integer> changes = new ArrayList<>();
+        journal.scan(0, Long.MAX_VALUE, record -> {
+            if (record.getType() == AuditJournal.STATE_CHANGED) {
+                changes.add(record.getValue());
+            }
+            return true;
+        });
+        // The door was open in between, though the read ended where it began
+        assertEquals(Arrays.asList(DoorProtocol.DOOR_IS_CLOSED, DoorProtocol.DOOR_IS_OPEN,
+                DoorProtocol.DOOR_IS_CLOSED), changes);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for handing the commands of a stopped writer over to another
+ * link instead of failing them.
+ */
+public class CommandWriterThreadTest {
+
+    @Test
+    public void abandonsWhileWaitingForCommands() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            CommandWriterThread writer = new CommandWriterThread(new ByteArrayOutputStream());
+            writer.start();
+            PendingCommand lock = writer.submit(DoorProtocol.LOCK);
+            List<PendingCommand> unsent = writer.abandon();
+            writer.join(2000);
+            assertFalse(writer.isAlive());
+
+            // Either written before the writer stopped, or handed back, never failed
+            if (unsent.contains(lock)) {
+                assertFalse(lock.isDone());
+            } else {
+                assertTrue(lock.isDone());
+                assertTrue(lock.isSent());
+            }
+            // Nothing is queued on a stopped writer
+            assertFalse(writer.submit(DoorProtocol.CLOSE).isSent());
+        }
+    }
+
+    @Test
+    public void keepsQueuedCommandsAfterWriteFails() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        CommandWriterThread writer = new CommandWriterThread(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("Broken pipe");
+            }
+        });
+        writer.start();
+
+        PendingCommand first = writer.submit(DoorProtocol.HOLD_OPEN);
+        assertTrue(writing.await(2, TimeUnit.SECONDS));
+        PendingCommand second = writer.submit(DoorProtocol.CLOSE);
+        PendingCommand third = writer.submit(DoorProtocol.LOCK);
+        release.countDown();
+        writer.join(2000);
+
+        // Only the batch being written fails, the rest waits for the connection
+        assertFalse(writer.isAlive());
+        assertNotNull(writer.getFailure());
+        assertTrue(first.isDone());
+        assertFalse(first.isSent());
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(Arrays.asList(second, third), writer.abandon());
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    public void failsQueuedCommandsOnShutdown() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CommandWriterThread writer = new CommandWriterThread(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        writer.start();
+
+        writer.submit(DoorProtocol.HOLD_OPEN);
+        Thread.sleep(50);
+        PendingCommand queued = writer.submit(DoorProtocol.CLOSE);
+        writer.shutdown();
+        assertTrue(queued.isDone());
+        assertFalse(queued.isSent());
+        release.countDown();
+        writer.join(2000);
+        assertFalse(writer.isAlive());
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests running the full send and receive pipeline against an
+ * emulated door controller over a LoopbackTransport.
+ */
+public class ConnectedThreadLoopbackTest {
+
+    private final DoorStateConflator doorState = new DoorStateConflator();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private LoopbackTransport transport;
+    private ConnectedThread connection;
+
+    @Before
+    public void connect() throws Exception {
+        transport = new LoopbackTransport("loopback", 0);
+        transport.connect(new ConnectTrace("loopback"));
+        connection = new ConnectedThread(transport, doorState, new ConnectedThread.Listener() {
+            @Override
+            public void onStateAvailable() {
+            }
+
+            @Override
+            public void onCommandAnswered(int sequence, boolean accepted, int state) {
+            }
+
+            @Override
+            public void onConnectTraced(ConnectTrace trace) {
+            }
+
+            @Override
+            public void onDisconnected(IOException cause) {
+                disconnected.countDown();
+            }
+        });
+        connection.start();
+
+        // Wait for the emulated controller to answer the protocol probe
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!connection.isFramed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("controller did not switch to frames", connection.isFramed());
+    }
+
+    @After
+    public void disconnect() throws Exception {
+        connection.disconnect();
+    }
+
+    @Test
+    public void acknowledgesAcceptedCommand() throws Exception {
+        PendingCommand lock = connection.write(DoorProtocol.LOCK);
+
+        assertTrue(lock.isFramed());
+        assertTrue(lock.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, lock.getResultState());
+
+        // The state is handed over once the rest of the received chunk is decoded
+        long deadline = System.currentTimeMillis() + 2000;
+        int state = doorState.take();
+        while (state != DoorProtocol.DOOR_IS_LOCKED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+            state = doorState.take();
+        }
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, state);
+    }
+
+    @Test
+    public void refusesOpeningWhileLocked() throws Exception {
+        PendingCommand lock = connection.write(DoorProtocol.LOCK);
+        PendingCommand hold = connection.write(DoorProtocol.HOLD_OPEN);
+
+        assertTrue(lock.awaitAnswer(2000));
+        assertFalse(hold.awaitAnswer(2000));
+        assertTrue(hold.isAnswered());
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, hold.getResultState());
+    }
+
+    @Test
+    public void closesTimedOpenDoorOnItsOwn() throws Exception {
+        transport.getController().setOpenTimerMillis(50);
+        PendingCommand open = connection.write(DoorProtocol.TIMED_OPEN);
+
+        assertTrue(open.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_TIMED, open.getResultState());
+        waitForControllerState(DoorProtocol.DOOR_IS_CLOSED);
+    }
+
+    @Test
+    public void closeEndsTimedOpenEarly() throws Exception {
+        assertTrue(connection.write(DoorProtocol.TIMED_OPEN).awaitAnswer(2000));
+        // Answered while the timer is still running, not after it
+        PendingCommand close = connection.write(DoorProtocol.CLOSE);
+
+        assertTrue(close.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_CLOSED, close.getResultState());
+    }
+
+    @Test
+    public void lockoutEndsTimedOpenEarly() throws Exception {
+        transport.getController().setOpenTimerMillis(100);
+        assertTrue(connection.write(DoorProtocol.TIMED_OPEN).awaitAnswer(2000));
+        assertTrue(connection.write(DoorProtocol.LOCK).awaitAnswer(2000));
+
+        // The cancelled timer must not close (and so unlock the state of) the door later
+        Thread.sleep(300);
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, transport.getController().getControllerState());
+    }
+
+    @Test
+    public void recordsLatencyOfConfirmedCommand() throws Exception {
+        assertTrue(connection.write(DoorProtocol.UNLOCK).awaitAnswer(2000));
+
+        LatencyHistogram histogram = connection.getLatency().getHistogram(DoorProtocol.UNLOCK);
+        assertEquals(1, histogram.getCount());
+        assertTrue(histogram.getPercentile(0.99) <= histogram.getMax());
+    }
+
+    @Test
+    public void reportsDisconnectWhenClosed() throws Exception {
+        connection.disconnect();
+
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+        assertFalse(connection.write(DoorProtocol.CLOSE).await(100));
+    }
+
+    /**
+     * Waits for the emulated controller to reach a state
+     *
+     * @param expected door state to wait for
+     * @throws Exception if the state is not reached in time
+     */
+    private void waitForControllerState(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        EmulatedDoorController controller = transport.getController();
+        while (controller.getControllerState() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, controller.getControllerState());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the persistent cache of connection parameters.
+ */
+public class ConnectionParamsCacheTest {
+
+    private final static UUID SERIAL_PORT = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("connection_params", null);
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void keepsEntriesAcrossInstances() {
+        new ConnectionParamsCache(file).put("98:D3:31:F5:2B:1C",
+                new ConnectionParams(SERIAL_PORT, true, 850, 1234));
+
+        ConnectionParams params = new ConnectionParamsCache(file).get("98:D3:31:F5:2B:1C");
+        assertNotNull(params);
+        assertEquals(SERIAL_PORT, params.getServiceUuid());
+        assertTrue(params.isSecure());
+        assertEquals(850, params.getConnectMillis());
+        assertEquals(1234, params.getConnectedAt());
+    }
+
+    @Test
+    public void rewritesFileOnlyWhenParamsChange() {
+        ConnectionParamsCache cache = new ConnectionParamsCache(file);
+        cache.put("98:D3:31:F5:2B:1C", new ConnectionParams(SERIAL_PORT, false, 850, 1234));
+        cache.put("98:D3:31:F5:2B:1C", new ConnectionParams(SERIAL_PORT, false, 600, 5678));
+
+        // Same parameters, only the timings changed: kept in memory only
+        assertEquals(600, cache.get("98:D3:31:F5:2B:1C").getConnectMillis());
+        assertEquals(850, new ConnectionParamsCache(file).get("98:D3:31:F5:2B:1C").getConnectMillis());
+
+        cache.put("98:D3:31:F5:2B:1C", new ConnectionParams(SERIAL_PORT, true, 900, 9999));
+        ConnectionParams params = new ConnectionParamsCache(file).get("98:D3:31:F5:2B:1C");
+        assertTrue(params.isSecure());
+        assertEquals(900, params.getConnectMillis());
+    }
+
+    @Test
+    public void forgetsInvalidatedEntries() {
+        ConnectionParamsCache cache = new ConnectionParamsCache(file);
+        cache.put("98:D3:31:F5:2B:1C", new ConnectionParams(SERIAL_PORT, false, 850, 1234));
+
+        cache.invalidate("98:D3:31:F5:2B:1C");
+
+        assertNull(cache.get("98:D3:31:F5:2B:1C"));
+        assertNull(new ConnectionParamsCache(file).get("98:D3:31:F5:2B:1C"));
+    }
+
+    @Test
+    public void skipsDamagedLines() throws Exception {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("98:D3:31:F5:2B:1C not-a-uuid false 1 2\n");
+            writer.write("half a line\n");
+            writer.write("98:D3:31:F5:2B:1D " + SERIAL_PORT + " false 700 99\n");
+        }
+
+        ConnectionParamsCache cache = new ConnectionParamsCache(file);
+        assertEquals(1, cache.size());
+        assertEquals(700, cache.get("98:D3:31:F5:2B:1D").getConnectMillis());
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the ids of door controllers derived from their addresses.
+ */
+public class DeviceIdTest {
+
+    @Test
+    public void usesMacAddressAsId() {
+        assertEquals(0x98D331F52B1CL, DeviceId.fromAddress("98:D3:31:F5:2B:1C"));
+        assertEquals(0x98D331F52B1CL, DeviceId.fromAddress("98:d3:31:f5:2b:1c"));
+        assertEquals("98:D3:31:F5:2B:1C", DeviceId.toName(DeviceId.fromAddress("98:d3:31:f5:2b:1c")));
+    }
+
+    @Test
+    public void hashesOtherAddresses() {
+        long front = DeviceId.fromAddress("front");
+        assertTrue((front & DeviceId.HASHED) != 0);
+        assertEquals(front, DeviceId.fromAddress("front"));
+        assertEquals(String.format("#%08X", "front".hashCode()), DeviceId.toName(front));
+        // Almost a MAC address
+        assertTrue((DeviceId.fromAddress("98-D3-31-F5-2B-1C") & DeviceId.HASHED) != 0);
+        assertTrue((DeviceId.fromAddress("98:D3:31:F5:2B:1G") & DeviceId.HASHED) != 0);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the search index of the device list.
+ */
+public class DeviceSearchIndexTest {
+
+    private DeviceSearchIndex<String> index;
+
+    @Before
+    public void fillIndex() {
+        index = new DeviceSearchIndex<>();
+        index.put("Front Door", "98:D3:31:F5:2B:1C", "front");
+        index.put("Back Door", "98:D3:31:F5:2B:2D", "back");
+        index.put("Loading Dock", "00:14:03:05:0A:11", "dock");
+    }
+
+    private List<String> search(String query) {
+        List<String> out = new ArrayList<>();
+        index.search(query, out);
+        return out;
+    }
+
+    @Test
+    public void blankQueryMatchesEveryDeviceInOrder() {
+        assertEquals(Arrays.asList("front", "back", "dock"), search("  "));
+    }
+
+    @Test
+    public void shortQueryMatchesStartOfWords() {
+        assertEquals(Arrays.asList("front", "back", "dock"), search("d"));
+        assertEquals(Collections.singletonList("front"), search("FR"));
+        // "oo" is inside "Door" but starts no word
+        assertEquals(Collections.emptyList(), search("oo"));
+    }
+
+    @Test
+    public void longQueryMatchesAnywhere() {
+        assertEquals(Arrays.asList("front", "back"), search("door"));
+        assertEquals(Collections.singletonList("dock"), search("ading d"));
+        assertEquals(Collections.emptyList(), search("doors"));
+    }
+
+    @Test
+    public void matchesAddressWithOrWithoutColons() {
+        assertEquals(Collections.singletonList("back"), search("2b:2d"));
+        assertEquals(Collections.singletonList("back"), search("2b2D"));
+        assertEquals(Arrays.asList("front", "back"), search("98d331"));
+    }
+
+    @Test
+    public void updatesRenamedDevices() {
+        index.put("Side Gate", "98:D3:31:F5:2B:1C", "gate");
+
+        assertEquals(3, index.size());
+        assertEquals(Collections.singletonList("back"), search("door"));
+        assertEquals(Collections.singletonList("gate"), search("gate"));
+        assertEquals(Collections.singletonList("gate"), search("si"));
+        // Same position as before the rename
+        assertEquals(Arrays.asList("gate", "back", "dock"), search(""));
+    }
+
+    @Test
+    public void replacesDeviceWithUnchangedName() {
+        index.put("Back Door", "98:D3:31:F5:2B:2D", "back (paired)");
+
+        assertEquals(Arrays.asList("front", "back (paired)"), search("door"));
+    }
+
+    @Test
+    public void findsDevicesAmongThousands() {
+        for (int i = 0; i < 5000; i++) {
+            index.put("Door " + i, String.format("AA:BB:CC:DD:%02X:%02X", i >> 8, i & 0xFF), "door" + i);
+        }
+
+        assertEquals(Collections.singletonList("door4321"), search("door 4321"));
+        assertEquals(Collections.singletonList("door4321"), search("10e1"));
+        assertEquals(5003, search("").size());
+    }
+}
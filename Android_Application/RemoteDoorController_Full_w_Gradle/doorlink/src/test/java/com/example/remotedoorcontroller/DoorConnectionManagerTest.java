@@ -0,0 +1,136 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests holding sessions to several emulated door controllers at once.
+ */
+public class DoorConnectionManagerTest {
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final CountDownLatch traced = new CountDownLatch(1);
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private DoorConnectionManager manager;
+
+    @Before
+    public void createManager() {
+        manager = new DoorConnectionManager(2, address -> new LoopbackTransport(address, 0),
+                new QuietListener() {
+                    @Override
+                    public void onConnected(DoorSession session) {
+                        connected.countDown();
+                    }
+
+                    @Override
+                    public void onConnectTraced(DoorSession session, ConnectTrace trace) {
+                        traced.countDown();
+                    }
+
+                    @Override
+                    public void onDisconnected(DoorSession session, IOException cause) {
+                        disconnected.countDown();
+                    }
+                }, new LatencyRecorder());
+    }
+
+    @After
+    public void disconnectAll() throws Exception {
+        manager.disconnectAll();
+    }
+
+    @Test
+    public void routesCommandsByAddress() throws Exception {
+        DoorSession front = connectFramed("front");
+        DoorSession back = connectFramed("back");
+
+        PendingCommand lock = manager.write("front", DoorProtocol.LOCK);
+        PendingCommand hold = manager.write("back", DoorProtocol.HOLD_OPEN);
+
+        assertTrue(lock.awaitAnswer(2000));
+        assertTrue(hold.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, lock.getResultState());
+        assertEquals(DoorProtocol.DOOR_IS_OPEN, hold.getResultState());
+        assertNotSame(front.getDoorState(), back.getDoorState());
+    }
+
+    @Test
+    public void reusesExistingSession() throws Exception {
+        DoorSession front = manager.connect("front");
+
+        assertSame(front, manager.connect("front"));
+        assertEquals(1, manager.getSessionCount());
+    }
+
+    @Test
+    public void refusesLinksOverLimit() throws Exception {
+        manager.connect("front");
+        manager.connect("back");
+
+        try {
+            manager.connect("garage");
+            fail("third link opened over a limit of two");
+        } catch (IOException expected) {
+            assertFalse(manager.isConnected("garage"));
+        }
+    }
+
+    @Test
+    public void freesLinkOnDisconnect() throws Exception {
+        manager.connect("front");
+        manager.connect("back");
+
+        manager.disconnect("front");
+
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+        assertFalse(manager.isConnected("front"));
+        assertNotNull(manager.connect("garage"));
+    }
+
+    @Test
+    public void connectsAsynchronouslyAndTracesStartup() throws Exception {
+        manager.connectAsync("front");
+        assertTrue(connected.await(2, TimeUnit.SECONDS));
+
+        // The emulated controller only reports its state once commanded
+        manager.write("front", DoorProtocol.LOCK);
+        assertTrue(traced.await(2, TimeUnit.SECONDS));
+
+        ConnectTrace trace = manager.getConnectTrace("front");
+        assertTrue(trace.isComplete());
+        assertTrue(trace.getTotalMicros() >= trace.getPhaseMicros(ConnectTrace.FIRST_STATE));
+        assertTrue(manager.traceReport().startsWith("front:"));
+    }
+
+    @Test
+    public void failsCommandToUnknownDoor() throws Exception {
+        PendingCommand command = manager.write("nowhere", DoorProtocol.CLOSE);
+
+        assertTrue(command.isDone());
+        assertFalse(command.isSent());
+    }
+
+    /**
+     * Connects to an emulated door and waits for it to switch to frames
+     *
+     * @param address address of the emulated door
+     * @return connected session
+     * @throws Exception if the door does not connect or switch to frames
+     */
+    private DoorSession connectFramed(String address) throws Exception {
+        DoorSession session = manager.connect(address);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!session.getConnection().isFramed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("controller did not switch to frames", session.getConnection().isFramed());
+        return session;
+    }
+}
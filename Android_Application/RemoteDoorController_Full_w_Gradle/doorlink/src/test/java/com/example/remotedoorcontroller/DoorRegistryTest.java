@@ -0,0 +1,152 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the persistent registry of door controllers.
+ */
+public class DoorRegistryTest {
+
+    private final static String FRONT_DOOR = "98:D3:31:F5:2B:1C";
+    // Every registry made, closed before the file is deleted so no write recreates it
+    private final List<DoorRegistry> registries = new ArrayList<>();
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("door_registry", null);
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        for (DoorRegistry registry : registries) {
+            registry.close();
+        }
+        file.delete();
+    }
+
+    private DoorRegistry newRegistry() {
+        DoorRegistry registry = new DoorRegistry(() -> file);
+        registries.add(registry);
+        return registry;
+    }
+
+    private DoorRegistry loadedRegistry() throws Exception {
+        DoorRegistry registry = newRegistry();
+        CountDownLatch loaded = new CountDownLatch(1);
+        registry.loadAsync(loaded::countDown);
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+        return registry;
+    }
+
+    @Test
+    public void keepsRecordsAcrossInstances() throws Exception {
+        DoorRegistry registry = loadedRegistry();
+        long before = System.currentTimeMillis();
+        registry.recordName(FRONT_DOOR, "Front Door");
+        registry.recordConnected(FRONT_DOOR);
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_LOCKED);
+        registry.recordLinkLost(FRONT_DOOR);
+        registry.close();
+
+        DoorRecord record = loadedRegistry().get(FRONT_DOOR);
+        assertNotNull(record);
+        assertEquals("Front Door", record.getName());
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, record.getState());
+        assertTrue(record.getLastSeenAt() >= before);
+        assertEquals(1, record.getConnects());
+        assertEquals(1, record.getLinksLost());
+    }
+
+    @Test
+    public void writesBehindOnce() throws Exception {
+        DoorRegistry registry = loadedRegistry();
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_OPEN);
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_CLOSED);
+
+        // Nothing is written until the delay has passed
+        assertFalse(file.exists());
+        long deadline = System.currentTimeMillis() + 2 * DoorRegistry.WRITE_DELAY_MILLIS + 1000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(DoorProtocol.DOOR_IS_CLOSED, loadedRegistry().get(FRONT_DOOR).getState());
+        // Both changes were saved by the one write, so closing has nothing left to write
+        registry.close();
+        assertEquals(1, registry.getWriteCount());
+    }
+
+    @Test
+    public void ignoresStatesTheDoorDoesNotReport() throws Exception {
+        DoorRegistry registry = loadedRegistry();
+        registry.recordState(FRONT_DOOR, DoorStateConflator.NO_STATE);
+        registry.recordState(FRONT_DOOR, DoorStateMachine.AWAITING);
+
+        assertNull(registry.get(FRONT_DOOR));
+    }
+
+    @Test
+    public void mergesChangesRecordedWhileLoading() throws Exception {
+        DoorRegistry first = loadedRegistry();
+        first.recordName(FRONT_DOOR, "Front Door");
+        first.recordConnected(FRONT_DOOR);
+        first.close();
+
+        DoorRegistry registry = newRegistry();
+        registry.recordConnected(FRONT_DOOR);
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_UNLOCKED);
+        CountDownLatch loaded = new CountDownLatch(1);
+        registry.loadAsync(loaded::countDown);
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+
+        DoorRecord record = registry.get(FRONT_DOOR);
+        assertEquals("Front Door", record.getName());
+        assertEquals(DoorProtocol.DOOR_IS_UNLOCKED, record.getState());
+        assertEquals(2, record.getConnects());
+    }
+
+    @Test
+    public void readsDamagedStateAsUnknown() throws Exception {
+        DoorRegistry registry = loadedRegistry();
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_LOCKED);
+        registry.recordConnected(FRONT_DOOR);
+        registry.close();
+        // MAGIC, version, count, address, named flag, empty name, then the state
+        int stateOffset = 4 + 1 + 4 + 2 + FRONT_DOOR.length() + 1 + 2;
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, bytes[stateOffset]);
+        bytes[stateOffset] = 42;
+        Files.write(file.toPath(), bytes);
+
+        DoorRecord record = loadedRegistry().get(FRONT_DOOR);
+        assertEquals(DoorStateConflator.NO_STATE, record.getState());
+        assertEquals(1, record.getConnects());
+    }
+
+    @Test
+    public void keepsRecordsBeforeDamage() throws Exception {
+        DoorRegistry registry = loadedRegistry();
+        registry.recordState(FRONT_DOOR, DoorProtocol.DOOR_IS_LOCKED);
+        registry.close();
+        // Claim one more record than the file holds, as a damaged file would
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[8]++;
+        Files.write(file.toPath(), bytes);
+
+        DoorRecord record = loadedRegistry().get(FRONT_DOOR);
+        assertNotNull(record);
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, record.getState());
+    }
+}
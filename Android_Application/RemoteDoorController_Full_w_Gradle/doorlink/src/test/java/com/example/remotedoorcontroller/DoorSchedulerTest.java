@@ -0,0 +1,193 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the scheduler of door commands and its rules.
+ */
+public class DoorSchedulerTest {
+
+    private final static TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private final static String LOBBY = "98:D3:31:F5:2B:1C";
+    private final static String BACK_DOOR = "98:D3:31:F5:2B:1D";
+    private final static long HOUR = 60 * 60 * 1000L;
+    // Monday 2026-01-05 00:00 UTC
+    private final static long MONDAY = utc(2026, Calendar.JANUARY, 5, 0, 0);
+
+    private final AtomicLong now = new AtomicLong(MONDAY);
+    // Each call to onActionsDue, as "address: commands"
+    private final List<String> due = Collections.synchronizedList(new ArrayList<>());
+    private final List<DoorScheduler> schedulers = new ArrayList<>();
+    // Earliest fire last reported by onNextFireChanged
+    private final AtomicLong nextFire = new AtomicLong(0);
+    private File file;
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("door_schedule", null);
+        file.delete();
+    }
+
+    @After
+    public void closeSchedulers() throws Exception {
+        for (DoorScheduler scheduler : schedulers) {
+            scheduler.close();
+        }
+        file.delete();
+    }
+
+    private DoorScheduler startScheduler() {
+        DoorScheduler scheduler = new DoorScheduler(() -> file, UTC, now::get, new DoorScheduler.Listener() {
+            @Override
+            public void onActionsDue(String address, List<ScheduledAction> actions) {
+                StringBuilder commands = new StringBuilder(address).append(':');
+                for (ScheduledAction action : actions) {
+                    commands.append(' ').append(action.getCommand());
+                }
+                due.add(commands.toString());
+            }
+
+            @Override
+            public void onActionsChanged(DoorScheduler scheduler) {
+            }
+
+            @Override
+            public void onNextFireChanged(DoorScheduler scheduler, long fireAt) {
+                nextFire.set(fireAt);
+            }
+        });
+        schedulers.add(scheduler);
+        scheduler.start();
+        return scheduler;
+    }
+
+    @Test
+    public void batchesRulesDueTogetherPerDoor() throws Exception {
+        DoorScheduler scheduler = startScheduler();
+        scheduler.scheduleWeekly(LOBBY, DoorProtocol.UNLOCK, 7 * 60, ScheduledAction.EVERY_DAY).get();
+        scheduler.scheduleWeekly(BACK_DOOR, DoorProtocol.LOCK, 7 * 60, ScheduledAction.EVERY_DAY).get();
+        scheduler.scheduleWeekly(LOBBY, DoorProtocol.HOLD_OPEN, 7 * 60, ScheduledAction.EVERY_DAY).get();
+
+        now.set(MONDAY + 7 * HOUR - 1);
+        scheduler.advance().get();
+        assertTrue(due.isEmpty());
+
+        now.set(MONDAY + 7 * HOUR);
+        scheduler.advance().get();
+        assertEquals(Arrays.asList(LOBBY + ": 5 2", BACK_DOOR + ": 4"), due);
+        assertEquals(MONDAY + 31 * HOUR, scheduler.getNextFireAt(1));
+    }
+
+    @Test
+    public void reportsEarliestFireForAlarm() throws Exception {
+        DoorScheduler scheduler = startScheduler();
+        scheduler.advance().get();
+        assertEquals(ScheduledAction.NEVER, nextFire.get());
+
+        scheduler.scheduleWeekly(LOBBY, DoorProtocol.UNLOCK, 7 * 60, ScheduledAction.EVERY_DAY).get();
+        ScheduledAction once = scheduler.scheduleOnce(BACK_DOOR, DoorProtocol.LOCK, MONDAY + 9 * HOUR).get();
+        assertEquals(MONDAY + 7 * HOUR, nextFire.get());
+        assertEquals(MONDAY + 7 * HOUR, scheduler.getNextFireAt());
+
+        // Once the weekly rule fired, the one time rule comes first
+        now.set(MONDAY + 7 * HOUR);
+        scheduler.advance().get();
+        assertEquals(MONDAY + 9 * HOUR, nextFire.get());
+
+        assertTrue(scheduler.remove(once.getId()).get());
+        assertEquals(MONDAY + 31 * HOUR, nextFire.get());
+    }
+
+    @Test
+    public void removesOneTimeRuleOnceFired() throws Exception {
+        DoorScheduler scheduler = startScheduler();
+        ScheduledAction close = scheduler.scheduleOnce(LOBBY, DoorProtocol.CLOSE, MONDAY + HOUR).get();
+
+        now.set(MONDAY + 2 * HOUR);
+        scheduler.advance().get();
+        now.set(MONDAY + 3 * HOUR);
+        scheduler.advance().get();
+
+        assertEquals(Arrays.asList(LOBBY + ": 3"), due);
+        assertEquals(ScheduledAction.NEVER, scheduler.getNextFireAt(close.getId()));
+        assertTrue(scheduler.getActions().isEmpty());
+    }
+
+    @Test
+    public void catchesUpLatestMissedFiresInOrder() throws Exception {
+        DoorScheduler first = startScheduler();
+        first.scheduleWeekly(LOBBY, DoorProtocol.LOCK, 22 * 60, ScheduledAction.EVERY_DAY).get();
+        first.scheduleWeekly(LOBBY, DoorProtocol.UNLOCK, 7 * 60, ScheduledAction.EVERY_DAY).get();
+        first.close();
+
+        // Down from Monday 00:00 to Wednesday 23:00, only Wednesday is caught up
+        now.set(MONDAY + 2 * 24 * HOUR + 23 * HOUR);
+        DoorScheduler restarted = startScheduler();
+        restarted.advance().get();
+        assertEquals(Arrays.asList(LOBBY + ": 5 4"), due);
+        assertEquals(2, restarted.getActions().size());
+
+        // Caught up fires are not repeated
+        restarted.close();
+        startScheduler().advance().get();
+        assertEquals(1, due.size());
+    }
+
+    @Test
+    public void dropsFiresMissedTooLongAgo() throws Exception {
+        DoorScheduler first = startScheduler();
+        first.scheduleOnce(LOBBY, DoorProtocol.UNLOCK, MONDAY + HOUR).get();
+        first.close();
+
+        now.set(MONDAY + HOUR + DoorScheduler.MAX_CATCH_UP_MILLIS + 1);
+        DoorScheduler restarted = startScheduler();
+        restarted.advance().get();
+
+        assertTrue(due.isEmpty());
+        assertTrue(restarted.getActions().isEmpty());
+    }
+
+    @Test
+    public void keepsTimeOfDayAcrossDaylightSaving() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        ScheduledAction unlock = ScheduledAction.weekly(1, LOBBY, DoorProtocol.UNLOCK, 7 * 60,
+                ScheduledAction.EVERY_DAY);
+        // Clocks go forward on Sunday 2026-03-08, so that day is 23 hours long
+        long saturday = unlock.nextFireAfter(utc(2026, Calendar.MARCH, 7, 0, 0), newYork);
+        long sunday = unlock.nextFireAfter(saturday, newYork);
+
+        assertEquals(utc(2026, Calendar.MARCH, 7, 12, 0), saturday);
+        assertEquals(utc(2026, Calendar.MARCH, 8, 11, 0), sunday);
+    }
+
+    @Test
+    public void skipsDaysNotInTheRule() {
+        int weekdays = 0x3E;
+        ScheduledAction lock = ScheduledAction.weekly(1, LOBBY, DoorProtocol.LOCK, 22 * 60, weekdays);
+        // Friday 2026-01-09 23:00 UTC, next is Monday
+        long friday = utc(2026, Calendar.JANUARY, 9, 23, 0);
+
+        assertEquals(utc(2026, Calendar.JANUARY, 12, 22, 0), lock.nextFireAfter(friday, UTC));
+        assertEquals("22:00 Mon Tue Wed Thu Fri: lock", lock.describe(UTC));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for a session getting its link back after the emulated door
+ * controller drops it.
+ */
+public class DoorSessionReconnectTest {
+
+    private final List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+    private final CountDownLatch linkLost = new CountDownLatch(1);
+    private final CountDownLatch reconnected = new CountDownLatch(1);
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private volatile int stateWhenLost;
+    private DoorConnectionManager manager;
+    private DoorSession session;
+
+    @Before
+    public void connect() throws Exception {
+        // Long enough for commands to be written before the first reconnect attempt
+        ReconnectPolicy policy = new ReconnectPolicy(200, 400, 1, ReconnectPolicy.UNLIMITED, new Random(1));
+        manager = new DoorConnectionManager(1, address -> {
+            LoopbackTransport transport = new LoopbackTransport(address, 0);
+            transports.add(transport);
+            return transport;
+        }, new QuietListener() {
+            @Override
+            public void onLinkLost(DoorSession session, IOException cause) {
+                stateWhenLost = session.getLastKnownState();
+                linkLost.countDown();
+            }
+
+            @Override
+            public void onReconnected(DoorSession session) {
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onDisconnected(DoorSession session, IOException cause) {
+                disconnected.countDown();
+            }
+        }, new LatencyRecorder(), policy);
+        session = manager.connect("front");
+        assertTrue(session.getConnection().awaitFramed(2000));
+    }
+
+    @After
+    public void disconnect() throws Exception {
+        manager.disconnectAll();
+    }
+
+    @Test
+    public void replaysCommandsAfterReconnect() throws Exception {
+        assertTrue(session.write(DoorProtocol.LOCK).awaitAnswer(2000));
+        waitForState(DoorProtocol.DOOR_IS_LOCKED);
+
+        transports.get(0).close();
+        assertTrue(linkLost.await(2, TimeUnit.SECONDS));
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, stateWhenLost);
+        assertTrue(session.isReconnecting());
+
+        // Written while the link is down, sent once it is back
+        PendingCommand hold = session.write(DoorProtocol.HOLD_OPEN);
+        assertTrue(reconnected.await(2, TimeUnit.SECONDS));
+        assertTrue(hold.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_OPEN, hold.getResultState());
+
+        ReconnectStats stats = session.getReconnectStats();
+        assertEquals(1, stats.getLinksLost());
+        assertEquals(1, stats.getReplayedCommands());
+        assertEquals(1, stats.getOutages().getCount());
+        assertSame(session, manager.getSession("front"));
+    }
+
+    @Test
+    public void stopsReconnectingWhenDisconnected() throws Exception {
+        transports.get(0).close();
+        assertTrue(linkLost.await(2, TimeUnit.SECONDS));
+
+        PendingCommand close = session.write(DoorProtocol.CLOSE);
+        session.disconnect();
+
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS));
+        assertTrue(close.isDone());
+        assertFalse(close.isSent());
+        assertFalse(manager.isConnected("front"));
+    }
+
+    /**
+     * Waits for the session to hand over a door state
+     *
+     * @param expected door state to wait for
+     * @throws Exception if the state is not reported in time
+     */
+    private void waitForState(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (session.getLastKnownState() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, session.getLastKnownState());
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import static com.example.remotedoorcontroller.DoorProtocol.*;
+import static com.example.remotedoorcontroller.DoorStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the door state machine's tables and button handling.
+ */
+public class DoorStateMachineTest {
+
+    @Test
+    public void enablesButtonsPerState() {
+        assertButtons(DOOR_IS_TIMED, false, true, true);
+        assertButtons(DOOR_IS_OPEN, false, true, false);
+        assertButtons(DOOR_IS_CLOSED, true, true, true);
+        assertButtons(DOOR_IS_LOCKED, false, false, true);
+        assertButtons(DOOR_IS_UNLOCKED, true, true, true);
+        assertButtons(AWAITING, false, false, false);
+    }
+
+    @Test
+    public void buttonsSendCommandOfState() {
+        assertEquals(CLOSE, DoorStateMachine.buttonCommand(DOOR_IS_OPEN, BUTTON_HOLD));
+        assertEquals(CLOSE, DoorStateMachine.buttonCommand(DOOR_IS_TIMED, BUTTON_HOLD));
+        assertEquals(HOLD_OPEN, DoorStateMachine.buttonCommand(DOOR_IS_CLOSED, BUTTON_HOLD));
+        assertEquals(UNLOCK, DoorStateMachine.buttonCommand(DOOR_IS_LOCKED, BUTTON_LOCK));
+        assertEquals(LOCK, DoorStateMachine.buttonCommand(DOOR_IS_UNLOCKED, BUTTON_LOCK));
+        assertEquals(TIMED_OPEN, DoorStateMachine.buttonCommand(DOOR_IS_CLOSED, BUTTON_DOOR));
+        // Labels are kept while awaiting an answer
+        assertEquals(NULL_OP, DoorStateMachine.buttonCommand(AWAITING, BUTTON_HOLD));
+    }
+
+    @Test
+    public void lockoutRefusesOpeningAndClosing() {
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_LOCKED, TIMED_OPEN));
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_LOCKED, HOLD_OPEN));
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_LOCKED, CLOSE));
+        assertEquals(DOOR_IS_LOCKED, DoorStateMachine.expectedState(DOOR_IS_LOCKED, HOLD_OPEN));
+        assertEquals(DOOR_IS_UNLOCKED, DoorStateMachine.expectedState(DOOR_IS_LOCKED, UNLOCK));
+    }
+
+    @Test
+    public void heldDoorRefusesLockout() {
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_OPEN, LOCK));
+        assertEquals(DOOR_IS_OPEN, DoorStateMachine.expectedState(DOOR_IS_OPEN, LOCK));
+        assertEquals(DOOR_IS_CLOSED, DoorStateMachine.expectedState(DOOR_IS_OPEN, CLOSE));
+        assertEquals(DOOR_IS_TIMED, DoorStateMachine.expectedState(DOOR_IS_CLOSED, TIMED_OPEN));
+        // A timed open is not held, so it may be locked out early
+        assertEquals(DOOR_IS_LOCKED, DoorStateMachine.expectedState(DOOR_IS_TIMED, LOCK));
+    }
+
+    @Test
+    public void openDoorRefusesUnlocking() {
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_TIMED, UNLOCK));
+        assertFalse(DoorStateMachine.isAccepted(DOOR_IS_OPEN, UNLOCK));
+        assertEquals(DOOR_IS_TIMED, DoorStateMachine.expectedState(DOOR_IS_TIMED, UNLOCK));
+        assertTrue(DoorStateMachine.isAccepted(DOOR_IS_CLOSED, UNLOCK));
+    }
+
+    @Test
+    public void buttonPressAwaitsAnswer() {
+        DoorStateMachine machine = new DoorStateMachine();
+        assertTrue(machine.onStateReported(DOOR_IS_OPEN));
+
+        assertEquals(CLOSE, machine.onButton(BUTTON_HOLD));
+        assertEquals(AWAITING, machine.getState());
+        // Every button is disabled until the door answers
+        assertEquals(NULL_OP, machine.onButton(BUTTON_HOLD));
+
+        // An answer repeating the previous state still ends the wait
+        assertTrue(machine.onStateReported(DOOR_IS_OPEN));
+        assertEquals(DOOR_IS_OPEN, machine.getState());
+    }
+
+    @Test
+    public void disabledButtonSendsNothing() {
+        DoorStateMachine machine = new DoorStateMachine();
+        machine.onStateReported(DOOR_IS_LOCKED);
+
+        assertEquals(NULL_OP, machine.onButton(BUTTON_DOOR));
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+    }
+
+    @Test
+    public void ignoresUnknownStates() {
+        DoorStateMachine machine = new DoorStateMachine();
+        machine.onStateReported(DOOR_IS_CLOSED);
+
+        assertFalse(machine.onStateReported(DOOR_IS_CLOSED));
+        assertFalse(machine.onStateReported(DoorStateConflator.NO_STATE));
+        assertFalse(machine.onStateReported(AWAITING));
+        assertFalse(machine.onStateReported(42));
+        assertFalse(machine.onStateReported(-1));
+        assertEquals(DOOR_IS_CLOSED, machine.getState());
+
+        machine.reset();
+        assertEquals(DoorStateConflator.NO_STATE, machine.getState());
+    }
+
+    @Test
+    public void optimisticPressPredictsState() {
+        DoorStateMachine machine = new DoorStateMachine(true);
+        machine.onStateReported(DOOR_IS_CLOSED);
+
+        assertEquals(LOCK, machine.onButton(BUTTON_LOCK));
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+        assertTrue(machine.isPending());
+        // Labelled as predicted, but nothing may be pressed until reconciled
+        assertFalse(machine.isButtonEnabled(BUTTON_LOCK));
+        assertEquals(NULL_OP, machine.onButton(BUTTON_LOCK));
+
+        // A report sent before the door carried out the command is ignored
+        assertEquals(UNCHANGED, machine.reconcile(DOOR_IS_CLOSED));
+        assertTrue(machine.isPending());
+
+        assertEquals(CONFIRMED, machine.reconcile(DOOR_IS_LOCKED));
+        assertFalse(machine.isPending());
+        assertTrue(machine.isButtonEnabled(BUTTON_LOCK));
+    }
+
+    @Test
+    public void optimisticAnswerSettlesPrediction() {
+        DoorStateMachine machine = new DoorStateMachine(true);
+        machine.onStateReported(DOOR_IS_CLOSED);
+
+        machine.onButton(BUTTON_HOLD);
+        machine.onSent(new PendingCommand(HOLD_OPEN, 7));
+        assertEquals(CONFIRMED, machine.onAnswer(7, true, DOOR_IS_OPEN));
+        assertEquals(DOOR_IS_OPEN, machine.getState());
+
+        // Refused, such as when the door was locked out at the keypad meanwhile
+        machine.onButton(BUTTON_HOLD);
+        machine.onSent(new PendingCommand(CLOSE, 8));
+        assertEquals(DOOR_IS_CLOSED, machine.getState());
+        assertEquals(ROLLED_BACK, machine.onAnswer(8, false, DOOR_IS_LOCKED));
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+        assertEquals(CLOSE, machine.getLastCommand());
+        assertFalse(machine.isPending());
+    }
+
+    @Test
+    public void optimisticPredictionIgnoresAnswersToOtherCommands() {
+        DoorStateMachine machine = new DoorStateMachine(true);
+        machine.onStateReported(DOOR_IS_CLOSED);
+
+        machine.onButton(BUTTON_LOCK);
+        machine.onSent(new PendingCommand(LOCK, 12));
+        // A late answer to an earlier press, and a group lockdown's refusal
+        assertEquals(UNCHANGED, machine.onAnswer(11, true, DOOR_IS_CLOSED));
+        assertEquals(UNCHANGED, machine.onAnswer(40, false, DOOR_IS_OPEN));
+        assertTrue(machine.isPending());
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+
+        assertEquals(CONFIRMED, machine.onAnswer(12, true, DOOR_IS_LOCKED));
+        // Once settled, answers are reports like any other
+        assertEquals(CHANGED, machine.onAnswer(13, true, DOOR_IS_UNLOCKED));
+    }
+
+    @Test
+    public void optimisticReportContradictingPredictionRollsBack() {
+        DoorStateMachine machine = new DoorStateMachine(true);
+        machine.onStateReported(DOOR_IS_UNLOCKED);
+
+        machine.onButton(BUTTON_DOOR);
+        assertEquals(DOOR_IS_TIMED, machine.getState());
+        assertEquals(ROLLED_BACK, machine.reconcile(DOOR_IS_LOCKED));
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+    }
+
+    @Test
+    public void optimisticTimeoutRollsBackOnlyItsPress() {
+        DoorStateMachine machine = new DoorStateMachine(true);
+        machine.onStateReported(DOOR_IS_CLOSED);
+
+        machine.onButton(BUTTON_LOCK);
+        int firstPress = machine.getPresses();
+        machine.reconcile(DOOR_IS_LOCKED);
+        machine.onButton(BUTTON_LOCK);
+
+        // The first press was confirmed, so its timeout does nothing
+        assertEquals(UNCHANGED, machine.onTimeout(firstPress));
+        assertEquals(DOOR_IS_UNLOCKED, machine.getState());
+
+        assertEquals(ROLLED_BACK, machine.onTimeout(machine.getPresses()));
+        assertEquals(DOOR_IS_LOCKED, machine.getState());
+        assertFalse(machine.isPending());
+    }
+
+    /**
+     * Checks whether each button is enabled in a state
+     *
+     * @param state state of the door
+     * @param door  whether the timed open button should be enabled
+     * @param hold  whether the hold button should be enabled
+     * @param lock  whether the lock button should be enabled
+     */
+    private static void assertButtons(int state, boolean door, boolean hold, boolean lock) {
+        assertEquals(door, DoorStateMachine.isEnabled(state, BUTTON_DOOR));
+        assertEquals(hold, DoorStateMachine.isEnabled(state, BUTTON_HOLD));
+        assertEquals(lock, DoorStateMachine.isEnabled(state, BUTTON_LOCK));
+    }
+}
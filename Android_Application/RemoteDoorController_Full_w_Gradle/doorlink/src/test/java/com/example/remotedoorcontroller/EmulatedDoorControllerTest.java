@@ -0,0 +1,113 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the emulated door controller's command queue, which
+ * follows the sketch's rules for commands that arrive together.
+ */
+public class EmulatedDoorControllerTest {
+
+    private PipedOutputStream commandOutput;
+    private PipedInputStream responseInput;
+    private EmulatedDoorController controller;
+
+    @Before
+    public void start() throws Exception {
+        commandOutput = new PipedOutputStream();
+        PipedInputStream commandInput = new PipedInputStream(commandOutput, 4096);
+        PipedOutputStream responseOutput = new PipedOutputStream();
+        responseInput = new PipedInputStream(responseOutput, 4096);
+        controller = new EmulatedDoorController(commandInput, responseOutput, 0);
+        controller.start();
+
+        // Switch to frames and read the HELLO
+        commandOutput.write(DoorProtocol.PROTOCOL_PROBE);
+        commandOutput.flush();
+        assertFrame(DoorProtocol.NO_SEQUENCE, DoorProtocol.OP_HELLO, DoorProtocol.PING_VERSION);
+    }
+
+    @After
+    public void stop() throws Exception {
+        controller.stop();
+        commandOutput.close();
+    }
+
+    @Test
+    public void refusesSupersededCommand() throws Exception {
+        // Hold then close in one burst: the door is never held open
+        sendFrames(1, DoorProtocol.HOLD_OPEN, 2, DoorProtocol.CLOSE);
+
+        assertFrame(1, DoorProtocol.OP_NACK, DoorProtocol.DOOR_IS_CLOSED);
+        assertFrame(2, DoorProtocol.OP_ACK, DoorProtocol.DOOR_IS_CLOSED);
+    }
+
+    @Test
+    public void keepsOrderOfUnrelatedCommands() throws Exception {
+        // The lock is refused because the hold before it is carried out first
+        sendFrames(1, DoorProtocol.HOLD_OPEN, 2, DoorProtocol.LOCK);
+
+        assertFrame(1, DoorProtocol.OP_ACK, DoorProtocol.DOOR_IS_OPEN);
+        assertFrame(2, DoorProtocol.OP_NACK, DoorProtocol.DOOR_IS_OPEN);
+        assertEquals(DoorProtocol.DOOR_IS_OPEN, controller.getControllerState());
+    }
+
+    @Test
+    public void refusesUnlockWhileDoorIsOpen() throws Exception {
+        // Lockout is already off, so unlocking must not hide the open door
+        sendFrames(1, DoorProtocol.TIMED_OPEN, 2, DoorProtocol.UNLOCK);
+
+        assertFrame(1, DoorProtocol.OP_ACK, DoorProtocol.DOOR_IS_TIMED);
+        assertFrame(2, DoorProtocol.OP_NACK, DoorProtocol.DOOR_IS_TIMED);
+
+        sendFrames(3, DoorProtocol.HOLD_OPEN, 4, DoorProtocol.UNLOCK);
+
+        assertFrame(3, DoorProtocol.OP_ACK, DoorProtocol.DOOR_IS_OPEN);
+        assertFrame(4, DoorProtocol.OP_NACK, DoorProtocol.DOOR_IS_OPEN);
+        assertEquals(DoorProtocol.DOOR_IS_OPEN, controller.getControllerState());
+    }
+
+    /**
+     * Writes two framed commands in a single write, so they arrive together
+     *
+     * @param firstSequence  sequence id of the first command
+     * @param first          first bit command
+     * @param secondSequence sequence id of the second command
+     * @param second         second bit command
+     * @throws Exception if the commands could not be written
+     */
+    private void sendFrames(int firstSequence, int first, int secondSequence, int second) throws Exception {
+        byte[] burst = new byte[2 * DoorProtocol.FRAME_LENGTH];
+        int length = DoorProtocol.encode(burst, 0, firstSequence, first, 0);
+        DoorProtocol.encode(burst, length, secondSequence, second, 0);
+        commandOutput.write(burst);
+        commandOutput.flush();
+    }
+
+    /**
+     * Reads the next frame sent by the controller and checks its contents
+     *
+     * @param sequence expected sequence id
+     * @param opcode   expected opcode
+     * @param payload  expected payload
+     * @throws Exception if the frame could not be read
+     */
+    private void assertFrame(int sequence, int opcode, int payload) throws Exception {
+        byte[] frame = new byte[DoorProtocol.FRAME_LENGTH];
+        int read = 0;
+        while (read < frame.length) {
+            read += responseInput.read(frame, read, frame.length - read);
+        }
+        assertEquals(DoorProtocol.FRAME_START, frame[0] & 0xFF);
+        assertEquals(sequence, frame[1] & 0xFF);
+        assertEquals(opcode, frame[2] & 0xFF);
+        assertEquals(payload, frame[3] & 0xFF);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Link to one emulated door controller that records its first loss, for tests
+ * of declaring links stale. Reconnects slowly enough that a lost link is still
+ * reconnecting when checked.
+ */
+class EmulatedLink extends QuietListener {
+
+    // Every transport made, the first being the one connected to
+    final List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+    // Counted down once the link is lost
+    final CountDownLatch linkLost = new CountDownLatch(1);
+    // Cause the link was lost with
+    volatile IOException lostCause;
+    // Manager holding the link, once connected
+    DoorConnectionManager manager;
+
+    @Override
+    public void onLinkLost(DoorSession session, IOException cause) {
+        lostCause = cause;
+        linkLost.countDown();
+    }
+
+    /**
+     * Connects to an emulated controller
+     *
+     * @param protocolVersion protocol version of the emulated firmware
+     * @param heartbeatMillis heartbeat to ask the controller for, or 0 for none
+     * @return connected session
+     * @throws Exception if the controller could not be connected to
+     */
+    DoorSession connect(int protocolVersion, long heartbeatMillis) throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(5000, 5000, 1, ReconnectPolicy.UNLIMITED, new Random(1));
+        manager = new DoorConnectionManager(1, address -> {
+            LoopbackTransport transport = new LoopbackTransport(address, 0, protocolVersion);
+            transports.add(transport);
+            return transport;
+        }, this, new LatencyRecorder(), policy);
+        manager.setHeartbeat(heartbeatMillis, 3);
+        return manager.connect("front");
+    }
+
+    /**
+     * Disconnects the link, if connected
+     *
+     * @throws Exception if it could not be closed
+     */
+    void disconnect() throws Exception {
+        if (manager != null) {
+            manager.disconnectAll();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the framed protocol decoder, including frames split across
+ * reads and legacy single byte responses mixed in with frames.
+ */
+public class FrameDecoderTest {
+
+    /**
+     * Records everything the decoder reports as readable strings
+     */
+    private static class RecordingListener implements FrameDecoder.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onFrame(int sequence, int opcode, int payload) {
+            events.add("frame " + sequence + " " + opcode + " " + payload);
+        }
+
+        @Override
+        public void onLegacyResponse(int response) {
+            events.add("legacy " + response);
+        }
+    }
+
+    @Test
+    public void decodesEncodedFrame() {
+        byte[] buffer = new byte[DoorProtocol.FRAME_LENGTH];
+        assertEquals(DoorProtocol.FRAME_LENGTH, DoorProtocol.encode(buffer, 0, 7, DoorProtocol.OP_ACK, 4));
+
+        RecordingListener listener = new RecordingListener();
+        new FrameDecoder().decode(buffer, 0, buffer.length, listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("frame 7 " + DoorProtocol.OP_ACK + " 4", listener.events.get(0));
+    }
+
+    @Test
+    public void decodesFrameSplitAcrossReads() {
+        byte[] buffer = new byte[DoorProtocol.FRAME_LENGTH];
+        DoorProtocol.encode(buffer, 0, 200, DoorProtocol.OP_STATE, 3);
+
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.decode(buffer, 0, 2, listener);
+        assertTrue(listener.events.isEmpty());
+        decoder.decode(buffer, 2, 3, listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("frame 200 " + DoorProtocol.OP_STATE + " 3", listener.events.get(0));
+    }
+
+    @Test
+    public void passesLegacyResponsesAroundFrames() {
+        byte[] buffer = new byte[2 + DoorProtocol.FRAME_LENGTH + 1];
+        buffer[0] = 3;
+        buffer[1] = 0;
+        DoorProtocol.encode(buffer, 2, 1, DoorProtocol.OP_NACK, 2);
+        buffer[buffer.length - 1] = 4;
+
+        RecordingListener listener = new RecordingListener();
+        new FrameDecoder().decode(buffer, 0, buffer.length, listener);
+
+        assertEquals(3, listener.events.size());
+        assertEquals("legacy 3", listener.events.get(0));
+        assertEquals("frame 1 " + DoorProtocol.OP_NACK + " 2", listener.events.get(1));
+        assertEquals("legacy 4", listener.events.get(2));
+    }
+
+    @Test
+    public void dropsFrameWithBadChecksum() {
+        byte[] buffer = new byte[DoorProtocol.FRAME_LENGTH];
+        DoorProtocol.encode(buffer, 0, 9, DoorProtocol.OP_ACK, 5);
+        buffer[3] = 1;
+
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.decode(buffer, 0, buffer.length, listener);
+
+        assertTrue(listener.events.isEmpty());
+        assertEquals(1, decoder.getCorruptFrames());
+    }
+
+    @Test
+    public void resyncsAfterDroppedByte() {
+        byte[] buffer = new byte[2 * DoorProtocol.FRAME_LENGTH];
+        DoorProtocol.encode(buffer, 0, 1, DoorProtocol.OP_STATE, DoorProtocol.DOOR_IS_OPEN);
+        DoorProtocol.encode(buffer, DoorProtocol.FRAME_LENGTH, 2, DoorProtocol.OP_ACK, DoorProtocol.DOOR_IS_LOCKED);
+        // The first frame loses its opcode on the way
+        System.arraycopy(buffer, 3, buffer, 2, buffer.length - 3);
+
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFramed(true);
+        decoder.decode(buffer, 0, buffer.length - 1, listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("frame 2 " + DoorProtocol.OP_ACK + " " + DoorProtocol.DOOR_IS_LOCKED, listener.events.get(0));
+        assertEquals(1, decoder.getCorruptFrames());
+        assertEquals(4, decoder.getDroppedBytes());
+    }
+
+    @Test
+    public void resyncsAfterCorruptFrame() {
+        byte[] buffer = new byte[2 * DoorProtocol.FRAME_LENGTH];
+        DoorProtocol.encode(buffer, 0, 1, DoorProtocol.OP_STATE, DoorProtocol.DOOR_IS_OPEN);
+        DoorProtocol.encode(buffer, DoorProtocol.FRAME_LENGTH, 2, DoorProtocol.OP_STATE, DoorProtocol.DOOR_IS_CLOSED);
+        buffer[3] = DoorProtocol.DOOR_IS_TIMED;
+
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFramed(true);
+        decoder.decode(buffer, 0, buffer.length, listener);
+
+        // No phantom states from the bytes of the corrupt frame
+        assertEquals(1, listener.events.size());
+        assertEquals("frame 2 " + DoorProtocol.OP_STATE + " " + DoorProtocol.DOOR_IS_CLOSED, listener.events.get(0));
+        assertEquals(1, decoder.getCorruptFrames());
+    }
+
+    @Test
+    public void dropsStrayBytesOnceFramed() {
+        byte[] buffer = new byte[2 + DoorProtocol.FRAME_LENGTH];
+        buffer[0] = DoorProtocol.DOOR_IS_OPEN;
+        buffer[1] = DoorProtocol.DOOR_IS_LOCKED;
+        DoorProtocol.encode(buffer, 2, 3, DoorProtocol.OP_HEARTBEAT, DoorProtocol.DOOR_IS_CLOSED);
+
+        RecordingListener listener = new RecordingListener();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFramed(true);
+        decoder.decode(buffer, 0, buffer.length, listener);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("frame 3 " + DoorProtocol.OP_HEARTBEAT + " " + DoorProtocol.DOOR_IS_CLOSED, listener.events.get(0));
+        assertEquals(2, decoder.getDroppedBytes());
+    }
+}
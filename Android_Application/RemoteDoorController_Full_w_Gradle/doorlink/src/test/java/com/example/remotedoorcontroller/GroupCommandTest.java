@@ -0,0 +1,166 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests sending LOCK and CLOSE to groups of emulated door controllers.
+ */
+public class GroupCommandTest {
+
+    private final static String STUCK_DOOR = "stuck";
+    private DoorConnectionManager manager;
+
+    /**
+     * Transport whose connection never completes until it is closed, like a
+     * door that is out of range
+     */
+    private static class StuckTransport implements DoorTransport {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public String getAddress() {
+            return STUCK_DOOR;
+        }
+
+        @Override
+        public void connect(ConnectTrace trace) throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Connection abandoned");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            throw new IOException("Not connected");
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Not connected");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Before
+    public void createManager() {
+        manager = new DoorConnectionManager(2, address -> STUCK_DOOR.equals(address)
+                ? new StuckTransport() : new LoopbackTransport(address, 0),
+                new QuietListener(), new LatencyRecorder());
+    }
+
+    @After
+    public void disconnectAll() throws Exception {
+        manager.disconnectAll();
+    }
+
+    private void awaitNoSessions() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (manager.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, manager.getSessionCount());
+    }
+
+    private void awaitState(DoorSession session, int state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (session.getLastKnownState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, session.getLastKnownState());
+    }
+
+    private DoorSession connectWhenFreed(String address) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (true) {
+            try {
+                return manager.connect(address);
+            } catch (DoorConnectionManager.LinkUnavailableException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void locksMoreDoorsThanLinks() throws Exception {
+        GroupCommand group = new GroupCommand(manager, DoorProtocol.LOCK,
+                Arrays.asList("front", "back", "garage", "shed", "gate"),
+                manager.getMaxLinks(), 5000, null);
+        group.start();
+
+        assertTrue(group.await(10000));
+        assertEquals(5, group.count(GroupCommand.CONFIRMED));
+        assertTrue(group.report(), group.report().startsWith("Lock 5 doors: 5 confirmed"));
+        // Every link the group opened is freed again
+        awaitNoSessions();
+    }
+
+    @Test
+    public void closesHeldOpenDoorBeforeLocking() throws Exception {
+        DoorSession front = manager.connect("front");
+        front.getConnection().awaitFramed(2000);
+        PendingCommand hold = front.write(DoorProtocol.HOLD_OPEN);
+        assertTrue(hold.awaitAnswer(2000));
+        assertEquals(DoorProtocol.DOOR_IS_OPEN, hold.getResultState());
+
+        GroupCommand group = new GroupCommand(manager, DoorProtocol.LOCK,
+                Arrays.asList("front"), 1, 5000, null);
+        group.start();
+
+        assertTrue(group.await(5000));
+        assertEquals(GroupCommand.CONFIRMED, group.getOutcome(0));
+        awaitState(front, DoorProtocol.DOOR_IS_LOCKED);
+        // A link the group did not open stays open
+        assertTrue(manager.isConnected("front"));
+    }
+
+    @Test
+    public void timesOutUnreachableDoor() throws Exception {
+        final CountDownLatch settled = new CountDownLatch(2);
+        GroupCommand group = new GroupCommand(manager, DoorProtocol.CLOSE,
+                Arrays.asList(STUCK_DOOR, "front"), 2, 300, new GroupCommand.Listener() {
+                    @Override
+                    public void onDoorSettled(GroupCommand group, String address, int outcome) {
+                        settled.countDown();
+                    }
+
+                    @Override
+                    public void onFinished(GroupCommand group) {
+                    }
+                });
+        group.start();
+
+        assertTrue(group.await(5000));
+        assertEquals(0, settled.getCount());
+        assertEquals(GroupCommand.TIMED_OUT, group.getOutcome(0));
+        assertEquals(GroupCommand.CONFIRMED, group.getOutcome(1));
+        awaitNoSessions();
+        // The abandoned attempt no longer holds a link
+        assertNotNull(connectWhenFreed("garage"));
+        assertNotNull(connectWhenFreed("shed"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesCommandsOtherThanLockAndClose() {
+        new GroupCommand(manager, DoorProtocol.UNLOCK, Arrays.asList("front"), 1, 1000, null);
+    }
+}
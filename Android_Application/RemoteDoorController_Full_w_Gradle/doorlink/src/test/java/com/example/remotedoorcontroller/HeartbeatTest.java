@@ -0,0 +1,91 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for negotiating edge-triggered reports with the emulated door
+ * controller and declaring links stale after missed heartbeats.
+ */
+public class HeartbeatTest {
+
+    private final EmulatedLink link = new EmulatedLink();
+
+    @After
+    public void disconnect() throws Exception {
+        link.disconnect();
+    }
+
+    @Test
+    public void negotiatesEdgeReportsWithHeartbeat() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.HEARTBEAT_VERSION, 100);
+        ConnectedThread connection = session.getConnection();
+        waitForEdgeReports(connection);
+
+        // Nothing changes, so only heartbeats arrive
+        Thread.sleep(400);
+        assertTrue(connection.getHeartbeats() >= 2);
+        assertTrue(session.checkLiveness(3));
+
+        // Changes are still reported straight away
+        assertTrue(session.write(DoorProtocol.LOCK).awaitAnswer(2000));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (session.getLastKnownState() != DoorProtocol.DOOR_IS_LOCKED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, session.getLastKnownState());
+    }
+
+    @Test
+    public void declaresSilentLinkStale() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.HEARTBEAT_VERSION, 100);
+        waitForEdgeReports(session.getConnection());
+
+        link.transports.get(0).getController().setMuted(true);
+
+        assertTrue(link.linkLost.await(2, TimeUnit.SECONDS));
+        assertTrue(link.lostCause.getMessage().startsWith("No heartbeat"));
+        assertEquals(1, session.getReconnectStats().getStaleLinks());
+    }
+
+    @Test
+    public void keepsContinuousReportsOfOlderFirmware() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.MIN_FRAMED_VERSION, 100);
+        ConnectedThread connection = session.getConnection();
+        assertTrue(connection.awaitFramed(2000));
+        Thread.sleep(200);
+
+        assertFalse(connection.isEdgeTriggered());
+        // Without heartbeats the link is never declared stale
+        link.transports.get(0).getController().setMuted(true);
+        Thread.sleep(400);
+        assertEquals(0, link.manager.checkHeartbeats());
+        assertEquals(1, link.linkLost.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHeartbeatThatDoesNotFitFrame() {
+        DoorConnectionManager manager = new DoorConnectionManager(1,
+                address -> new LoopbackTransport(address, 0), null, new LatencyRecorder());
+        manager.setHeartbeat(DoorConnectionManager.MAX_HEARTBEAT_MILLIS + 1, 3);
+    }
+
+    /**
+     * Waits for the controller to agree on edge-triggered reports
+     *
+     * @param connection link to the controller
+     * @throws Exception if it does not agree in time
+     */
+    private static void waitForEdgeReports(ConnectedThread connection) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!connection.isEdgeTriggered() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("controller did not agree on edge-triggered reports", connection.isEdgeTriggered());
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the link-level metrics of door controllers.
+ */
+public class LinkMetricsTest {
+
+    private final static String LOBBY = "98:D3:31:F5:2B:1C";
+
+    private static DoorConnectionManager.Listener statePostedListener(final CountDownLatch statePosted) {
+        return new QuietListener() {
+            @Override
+            public void onStateAvailable(DoorSession session) {
+                statePosted.countDown();
+            }
+        };
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void sumsStripesOfEveryThread() throws Exception {
+        final LinkMetrics metrics = new LinkMetrics(LOBBY);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    metrics.increment(LinkMetrics.READS);
+                    metrics.add(LinkMetrics.BYTES_IN, 3);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LinkMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(800000, snapshot.get(LinkMetrics.READS));
+        assertEquals(2400000, snapshot.get(LinkMetrics.BYTES_IN));
+        assertEquals(0, snapshot.get(LinkMetrics.BYTES_OUT));
+        assertTrue(snapshot.getRatePerSecond(LinkMetrics.READS, null) > 0);
+        assertEquals(0, snapshot.getRatePerSecond(LinkMetrics.READS, snapshot), 0);
+    }
+
+    @Test
+    public void countsTrafficAndConnectAttemptsOfSession() throws Exception {
+        final AtomicInteger transports = new AtomicInteger();
+        CountDownLatch statePosted = new CountDownLatch(1);
+        DoorConnectionManager manager = new DoorConnectionManager(1, address -> {
+            // The first attempt fails, the second one connects
+            if (transports.getAndIncrement() == 0) {
+                return new LoopbackTransport(address, 0) {
+                    @Override
+                    public synchronized void connect(ConnectTrace trace) throws IOException {
+                        throw new IOException("Page timeout");
+                    }
+                };
+            }
+            return new LoopbackTransport(address, 0);
+        }, statePostedListener(statePosted), new LatencyRecorder(), new ReconnectPolicy(1, 1, 2, 0, new Random(1)));
+
+        DoorSession session = manager.connect(LOBBY);
+        assertTrue(session.getConnection().awaitFramed(2000));
+        PendingCommand lock = session.write(DoorProtocol.LOCK);
+        assertTrue(lock.awaitAnswer(2000));
+        // The answer can be read before the writer has counted the write
+        assertTrue(lock.await(2000));
+        // Answers complete while a chunk is decoded, its state is posted after
+        assertTrue(statePosted.await(2, TimeUnit.SECONDS));
+        manager.disconnectAll();
+
+        LinkMetrics.Snapshot snapshot = manager.getMetrics().forDevice(LOBBY).snapshot();
+        assertEquals(2, snapshot.get(LinkMetrics.CONNECT_ATTEMPTS));
+        assertEquals(1, snapshot.get(LinkMetrics.CONNECT_FAILURES));
+        assertEquals(0, snapshot.get(LinkMetrics.RECONNECTS));
+        assertTrue(snapshot.get(LinkMetrics.READS) > 0);
+        assertTrue(snapshot.get(LinkMetrics.BYTES_IN) >= snapshot.get(LinkMetrics.READS));
+        // The protocol probe, then the lock frame
+        assertTrue(snapshot.get(LinkMetrics.BYTES_OUT) >= 1 + DoorProtocol.FRAME_LENGTH);
+        assertTrue(snapshot.get(LinkMetrics.WRITES) >= 2);
+        assertTrue(snapshot.get(LinkMetrics.STATES_POSTED) >= 1);
+        assertSame(session.getLinkMetrics(), manager.getMetrics().forDevice(LOBBY));
+    }
+
+    @Test
+    public void exportsOneRowPerDoorUnderOneHeader() throws Exception {
+        LinkMetricsRegistry registry = new LinkMetricsRegistry();
+        registry.forDevice(LOBBY).add(LinkMetrics.BYTES_IN, 42);
+        registry.forDevice("98:D3:31:F5:2B:1D").increment(LinkMetrics.RECONNECTS);
+        File file = File.createTempFile("link_metrics", ".csv");
+        file.delete();
+        try {
+            assertEquals(2, registry.exportTo(file, "Pixel, 7"));
+            assertEquals(2, registry.exportTo(file, "Pixel, 7"));
+
+            List<String> lines = readLines(file);
+            assertEquals(5, lines.size());
+            assertTrue(lines.get(0).startsWith("taken_at_ms,phone,device,uptime_s,bytes_in,"));
+            int columns = lines.get(0).split(",").length;
+            for (String line : lines) {
+                assertEquals(columns, line.split(",").length);
+            }
+            String[] lobby = lines.get(1).split(",");
+            assertEquals("Pixel  7", lobby[1]);
+            assertEquals(LOBBY, lobby[2]);
+            assertEquals("42", lobby[4 + LinkMetrics.BYTES_IN]);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.remotedoorcontroller;
+
+import java.io.IOException;
+
+/**
+ * Listener of a DoorConnectionManager that ignores every event, for tests to
+ * extend with only the events they check.
+ */
+class QuietListener implements DoorConnectionManager.Listener {
+
+    @Override
+    public void onConnected(DoorSession session) {
+    }
+
+    @Override
+    public void onConnectFailed(String address, IOException cause) {
+    }
+
+    @Override
+    public void onConnectTraced(DoorSession session, ConnectTrace trace) {
+    }
+
+    @Override
+    public void onStateAvailable(DoorSession session) {
+    }
+
+    @Override
+    public void onCommandAnswered(DoorSession session, int sequence, boolean accepted, int state) {
+    }
+
+    @Override
+    public void onLinkLost(DoorSession session, IOException cause) {
+    }
+
+    @Override
+    public void onReconnected(DoorSession session) {
+    }
+
+    @Override
+    public void onDisconnected(DoorSession session, IOException cause) {
+    }
+}
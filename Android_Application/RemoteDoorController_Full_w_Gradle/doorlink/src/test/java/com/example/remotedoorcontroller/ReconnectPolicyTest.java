@@ -0,0 +1,42 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the delays between connection attempts.
+ */
+public class ReconnectPolicyTest {
+
+    private final ReconnectPolicy policy = new ReconnectPolicy(100, 1000, 3, 5, new Random(42));
+
+    @Test
+    public void delaysDoubleWithinJitter() {
+        for (int attempt = 0; attempt < 4; attempt++) {
+            long nominal = 100L << attempt;
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.delayMillis(attempt);
+                assertTrue("attempt " + attempt + " waited " + delay,
+                        delay >= nominal / 2 && delay <= nominal);
+            }
+        }
+    }
+
+    @Test
+    public void delaysAreCapped() {
+        for (int attempt = 4; attempt < 100; attempt++) {
+            long delay = policy.delayMillis(attempt);
+            assertTrue("attempt " + attempt + " waited " + delay, delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        assertTrue(policy.mayRetry(4));
+        assertFalse(policy.mayRetry(5));
+        assertTrue(new ReconnectPolicy().mayRetry(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for estimating the round-trip time of door controllers with
+ * pings, and the command timeouts and stale links derived from it.
+ */
+public class RttEstimatorTest {
+
+    private final EmulatedLink link = new EmulatedLink();
+
+    @After
+    public void disconnect() throws Exception {
+        link.disconnect();
+    }
+
+    @Test
+    public void smoothsSamplesLikeTcp() {
+        RttEstimator rtt = new RttEstimator();
+        assertEquals(RttEstimator.INITIAL_TIMEOUT_MILLIS, rtt.getTimeoutMillis());
+
+        // First sample: SRTT = R, RTTVAR = R / 2
+        rtt.sample(100000);
+        assertEquals(100000, rtt.getSrttMicros());
+        assertEquals(50000, rtt.getRttvarMicros());
+        assertEquals(300, rtt.getTimeoutMillis());
+
+        // RTTVAR = 3/4 * 50000 + 1/4 * |100000 - 180000|, SRTT = 7/8 * 100000 + 1/8 * 180000
+        rtt.sample(180000);
+        assertEquals(57500, rtt.getRttvarMicros());
+        assertEquals(110000, rtt.getSrttMicros());
+        assertEquals(340, rtt.getTimeoutMillis());
+        assertEquals(2, rtt.getSampleCount());
+
+        // A steady fast link is held to the shortest timeout
+        for (int i = 0; i < 100; i++) {
+            rtt.sample(20000);
+        }
+        assertEquals(RttEstimator.MIN_TIMEOUT_MILLIS, rtt.getTimeoutMillis());
+    }
+
+    @Test
+    public void doublesTimeoutForLostPingsUntilNextSample() {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(1000000);
+        assertEquals(3000, rtt.getTimeoutMillis());
+
+        rtt.backOff();
+        assertEquals(6000, rtt.getTimeoutMillis());
+        rtt.backOff();
+        rtt.backOff();
+        assertEquals(RttEstimator.MAX_TIMEOUT_MILLIS, rtt.getTimeoutMillis());
+        assertEquals(2, rtt.getBackoffs());
+
+        rtt.sample(1000000);
+        assertEquals(0, rtt.getBackoffs());
+        assertTrue(rtt.getTimeoutMillis() < 6000);
+    }
+
+    @Test
+    public void measuresRoundTripWithPings() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.PING_VERSION, 0);
+        awaitSamples(session.getRtt(), 1);
+
+        assertEquals(DoorProtocol.PING_VERSION, session.getConnection().getPeerVersion());
+        assertTrue(session.getRtt().getSrttMicros() > 0);
+        assertTrue(session.getCommandTimeoutMillis() < RttEstimator.INITIAL_TIMEOUT_MILLIS);
+        assertEquals(session.getCommandTimeoutMillis(), link.manager.getCommandTimeoutMillis("front"));
+        assertTrue(link.manager.rttReport().contains("front"));
+    }
+
+    @Test
+    public void keepsInitialTimeoutForFirmwareWithoutPings() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.HEARTBEAT_VERSION, 0);
+        assertTrue(session.getConnection().awaitFramed(2000));
+        assertTrue(session.checkLiveness(3));
+        Thread.sleep(100);
+
+        assertEquals(0, session.getRtt().getSampleCount());
+        assertEquals(RttEstimator.INITIAL_TIMEOUT_MILLIS, session.getCommandTimeoutMillis());
+    }
+
+    @Test
+    public void declaresLinkStaleAfterUnansweredPings() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.PING_VERSION, 0);
+        awaitSamples(session.getRtt(), 1);
+
+        link.transports.get(0).getController().setMuted(true);
+        // Without edge-triggered reports, only the pings can tell the link is dead
+        long deadline = System.currentTimeMillis() + 5000;
+        while (link.linkLost.getCount() > 0 && System.currentTimeMillis() < deadline) {
+            session.checkLiveness(2);
+            Thread.sleep(50);
+        }
+
+        assertTrue(link.linkLost.await(1, TimeUnit.SECONDS));
+        assertTrue(link.lostCause.getMessage().startsWith("No answer"));
+        assertEquals(1, session.getReconnectStats().getStaleLinks());
+    }
+
+    @Test
+    public void sendsCommandAgainOnceItsAnswerIsLate() throws Exception {
+        DoorSession session = link.connect(DoorProtocol.PING_VERSION, 0);
+        awaitSamples(session.getRtt(), 1);
+
+        // The lock is carried out, but its answer never reaches the app
+        final EmulatedDoorController controller = link.transports.get(0).getController();
+        controller.setMuted(true);
+        new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException ignored) {
+                // Unmuted straight away
+            }
+            controller.setMuted(false);
+        }).start();
+
+        long start = System.nanoTime();
+        PendingCommand pending = session.writeAndAwait(DoorProtocol.LOCK,
+                start + TimeUnit.SECONDS.toNanos(5));
+        long tookMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(pending.isAccepted());
+        assertEquals(DoorProtocol.DOOR_IS_LOCKED, pending.getResultState());
+        // Far sooner than waiting out the deadline for the first copy
+        assertTrue("took " + tookMillis + " ms", tookMillis < 3000);
+    }
+
+    /**
+     * Waits for a number of round trips to have been measured
+     *
+     * @param rtt     round-trip time estimate of the link
+     * @param samples number of samples to wait for
+     * @throws Exception if they are not measured in time
+     */
+    private static void awaitSamples(RttEstimator rtt, int samples) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (rtt.getSampleCount() < samples && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("no round trip measured", rtt.getSampleCount() >= samples);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests sending the commands of due rules to emulated door controllers.
+ */
+public class ScheduledCommandSenderTest {
+
+    private final static String LOBBY = "lobby";
+    private final AtomicInteger transports = new AtomicInteger();
+    private DoorConnectionManager manager;
+
+    @Before
+    public void createManager() {
+        manager = new DoorConnectionManager(2, address -> {
+            transports.incrementAndGet();
+            return new LoopbackTransport(address, 0);
+        }, new QuietListener(), new LatencyRecorder());
+    }
+
+    @After
+    public void disconnectAll() throws Exception {
+        manager.disconnectAll();
+    }
+
+    private static ScheduledAction rule(int id, byte command) {
+        return ScheduledAction.once(id, LOBBY, command, 0);
+    }
+
+    @Test
+    public void sendsRulesDueTogetherOverOneLink() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(4);
+        final List<Integer> outcomes = Collections.synchronizedList(new ArrayList<>());
+        ScheduledCommandSender sender = new ScheduledCommandSender(manager, 5000, (action, outcome) -> {
+            outcomes.add(outcome);
+            sent.countDown();
+        });
+
+        sender.send(LOBBY, Arrays.asList(rule(1, DoorProtocol.HOLD_OPEN), rule(2, DoorProtocol.LOCK)));
+        // Due while the first rules are still connecting, so joins their link
+        sender.send(LOBBY, Arrays.asList(rule(3, DoorProtocol.CLOSE), rule(4, DoorProtocol.LOCK)));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        // A held open door refuses lockout
+        assertEquals(Arrays.asList(GroupCommand.CONFIRMED, GroupCommand.REFUSED,
+                GroupCommand.CONFIRMED, GroupCommand.CONFIRMED), outcomes);
+        assertEquals(1, transports.get());
+
+        // The link the sender opened is closed again once it is idle
+        assertTrue(sender.awaitIdle(2000));
+        assertEquals(0, manager.getSessionCount());
+        sender.shutdown();
+    }
+
+    @Test
+    public void sendsLaterRulesAfterListenerThrows() throws Exception {
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(1);
+        ScheduledCommandSender sender = new ScheduledCommandSender(manager, 5000, (action, outcome) -> {
+            if (action.getId() == 1) {
+                first.countDown();
+                throw new IllegalStateException("Listener failed");
+            }
+            second.countDown();
+        });
+
+        sender.send(LOBBY, Collections.singletonList(rule(1, DoorProtocol.LOCK)));
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        // The door is not left as being worked on by the thread that failed
+        sender.send(LOBBY, Collections.singletonList(rule(2, DoorProtocol.UNLOCK)));
+
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        sender.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.remotedoorcontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the hierarchical timer wheel.
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void expiresEachTimerAtItsTick() {
+        // Deadlines on every wheel, across wraps of the finer ones
+        long[] deadlines = {1, 63, 64, 65, 4095, 4096, 4097, 300000, 262144 * 3 + 5};
+        TimerWheel<Long> wheel = new TimerWheel<>(0);
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+        List<Long> expired = new ArrayList<>();
+        for (long tick = 1; tick <= deadlines[deadlines.length - 1]; tick++) {
+            wheel.advance(tick, expired);
+            for (Long deadline : expired) {
+                assertEquals(tick, (long) deadline);
+            }
+            expired.clear();
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiresInDeadlineOrderWhenAdvancedFar() {
+        Random random = new Random(22);
+        TimerWheel<Long> wheel = new TimerWheel<>(1000);
+        long[] deadlines = new long[2000];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = 1001 + random.nextInt(2000000);
+            wheel.schedule(deadlines[i], deadlines[i]);
+        }
+        List<Long> expired = new ArrayList<>();
+        wheel.advance(3000000, expired);
+
+        Arrays.sort(deadlines);
+        assertEquals(deadlines.length, expired.size());
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(deadlines[i], (long) expired.get(i));
+        }
+    }
+
+    @Test
+    public void parksTimersBeyondTheWheels() {
+        TimerWheel<String> wheel = new TimerWheel<>(0);
+        long farAway = 1L << 26;
+        wheel.schedule(farAway, "far");
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(farAway - 1, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(farAway, expired);
+        assertEquals(Arrays.asList("far"), expired);
+    }
+
+    @Test
+    public void firesPassedDeadlinesOnNextTick() {
+        TimerWheel<String> wheel = new TimerWheel<>(100);
+        wheel.schedule(50, "late");
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(101, expired);
+        assertEquals(Arrays.asList("late"), expired);
+    }
+
+    @Test
+    public void cancelledTimersNeverExpire() {
+        TimerWheel<String> wheel = new TimerWheel<>(0);
+        TimerWheel.Timer<String> cancelled = wheel.schedule(5000, "cancelled");
+        wheel.schedule(5000, "kept");
+
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        List<String> expired = new ArrayList<>();
+        wheel.advance(6000, expired);
+        assertEquals(Arrays.asList("kept"), expired);
+        assertEquals(0, wheel.size());
+    }
+}
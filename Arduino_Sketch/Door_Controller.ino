@@ -50,7 +50,71 @@ const byte DOOR_IS_CLOSED = 0b0011;
 const byte DOOR_IS_LOCKED = 0b0100;
 const byte DOOR_IS_UNLOCKED = 0b0101;
 
-byte rcvd_command; // Actuation command received from connected Bluetooth device/application
+// Framed Protocol----------------------------------------------------------------------------------
+/* Frames are a fixed five bytes: START | SEQUENCE | OPCODE | PAYLOAD | CHECKSUM
+   Framed commands use the bit commands above as their opcode and are answered with an
+   ACK or NACK carrying the same sequence id, so the app can match answers to commands.
+   The app sends PROTOCOL_PROBE (ignored by older firmware) after connecting; answering
+   it with HELLO switches the controller to framed output. Receiving a single byte command
+   switches it back, so apps that only speak single bytes keep working.
+   From version 2 the app may send an OP_REPORT_MODE frame asking for edge-triggered
+   reports: the state is then only sent when it changes, plus an OP_HEARTBEAT frame
+   whenever nothing else has been sent for the requested interval. Older firmware
+   refuses the request, so the app keeps reading continuous reports from it.
+   From version 3 the app pings the controller with OP_PING frames to measure the round
+   trip time its command timeouts are based on. A ping is queued like a command, so the
+   round trip includes the wait a command would have, and answered with an OP_PONG frame
+   echoing its sequence id and payload. */
+const byte FRAME_START = 0x7E; // First byte of every frame
+const byte FRAME_LENGTH = 5; // Number of bytes in every frame
+const byte PROTOCOL_VERSION = 3; // Version of the framed protocol implemented by this sketch
+const byte PROTOCOL_PROBE = 0b1000; // Single byte sent by the app to ask for frames
+const byte NO_SEQUENCE = 0; // Sequence id of frames that do not answer a command
+
+// Frame opcodes sent by the controller
+const byte OP_STATE = 0x20; // Unsolicited state report, payload is the state
+const byte OP_ACK = 0x21; // Command carried out, payload is the resulting state
+const byte OP_NACK = 0x22; // Command refused, payload is the unchanged state
+const byte OP_HELLO = 0x23; // Frames supported, payload is the protocol version
+const byte OP_HEARTBEAT = 0x24; // State unchanged, payload is the state
+const byte OP_PONG = 0x25; // Ping answered, payload is the ping's payload
+
+// Frame opcodes sent by the app, answered like a command
+const byte OP_REPORT_MODE = 0x30; // Payload is the heartbeat interval, 0 for continuous reports
+const byte OP_PING = 0x31; // Payload is echoed back in an OP_PONG
+const int HEARTBEAT_UNIT = 100; // Milliseconds per unit of the heartbeat interval
+
+boolean framedMode; // Whether the connected app has asked for frames
+byte frameBuffer[FRAME_LENGTH]; // Bytes of the frame currently being received
+byte framePosition; // Number of bytes of the current frame received so far
+
+boolean edgeReports; // Whether the app has asked for edge-triggered reports
+unsigned long heartbeatInterval; // Longest time without sending anything in edge-triggered mode
+unsigned long lastSendTime; // Time (millis) the last frame was sent to the app
+byte reportedState; // Last state reported to the app in edge-triggered mode
+
+// Command Queue------------------------------------------------------------------------------------
+/* Commands received from the app wait in a ring buffer and are carried out in the order
+   they arrived. Everything available in Serial1 is read on every pass, but at most
+   MAX_COMMANDS_PER_PASS commands are carried out per pass so ArduinoCloud.update() keeps
+   running during a burst. A queued command that the next one supersedes (such as a hold
+   followed by a close) is dropped instead of actuating the door for nothing; a dropped
+   framed command is answered with a NACK, since it was never carried out. */
+const byte COMMAND_QUEUE_SIZE = 16; // Number of queued commands (a power of two)
+const byte COMMAND_QUEUE_MASK = COMMAND_QUEUE_SIZE - 1; // Wraps a queue position around
+const byte MAX_COMMANDS_PER_PASS = 4; // Work budget of carried out commands per loop() pass
+
+// Groups of commands that supersede each other
+const byte NO_GROUP = 0; // Never superseded
+const byte DOOR_GROUP = 1; // TIMED_OPEN, HOLD_OPEN, and CLOSE
+const byte LOCKOUT_GROUP = 2; // LOCK and UNLOCK
+const byte REPORT_GROUP = 3; // OP_REPORT_MODE
+
+byte queuedCommand[COMMAND_QUEUE_SIZE]; // Command (or opcode) of each queued command
+byte queuedSequence[COMMAND_QUEUE_SIZE]; // Sequence id of each (NO_SEQUENCE if sent as a single byte)
+byte queuedPayload[COMMAND_QUEUE_SIZE]; // Frame payload of each (only used by OP_REPORT_MODE and OP_PING)
+byte queueHead; // Position of the oldest queued command
+byte queueCount; // Number of queued commands
 byte controller_state; // Current state, represented as a bit sequence, of door controller
 // i.e. is door open, closed, locked, etc.
 
@@ -71,6 +135,18 @@ boolean isInit;
 const int OPENTIMER = 10000; // Determines how long door remains open after open request is sent
 const long CONNECTIONCHECKTIMER = 5000; // Determines how long to wait between each connections check
 
+// Cooperative Timers-------------------------------------------------------------------------------
+/* Work that has to happen later is given a deadline in a timer slot instead of waiting
+   in delay(), so loop() keeps servicing the cloud and the serial link in the meantime.
+   runTimers() is called on every pass of loop() and calls back each timer that is due. */
+const byte TIMER_CLOSE_DOOR = 0; // Closes the door at the end of a timed open
+const byte TIMER_COUNT = 1; // Number of timer slots
+
+boolean timerActive[TIMER_COUNT]; // Whether each timer is waiting to fire
+unsigned long timerStart[TIMER_COUNT]; // Time (millis) each timer was started
+unsigned long timerDuration[TIMER_COUNT]; // Time each timer waits before firing
+void (*timerCallback[TIMER_COUNT])(); // Function called when each timer fires
+
 void setup()
 {
   // Initialize serial and wait for port to open:
@@ -122,10 +198,27 @@ void setup()
   // Initialize serial with HC-05
   Serial1.begin(9600);
 
-  // Initialize command/state to null state
-  rcvd_command = 0;
+  // Initialize command queue/state to null state
+  queueHead = 0;
+  queueCount = 0;
   controller_state = DOOR_IS_CLOSED;
 
+  // Start in single byte mode until the app asks for frames
+  framedMode = false;
+  framePosition = 0;
+
+  // Report continuously until the app asks for edge-triggered reports
+  edgeReports = false;
+  heartbeatInterval = 0;
+
+  // No timer is waiting to fire
+  for (byte timer = 0; timer < TIMER_COUNT; timer++)
+  {
+    timerActive[timer] = false;
+  }
+  lastSendTime = 0;
+  reportedState = NULL_OP;
+
   // Show that initialization has finished
   isInit = false;
 }
@@ -135,62 +228,249 @@ void loop()
   // Update IoT Cloud variables, as designated in thingProperties.h
   ArduinoCloud.update();
 
-  // If a command has been received, read it in and process it
-  if (Serial1.available() > 0)
+  // Carry out any timed work that is due (such as closing a timed open door)
+  runTimers();
+
+  // Read in every received byte, as long as the queue has room for the commands
+  while (Serial1.available() > 0 && queueCount < COMMAND_QUEUE_SIZE)
   {
-    rcvd_command = Serial1.read();
+    receiveByte(Serial1.read());
+  }
 
-    // Process current received command
-    if (rcvd_command == TIMED_OPEN)
-    {
-      // Open door for set amount of time
-      doorControl = true;
-      onDoorControlChange();
+  // Carry out queued commands in order, within this pass's budget
+  executeQueuedCommands();
+
+  // Sync local variables with IoT Cloud variables when connected to the Cloud
+  localDoorControl = doorControl;
+  localHoldControl = holdControl;
+  localLockoutControl = lockoutControl;
+
+  // Update app with state of the controller
+  reportState();
+}
 
-      // Set current command back to null
-      rcvd_command = NULL_OP;
+/* Collects a byte received from the app. Single byte commands are queued straight away,
+   framed commands once the whole frame has arrived with a valid checksum. Each byte
+   queues at most one command. */
+void receiveByte(byte rcvd_byte)
+{
+  // Outside of a frame
+  if (framePosition == 0)
+  {
+    if (rcvd_byte == FRAME_START)
+    {
+      frameBuffer[framePosition++] = rcvd_byte;
     }
-    else if (rcvd_command == HOLD_OPEN)
+    else if (rcvd_byte == PROTOCOL_PROBE)
     {
-      // Hold door open
-      holdControl = true;
-      onHoldControlChange();
-
-      rcvd_command = NULL_OP;
+      // App supports frames, answer with the protocol version and switch to frames
+      framedMode = true;
+      // A newly connected app negotiates its own report mode
+      edgeReports = false;
+      sendFrame(NO_SEQUENCE, OP_HELLO, PROTOCOL_VERSION);
     }
-    else if (rcvd_command == CLOSE)
+    else if (rcvd_byte != NULL_OP)
     {
-      // Close door
-      holdControl = false;
-      onHoldControlChange();
+      // App is sending single byte commands, answer it the same way
+      framedMode = false;
+      edgeReports = false;
+      queueCommand(NO_SEQUENCE, rcvd_byte, 0);
+    }
+    return;
+  }
 
-      rcvd_command = NULL_OP;
+  // Inside of a frame
+  frameBuffer[framePosition++] = rcvd_byte;
+  if (framePosition == FRAME_LENGTH)
+  {
+    framePosition = 0;
+
+    // Drop frames that were corrupted on the way
+    if (frameChecksum(frameBuffer[1], frameBuffer[2], frameBuffer[3]) == frameBuffer[4])
+    {
+      queueCommand(frameBuffer[1], frameBuffer[2], frameBuffer[3]);
     }
-    else if (rcvd_command == LOCK)
+  }
+}
+
+/* Adds a received command to the end of the queue, replacing the last queued command
+   if the new one supersedes it. The caller makes sure the queue has room. */
+void queueCommand(byte sequence, byte command, byte payload)
+{
+  if (queueCount > 0)
+  {
+    byte last = (queueHead + queueCount - 1) & COMMAND_QUEUE_MASK;
+    byte group = commandGroup(command);
+    if (group != NO_GROUP && commandGroup(queuedCommand[last]) == group)
     {
-      // Lock door
-      lockoutControl = true;
-      onLockoutControlChange();
+      // Superseded before it was carried out, so it is refused
+      if (queuedSequence[last] != NO_SEQUENCE)
+      {
+        sendFrame(queuedSequence[last], OP_NACK, controller_state);
+      }
+      queuedCommand[last] = command;
+      queuedSequence[last] = sequence;
+      queuedPayload[last] = payload;
+      return;
+    }
+  }
 
-      rcvd_command = NULL_OP;
+  byte slot = (queueHead + queueCount) & COMMAND_QUEUE_MASK;
+  queuedCommand[slot] = command;
+  queuedSequence[slot] = sequence;
+  queuedPayload[slot] = payload;
+  queueCount++;
+}
+
+/* Gives the group of commands that supersede each other that a command belongs to */
+byte commandGroup(byte command)
+{
+  if (command == TIMED_OPEN || command == HOLD_OPEN || command == CLOSE)
+  {
+    return DOOR_GROUP;
+  }
+  if (command == LOCK || command == UNLOCK)
+  {
+    return LOCKOUT_GROUP;
+  }
+  if (command == OP_REPORT_MODE)
+  {
+    return REPORT_GROUP;
+  }
+  return NO_GROUP;
+}
+
+/* Carries out queued commands, oldest first, until the queue is empty or this pass's
+   budget is used up. Whatever is left is carried out on the next pass. */
+void executeQueuedCommands()
+{
+  for (byte executed = 0; executed < MAX_COMMANDS_PER_PASS && queueCount > 0; executed++)
+  {
+    byte slot = queueHead;
+    queueHead = (queueHead + 1) & COMMAND_QUEUE_MASK;
+    queueCount--;
+
+    if (queuedSequence[slot] == NO_SEQUENCE)
+    {
+      executeCommand(queuedCommand[slot]);
     }
-    else if (rcvd_command == UNLOCK)
+    else
     {
-      // Unlock door
-      lockoutControl = false;
-      onLockoutControlChange();
-
-      rcvd_command = NULL_OP;
+      executeFramedCommand(queuedSequence[slot], queuedCommand[slot], queuedPayload[slot]);
     }
   }
+}
 
-  // Sync local variables with IoT Cloud variables when connected to the Cloud
-  localDoorControl = doorControl;
-  localHoldControl = holdControl;
-  localLockoutControl = lockoutControl;
+/* Carries out a single bit command. Commands the controller does not know are ignored. */
+void executeCommand(byte command)
+{
+  // Process current received command
+  if (command == TIMED_OPEN)
+  {
+    // Open door for set amount of time
+    doorControl = true;
+    onDoorControlChange();
+  }
+  else if (command == HOLD_OPEN)
+  {
+    // Hold door open
+    holdControl = true;
+    onHoldControlChange();
+  }
+  else if (command == CLOSE)
+  {
+    // Close door
+    holdControl = false;
+    onHoldControlChange();
+  }
+  else if (command == LOCK)
+  {
+    // Lock door
+    lockoutControl = true;
+    onLockoutControlChange();
+  }
+  else if (command == UNLOCK)
+  {
+    // Unlock door
+    lockoutControl = false;
+    onLockoutControlChange();
+  }
+}
+
+/* Carries out a framed command and answers it. Each command's expected state has the
+   same bit sequence as the command itself (i.e. LOCK leads to DOOR_IS_LOCKED), so the
+   command is acknowledged when the controller ends up in that state and refused
+   otherwise (such as a lock request while the door is held open). A report mode request
+   switches between continuous and edge-triggered reports, and a ping is only echoed. */
+void executeFramedCommand(byte sequence, byte command, byte payload)
+{
+  if (command == OP_PING)
+  {
+    sendFrame(sequence, OP_PONG, payload);
+    return;
+  }
+
+  if (command == OP_REPORT_MODE)
+  {
+    edgeReports = payload != 0;
+    heartbeatInterval = (unsigned long) payload * HEARTBEAT_UNIT;
+    // The answer carries the state, so only later changes need reporting
+    reportedState = controller_state;
+    sendFrame(sequence, OP_ACK, controller_state);
+    return;
+  }
+
+  executeCommand(command);
+  sendFrame(sequence, controller_state == command ? OP_ACK : OP_NACK, controller_state);
+}
+
+/* Reports the controller state to the app. Sent on every pass by default; in edge-triggered
+   mode only when it has changed, or as a heartbeat once nothing has been sent for
+   heartbeatInterval, which keeps the 9600 baud link mostly idle. */
+void reportState()
+{
+  if (edgeReports != true)
+  {
+    sendState(controller_state);
+  }
+  else if (controller_state != reportedState)
+  {
+    reportedState = controller_state;
+    sendFrame(NO_SEQUENCE, OP_STATE, controller_state);
+  }
+  else if (millis() - lastSendTime >= heartbeatInterval)
+  {
+    sendFrame(NO_SEQUENCE, OP_HEARTBEAT, controller_state);
+  }
+}
 
-  // Continuously update app with state of the controller
-  Serial1.write(controller_state);
+/* Reports a state to the app, as a frame or a single byte depending on what the app uses */
+void sendState(byte state)
+{
+  if (framedMode == true)
+  {
+    sendFrame(NO_SEQUENCE, OP_STATE, state);
+  }
+  else
+  {
+    Serial1.write(state);
+  }
+}
+
+/* Sends a single frame to the app */
+void sendFrame(byte sequence, byte opcode, byte payload)
+{
+  byte frame[FRAME_LENGTH] = {FRAME_START, sequence, opcode, payload,
+                              frameChecksum(sequence, opcode, payload)};
+  Serial1.write(frame, FRAME_LENGTH);
+  // Any frame sent restarts the heartbeat interval
+  lastSendTime = millis();
+}
+
+/* Calculates the checksum byte of a frame */
+byte frameChecksum(byte sequence, byte opcode, byte payload)
+{
+  return sequence ^ opcode ^ payload ^ 0xFF;
 }
 
 /* Actuates when MKR1000 is synchronized with the IoT Cloud, either at start
@@ -231,10 +511,50 @@ void doThisOnDisconnect()
   digitalWrite(CONNECTEDIOTPIN, LOW);
 }
 
+/* Starts a timer that calls the given function once the duration has passed.
+   Starting a timer that is already waiting restarts it. */
+void startTimer(byte timer, unsigned long duration, void (*callback)())
+{
+  timerStart[timer] = millis();
+  timerDuration[timer] = duration;
+  timerCallback[timer] = callback;
+  timerActive[timer] = true;
+}
+
+/* Stops a timer before it fires. Does nothing if the timer is not waiting. */
+void cancelTimer(byte timer)
+{
+  timerActive[timer] = false;
+}
+
+/* Calls back every timer whose duration has passed. Compares elapsed time rather
+   than deadlines, so timers keep working when millis() wraps around. */
+void runTimers()
+{
+  unsigned long now = millis();
+  for (byte timer = 0; timer < TIMER_COUNT; timer++)
+  {
+    if (timerActive[timer] == true && now - timerStart[timer] >= timerDuration[timer])
+    {
+      // Cleared first, so the callback may start the timer again
+      timerActive[timer] = false;
+      timerCallback[timer]();
+    }
+  }
+}
+
+/* Closes the door at the end of a timed open */
+void closeTimedDoor()
+{
+  doorControl = false;
+  onDoorControlChange();
+}
+
 /* Actuates door opening mechanism through designated pin when IoT Cloud variable
    is changed. When the doorControl is turned on, the door is opened. When
    it is turned off, the door is closed. This function is time sensitive and the
-   door will automatically close after a set period of time.*/
+   door will automatically close after a set period of time, which is waited for
+   by a timer so loop() keeps running while the door is open.*/
 void onDoorControlChange()
 {
   // If door lockout is turned on, do not allow door to be actuated
@@ -248,11 +568,17 @@ void onDoorControlChange()
     // If close request is received, actuate door opening mechanism to closed position
     if (doorControl == false)
     {
+      // Closed before the timer ran out (or by it), so the timer is no longer needed
+      cancelTimer(TIMER_CLOSE_DOOR);
+
       // Close door (turn off open door LED)
       openState = LOW;
 
       // Turn on closed door LED
       closeState = HIGH;
+
+      // Update controller state
+      controller_state = DOOR_IS_CLOSED;
     }
     // If open request is received, actuate door opening mechanism to open position
     else
@@ -262,8 +588,12 @@ void onDoorControlChange()
 
       // Turn off closed door LED
       closeState = LOW;
-      
-      Serial1.write(DOOR_IS_TIMED);
+
+      // Update controller state, reported to the app until the door closes again
+      controller_state = DOOR_IS_TIMED;
+
+      // Close the door after designated time delay
+      startTimer(TIMER_CLOSE_DOOR, OPENTIMER, closeTimedDoor);
     }
 
     // Set open pin to requested value to open/close door
@@ -271,19 +601,17 @@ void onDoorControlChange()
 
     // Set closed indicator pin to inform if door is closed or not
     digitalWrite(CLOSEPIN, closeState);
-
-    // If the door is open, close it after designated time delay
-    if (doorControl == true)
-    {
-      // Wait for specified time before closing door again
-      delay(OPENTIMER);
-      // Close door
-      doorControl = false;
-      onDoorControlChange();
-    }
   }
 }
 
+/* Ends a timed open early, such as when the door is held open, closed, or locked
+   while the timer is still running */
+void cancelTimedOpen()
+{
+  cancelTimer(TIMER_CLOSE_DOOR);
+  doorControl = false;
+}
+
 /* Actuates door opening mechanism through designated pin when IoT Cloud variable
    is changed. When the holdControl is turned on, the door is opened. When
    it is turned off, the door is closed. This function is NOT time sensitive
@@ -298,6 +626,9 @@ void onHoldControlChange()
   }
   else
   {
+    // Holding or closing the door takes over from a timed open
+    cancelTimedOpen();
+
     // If close request is received, actuate door opening mechanism to closed position
     if (holdControl == false)
     {
@@ -333,7 +664,9 @@ void onHoldControlChange()
 
 /* Safety function that checks to see if the door is currently open
    before allowing the door control lockout to be turn on. If door
-   is open, turn the lockout back off. */
+   is open, turn the lockout back off. Turning the lockout off while
+   the door is open leaves the state open, so an unlock is refused
+   instead of reporting an open door as closed and unlocked. */
 void onLockoutControlChange()
 {
   // If the door is currently open, do NOT allow the lockout to be turn on
@@ -350,12 +683,26 @@ void onLockoutControlChange()
     {
       lockoutControlState = LOW;
 
-      // Update controller state
-      controller_state = DOOR_IS_UNLOCKED;
+      // Update controller state, unless lockout was already off and the door is
+      // timed open, which it still is
+      if (doorControl == false)
+      {
+        controller_state = DOOR_IS_UNLOCKED;
+      }
     }
     // If lockout is turned on, turn on lockout LED
     else
     {
+      // Locking out during a timed open closes the door straight away
+      if (doorControl == true)
+      {
+        cancelTimedOpen();
+        openState = LOW;
+        closeState = HIGH;
+        digitalWrite(OPENPIN, openState);
+        digitalWrite(CLOSEPIN, closeState);
+      }
+
       lockoutControlState = HIGH;
 
       // Update controller state